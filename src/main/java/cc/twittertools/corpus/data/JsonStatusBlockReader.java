@@ -43,7 +43,7 @@ public class JsonStatusBlockReader implements StatusStream {
 
 	nxt = Status.fromJson(raw);
     }
-    return Status.fromJson(raw);
+    return nxt;
   }
 
   public void close() throws IOException {
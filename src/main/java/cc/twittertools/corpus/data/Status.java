@@ -1,5 +1,8 @@
 package cc.twittertools.corpus.data;
 
+import java.io.IOException;
+import java.io.StringReader;
+
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -8,7 +11,9 @@ import org.jsoup.nodes.Element;
 
 import com.google.common.base.Preconditions;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 
 /**
  * Object representing a status.
@@ -61,6 +66,9 @@ public class Status {
     if (jsonObject != null)
       return jsonObject;
     
+    if (jsonString != null)
+      return jsonObject = (JsonObject) parser.parse(jsonString);
+    
     jsonObject = new JsonObject();
     jsonObject.addProperty (ID, id);
     jsonObject.addProperty (USER, screenname);
@@ -80,15 +88,38 @@ public class Status {
     return screenname + " : " + text;
   }
 
+  /**
+   * Reads a status from the JSON returned by Twitter's oEmbed API. Only
+   * the fields used are picked out, by a streaming parser, so the tree of
+   * the whole object is only built if {@link #getJsonObject()} is called.
+   * Returns null if there's no embedded HTML.
+   */
   public static Status fromJson(String json) {
     Preconditions.checkNotNull(json);
 
-    JsonObject obj = (JsonObject) parser.parse(json);
-    if (obj.get("html") == null)
+    String html = null, url = null, authorUrl = null;
+    try (JsonReader reader = new JsonReader(new StringReader(json))) {
+      reader.setLenient(true); // as JsonParser is
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (name.equals("html"))
+          html = reader.nextString();
+        else if (name.equals("url"))
+          url = reader.nextString();
+        else if (name.equals("author_url"))
+          authorUrl = reader.nextString();
+        else
+          reader.skipValue();
+      }
+      reader.endObject();
+    } catch (IOException e) {
+      throw new JsonParseException("Can't parse status " + json + " : " + e.getMessage(), e);
+    }
+    if (html == null)
       return null;
 
     Status status = new Status();
-    String html = obj.get("html").getAsString();
     html = StringEscapeUtils.unescapeXml(html);
     
     // use some jsoup magic to parse html and fetch require elements
@@ -100,14 +131,13 @@ public class Status {
     Element textElement = document.select("p").first();
     status.text = textElement.text();
 
-    String idRaw = parseUrlGetLastElementInPath(obj.get("url").getAsString());
+    String idRaw = parseUrlGetLastElementInPath(url);
     status.id = Long.parseLong(idRaw);
 
-    status.screenname = parseUrlGetLastElementInPath(obj.get("author_url").getAsString());
+    status.screenname = parseUrlGetLastElementInPath(authorUrl);
 
     // TODO: We need to parse out the other fields.
 
-    status.jsonObject = obj;
     status.jsonString = json;
 
     return status;
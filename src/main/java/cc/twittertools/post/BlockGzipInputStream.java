@@ -0,0 +1,287 @@
+package cc.twittertools.post;
+
+import static cc.twittertools.post.BlockGzipOutputStream.HEADER_SIZE;
+import static cc.twittertools.post.BlockGzipOutputStream.TRAILER_SIZE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads a file written by {@link BlockGzipOutputStream}, or any other
+ * BGZF file. Blocks are read from the file in order on the calling thread,
+ * but are inflated on a shared pool of background threads, several blocks
+ * ahead of the reader, so decompression isn't limited to a single core.
+ * <p>
+ * Optionally only certain ranges of the decompressed data are read, e.g.
+ * from a {@link TweetFileIndex}. As each block's header records its
+ * compressed size, and its trailer its decompressed size, blocks which lie
+ * wholly outside those ranges are skipped without being read or inflated.
+ */
+public class BlockGzipInputStream extends InputStream
+{
+  /** How many blocks are inflated ahead of the reader by default */
+  public  final static int DEFAULT_BLOCKS_AHEAD = 2 * Runtime.getRuntime().availableProcessors();
+
+  private final static ExecutorService INFLATERS = Executors.newFixedThreadPool (
+    Runtime.getRuntime().availableProcessors(),
+    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("block-inflater-%d").build());
+
+  private final static ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue()
+    { return new Inflater (/* nowrap = */ true);
+    }
+  };
+
+  /** A block being inflated, and the part of its data to be returned */
+  private final static class Chunk
+  { final Future<byte[]> data;
+    final int            from, to;
+
+    Chunk (Future<byte[]> data, int from, int to)
+    { this.data = data;
+      this.from = from;
+      this.to   = to;
+    }
+  }
+
+  private final SeekableByteChannel channel;
+  private final long                channelSize;
+  private final long[]              ranges;
+  private final int                 blocksAhead;
+  private final Deque<Chunk>        chunks = new ArrayDeque<>();
+
+  private long   blockOffset; // in the file, of the next block to read
+  private long   dataOffset;  // in the decompressed data, of the next block to read
+  private int    range;       // the index in ranges of the current range's start
+  private byte[] buf = new byte[0];
+  private int    pos, limit;
+
+  /** Reads all of the given BGZF file */
+  public BlockGzipInputStream (SeekableByteChannel channel) throws IOException
+  { this (channel, null, DEFAULT_BLOCKS_AHEAD);
+  }
+
+  /**
+   * Reads the given ranges of the decompressed data of the given BGZF file.
+   * @param ranges pairs of start (inclusive) and end (exclusive) offsets in
+   * the decompressed data, flattened into one array in ascending order. If
+   * null, all data is read.
+   */
+  public BlockGzipInputStream (SeekableByteChannel channel, long[] ranges) throws IOException
+  { this (channel, ranges, DEFAULT_BLOCKS_AHEAD);
+  }
+
+  /**
+   * Reads the given ranges of the decompressed data of the given BGZF file,
+   * inflating at most the given number of blocks ahead of the reader.
+   */
+  public BlockGzipInputStream (SeekableByteChannel channel, long[] ranges, int blocksAhead) throws IOException
+  { this.channel     = channel;
+    this.channelSize = channel.size();
+    this.ranges      = ranges;
+    this.blocksAhead = Math.max (1, blocksAhead);
+  }
+
+  /**
+   * Does the given channel hold a BGZF file. The channel is left positioned
+   * at the start of the file.
+   */
+  public static boolean isBlockGzipped (SeekableByteChannel channel) throws IOException
+  { ByteBuffer header = ByteBuffer.allocate (HEADER_SIZE);
+    channel.position (0);
+    while (header.hasRemaining() && channel.read (header) >= 0)
+      ;
+    channel.position (0);
+    return ! header.hasRemaining() && isBlockHeader (header.array());
+  }
+
+  private static boolean isBlockHeader (byte[] h)
+  { return h[0] == 31 && (h[1] & 0xff) == 139 && h[2] == 8 && (h[3] & 4) != 0
+      && getShort (h, 10) == 6 && h[12] == 'B' && h[13] == 'C' && getShort (h, 14) == 2;
+  }
+
+  @Override
+  public int read() throws IOException
+  { while (pos == limit)
+      if (! nextChunk())
+        return -1;
+    return buf[pos++] & 0xff;
+  }
+
+  @Override
+  public int read (byte[] b, int off, int len) throws IOException
+  { if (len == 0)
+      return 0;
+    while (pos == limit)
+      if (! nextChunk())
+        return -1;
+
+    int read = Math.min (len, limit - pos);
+    System.arraycopy (buf, pos, b, off, read);
+    pos += read;
+    return read;
+  }
+
+  /**
+   * Waits for the next block to be inflated, topping up the queue of blocks
+   * being inflated. Returns false at the end of the file
+   */
+  private boolean nextChunk() throws IOException
+  { fillChunks();
+    Chunk chunk = chunks.poll();
+    if (chunk == null)
+      return false;
+    fillChunks();
+
+    try
+    { buf   = chunk.data.get();
+      pos   = chunk.from;
+      limit = chunk.to;
+      return true;
+    }
+    catch (InterruptedException e)
+    { Thread.currentThread().interrupt();
+      throw new InterruptedIOException ("Interrupted while inflating a block");
+    }
+    catch (ExecutionException e)
+    { throw e.getCause() instanceof IOException
+        ? (IOException) e.getCause()
+        : new IOException (e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  private void fillChunks() throws IOException
+  { Chunk chunk;
+    while (chunks.size() < blocksAhead && (chunk = readChunk()) != null)
+      chunks.add (chunk);
+  }
+
+  /**
+   * Finds the next block holding wanted data, reads it, and sets it to be
+   * inflated. Returns null if there are no more.
+   */
+  private Chunk readChunk() throws IOException
+  { while (blockOffset < channelSize)
+    { long rangeStart = 0, rangeEnd = Long.MAX_VALUE;
+      if (ranges != null)
+      { if (range >= ranges.length)
+          return null;
+        rangeStart = ranges[range];
+        rangeEnd   = ranges[range + 1];
+      }
+
+      byte[] header = readFully (blockOffset, HEADER_SIZE);
+      if (! isBlockHeader (header))
+        throw new IOException ("No BGZF block header at offset " + blockOffset);
+      int blockSize = getShort (header, 16) + 1;
+      if (blockSize < HEADER_SIZE + TRAILER_SIZE)
+        throw new IOException ("Impossibly small BGZF block at offset " + blockOffset);
+
+      // When reading everything, there's no point reading the trailer separately
+      byte[] block    = ranges == null ? readFully (blockOffset, blockSize) : null;
+      int    dataSize = block == null
+        ? getInt (readFully (blockOffset + blockSize - 4, 4), 0)
+        : getInt (block, blockSize - 4);
+      long   dataEnd  = dataOffset + dataSize;
+
+      if (dataOffset >= rangeEnd)
+      { range += 2;
+        continue;
+      }
+      if (dataEnd > rangeStart)
+      { int from = (int) Math.max (0, rangeStart - dataOffset);
+        int to   = (int) Math.min (dataSize, rangeEnd - dataOffset);
+        if (block == null)
+          block = readFully (blockOffset, blockSize);
+
+        if (dataEnd > rangeEnd) // the rest of the block may be needed by the next range
+          range += 2;
+        else
+          nextBlock (blockSize, dataSize);
+
+        if (from < to)
+          return new Chunk (INFLATERS.submit (inflateTask (block, blockSize, dataSize, blockOffset)), from, to);
+      }
+      else
+        nextBlock (blockSize, dataSize);
+    }
+    return null;
+  }
+
+  private void nextBlock (int blockSize, int dataSize)
+  { blockOffset += blockSize;
+    dataOffset  += dataSize;
+  }
+
+  private byte[] readFully (long position, int length) throws IOException
+  { ByteBuffer bytes = ByteBuffer.allocate (length);
+    channel.position (position);
+    while (bytes.hasRemaining())
+      if (channel.read (bytes) < 0)
+        throw new IOException ("Truncated BGZF block at offset " + blockOffset);
+    return bytes.array();
+  }
+
+  private static Callable<byte[]> inflateTask (final byte[] block, final int blockSize, final int dataSize, final long blockOffset)
+  { return new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException
+      { Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput (block, HEADER_SIZE, blockSize - HEADER_SIZE - TRAILER_SIZE);
+
+        byte[] data = new byte[dataSize];
+        int    read = 0;
+        try
+        { while (read < dataSize)
+          { int inflated = inflater.inflate (data, read, dataSize - read);
+            if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+              break;
+            read += inflated;
+          }
+        }
+        catch (DataFormatException e)
+        { throw new IOException ("Corrupted BGZF block at offset " + blockOffset + " : " + e.getMessage(), e);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update (data, 0, read);
+        if (read != dataSize || (int) crc.getValue() != getInt (block, blockSize - TRAILER_SIZE))
+          throw new IOException ("Corrupted BGZF block at offset " + blockOffset + " : checksum or length mismatch");
+        return data;
+      }
+    };
+  }
+
+  private static int getShort (byte[] b, int off)
+  { return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+  }
+
+  private static int getInt (byte[] b, int off)
+  { return getShort (b, off) | getShort (b, off + 2) << 16;
+  }
+
+  @Override
+  public void close() throws IOException
+  { for (Chunk chunk : chunks)
+      chunk.data.cancel (false);
+    chunks.clear();
+    channel.close();
+  }
+}
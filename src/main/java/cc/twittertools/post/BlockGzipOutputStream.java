@@ -0,0 +1,147 @@
+package cc.twittertools.post;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a block-compressed GZip file, in the BGZF format used by
+ * <tt>bgzip</tt> and SAMtools. The output is a series of independent GZip
+ * members, each holding at most {@link #MAX_DATA_SIZE} bytes of data,
+ * whose headers record their own compressed length. It's still a valid
+ * GZip file, so <tt>zcat</tt> and {@link java.util.zip.GZIPInputStream}
+ * read it as normal, but {@link BlockGzipInputStream} can also skip
+ * straight to a block, and inflate several blocks at once.
+ * <p>
+ * Closing the stream writes the usual empty end-of-file block.
+ */
+public class BlockGzipOutputStream extends OutputStream
+{
+  /** The most data put in a block, chosen so even incompressible data fits in 64KB */
+  public  final static int MAX_DATA_SIZE  = 0xff00;
+
+  /** The largest possible compressed block, header and trailer included */
+  public  final static int MAX_BLOCK_SIZE = 1 << 16;
+
+  /* pkg */ final static int HEADER_SIZE  = 18;
+  /* pkg */ final static int TRAILER_SIZE = 8;
+
+  private final OutputStream out;
+  private final Deflater     deflater;
+  private final CRC32        crc      = new CRC32();
+  private final byte[]       data     = new byte[MAX_DATA_SIZE];
+  private final byte[]       block    = new byte[MAX_BLOCK_SIZE];
+  private       int          dataSize = 0;
+  private       boolean      closed   = false;
+
+  public BlockGzipOutputStream (OutputStream out)
+  { this (out, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * @param out the stream to which compressed blocks are written
+   * @param level the {@link Deflater} compression level
+   */
+  public BlockGzipOutputStream (OutputStream out, int level)
+  { this.out      = out;
+    this.deflater = new Deflater (level, /* nowrap = */ true);
+  }
+
+  @Override
+  public void write (int b) throws IOException
+  { if (dataSize == MAX_DATA_SIZE)
+      writeBlock();
+    data[dataSize++] = (byte) b;
+  }
+
+  @Override
+  public void write (byte[] b, int off, int len) throws IOException
+  { while (len > 0)
+    { if (dataSize == MAX_DATA_SIZE)
+        writeBlock();
+      int copied = Math.min (len, MAX_DATA_SIZE - dataSize);
+      System.arraycopy (b, off, data, dataSize, copied);
+      dataSize += copied;
+      off      += copied;
+      len      -= copied;
+    }
+  }
+
+  /**
+   * Compresses any buffered data into a block of its own and flushes it.
+   * Frequent flushing creates many small blocks, which compress poorly.
+   */
+  @Override
+  public void flush() throws IOException
+  { if (dataSize > 0)
+      writeBlock();
+    out.flush();
+  }
+
+  /**
+   * Compresses the buffered data and writes it out as a single GZip member
+   * with a BGZF "BC" extra field recording the member's total size.
+   */
+  private void writeBlock() throws IOException
+  { deflater.reset();
+    deflater.setInput (data, 0, dataSize);
+    deflater.finish();
+    int compressed = deflater.deflate (block, HEADER_SIZE, block.length - HEADER_SIZE - TRAILER_SIZE);
+    if (! deflater.finished())
+      throw new IOException ("Couldn't compress " + dataSize + " bytes into a single block");
+
+    int blockSize = HEADER_SIZE + compressed + TRAILER_SIZE;
+    block[0]  = 31;           // GZip magic
+    block[1]  = (byte) 139;
+    block[2]  = 8;            // deflate
+    block[3]  = 4;            // FEXTRA
+    block[4]  = block[5] = block[6] = block[7] = 0; // no modification time
+    block[8]  = 0;
+    block[9]  = (byte) 0xff;  // unknown OS
+    putShort (block, 10, 6);  // extra field length
+    block[12] = 'B';
+    block[13] = 'C';
+    putShort (block, 14, 2);
+    putShort (block, 16, blockSize - 1);
+
+    crc.reset();
+    crc.update (data, 0, dataSize);
+    putInt (block, HEADER_SIZE + compressed, (int) crc.getValue());
+    putInt (block, HEADER_SIZE + compressed + 4, dataSize);
+
+    out.write (block, 0, blockSize);
+    dataSize = 0;
+  }
+
+  private static void putShort (byte[] b, int off, int value)
+  { b[off]     = (byte) value;
+    b[off + 1] = (byte) (value >>> 8);
+  }
+
+  private static void putInt (byte[] b, int off, int value)
+  { putShort (b, off,     value);
+    putShort (b, off + 2, value >>> 16);
+  }
+
+  /**
+   * Writes out any buffered data, followed by the empty block which marks
+   * the end of a BGZF file, and closes the underlying stream.
+   */
+  @Override
+  public void close() throws IOException
+  { if (closed)
+      return;
+    closed = true;
+    try
+    { if (dataSize > 0)
+        writeBlock();
+      writeBlock(); // the empty end-of-file block
+      out.flush();
+    }
+    finally
+    { deflater.end();
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package cc.twittertools.post;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Parses dates with a given formatter, remembering the dates it's parsed
+ * so that when the same text is seen again it's not parsed again. Old
+ * crawls give tweets' dates to the minute, or just the day, so runs of
+ * tweets often share the same date text, and parsing it is one of the
+ * most expensive parts of reading them.
+ * <p>
+ * Once the cache is full it's simply cleared. Instances are not thread-safe,
+ * so each thread should have its own.
+ */
+final class CachedDateParser
+{
+  private final static int DEFAULT_CAPACITY = 1 << 12;
+
+  private final DateTimeFormatter     format;
+  private final int                   capacity;
+  private final Map<String, DateTime> dates = new HashMap<>();
+
+  CachedDateParser (DateTimeFormatter format)
+  { this (format, DEFAULT_CAPACITY);
+  }
+
+  CachedDateParser (DateTimeFormatter format, int capacity)
+  { this.format   = format;
+    this.capacity = capacity;
+  }
+
+  /** Parses the given text, as {@link DateTimeFormatter#parseDateTime(String)} would */
+  DateTime parse (String text)
+  { DateTime date = dates.get (text);
+    if (date == null)
+    { date = format.parseDateTime (text);
+      if (dates.size() >= capacity)
+        dates.clear();
+      dates.put (text, date);
+    }
+    return date;
+  }
+}
@@ -32,6 +32,17 @@ public class Counts<T>
     value.increment();
   }
   
+  /** Adds all the counts in the given instance to this one */
+  public void addAll (Counts<T> other)
+  { for (Map.Entry<T, MutableInt> entry : other.counts.entrySet())
+    { MutableInt value = counts.get(entry.getKey());
+      if (value == null)
+        counts.put (entry.getKey(), new MutableInt(entry.getValue()));
+      else
+        value.add (entry.getValue());
+    }
+  }
+  
   public int get(T key)
   { MutableInt value = counts.get(key);
     return value == null ? 0 : value.intValue();
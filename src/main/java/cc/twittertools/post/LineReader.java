@@ -3,7 +3,11 @@ package cc.twittertools.post;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -11,6 +15,7 @@ import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Function;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.hadoop.io.IOUtils;
@@ -23,16 +28,25 @@ import com.google.common.collect.Lists;
  * Given a directory of (optionally GZipped) JSON files, reads in lines
  * one by one (as they occur in the file) file by file (files sorted alphanumerically).
  * <p>
- * GZipping is detected simply by the presence of a ".gz" suffix.
+ * GZipping is detected simply by the presence of a ".gz" suffix, except
+ * for block-gzipped files, which are detected by their header whatever
+ * their name, and which are decompressed in parallel.
+ * <p>
+ * Optionally, uncompressed files can be memory-mapped and scanned for
+ * newlines directly, rather than being read through a stream, using a
+ * {@link MappedLineScanner}.
  */
 public class LineReader implements Iterator<String>, AutoCloseable
 {
   private final static Logger LOG = Logger.getLogger(LineReader.class);
   
   private final Iterator<Path> paths;
+  private final Function<Path, long[]> byteRanges; // null means files are read in full
+  private final boolean        memoryMapped;
   private       String         nextLine;
   private       Exception      nextError;
   private       BufferedReader rdr;
+  private       MappedLineScanner scanner; // used instead of rdr for memory-mapped files
   private       Path           currentFile;
   
   
@@ -44,7 +58,42 @@ public class LineReader implements Iterator<String>, AutoCloseable
    * @throws IOException 
    */
   public LineReader (Iterator<Path> paths) throws IOException
-  { this.paths = paths;
+  { this (paths, null);
+  }
+  
+  /**
+   * Creates a new LineReader operating on the given enumeration of paths,
+   * reading only part of each uncompressed file.
+   * @param paths to the files to read
+   * @param byteRanges given a file, returns the ranges of bytes to read, as
+   * pairs of start (inclusive) and end (exclusive) offsets, flattened into a
+   * single array in file order. Ranges must start and end on line boundaries.
+   * If it returns null the whole file is read; if it returns an empty array
+   * none of it is. For block-gzipped files the offsets are in the
+   * decompressed data. It's not called for other GZipped files, which are
+   * read in full.
+   * @throws IOException 
+   */
+  public LineReader (Iterator<Path> paths, Function<Path, long[]> byteRanges) throws IOException
+  { this (paths, byteRanges, false);
+  }
+  
+  /**
+   * Creates a new LineReader operating on the given enumeration of paths,
+   * reading only part of each uncompressed file, and if memoryMapped is true,
+   * memory-mapping uncompressed files and scanning them for lines with a
+   * {@link MappedLineScanner}, which avoids copying them through a stream
+   * and a buffered reader. Compressed files are read as usual.
+   * @param paths to the files to read
+   * @param byteRanges the parts of each file to read, or null to read
+   * all of every file. See {@link #LineReader(Iterator, Function)}
+   * @param memoryMapped whether to memory-map uncompressed files
+   * @throws IOException 
+   */
+  public LineReader (Iterator<Path> paths, Function<Path, long[]> byteRanges, boolean memoryMapped) throws IOException
+  { this.paths        = paths;
+    this.byteRanges   = byteRanges;
+    this.memoryMapped = memoryMapped;
   }
   
   /**
@@ -60,7 +109,9 @@ public class LineReader implements Iterator<String>, AutoCloseable
    * @throws IOException 
    */
   public LineReader (Path path) throws IOException
-  { if (Files.isDirectory(path))
+  { byteRanges   = null;
+    memoryMapped = false;
+    if (Files.isDirectory(path))
     { List<Path> pathsList = Lists.newLinkedList();
       DirectoryStream<Path> dirContents = Files.newDirectoryStream(path);
       
@@ -81,7 +132,7 @@ public class LineReader implements Iterator<String>, AutoCloseable
    * Basically does the file name end with ".json" or ".json.gz"
    * regardless of case
    */
-  private final static boolean isJsonFile (Path path)
+  final static boolean isJsonFile (Path path)
   { String name = path.getFileName().toString().toUpperCase();
     return name.endsWith (".JSON") || name.endsWith(".JSON.GZ");
   }
@@ -103,20 +154,29 @@ public class LineReader implements Iterator<String>, AutoCloseable
     {
       while (nextLine == null)
       { 
-        if (rdr == null)
+        if (rdr == null && scanner == null)
         { 
           if (! paths.hasNext())
             return false;
           currentFile = paths.next();
           LOG.debug("Opening path " + currentFile);
-          rdr = endsWithGZ(currentFile)
-              ? new BufferedReader (new InputStreamReader (new GZIPInputStream(Files.newInputStream(currentFile)), Charsets.UTF_8))
-              : Files.newBufferedReader (currentFile, Charsets.UTF_8);
+          if (memoryMapped && isUncompressed (currentFile))
+            scanner = new MappedLineScanner (currentFile, byteRangesOf (currentFile));
+          else
+            rdr = openReader (currentFile);
         }
         
-        nextLine = rdr.readLine();
-        if (nextLine == null)
-        { rdr = closeAndNull (rdr);
+        if (scanner != null)
+        { if (scanner.next())
+            nextLine = scanner.line();
+          else
+            scanner = closeAndNull (scanner);
+        }
+        else
+        { nextLine = rdr.readLine();
+          if (nextLine == null)
+          { rdr = closeAndNull (rdr);
+          }
         }
       }
       return true;
@@ -124,10 +184,114 @@ public class LineReader implements Iterator<String>, AutoCloseable
     catch (Exception e)
     { nextError = e;
       IOUtils.closeStream(rdr); // TODO Import Apache Commons IO
+      IOUtils.closeStream(scanner);
+      rdr     = null; // the rest of a file can't be read after an error, so move onto the next
+      scanner = null;
       return true;
     }
   }
   
+  /**
+   * Opens a reader on the given file, decompressing it if it's block-gzipped
+   * (see {@link BlockGzipOutputStream}) or if its name ends with ".gz"
+   */
+  protected BufferedReader openReader (Path file) throws IOException
+  { SeekableByteChannel channel = Files.newByteChannel(file);
+    try
+    { InputStream in;
+      if (BlockGzipInputStream.isBlockGzipped (channel))
+        in = new BlockGzipInputStream (channel, byteRangesOf (file));
+      else if (endsWithGZ(file))
+        in = new GZIPInputStream (Channels.newInputStream(channel), 1 << 16);
+      else
+      { long[] ranges = byteRangesOf (file);
+        if (ranges == null)
+          return new BufferedReader (Channels.newReader (channel, Charsets.UTF_8.newDecoder(), -1), 1 << 16);
+        in = new RangeInputStream (channel, ranges);
+      }
+      return new BufferedReader (new InputStreamReader (in, Charsets.UTF_8), 1 << 16);
+    }
+    catch (IOException | RuntimeException e)
+    { channel.close();
+      throw e;
+    }
+  }
+  
+  /** Is the given file neither block-gzipped nor named as a GZipped file */
+  private static boolean isUncompressed (Path file) throws IOException
+  { if (endsWithGZ (file))
+      return false;
+    try (SeekableByteChannel channel = Files.newByteChannel(file))
+    { return ! BlockGzipInputStream.isBlockGzipped (channel);
+    }
+  }
+  
+  private long[] byteRangesOf (Path file)
+  { return byteRanges == null ? null : byteRanges.apply(file);
+  }
+  
+  /**
+   * Closes the current file, so that the next line returned is the first
+   * line of the next file. Does nothing if no file is open.
+   */
+  public void skipRestOfFile() throws IOException
+  { nextLine  = null;
+    nextError = null;
+    if (rdr != null)
+      rdr = closeAndNull (rdr);
+    if (scanner != null)
+      scanner = closeAndNull (scanner);
+  }
+  
+  /**
+   * Reads the given ranges of bytes from a channel, one after the other, as
+   * a single stream
+   */
+  private static final class RangeInputStream extends InputStream
+  { private final SeekableByteChannel channel;
+    private final long[]              ranges;
+    private       int                 range = -2;
+    private       long                remaining;
+    
+    RangeInputStream (SeekableByteChannel channel, long[] ranges)
+    { this.channel = channel;
+      this.ranges  = ranges;
+    }
+
+    @Override
+    public int read (byte[] b, int off, int len) throws IOException
+    { if (len == 0)
+        return 0;
+      while (remaining == 0)
+      { range += 2;
+        if (range >= ranges.length)
+          return -1;
+        channel.position (ranges[range]);
+        remaining = ranges[range + 1] - ranges[range];
+      }
+      
+      int read = channel.read (ByteBuffer.wrap (b, off, (int) Math.min (len, remaining)));
+      if (read < 0) // the file's shorter than the range
+      { remaining = 0;
+        return read(b, off, len);
+      }
+      remaining -= read;
+      return read;
+    }
+    
+    @Override
+    public int read() throws IOException
+    { byte[] b = new byte[1];
+      int read = read (b, 0, 1);
+      return read < 0 ? read : b[0] & 0xFF;
+    }
+    
+    @Override
+    public void close() throws IOException
+    { channel.close();
+    }
+  }
+  
   private static final boolean endsWithGZ (Path path)
   { return path.getFileName().toString().toUpperCase().endsWith(".GZ");    
   }
@@ -163,8 +327,13 @@ public class LineReader implements Iterator<String>, AutoCloseable
   public void close() throws IOException
   { if (rdr != null)
       rdr.close();
+    if (scanner != null)
+      scanner.close();
   }
 
+  /**
+   * The file from which the most recent line was read
+   */
 	public Path getCurrentFile()
 	{	return currentFile;
 	}
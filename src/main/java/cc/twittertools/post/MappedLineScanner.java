@@ -0,0 +1,194 @@
+package cc.twittertools.post;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Scans the lines of an uncompressed UTF-8 file by mapping it into memory,
+ * finding newlines directly in the mapped bytes, eight bytes at a time, and
+ * decoding each line straight from the mapped bytes into a reused buffer.
+ * <p>
+ * The file is mapped a window at a time, so it may be of any size, but no
+ * line may be longer than the window. Like {@link LineReader} this can
+ * read just some ranges of a file.
+ * <p>
+ * Lines end with a newline, and a carriage return before the newline is
+ * dropped. Invalid UTF-8 is reported by a {@link CharacterCodingException}
+ * when it's decoded. The file must not be truncated while it's mapped.
+ */
+public final class MappedLineScanner implements Closeable
+{
+  /** The most bytes mapped at once, which is also the longest a line may be */
+  public final static int DEFAULT_WINDOW_SIZE = 1 << 28;
+
+  private final static byte NEWLINE = '\n';
+  private final static long ONES    = 0x0101010101010101L;
+  private final static long HIGHS   = 0x8080808080808080L;
+
+  private final Path        file;
+  private final FileChannel channel;
+  private final long        fileSize;
+  private final long[]      ranges;
+  private final int         windowSize;
+
+  private int              range = -2;
+  private long             rangeEnd;
+  private MappedByteBuffer window;
+  private ByteBuffer       view;        // a duplicate of the window, for decoding
+  private long             windowStart; // the offset in the file of the window's first byte
+  private int              windowLimit;
+  private int              pos;         // the start of the next line in the window
+
+  private int lineStart;
+  private int lineEnd;
+
+  private final CharsetDecoder decoder = Charsets.UTF_8.newDecoder();
+  private       CharBuffer     chars   = CharBuffer.allocate (1024);
+
+  /** Creates a scanner on the whole of the given file */
+  public MappedLineScanner (Path file) throws IOException
+  { this (file, null);
+  }
+
+  /**
+   * Creates a scanner on the given ranges of bytes of the given file, as
+   * pairs of start (inclusive) and end (exclusive) offsets, flattened into a
+   * single array in file order. Ranges must start and end on line
+   * boundaries. If null the whole file is read.
+   */
+  public MappedLineScanner (Path file, long[] ranges) throws IOException
+  { this (file, ranges, DEFAULT_WINDOW_SIZE);
+  }
+
+  MappedLineScanner (Path file, long[] ranges, int windowSize) throws IOException
+  { if (windowSize < 8)
+      throw new IllegalArgumentException ("The window size must be at least 8 bytes, not " + windowSize);
+    this.file       = file;
+    this.channel    = FileChannel.open (file, StandardOpenOption.READ);
+    this.fileSize   = channel.size();
+    this.ranges     = ranges == null ? new long[] { 0, fileSize } : ranges;
+    this.windowSize = windowSize;
+  }
+
+  /**
+   * Moves on to the next line, returning false if there are no more
+   */
+  public boolean next() throws IOException
+  { while (true)
+    { while (window == null || pos == windowLimit)
+      { if (window != null && windowStart + windowLimit < rangeEnd)
+          map (windowStart + windowLimit);
+        else if (! nextRange())
+          return false;
+      }
+
+      int end = indexOf (NEWLINE, pos, windowLimit);
+      if (end < 0 && windowStart + windowLimit < rangeEnd)
+      { // The line continues past the window, so map it again from the line's start
+        if (pos == 0)
+          throw new IOException ("A line in " + file + " at offset " + windowStart + " is longer than " + windowSize + " bytes");
+        map (windowStart + pos);
+        continue;
+      }
+
+      lineStart = pos;
+      lineEnd   = end < 0 ? windowLimit : end;
+      pos       = end < 0 ? windowLimit : end + 1;
+      if (lineEnd > lineStart && window.get (lineEnd - 1) == '\r')
+        --lineEnd;
+      return true;
+    }
+  }
+
+  /** Moves on to the next range, returning false if there are no more */
+  private boolean nextRange() throws IOException
+  { window = null;
+    range += 2;
+    if (range >= ranges.length)
+      return false;
+
+    rangeEnd = Math.min (ranges[range + 1], fileSize);
+    if (ranges[range] < rangeEnd)
+      map (ranges[range]);
+    return true;
+  }
+
+  private void map (long start) throws IOException
+  { windowLimit = (int) Math.min (windowSize, rangeEnd - start);
+    window      = channel.map (FileChannel.MapMode.READ_ONLY, start, windowLimit);
+    window.order (ByteOrder.LITTLE_ENDIAN);
+    view        = window.duplicate();
+    windowStart = start;
+    pos         = 0;
+  }
+
+  /**
+   * Finds the first instance of the given byte in the window between the
+   * given positions, returning -1 if there's none. Eight bytes are checked
+   * at a time, using the bit-twiddling trick which finds a zero byte in a
+   * word, on the word XORed with the byte repeated eight times. The lowest
+   * byte flagged is always a match, and with little-endian reads that's the
+   * first.
+   */
+  private int indexOf (byte b, int from, int to)
+  { long pattern = ONES * (b & 0xFF);
+    int  i       = from;
+    for (; i + 8 <= to; i += 8)
+    { long word  = window.getLong (i) ^ pattern;
+      long found = (word - ONES) & ~word & HIGHS;
+      if (found != 0)
+        return i + (Long.numberOfTrailingZeros (found) >>> 3);
+    }
+    for (; i < to; i++)
+      if (window.get (i) == b)
+        return i;
+    return -1;
+  }
+
+  /** Decodes the whole of the current line */
+  public String line() throws CharacterCodingException
+  { return decode (lineStart, lineEnd);
+  }
+
+  /** Decodes the given bytes of the window, reusing the same character buffer */
+  private String decode (int from, int to) throws CharacterCodingException
+  { if (window == null)
+      throw new IllegalStateException ("There's no current line");
+    view.clear();
+    view.limit (to);
+    view.position (from);
+    if (chars.capacity() < to - from) // UTF-8 never decodes to more chars than bytes
+      chars = CharBuffer.allocate (Math.max (to - from, chars.capacity() * 2));
+    chars.clear();
+
+    decoder.reset();
+    CoderResult result = decoder.decode (view, chars, true);
+    if (! result.isUnderflow())
+      result.throwException();
+    result = decoder.flush (chars);
+    if (! result.isUnderflow())
+      result.throwException();
+
+    chars.flip();
+    return chars.toString();
+  }
+
+  @Override
+  public void close() throws IOException
+  { window = null;
+    view   = null;
+    channel.close();
+  }
+}
@@ -0,0 +1,278 @@
+package cc.twittertools.post;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link LineReader} which opens, decompresses, decodes and splits its
+ * files into lines on a background thread, handing them to the consumer in
+ * batches through a bounded queue. As the background thread runs ahead of
+ * the consumer, the next file is opened and read while the consumer is still
+ * working through the current one.
+ * <p>
+ * Errors are passed through the queue too, and thrown by {@link #next()}
+ * in the same order as they'd have been thrown by a plain {@link LineReader}.
+ * Readers must be closed, to stop the background thread.
+ */
+public class PrefetchingLineReader extends LineReader
+{
+  private final static Logger LOG = Logger.getLogger(PrefetchingLineReader.class);
+
+  public final static int DEFAULT_BATCH_SIZE = 1024;
+  public final static int DEFAULT_QUEUED_BATCHES = 16;
+
+  /** A run of lines from a single file, optionally followed by an error */
+  private final static class Batch
+  { final Path      file;
+    final String[]  lines;
+    final int       count;
+    Exception       error;
+
+    Batch (Path file, String[] lines, int count, Exception error)
+    { this.file  = file;
+      this.lines = lines;
+      this.count = count;
+      this.error = error;
+    }
+  }
+
+  /** Marks the end of the input */
+  private final static Batch END = new Batch (null, new String[0], 0, null);
+
+  private final int                  batchSize;
+  private final BlockingQueue<Batch> queue;
+  private final Thread               producer;
+
+  private          Batch   batch = new Batch (null, new String[0], 0, null);
+  private          int     pos;
+  private volatile Path    skippedFile;
+  private volatile boolean closed;
+
+
+  /**
+   * Creates a new reader on the given files, in batches of
+   * {@link #DEFAULT_BATCH_SIZE} lines, with at most
+   * {@link #DEFAULT_QUEUED_BATCHES} batches read ahead.
+   */
+  public PrefetchingLineReader (Iterator<Path> paths) throws IOException
+  { this (paths, DEFAULT_BATCH_SIZE, DEFAULT_QUEUED_BATCHES);
+  }
+
+  /**
+   * Creates a new reader on the given files
+   * @param paths the files to read, in order
+   * @param batchSize the number of lines passed to the consumer at a time
+   * @param queuedBatches the maximum number of batches read ahead of the
+   * consumer
+   */
+  public PrefetchingLineReader (Iterator<Path> paths, int batchSize, int queuedBatches) throws IOException
+  { this (paths, null, batchSize, queuedBatches);
+  }
+
+  /**
+   * Creates a new reader on the given files, reading only the given
+   * ranges of each file, as described in
+   * {@link LineReader#LineReader(Iterator, Function)}
+   */
+  public PrefetchingLineReader (Iterator<Path> paths, Function<Path, long[]> byteRanges) throws IOException
+  { this (paths, byteRanges, DEFAULT_BATCH_SIZE, DEFAULT_QUEUED_BATCHES);
+  }
+
+  /**
+   * Creates a new reader on the given files
+   * @param paths the files to read, in order
+   * @param byteRanges the parts of each file to read, or null to read
+   * all of every file. See {@link LineReader#LineReader(Iterator, Function)}
+   * @param batchSize the number of lines passed to the consumer at a time
+   * @param queuedBatches the maximum number of batches read ahead of the
+   * consumer
+   */
+  public PrefetchingLineReader (Iterator<Path> paths, Function<Path, long[]> byteRanges, int batchSize, int queuedBatches) throws IOException
+  { this (paths, byteRanges, false, batchSize, queuedBatches);
+  }
+
+  /**
+   * Creates a new reader on the given files
+   * @param paths the files to read, in order
+   * @param byteRanges the parts of each file to read, or null to read
+   * all of every file. See {@link LineReader#LineReader(Iterator, Function)}
+   * @param memoryMapped whether to memory-map uncompressed files, see
+   * {@link LineReader#LineReader(Iterator, Function, boolean)}
+   * @param batchSize the number of lines passed to the consumer at a time
+   * @param queuedBatches the maximum number of batches read ahead of the
+   * consumer
+   */
+  public PrefetchingLineReader (Iterator<Path> paths, Function<Path, long[]> byteRanges, boolean memoryMapped, int batchSize, int queuedBatches) throws IOException
+  { super (paths, byteRanges, memoryMapped);
+    if (batchSize <= 0 || queuedBatches <= 0)
+      throw new IllegalArgumentException ("Batch size and queue length must be positive, not " + batchSize + " and " + queuedBatches);
+    this.batchSize = batchSize;
+    this.queue     = new ArrayBlockingQueue<> (queuedBatches);
+    this.producer  = startProducer();
+  }
+
+  /**
+   * Creates a new reader on the given file, or on the JSON files in
+   * the given directory, as described in {@link LineReader#LineReader(Path)}
+   */
+  public PrefetchingLineReader (Path path) throws IOException
+  { super (path);
+    this.batchSize = DEFAULT_BATCH_SIZE;
+    this.queue     = new ArrayBlockingQueue<> (DEFAULT_QUEUED_BATCHES);
+    this.producer  = startProducer();
+  }
+
+  public PrefetchingLineReader (String path) throws IOException
+  { this (Paths.get(path));
+  }
+
+  private Thread startProducer()
+  { Thread thread = new Thread (new Runnable() {
+      @Override
+      public void run()
+      { produce();
+      }
+    }, "line-prefetcher");
+    thread.setDaemon (true);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Runs on the background thread, reading lines using the superclass and
+   * putting them on the queue until the input is exhausted or this reader
+   * is closed.
+   */
+  private void produce()
+  { try
+    { String[] lines = new String[batchSize];
+      int      count = 0;
+      Path     file  = null;
+
+      while (! closed && super.hasNext())
+      { Path lineFile = super.getCurrentFile();
+        if (lineFile != null && lineFile.equals (skippedFile))
+        { super.skipRestOfFile();
+          continue;
+        }
+        if (count == lines.length || (count > 0 && lineFile != file))
+        { queue.put (new Batch (file, lines, count, null));
+          lines = new String[batchSize];
+          count = 0;
+        }
+        file = lineFile;
+
+        try
+        { String line = super.next();
+          lines[count++] = line;
+        }
+        catch (RuntimeException e)
+        { queue.put (new Batch (file, lines, count, e));
+          lines = new String[batchSize];
+          count = 0;
+        }
+      }
+      if (count > 0)
+        queue.put (new Batch (file, lines, count, null));
+    }
+    catch (InterruptedException e)
+    { // closed by the consumer
+    }
+    catch (Exception e)
+    { LOG.error ("Unexpected error prefetching lines : " + e.getMessage(), e);
+    }
+    finally
+    { try
+      { super.close();
+      }
+      catch (IOException e)
+      { LOG.warn ("Error closing prefetched file : " + e.getMessage(), e);
+      }
+
+      if (! closed)
+      { try
+        { queue.put (END);
+        }
+        catch (InterruptedException e)
+        { // closed by the consumer
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean hasNext()
+  { while (pos == batch.count && batch.error == null)
+    { if (batch == END)
+        return false;
+      try
+      { batch = queue.take();
+        pos   = 0;
+      }
+      catch (InterruptedException e)
+      { Thread.currentThread().interrupt();
+        throw new RuntimeException ("Interrupted while waiting for lines to be read", e);
+      }
+
+      if (batch.file != null && batch.file.equals (skippedFile))
+        batch = new Batch (batch.file, batch.lines, 0, null);
+    }
+    return true;
+  }
+
+  @Override
+  public String next()
+  { if (! hasNext())
+      throw new NoSuchElementException();
+
+    if (pos == batch.count)
+    { Exception errorResult = batch.error;
+      batch.error = null;
+      throw new RuntimeException (errorResult.getMessage(), errorResult);
+    }
+    return batch.lines[pos++];
+  }
+
+  /**
+   * The file containing the line returned by the most recent call to
+   * {@link #next()}, or after a call to {@link #hasNext()} which returned
+   * true, the file containing the line that will be returned next.
+   */
+  @Override
+  public Path getCurrentFile()
+  { return batch.file;
+  }
+
+  /**
+   * Discards the lines remaining in the current file, both those already
+   * read and those not yet read by the background thread.
+   */
+  @Override
+  public void skipRestOfFile()
+  { skippedFile = batch.file;
+    batch       = new Batch (batch.file, batch.lines, 0, null);
+    pos         = 0;
+  }
+
+  @Override
+  public void close() throws IOException
+  { closed = true;
+    producer.interrupt();
+    queue.clear();
+    try
+    { producer.join();
+    }
+    catch (InterruptedException e)
+    { Thread.currentThread().interrupt();
+      throw new IOException ("Interrupted while waiting for the prefetching thread to stop", e);
+    }
+  }
+}
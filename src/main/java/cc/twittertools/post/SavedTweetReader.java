@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.function.Function;
+
+import org.joda.time.DateTime;
 
 import cc.twittertools.spider.IndividualUserTweetsSpider;
 
@@ -58,13 +61,62 @@ public class SavedTweetReader implements AutoCloseable, Iterator<Tweet>
   private       Path       currentFile;
   private       String     currentAccount;
   
-  private       Tweet      nextTweet = null;
+  private       String     nextLine  = null;
   private       Exception  nextError = null;
   
   public SavedTweetReader (Iterator<Path> files) throws IOException
   { lines = new LineReader (files);
   }
   
+  /**
+   * Creates a reader on the given files, which, if prefetch is true,
+   * decompresses and splits them into lines on a background thread, reading
+   * ahead into the next file while the current one is being parsed. See
+   * {@link PrefetchingLineReader}.
+   * <p>
+   * Use {@link #getCurrentFile()} to tell when one file ends and the next
+   * begins, and {@link #skipRestOfFile()} to abandon a file.
+   */
+  public SavedTweetReader (Iterator<Path> files, boolean prefetch) throws IOException
+  { lines = prefetch ? new PrefetchingLineReader (files) : new LineReader (files);
+  }
+  
+  /**
+   * Creates a reader on the given files, prefetching lines on a background
+   * thread if prefetch is true, as for {@link #SavedTweetReader(Iterator, boolean)},
+   * and memory-mapping uncompressed files if memoryMapped is true, so their
+   * lines are found without copying them through a stream. See
+   * {@link MappedLineScanner}.
+   */
+  public SavedTweetReader (Iterator<Path> files, boolean prefetch, boolean memoryMapped) throws IOException
+  { lines = prefetch
+      ? new PrefetchingLineReader (files, null, memoryMapped, PrefetchingLineReader.DEFAULT_BATCH_SIZE, PrefetchingLineReader.DEFAULT_QUEUED_BATCHES)
+      : new LineReader (files, null, memoryMapped);
+  }
+  
+  /**
+   * Creates a reader on the given files which only reads those files, and
+   * those parts of files, which may hold tweets whose local times are in the
+   * given range, according to each file's {@link TweetFileIndex}. Files
+   * without an up-to-date index are read in full. Some tweets outside the
+   * range may still be returned, so callers must still filter by date.
+   * @param fromIncl the earliest local time wanted, or null for no limit
+   * @param untilExcl the local time after the last wanted, or null for no limit
+   */
+  public SavedTweetReader (Iterator<Path> files, boolean prefetch, DateTime fromIncl, DateTime untilExcl) throws IOException
+  { final long fromMillis  = fromIncl  == null ? Long.MIN_VALUE : fromIncl.getMillis();
+    final long untilMillis = untilExcl == null ? Long.MAX_VALUE : untilExcl.getMillis();
+    Function<Path, long[]> byteRanges = new Function<Path, long[]>() {
+      @Override
+      public long[] apply (Path file)
+      { TweetFileIndex index = TweetFileIndex.readFor(file);
+        return index == null ? null : index.byteRangesFor(fromMillis, untilMillis);
+      }
+    };
+    
+    lines = prefetch ? new PrefetchingLineReader (files, byteRanges) : new LineReader (files, byteRanges);
+  }
+  
   public SavedTweetReader (Path directory, String username) throws IOException
   { this (new TweetsFileIterator(directory, username));
   }
@@ -83,19 +135,16 @@ public class SavedTweetReader implements AutoCloseable, Iterator<Tweet>
   public boolean hasNext()
   { 
     try
-    { while (nextError == null && nextTweet == null && lines.hasNext())
-      { String line = lines.next();
-      	
-      	if (currentFile != lines.getCurrentFile())
+    { while (nextError == null && nextLine == null && lines.hasNext())
+      { if (currentFile != lines.getCurrentFile())
       	{	currentFile    = lines.getCurrentFile();
       		currentAccount = cc.twittertools.post.old.Tweet.userNameFromFile(currentFile);
       	}
-      
-        if (line != null)
-          nextTweet = Tweet.WRITER.fromTabDelimStr(line);
+      	
+      	nextLine = lines.next();
       }
     
-      return nextTweet != null;
+      return nextLine != null || nextError != null;
     }
     catch (Exception e)
     { nextError = e;
@@ -105,14 +154,78 @@ public class SavedTweetReader implements AutoCloseable, Iterator<Tweet>
 
   @Override
   public Tweet next() {
+    String line = nextLine();
+    try
+    { return line == null ? null : Tweet.WRITER.fromTabDelimStr(line);
+    }
+    catch (Exception e)
+    { throw new RuntimeException ("Error fetching next tweet : " + e.getMessage(), e);
+    }
+  }
+  
+  /**
+   * Returns the next tweet as a {@link TweetSlice}, which only parses the
+   * fields which are accessed. This is cheaper than {@link #next()} when
+   * many tweets are discarded after checking only their author or date.
+   */
+  public TweetSlice nextSlice() {
+    String line = nextLine();
+    try
+    { return line == null ? null : new TweetSlice(line);
+    }
+    catch (Exception e)
+    { throw new RuntimeException ("Error fetching next tweet : " + e.getMessage(), e);
+    }
+  }
+  
+  /**
+   * Clears the given batch and fills it with as many of the following tweets
+   * as fit, stopping early at the end of the current file, so every batch
+   * holds tweets from just one file, given by {@link TweetBatch#getFile()}.
+   * <p>
+   * If a tweet can't be read or parsed, the batch stops just before it,
+   * and the error is thrown by the next call, as by {@link #nextSlice()},
+   * at which point {@link #getCurrentFile()} gives the file in error.
+   * @return the number of tweets in the batch, which is zero only when
+   * there are no more tweets
+   */
+  public int nextBatch(TweetBatch batch) {
+    batch.clear();
+    Path batchFile = null;
+    while (! batch.isFull() && hasNext())
+    { if (batchFile == null)
+        batchFile = currentFile;
+      else if (currentFile != batchFile || nextError != null)
+        break;
+
+      String line = nextLine();
+      try
+      { batch.add (new TweetSlice(line));
+      }
+      catch (Exception e)
+      { if (batch.isEmpty())
+          throw new RuntimeException ("Error fetching next tweet : " + e.getMessage(), e);
+        nextError = e;
+        break;
+      }
+    }
+    batch.setFile (batchFile);
+    return batch.size();
+  }
+
+  /** Returns the next unparsed line, throwing any error encountered reading it */
+  private String nextLine() {
+    if (! hasNext())
+      return null;
+    
     if (nextError != null)
     { Exception errVal = nextError;
       nextError        = null;
       throw new RuntimeException ("Error fetching next tweet : " + errVal.getMessage(), errVal);
     }
     
-    Tweet retVal = nextTweet;
-    nextTweet    = null;
+    String retVal = nextLine;
+    nextLine      = null;
     return retVal;
   }
 
@@ -121,5 +234,23 @@ public class SavedTweetReader implements AutoCloseable, Iterator<Tweet>
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * The file containing the tweet most recently returned by {@link #next()},
+   * or after a call to {@link #hasNext()} which returned true, the file
+   * containing the tweet (or error) that will be returned next.
+   */
+  public Path getCurrentFile()
+  { return currentFile;
+  }
   
+  /**
+   * Discards the rest of the current file, typically after it's been found
+   * to contain too many corrupted tweets, so that the next tweet returned
+   * is from the next file.
+   */
+  public void skipRestOfFile() throws IOException
+  { nextLine  = null;
+    nextError = null;
+    lines.skipRestOfFile();
+  }
 }
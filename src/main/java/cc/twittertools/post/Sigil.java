@@ -98,6 +98,14 @@ public enum Sigil {
     return Pair.of (newMsg.toString(), sigils);
   }
   
+  /**
+   * Does at least one instance of this sigil occur in the given message. This
+   * is cheaper than checking the sigils returned by {@link #extractSigils(String)}
+   */
+  public boolean occursIn (String msg)
+  { return extractSigilPositions(msg).length > 0;
+  }
+  
   /**
    * Identifies the positions of all instances of a given sigil]
    * in the message.
@@ -0,0 +1,270 @@
+package cc.twittertools.post;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of a few thousand tweets held as parallel primitive arrays, one
+ * per field, rather than as {@link Tweet} objects, each of which holds two
+ * date-times, several optionals, hashtag and addressee sets and nested
+ * retweets. The text of every tweet is copied into a single shared
+ * character buffer, and authors are stored as IDs in an {@link Authors}
+ * dictionary which may be shared by many batches.
+ * <p>
+ * Batches are meant to be reused: {@link SavedTweetReader#nextBatch(TweetBatch)}
+ * clears and refills the same batch, so reading a file allocates little
+ * more than the lines themselves. Only the ID, times, author, flags and
+ * message of each tweet are kept; callers which need embedded pages or
+ * the text of retweets must use {@link TweetSlice} or {@link Tweet}.
+ * <p>
+ * Neither batches nor their dictionaries are thread-safe.
+ */
+public final class TweetBatch {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** The flag set if the tweet embeds a web page */
+    public static final int HAS_EMBEDDED_PAGE        = 1;
+    /** The flag set if the tweet embeds a retweet */
+    public static final int CONTAINS_RETWEET         = 2;
+    /** The flag set if the tweet's embedded retweet itself embeds a retweet */
+    public static final int RETWEET_CONTAINS_RETWEET = 4;
+    /** The flag set if the message contains a {@link Sigil#RETWEET} sigil */
+    public static final int MANUAL_RETWEET           = 8;
+
+    private static final int AVERAGE_MSG_LENGTH = 96;
+
+    /**
+     * Maps author names to dense integer IDs, in the order in which they're
+     * first seen.
+     */
+    public static final class Authors {
+        private final Object2IntMap<String> ids   = new Object2IntOpenHashMap<>();
+        private final List<String>          names = new ArrayList<>();
+
+        public Authors() {
+            ids.defaultReturnValue(-1);
+        }
+
+        /** Returns the ID of the given author, assigning the next ID if they're new */
+        public int idOf(String author) {
+            int id = ids.getInt(author);
+            if (id < 0) {
+                id = names.size();
+                ids.put(author, id);
+                names.add(author);
+            }
+            return id;
+        }
+
+        /** Returns the ID of the given author, or -1 if they've not been seen */
+        public int lookup(String author) {
+            return ids.getInt(author);
+        }
+
+        public String nameOf(int id) {
+            return names.get(id);
+        }
+
+        public int size() {
+            return names.size();
+        }
+    }
+
+    private final Authors authors;
+
+    private final long[]  ids;
+    private final long[]  epochMillis;
+    private final short[] utcOffsetMins;
+    private final int[]   authorIds;
+    private final byte[]  flags;
+    private final int[]   textEnds;   // the end of each tweet's text, which is where the next one's starts
+    private       char[]  text;
+
+    private int  size;
+    private int  lastAuthorId = -1;
+    private Path file;
+
+    public TweetBatch() {
+        this(DEFAULT_CAPACITY, new Authors());
+    }
+
+    /**
+     * Creates a batch which can hold up to the given number of tweets, and
+     * which adds its authors to the given dictionary
+     */
+    public TweetBatch(int capacity, Authors authors) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of a batch must be positive, not " + capacity);
+        }
+        this.authors       = authors;
+        this.ids           = new long[capacity];
+        this.epochMillis   = new long[capacity];
+        this.utcOffsetMins = new short[capacity];
+        this.authorIds     = new int[capacity];
+        this.flags         = new byte[capacity];
+        this.textEnds      = new int[capacity];
+        this.text          = new char[capacity * AVERAGE_MSG_LENGTH];
+    }
+
+    /**
+     * Parses the given tweet into the next row of this batch. If the tweet
+     * can't be parsed the batch is left unchanged.
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(TweetSlice slice) {
+        if (isFull()) {
+            throw new IllegalStateException("The batch is full, with " + size + " tweets");
+        }
+
+        // Parse everything first, so a corrupt tweet leaves no partial row behind
+        long   id     = slice.getId();
+        long   millis = slice.getLocalTimeMillis();
+        int    offset = slice.getLocalUtcOffsetMinutes();
+        String msg    = slice.getMsg();
+        int    flag   = (slice.hasEmbeddedPage()                ? HAS_EMBEDDED_PAGE        : 0)
+                      | (slice.containsRetweet()                ? CONTAINS_RETWEET         : 0)
+                      | (slice.embeddedRetweetContainsRetweet() ? RETWEET_CONTAINS_RETWEET : 0)
+                      | (slice.isManualRetweet()                ? MANUAL_RETWEET           : 0);
+
+        // Tweets are usually read one user's file at a time, so the author
+        // rarely changes, and can be compared in place
+        int authorId = lastAuthorId >= 0 && slice.isAuthor(authors.nameOf(lastAuthorId))
+            ? lastAuthorId
+            : authors.idOf(slice.getAuthor());
+
+        int textStart = textStart(size);
+        int textEnd   = textStart + msg.length();
+        if (textEnd > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textEnd));
+        }
+        msg.getChars(0, msg.length(), text, textStart);
+
+        ids[size]           = id;
+        epochMillis[size]   = millis;
+        utcOffsetMins[size] = (short) offset;
+        authorIds[size]     = authorId;
+        flags[size]         = (byte) flag;
+        textEnds[size]      = textEnd;
+        lastAuthorId        = authorId;
+        ++size;
+    }
+
+    /** Empties this batch, keeping its arrays and author dictionary */
+    public void clear() {
+        size = 0;
+        file = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == ids.length;
+    }
+
+    public Authors getAuthors() {
+        return authors;
+    }
+
+    /** The file from which this batch's tweets were read, if read by a {@link SavedTweetReader} */
+    public Path getFile() {
+        return file;
+    }
+
+    void setFile(Path file) {
+        this.file = file;
+    }
+
+    public long getId(int i) {
+        return ids[check(i)];
+    }
+
+    /** The time of the given tweet in milliseconds since the epoch */
+    public long getEpochMillis(int i) {
+        return epochMillis[check(i)];
+    }
+
+    /** The offset from UTC of the given tweet's local time, in minutes */
+    public int getUtcOffsetMinutes(int i) {
+        return utcOffsetMins[check(i)];
+    }
+
+    /** The given tweet's local time, which, unlike the other accessors, creates a new object */
+    public DateTime getLocalTime(int i) {
+        return new DateTime(getEpochMillis(i), DateTimeZone.forOffsetMillis(getUtcOffsetMinutes(i) * 60_000));
+    }
+
+    /** The ID of the given tweet's author in this batch's {@link Authors} dictionary */
+    public int getAuthorId(int i) {
+        return authorIds[check(i)];
+    }
+
+    public String getAuthor(int i) {
+        return authors.nameOf(getAuthorId(i));
+    }
+
+    /** The given tweet's flags, a combination of {@link #HAS_EMBEDDED_PAGE} and the like */
+    public int getFlags(int i) {
+        return flags[check(i)];
+    }
+
+    public boolean hasEmbeddedPage(int i) {
+        return (getFlags(i) & HAS_EMBEDDED_PAGE) != 0;
+    }
+
+    public boolean containsRetweet(int i) {
+        return (getFlags(i) & CONTAINS_RETWEET) != 0;
+    }
+
+    public boolean retweetContainsRetweet(int i) {
+        return (getFlags(i) & RETWEET_CONTAINS_RETWEET) != 0;
+    }
+
+    public boolean isManualRetweet(int i) {
+        return (getFlags(i) & MANUAL_RETWEET) != 0;
+    }
+
+    public int getMsgLength(int i) {
+        return textEnds[check(i)] - textStart(i);
+    }
+
+    /** A view of the given tweet's message, which is only valid until the batch is next changed */
+    public CharSequence getMsgChars(int i) {
+        int start = textStart(check(i));
+        return CharBuffer.wrap(text, start, textEnds[i] - start);
+    }
+
+    public String getMsg(int i) {
+        int start = textStart(check(i));
+        return new String(text, start, textEnds[i] - start);
+    }
+
+    private int textStart(int i) {
+        return i == 0 ? 0 : textEnds[i - 1];
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("No tweet " + i + " in a batch of " + size);
+        }
+        return i;
+    }
+}
@@ -72,6 +72,9 @@ public class TweetFeatureExtractor implements Callable<Integer>
   /** If true create separate pairs of event and text matrices per author (e.g. for author topic modelling) */
   private boolean aggregateByAuthor       = false;
   
+  /** If true write the dictionaries as numpy string blobs and offsets instead of Python lists in dicts.py */
+  private boolean numpyDicts              = false;
+  
   /** The minimum (inclusive) date for tweets. Tweets before this date are not included in the output. */
   private DateTime minDateIncl;
   
@@ -204,7 +207,8 @@ public class TweetFeatureExtractor implements Callable<Integer>
 	  	}
   	}
   	
-  	// Write dictionaries out as a big Python script
+  	// Write dictionaries out as a big Python script, or, if requested, just
+  	// the feature schema, with the dictionaries written as numpy arrays
   	// 
   	try (BufferedWriter wtr = Files.newBufferedWriter(outputDir.resolve("dicts.py"), Charsets.UTF_8); )
 	{	wtr.write("#!/usr/bin/python\n");
@@ -213,12 +217,22 @@ public class TweetFeatureExtractor implements Callable<Integer>
 		wtr.write(eventFeatureSchema());
 		wtr.write("\n\n");
 		
-		userDict.writeAsPythonList("users", wtr);
-		wtr.write("\n\n");
-		vectorizer.getDict().writeAsPythonList("words", wtr);
-		wtr.write("\n\n");
+		if (numpyDicts)
+		{	wtr.write("# The users and words dictionaries are in users-*.npy and words-*.npy\n");
+		}
+		else
+		{	userDict.writeAsPythonList("users", wtr);
+			wtr.write("\n\n");
+			vectorizer.getDict().writeAsPythonList("words", wtr);
+			wtr.write("\n\n");
+		}
 	}
   	
+  	if (numpyDicts)
+  	{	userDict.writeAsNumpyArrays(outputDir, "users");
+  		vectorizer.getDict().writeAsNumpyArrays(outputDir, "words");
+  	}
+  	
   	// Then, just to be sure, write dictionaries out as a series of tab-delimited file
   	//
   	userDict.writeDelimited(outputDir.resolve("userdict.txt"), Charsets.UTF_8);
@@ -295,22 +309,37 @@ public class TweetFeatureExtractor implements Callable<Integer>
   	int skippedAsRetweet    = 0;
   	
   	// We accept 5 corrupted lines per file before abandoning it and moving onto the next
-  	// file. For this reason the next-file loop is labelled.
+  	// file. Files are read ahead on a background thread while the tweets of the current
+  	// file are processed on this one. Where files are indexed, parts of files outside
+  	// the date range are skipped (the range is inclusive of maxDateExcl, see below)
   	Tweet tweet = null;
-  	filesLoop:while (tweetFiles.hasNext())
-  	{	
-  		int corruptedTweetCount = 0;
-  		Path currentFile = tweetFiles.next();
-  		LOG.info ("Processing tweets in file: " + currentFile);
-  		
-		try (SavedTweetReader rdr = new SavedTweetReader(currentFile); )
-		{	pastTweetsInFile.clear();
-			while (rdr.hasNext() && tweetCount < maxTweetsToProcess)
+  	Path currentFile = null;
+  	int corruptedTweetCount = 0;
+		try (SavedTweetReader rdr = new SavedTweetReader(tweetFiles, true, minDateIncl, maxDateExcl.plusMillis(1)); )
+		{	while (rdr.hasNext() && tweetCount < maxTweetsToProcess)
 			{	
+				if (rdr.getCurrentFile() != currentFile)
+				{	currentFile = rdr.getCurrentFile();
+					corruptedTweetCount = 0;
+					pastTweetsInFile.clear();
+					LOG.info ("Processing tweets in file: " + currentFile);
+				}
+				
 				try
-				{	tweet = rdr.next();
-					if (! isTweetsFromThisAccountIncluded(tweet.getAuthor()))
-						continue filesLoop; // all tweets in a file belong to a single account
+				{	TweetSlice slice = rdr.nextSlice();
+					if (! isTweetsFromThisAccountIncluded(slice.getAuthor()))
+					{	rdr.skipRestOfFile(); // all tweets in a file belong to a single account
+						continue;
+					}
+					
+					// Check the date before parsing the rest of the tweet, as many
+					// tweets are discarded here.
+					long localTimeMillis = slice.getLocalTimeMillis();
+			  		if (localTimeMillis < minDateIncl.getMillis() || maxDateExcl.getMillis() < localTimeMillis)
+			  		{	LOG.info("Skipping tweet posted on " + new DateTime(localTimeMillis) + " as it's outside the set time-range");
+			  			continue;
+			  		}
+			  		tweet = slice.toTweet();
 	  		
 			  		// Do we include this tweet, or do we skip it.
 			  		if (stripRetweets && isRetweet(tweet))
@@ -318,10 +347,6 @@ public class TweetFeatureExtractor implements Callable<Integer>
 							LOG.info("Retweets skipped: " + skippedAsRetweet + "/" + tweetCount + " (" + (100 * skippedAsRetweet / Math.max(1, tweetCount)) + "%)");
 			  			continue;
 			  		}
-			  		if (tweet.getLocalTime().isBefore(minDateIncl) || maxDateExcl.isBefore(tweet.getLocalTime()))
-			  		{	LOG.info("Skipping tweet posted on " + tweet.getLocalTime() + " as it's outside the set time-range");
-			  			continue;
-			  		}
 			  		
 			  		// There are some duplicate tweets in the dataset. We <em>presume</em>
 			  		// files are sorted by name, and keep a track of each account's IDs
@@ -359,14 +384,13 @@ public class TweetFeatureExtractor implements Callable<Integer>
 				{	LOG.warn ("Error processing tweet from file " + currentFile + " : " + e.getMessage(), e);
 					if (++corruptedTweetCount >= MAX_CORRUPTED_TWEETS_PER_FILE)
 					{	LOG.warn ("Encountered " + corruptedTweetCount + " corrupted tweets in the current file, so skipping it. The current file is " + currentFile);
-						continue filesLoop; // skip this file.
+						rdr.skipRestOfFile();
 					}
 				}
 			}
 		
-			LOG.info ("Total tweets processed thus far : " + tweetCount);
+			LOG.info ("Total tweets processed : " + tweetCount);
 		}
-	}
 	
 	try
 	{	wordMatrix.writeToFile(wordsFile);
@@ -640,6 +664,14 @@ public class TweetFeatureExtractor implements Callable<Integer>
     this.aggregateByAuthor = aggregateByAuthor;
   }
 
+  public boolean isNumpyDicts() {
+    return numpyDicts;
+  }
+
+  public void setNumpyDicts(boolean numpyDicts) {
+    this.numpyDicts = numpyDicts;
+  }
+
   public DateTime getMinDateIncl() {
     return minDateIncl;
   }
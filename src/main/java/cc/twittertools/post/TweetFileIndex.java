@@ -0,0 +1,384 @@
+package cc.twittertools.post;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.Charsets;
+import org.joda.time.Chronology;
+import org.joda.time.chrono.ISOChronology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.CountingInputStream;
+
+import cc.twittertools.spider.TweetsHtmlParser;
+
+/**
+ * A small sidecar index, written alongside a saved tweets file (e.g.
+ * <tt>user.1</tt> is indexed by <tt>user.1.tidx</tt>), holding the number of
+ * tweets in the file, the range of tweet IDs and times, and the byte offsets
+ * at which each month's tweets start. For block-gzipped files (see
+ * {@link BlockGzipOutputStream}) offsets are in the decompressed text, as they
+ * are for other GZipped files, though {@link LineReader} reads those in full
+ * as it can't seek in them. Readers use this to skip files, or the
+ * parts of files, outside a requested range of dates without parsing them.
+ * <p>
+ * Times are the milliseconds of each tweet's local time, as compared by
+ * date filters. Months are split on the local time's UTC month. Saved
+ * tweets are usually sorted newest first, so each month is usually one
+ * contiguous run of lines, but the index makes no such assumption: a month
+ * may have several runs.
+ * <p>
+ * An index records the length on disk of the file it was built from, and
+ * is ignored if the file has since changed size. The format is tab-delimited text.
+ */
+public final class TweetFileIndex
+{
+  private final static Logger LOG = LoggerFactory.getLogger(TweetFileIndex.class);
+
+  public  final static String SUFFIX  = ".tidx";
+  private final static String HEADER  = "TweetFileIndex";
+  private final static int    VERSION = 1;
+
+  /** Returned by {@link #getFirstTweetId()} for files without any real tweets */
+  public  final static long   NO_TWEET_ID = -1;
+
+  /** A contiguous run of lines whose local times all fall within the same month */
+  private final static class Run
+  { final long offset;
+    long bytes;
+    int  count;
+    long minLocalMillis = Long.MAX_VALUE;
+    long maxLocalMillis = Long.MIN_VALUE;
+
+    Run (long offset)
+    { this.offset = offset;
+    }
+  }
+
+  private final long      fileBytes;
+  private final int       tweetCount;
+  private final long      minId, maxId, firstId;
+  private final long      minUtcMillis, maxUtcMillis;
+  private final long      minLocalMillis, maxLocalMillis;
+  private final List<Run> runs;
+
+  private TweetFileIndex (long fileBytes, int tweetCount, long minId, long maxId, long firstId,
+      long minUtcMillis, long maxUtcMillis, long minLocalMillis, long maxLocalMillis, List<Run> runs)
+  { this.fileBytes      = fileBytes;
+    this.tweetCount     = tweetCount;
+    this.minId          = minId;
+    this.maxId          = maxId;
+    this.firstId        = firstId;
+    this.minUtcMillis   = minUtcMillis;
+    this.maxUtcMillis   = maxUtcMillis;
+    this.minLocalMillis = minLocalMillis;
+    this.maxLocalMillis = maxLocalMillis;
+    this.runs           = Collections.unmodifiableList(runs);
+  }
+
+  /**
+   * Builds an index from tweets as they're written, in file order. Each
+   * tweet's line must be given with its length in bytes, including the
+   * newline.
+   */
+  public final static class Builder
+  { private final static Chronology UTC = ISOChronology.getInstanceUTC();
+
+    private final List<Run> runs = new ArrayList<>();
+    private Run  run;
+    private int  runMonth = -1;
+    private long bytes;
+    private int  tweetCount;
+    private long minId = Long.MAX_VALUE, maxId = Long.MIN_VALUE, firstId = NO_TWEET_ID;
+    private long minUtcMillis   = Long.MAX_VALUE, maxUtcMillis   = Long.MIN_VALUE;
+    private long minLocalMillis = Long.MAX_VALUE, maxLocalMillis = Long.MIN_VALUE;
+
+    public Builder add (Tweet tweet, long lineBytes)
+    { return add (tweet.getId(), tweet.getUtcTime().getMillis(), tweet.getLocalTime().getMillis(), lineBytes);
+    }
+
+    public Builder add (long id, long utcMillis, long localMillis, long lineBytes)
+    { int month = UTC.year().get(localMillis) * 12 + UTC.monthOfYear().get(localMillis);
+      if (run == null || month != runMonth)
+      { run      = new Run (bytes);
+        runMonth = month;
+        runs.add (run);
+      }
+      run.bytes += lineBytes;
+      run.count++;
+      run.minLocalMillis = Math.min (run.minLocalMillis, localMillis);
+      run.maxLocalMillis = Math.max (run.maxLocalMillis, localMillis);
+
+      if (firstId == NO_TWEET_ID && id != TweetsHtmlParser.SUSPECTED_ADVERT_TWEET_ID)
+        firstId = id;
+      minId          = Math.min (minId, id);
+      maxId          = Math.max (maxId, id);
+      minUtcMillis   = Math.min (minUtcMillis, utcMillis);
+      maxUtcMillis   = Math.max (maxUtcMillis, utcMillis);
+      minLocalMillis = Math.min (minLocalMillis, localMillis);
+      maxLocalMillis = Math.max (maxLocalMillis, localMillis);
+      bytes += lineBytes;
+      tweetCount++;
+      return this;
+    }
+
+    /**
+     * Skips over a line which isn't a tweet, such as a blank or corrupted
+     * line, so the offsets of later runs stay correct.
+     */
+    public Builder skip (long lineBytes)
+    { if (run != null)
+        run.bytes += lineBytes;
+      bytes += lineBytes;
+      return this;
+    }
+
+    /**
+     * Builds the index, recording the total length of the lines added as
+     * the file's length. {@link TweetFileIndex#writeFor(Path)} records the
+     * file's actual length, which differs if it's compressed.
+     */
+    public TweetFileIndex build()
+    { return build (bytes);
+    }
+
+    private TweetFileIndex build (long fileBytes)
+    { return new TweetFileIndex (fileBytes, tweetCount, minId, maxId, firstId,
+        minUtcMillis, maxUtcMillis, minLocalMillis, maxLocalMillis, new ArrayList<>(runs));
+    }
+  }
+
+  /** The path of the index for the given tweets file */
+  public static Path indexPathFor (Path tweetsFile)
+  { return tweetsFile.resolveSibling (tweetsFile.getFileName().toString() + SUFFIX);
+  }
+
+  /** Is the given file an index, rather than a tweets file */
+  public static boolean isIndexFile (Path path)
+  { return path.getFileName().toString().endsWith (SUFFIX);
+  }
+
+  /**
+   * Builds an index by reading through an existing tweets file, which may be
+   * block-gzipped, or GZipped if its name ends with ".gz". Lines which can't
+   * be parsed are skipped.
+   */
+  public static TweetFileIndex build (Path tweetsFile) throws IOException
+  { Builder builder = new Builder();
+    long    textBytes;
+    try (SeekableByteChannel channel = Files.newByteChannel (tweetsFile);
+         CountingInputStream in      = new CountingInputStream (BlockGzipInputStream.isBlockGzipped (channel)
+                                         ? new BlockGzipInputStream (channel)
+                                         : tweetsFile.getFileName().toString().toUpperCase().endsWith (".GZ")
+                                         ? new GZIPInputStream (Channels.newInputStream (channel), 1 << 16)
+                                         : Channels.newInputStream (channel));
+         BufferedReader      rdr     = new BufferedReader (new InputStreamReader (in, Charsets.UTF_8.newDecoder()), 1 << 16))
+    { String line;
+      while ((line = rdr.readLine()) != null)
+      { long lineBytes = utf8Length (line) + 1;
+        try
+        { TweetSlice slice = new TweetSlice (line);
+          builder.add (slice.getId(), slice.getUtcTimeMillis(), slice.getLocalTimeMillis(), lineBytes);
+        }
+        catch (RuntimeException e)
+        { builder.skip (lineBytes);
+        }
+      }
+      textBytes = in.getCount();
+    }
+
+    if (builder.bytes != textBytes) // e.g. Windows line endings
+      throw new IOException ("Can't index " + tweetsFile + " as its lines aren't newline-terminated UTF-8");
+    return builder.build (Files.size (tweetsFile));
+  }
+
+  /** The number of bytes in the UTF-8 encoding of the given string */
+  public static int utf8Length (CharSequence str)
+  { int bytes = 0;
+    for (int i = 0; i < str.length(); i++)
+    { char c = str.charAt(i);
+      if (c < 0x80)
+        bytes += 1;
+      else if (c < 0x800)
+        bytes += 2;
+      else if (Character.isHighSurrogate (c) && i + 1 < str.length() && Character.isLowSurrogate (str.charAt(i + 1)))
+      { bytes += 4;
+        ++i;
+      }
+      else
+        bytes += 3;
+    }
+    return bytes;
+  }
+
+  /**
+   * Reads the index of the given tweets file, if it has one, and if it
+   * still matches the file's size. A corrupted index is logged and ignored.
+   * @return the index, or null if there's no up-to-date index
+   */
+  public static TweetFileIndex readFor (Path tweetsFile)
+  { Path indexFile = indexPathFor (tweetsFile);
+    try
+    { if (! Files.exists (indexFile))
+        return null;
+
+      TweetFileIndex index = read (indexFile);
+      return index.fileBytes == Files.size (tweetsFile) ? index : null;
+    }
+    catch (IOException | RuntimeException e)
+    { LOG.warn ("Ignoring unreadable tweets index " + indexFile + " : " + e.getMessage());
+      return null;
+    }
+  }
+
+  private static TweetFileIndex read (Path indexFile) throws IOException
+  { List<String> lines = Files.readAllLines (indexFile, Charsets.UTF_8);
+    if (lines.size() < 6)
+      throw new IOException ("Truncated index");
+
+    String[] header = lines.get(0).split("\t");
+    if (! header[0].equals (HEADER) || Integer.parseInt (header[1]) != VERSION)
+      throw new IOException ("Not a version " + VERSION + " tweets index");
+
+    long[] fileBytes = fields (lines.get(1), "bytes", 1);
+    long[] tweets    = fields (lines.get(2), "tweets", 1);
+    long[] ids       = fields (lines.get(3), "ids", 3);
+    long[] utc       = fields (lines.get(4), "utc", 2);
+    long[] local     = fields (lines.get(5), "local", 2);
+
+    List<Run> runs = new ArrayList<>();
+    for (String line : lines.subList (6, lines.size()))
+    { if (line.isEmpty())
+        continue;
+      long[] r = fields (line, "run", 5);
+      Run run = new Run (r[0]);
+      run.bytes          = r[1];
+      run.count          = (int) r[2];
+      run.minLocalMillis = r[3];
+      run.maxLocalMillis = r[4];
+      runs.add (run);
+    }
+
+    return new TweetFileIndex (fileBytes[0], (int) tweets[0], ids[0], ids[1], ids[2],
+      utc[0], utc[1], local[0], local[1], runs);
+  }
+
+  private static long[] fields (String line, String name, int count) throws IOException
+  { String[] parts = line.split("\t");
+    if (parts.length != count + 1 || ! parts[0].equals (name))
+      throw new IOException ("Expected " + count + " values for " + name + " but the line was '" + line + "'");
+    long[] values = new long[count];
+    for (int i = 0; i < count; i++)
+      values[i] = Long.parseLong (parts[i + 1]);
+    return values;
+  }
+
+  /**
+   * Writes this out as the index of the given tweets file, which must
+   * already have been written in full and closed.
+   */
+  public void writeFor (Path tweetsFile) throws IOException
+  { long onDiskBytes = Files.size (tweetsFile);
+    try (BufferedWriter wtr = Files.newBufferedWriter (indexPathFor (tweetsFile), Charsets.UTF_8))
+    { wtr.write (HEADER + '\t' + VERSION + '\n');
+      wtr.write ("bytes\t"  + onDiskBytes + '\n');
+      wtr.write ("tweets\t" + tweetCount + '\n');
+      wtr.write ("ids\t"    + minId + '\t' + maxId + '\t' + firstId + '\n');
+      wtr.write ("utc\t"    + minUtcMillis + '\t' + maxUtcMillis + '\n');
+      wtr.write ("local\t"  + minLocalMillis + '\t' + maxLocalMillis + '\n');
+      for (Run run : runs)
+        wtr.write ("run\t" + run.offset + '\t' + run.bytes + '\t' + run.count + '\t' + run.minLocalMillis + '\t' + run.maxLocalMillis + '\n');
+    }
+  }
+
+  /**
+   * Could the file contain tweets whose local times are in the given range
+   * @param fromLocalMillisIncl the earliest local time accepted
+   * @param untilLocalMillisExcl the first local time after those accepted
+   */
+  public boolean overlaps (long fromLocalMillisIncl, long untilLocalMillisExcl)
+  { return tweetCount > 0 && maxLocalMillis >= fromLocalMillisIncl && minLocalMillis < untilLocalMillisExcl;
+  }
+
+  /**
+   * The ranges of bytes in the file which hold all the tweets whose local
+   * times are in the given range, as pairs of a start offset (inclusive)
+   * and end offset (exclusive), flattened into one array in file order.
+   * Adjacent ranges are merged. The array is empty if no tweet can match.
+   * The ranges may hold other tweets too, so callers must still filter.
+   */
+  public long[] byteRangesFor (long fromLocalMillisIncl, long untilLocalMillisExcl)
+  { long[] ranges = new long[runs.size() * 2];
+    int    count  = 0;
+    for (Run run : runs)
+    { if (run.maxLocalMillis < fromLocalMillisIncl || run.minLocalMillis >= untilLocalMillisExcl)
+        continue;
+      if (count > 0 && ranges[count - 1] == run.offset)
+        ranges[count - 1] = run.offset + run.bytes;
+      else
+      { ranges[count++] = run.offset;
+        ranges[count++] = run.offset + run.bytes;
+      }
+    }
+    return Arrays.copyOf (ranges, count);
+  }
+
+  /** The length on disk of the indexed file */
+  public long getFileBytes()
+  { return fileBytes;
+  }
+
+  public int getTweetCount()
+  { return tweetCount;
+  }
+
+  public long getMinId()
+  { return minId;
+  }
+
+  public long getMaxId()
+  { return maxId;
+  }
+
+  /**
+   * The ID of the first tweet in the file, ignoring placeholder IDs, which
+   * for files sorted newest first, is the most recently downloaded tweet.
+   * Returns {@link #NO_TWEET_ID} if there are no such tweets.
+   */
+  public long getFirstTweetId()
+  { return firstId;
+  }
+
+  public long getMinUtcMillis()
+  { return minUtcMillis;
+  }
+
+  public long getMaxUtcMillis()
+  { return maxUtcMillis;
+  }
+
+  public long getMinLocalMillis()
+  { return minLocalMillis;
+  }
+
+  public long getMaxLocalMillis()
+  { return maxLocalMillis;
+  }
+
+  /** The number of runs of same-month tweets in the file */
+  public int getRunCount()
+  { return runs.size();
+  }
+}
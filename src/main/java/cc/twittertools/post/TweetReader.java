@@ -7,6 +7,7 @@ import static cc.twittertools.corpus.data.Status.REQUESTED_ID;
 import static cc.twittertools.corpus.data.Status.USER;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Iterator;
@@ -16,20 +17,27 @@ import org.apache.commons.lang.StringUtils;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterators;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /**
  * Given a directory of (optionally GZipped) JSON files, reads in tweets
  * one by one (as they occur in the file) file by file (files sorted alphanumerically).
  * <p>
  * GZipping is detected simply by the presence of a ".gz" suffix.
+ * <p>
+ * Each line is read with a streaming {@link JsonReader}, picking out just
+ * the fields needed without building a tree of the whole object, and
+ * dates are parsed using a cache, as neighbouring tweets often share the
+ * same date. Instances are not thread-safe, so to read in parallel, use
+ * one reader per thread.
  */
 public class TweetReader implements Iterator<Tweet>
 {
   
   
-  private final JsonParser       parser;
+  private final CachedDateParser dates = new CachedDateParser (Tweet.TWITTER_FMT);
   private final Iterator<String> lines;
   
   /**
@@ -37,8 +45,7 @@ public class TweetReader implements Iterator<Tweet>
    * given iterator. Blank strings are skipped.
    */
   public TweetReader (Iterator<String> jsonIter) throws IOException
-  { parser = new JsonParser();
-    lines  = Iterators.filter (
+  { lines  = Iterators.filter (
       jsonIter,
       new Predicate<String>() {
         @Override public boolean apply(String arg) {
@@ -86,16 +93,53 @@ public class TweetReader implements Iterator<Tweet>
 
   @Override
   public Tweet next()
-  { String line = lines.next().trim();
-    JsonObject json = (JsonObject) parser.parse(line);
+  { return parse (lines.next().trim());
+  }
+  
+  /**
+   * Parses a single tweet from the given line of JSON
+   * @throws JsonParseException if the line isn't valid JSON, or is missing
+   * some of the tweet's fields
+   */
+  public Tweet parse (String line)
+  { try
+    { return parseJson (line);
+    }
+    catch (IOException | IllegalStateException | NumberFormatException e)
+    { throw new JsonParseException ("Can't parse tweet " + line + " : " + e.getMessage(), e);
+    }
+  }
+  
+  private Tweet parseJson (String line) throws IOException
+  { String msg = null, user = null, date = null;
+    long   id  = -1, reqId = -1;
+    
+    try (JsonReader json = new JsonReader (new StringReader (line)))
+    { json.setLenient (true); // as JsonParser was, old crawls have some malformed JSON
+      json.beginObject();
+      while (json.hasNext())
+      { String name = json.nextName();
+        if (json.peek() == JsonToken.NULL)
+          json.skipValue();
+        else if (name.equals (MESSAGE))
+          msg = json.nextString();
+        else if (name.equals (USER))
+          user = json.nextString();
+        else if (name.equals (DATETIME))
+          date = json.nextString();
+        else if (name.equals (ID))
+          id = json.nextLong();
+        else if (name.equals (REQUESTED_ID))
+          reqId = json.nextLong();
+        else // e.g. the timestamp, which is relative to when it was downloaded
+          json.skipValue();
+      }
+      json.endObject();
+    }
     
-    String msg   = json.get(MESSAGE).getAsString();
-    String user  = json.get(USER).getAsString();
-    String date  = json.get(DATETIME).getAsString();
-    //long   stamp = json.get(TIMESTAMP).getAsLong(); // relative time since it was downloaded...
-    long   id    = json.get(ID).getAsLong();
-    long   reqId = json.get(REQUESTED_ID).getAsLong();
+    if (msg == null || user == null || date == null || id < 0 || reqId < 0)
+      throw new JsonParseException ("Tweet is missing one or more of its text, user, date, ID and requested ID : " + line);
     
-    return new Tweet(id, reqId, date, user, msg);
+    return new Tweet(id, reqId, null, dates.parse (date), user, msg);
   }
 }
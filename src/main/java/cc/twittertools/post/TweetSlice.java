@@ -0,0 +1,370 @@
+package cc.twittertools.post;
+
+import cc.twittertools.post.tabwriter.TabWriter;
+import com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A lazily parsed view of a single line written by {@link Tweet#WRITER}.
+ * <p>
+ * Construction just finds the tab characters in the line. Fields are
+ * only parsed when they're accessed, and parsed values are cached, so a
+ * caller can check an author or date, and throw the tweet away, without
+ * paying for the full parse: two date-time parses with Joda's formatter,
+ * the embedded excerpt and retweet, and the hashtag, addressee and retweet
+ * sigil scans done by the {@link cc.twittertools.post.embed.Retweet}
+ * constructor.
+ * <p>
+ * Use {@link #toTweet()} to get the full tweet, which is identical to that
+ * returned by {@link Tweet#WRITER}'s <code>fromTabDelimStr()</code>
+ */
+public final class TweetSlice {
+
+    private static final int LOCAL_TIME = 0;
+    private static final int UTC_TIME   = 1;
+    private static final int AUTHOR     = 3;
+    private static final int ID         = 4;
+    private static final int MSG        = 5;
+    private static final int PAGE       = 6;
+
+    private final String line;
+    private final int[]  starts; // the start of each field, and one past the end of the line
+    private final int    fieldCount;
+
+    private String      author;
+    private String      msg;
+    private DateTime    localTime;
+    private DateTime    utcTime;
+    private Set<String> hashTags;
+    private Set<String> addressees;
+    private int         retweetField = -1;
+    private Tweet       tweet;
+
+    public TweetSlice(String line) {
+        int[] starts = new int[16];
+        int   count  = 1;
+        for (int i = line.indexOf('\t'); i >= 0; i = line.indexOf('\t', i + 1)) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            starts[count++] = i + 1;
+        }
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, starts.length + 1);
+        }
+        starts[count] = line.length() + 1;
+
+        this.line       = line;
+        this.starts     = starts;
+        this.fieldCount = count;
+
+        if (fieldCount <= PAGE) {
+            throw new IllegalArgumentException("A tweet needs at least " + (PAGE + 1) + " tab-delimited fields, but this has only " + fieldCount);
+        }
+    }
+
+    /** The line from which this slice was created */
+    public String getLine() {
+        return line;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /** A view of the given field's characters, without copying them */
+    public CharSequence getField(int field) {
+        return CharBuffer.wrap(line, start(field), end(field));
+    }
+
+    private int start(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IndexOutOfBoundsException("No field " + field + " in a line with " + fieldCount + " fields");
+        }
+        return starts[field];
+    }
+
+    private int end(int field) {
+        start(field);
+        return starts[field + 1] - 1;
+    }
+
+    private String fieldString(int field) {
+        return line.substring(start(field), end(field));
+    }
+
+    private boolean fieldEquals(int field, String value) {
+        return end(field) - start(field) == value.length()
+            && line.startsWith(value, start(field));
+    }
+
+    public String getAuthor() {
+        if (author == null) {
+            author = fieldString(AUTHOR);
+        }
+        return author;
+    }
+
+    /** Compares the author to the given name, case-sensitively, without copying it out of the line */
+    public boolean isAuthor(String name) {
+        int len = end(AUTHOR) - start(AUTHOR);
+        return len == name.length() && line.startsWith(name, start(AUTHOR));
+    }
+
+    /** Compares the author to the given name without copying it out of the line */
+    public boolean isAuthorIgnoreCase(String name) {
+        int len = end(AUTHOR) - start(AUTHOR);
+        return len == name.length() && line.regionMatches(true, start(AUTHOR), name, 0, len);
+    }
+
+    public long getId() {
+        return parseLong(line, start(ID), end(ID));
+    }
+
+    public String getMsg() {
+        if (msg == null) {
+            msg = fieldString(MSG);
+        }
+        return msg;
+    }
+
+    /**
+     * The local time as milliseconds since the epoch, which can be compared
+     * to {@link DateTime#getMillis()}, parsed without creating a date-time
+     */
+    public long getLocalTimeMillis() {
+        return localTime != null ? localTime.getMillis() : parseIsoMillis(LOCAL_TIME);
+    }
+
+    /**
+     * The UTC time as milliseconds since the epoch, parsed without
+     * creating a date-time
+     */
+    public long getUtcTimeMillis() {
+        return utcTime != null ? utcTime.getMillis() : parseIsoMillis(UTC_TIME);
+    }
+
+    /**
+     * The offset from UTC of the local time, in minutes, as written in the
+     * local time's field, parsed without creating a date-time
+     */
+    public int getLocalUtcOffsetMinutes() {
+        int s   = start(LOCAL_TIME);
+        int len = end(LOCAL_TIME) - s;
+        if (len == 20 && line.charAt(s + 19) == 'Z') {
+            return 0;
+        } else if (len == 25 && line.charAt(s + 22) == ':') {
+            char sign    = line.charAt(s + 19);
+            int  hours   = digits(s + 20, 2);
+            int  minutes = digits(s + 23, 2);
+            if ((sign == '+' || sign == '-') && hours >= 0 && minutes >= 0) {
+                return (sign == '-' ? -1 : 1) * (hours * 60 + minutes);
+            }
+        }
+        DateTime time = ISODateTimeFormat.dateTimeNoMillis().withOffsetParsed().parseDateTime(fieldString(LOCAL_TIME));
+        return time.getZone().getOffset(time) / 60_000;
+    }
+
+    public DateTime getLocalTime() {
+        if (localTime == null) {
+            localTime = ISODateTimeFormat.dateTimeNoMillis().parseDateTime(fieldString(LOCAL_TIME));
+        }
+        return localTime;
+    }
+
+    public DateTime getUtcTime() {
+        if (utcTime == null) {
+            utcTime = ISODateTimeFormat.dateTimeNoMillis().parseDateTime(fieldString(UTC_TIME));
+        }
+        return utcTime;
+    }
+
+    public boolean hasEmbeddedPage() {
+        return isSome(PAGE);
+    }
+
+    /**
+     * Does this tweet contain a retweet. Unlike {@link cc.twittertools.post.embed.Retweet#isManualRetweet()}
+     * this doesn't need the message to be scanned.
+     */
+    public boolean containsRetweet() {
+        return isSome(retweetField());
+    }
+
+    /**
+     * Does the embedded retweet itself contain a retweet. This is false if
+     * there's no embedded retweet.
+     */
+    public boolean embeddedRetweetContainsRetweet() {
+        if (! containsRetweet()) {
+            return false;
+        }
+        int pageField = retweetField() + 4; // author, ID and message
+        return isSome(skipExcerpt(pageField));
+    }
+
+    /**
+     * Does the message contain a {@link Sigil#RETWEET} sigil, as
+     * {@link cc.twittertools.post.embed.Retweet#isManualRetweet()}
+     */
+    public boolean isManualRetweet() {
+        return Sigil.RETWEET.occursIn(getMsg());
+    }
+
+    public Set<String> getHashTags() {
+        if (hashTags == null) {
+            hashTags = Sets.newHashSet(Sigil.HASH_TAG.extractSigils(getMsg()).getRight());
+        }
+        return hashTags;
+    }
+
+    public Set<String> getAddressees() {
+        if (addressees == null) {
+            addressees = Sets.newHashSet(Sigil.ADDRESSEE.extractSigils(getMsg()).getRight());
+        }
+        return addressees;
+    }
+
+    /** Parses the whole line into a tweet */
+    public Tweet toTweet() {
+        if (tweet == null) {
+            String[] parts = new String[fieldCount];
+            for (int f = 0; f < fieldCount; f++) {
+                parts[f] = fieldString(f);
+            }
+            tweet = Tweet.WRITER.fromTabDelimParts(parts, 0).getLeft();
+        }
+        return tweet;
+    }
+
+    /** The field holding the marker saying whether there's a retweet */
+    private int retweetField() {
+        if (retweetField < 0) {
+            retweetField = skipExcerpt(PAGE);
+        }
+        return retweetField;
+    }
+
+    /**
+     * Given the marker field of an optional web excerpt, returns the field
+     * following it, as written by {@link cc.twittertools.post.embed.WebExcerpt#WRITER}
+     */
+    private int skipExcerpt(int field) {
+        if (! isSome(field)) {
+            return field + 1;
+        }
+        int excerptField = field + 3; // URI and card URI
+        return isSome(excerptField) ? excerptField + 3 : excerptField + 1;
+    }
+
+    private boolean isSome(int field) {
+        if (fieldEquals(field, TabWriter.SOME)) {
+            return true;
+        } else if (fieldEquals(field, TabWriter.NONE)) {
+            return false;
+        } else {
+            throw new IllegalArgumentException("Field " + field + " in a representation of an optional value is neither '" + TabWriter.SOME + "' or '" + TabWriter.NONE + "'");
+        }
+    }
+
+    private static long parseLong(String str, int start, int end) {
+        if (start == end || end - start > 18) {
+            return Long.parseLong(str.substring(start, end));
+        }
+        boolean negative = str.charAt(start) == '-';
+        long    value    = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            int digit = str.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(str.substring(start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the date-time in the given field, as written by
+     * {@link ISODateTimeFormat#dateTimeNoMillis()}, for example
+     * "2014-03-01T09:30:00+05:30" or "2014-03-01T09:30:00Z", directly into
+     * milliseconds since the epoch. Anything else is left to Joda.
+     */
+    private long parseIsoMillis(int field) {
+        int s   = start(field);
+        int len = end(field) - s;
+        if ((len == 20 || len == 25)
+            && line.charAt(s + 4) == '-' && line.charAt(s + 7) == '-' && line.charAt(s + 10) == 'T'
+            && line.charAt(s + 13) == ':' && line.charAt(s + 16) == ':') {
+            int year   = digits(s, 4);
+            int month  = digits(s + 5, 2);
+            int day    = digits(s + 8, 2);
+            int hour   = digits(s + 11, 2);
+            int minute = digits(s + 14, 2);
+            int second = digits(s + 17, 2);
+
+            int  offsetMins = 0;
+            char zone       = line.charAt(s + 19);
+            boolean valid   = year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)
+                           && hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60;
+            if (len == 20) {
+                valid &= zone == 'Z';
+            } else {
+                int offsetHours = digits(s + 20, 2);
+                int offsetMinutes = digits(s + 23, 2);
+                valid &= (zone == '+' || zone == '-') && line.charAt(s + 22) == ':' && offsetHours >= 0 && offsetMinutes >= 0;
+                offsetMins = (zone == '-' ? -1 : 1) * (offsetHours * 60 + offsetMinutes);
+            }
+
+            if (valid) {
+                long days = daysFromCivil(year, month, day);
+                return ((days * 24 + hour) * 60 + minute - offsetMins) * 60_000L + second * 1000L;
+            }
+        }
+        return ISODateTimeFormat.dateTimeNoMillis().parseMillis(fieldString(field));
+    }
+
+    /** Parses the given number of decimal digits, returning -1 if any character isn't a digit */
+    private int digits(int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /** The number of days in the given month of the given proleptic Gregorian year */
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+            case 4: case 6: case 9: case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /** The number of days between the epoch and the given proleptic Gregorian date */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    @Override
+    public String toString() {
+        return line;
+    }
+}
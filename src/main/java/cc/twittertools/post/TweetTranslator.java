@@ -1,28 +1,104 @@
 package cc.twittertools.post;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import cc.twittertools.corpus.data.Status;
+import cc.twittertools.post.columnar.ColumnarTweetWriter;
+
+import com.google.common.base.Charsets;
 
 /**
  * Simple script to read in JSON formatted tweets and write
- * out tab-delimited tweets (with addressees and hash-tags
- * extracted out for easy analysis. Also writes out tables of
- * incidence of authors and hash-tags. 
- * 
+ * them out in the current tab-delimited format read by
+ * {@link SavedTweetReader}, or in the binary columnar format
+ * read by {@link cc.twittertools.post.columnar.ColumnarTweetReader}.
+ * Also writes out tables of incidence of authors and hash-tags.
+ * <p>
+ * The input is either the legacy JSON written by the old spider, see
+ * {@link TweetReader}, or the TREC corpus's JSON, see {@link Status#fromJson(String)}.
+ * It may be a single file, which is translated to a single output file,
+ * or a directory of files, in which case the output is also a directory:
+ * the files are translated in parallel, each to a file of the same name,
+ * less its ".json" and ".gz" suffixes, in the output directory. A
+ * directory is never translated to a single file, as files can't be
+ * written to one in parallel, and columnar files can't be
+ * concatenated. Tab-delimited outputs can simply be concatenated in name
+ * order if a single file is needed.
+ * <p>
+ * Neither format records the time-zone of the tweet, so tweets' times
+ * are taken to be UTC.
  *
  * @author bfeeney
  * TODO add basic language detection to this via lc4j
  */
 public class TweetTranslator implements Callable<Integer>
 {
-  private final Path inputPath;
-  private final Path outputPath;
-  
-  private final Path hashAuthorStatsPath;
-  
-  
+  private final static Logger LOG = Logger.getLogger(TweetTranslator.class);
+
+  private static final int MAX_CORRUPTED_TWEETS_PER_FILE = 5;
+
+  /** The suffix given to output files in the {@link OutputFormat#COLUMNAR} format */
+  public final static String COLUMNAR_SUFFIX = ".twc";
+
+  /**
+   * The date shown at the end of a tweet's oEmbed HTML, e.g. "March 10, 2013"
+   * <p>We use the UTC time zone, as for {@link cc.twittertools.post.old.Tweet#TWITTER_FMT}
+   */
+  private final static DateTimeFormatter TREC_DATE_FMT =
+      DateTimeFormat.forPattern("MMMM d, yyyy").withZone(DateTimeZone.UTC).withLocale(Locale.ENGLISH);
+
+  public enum InputFormat
+  { /** One JSON object per line, as read by {@link TweetReader} */
+    LEGACY_JSON,
+    /** One oEmbed JSON object per line, as read by {@link Status#fromJson(String)} */
+    TREC_JSON
+  }
+
+  public enum OutputFormat
+  { TAB_DELIMITED,
+    COLUMNAR
+  }
+
+  private Path inputPath;
+  private Path outputPath;
+
+  private Path hashAuthorStatsPath;
+
+  private InputFormat  inputFormat  = InputFormat.LEGACY_JSON;
+  private OutputFormat outputFormat = OutputFormat.TAB_DELIMITED;
+  private int          threadCount  = Runtime.getRuntime().availableProcessors();
+
+  private final AtomicInteger progress = new AtomicInteger();
+
+  @Option(name="-h", aliases="--help", usage="Show this help message", metaVar=" ")
+  private boolean showHelp = false;
+
+
   public TweetTranslator(Path inputPath, Path outputPath, Path hashAuthorStatsPath) {
     super();
     this.inputPath = inputPath;
@@ -30,42 +106,181 @@ public class TweetTranslator implements Callable<Integer>
     this.hashAuthorStatsPath = hashAuthorStatsPath;
   }
 
+  private TweetTranslator()
+  {
+  }
+
+
+  /** Parses the arguments */
+  private void parseArguments(String[] args)
+  { CmdLineParser parser = null;
+    try
+    { parser = new CmdLineParser(this);
+      parser.parseArgument(args);
+
+      if (showHelp)
+      { System.out.println("Help for this command:");
+        showHelp (System.out, parser);
+        System.exit(0);
+      }
+    }
+    catch (CmdLineException e)
+    { System.err.println (e.getMessage());
+      showHelp (System.err, parser);
+      System.exit(-1);
+    }
+  }
+
+  /** Shows the help message to the given stream. Needs the parser object to say what the options are. */
+  private void showHelp(PrintStream out, CmdLineParser parser)
+  { out.println ("Usage: java -jar JARNAME.jar <options>");
+    if (parser != null)
+      parser.printUsage(out);
+  }
+
+  /** The tweets translated from a single file */
+  private final static class Translated
+  { int            count;
+    Counts<String> hashUserStats = new Counts<>();
+  }
 
 
   /**
    * Translates tweets and writes out tables of stats on
-   * tweets per author / per hashtag
+   * tweets per author / per hashtag. Returns the number of tweets
+   * translated
    */
-  public Integer call() throws Exception 
+  public Integer call() throws Exception
   { Counts<String> hashUserStats = new Counts<>();
     int count = 0;
-    
+
+    if (! Files.isDirectory(inputPath))
+    { Translated result = translate (inputPath, outputPath);
+      hashUserStats = result.hashUserStats;
+      count         = result.count;
+    }
+    else
+    { if (Files.exists(outputPath) && ! Files.isDirectory(outputPath))
+        throw new IllegalArgumentException ("The input " + inputPath + " is a directory, so the output " + outputPath + " must be a directory too, not a file");
+      Files.createDirectories(outputPath);
+      ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+      try
+      { List<Future<Translated>> results = new ArrayList<>();
+        for (final Path file : inputFiles())
+        { final Path output = outputPath.resolve(outputName (file));
+          results.add (executor.submit (new Callable<Translated>() {
+            @Override
+            public Translated call() throws Exception
+            { return translate (file, output);
+            }
+          }));
+        }
+
+        for (Future<Translated> result : results)
+        { hashUserStats.addAll (result.get().hashUserStats);
+          count += result.get().count;
+        }
+      }
+      finally
+      { executor.shutdownNow();
+      }
+    }
+
+    if (hashAuthorStatsPath != null)
+      hashUserStats.write(hashAuthorStatsPath);
+    return count;
+  }
+
+  /** The files to translate in the input directory, in name order */
+  private List<Path> inputFiles() throws IOException
+  { List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> dirContents = Files.newDirectoryStream(inputPath))
+    { for (Path file : dirContents)
+      { String name = file.getFileName().toString().toUpperCase();
+        if (inputFormat == InputFormat.TREC_JSON ? name.endsWith(".GZ") : LineReader.isJsonFile(file))
+          files.add (file);
+      }
+    }
+    Collections.sort(files);
+    return files;
+  }
+
+  /** The name of the file to which the given input file is translated */
+  private String outputName (Path file)
+  { String name = file.getFileName().toString();
+    name = StringUtils.removeEndIgnoreCase(name, ".gz");
+    name = StringUtils.removeEndIgnoreCase(name, ".json");
+    return outputFormat == OutputFormat.COLUMNAR ? name + COLUMNAR_SUFFIX : name;
+  }
+
+  /**
+   * Translates the tweets in a single file, skipping corrupted tweets,
+   * unless there are too many, in which case the rest of the file is
+   * skipped.
+   */
+  private Translated translate (Path input, Path output) throws IOException
+  { Translated result = new Translated();
+    TweetReader      legacy    = new TweetReader (Collections.<String>emptyIterator());
+    CachedDateParser trecDates = new CachedDateParser (TREC_DATE_FMT);
+    int corruptedTweetCount = 0;
+
     try (
-        LineReader  rdr  = new LineReader (inputPath);
-        TweetWriter wrtr = new TweetWriter (outputPath);
+        LineReader          rdr      = new LineReader (input);
+        BufferedWriter      tsv      = outputFormat == OutputFormat.TAB_DELIMITED ? Files.newBufferedWriter(output, Charsets.UTF_8) : null;
+        ColumnarTweetWriter columnar = outputFormat == OutputFormat.COLUMNAR ? new ColumnarTweetWriter(output) : null;
     )
-    {
-      Iterator<cc.twittertools.post.old.Tweet> tweets = new TweetReader(rdr);
-      
-      while (tweets.hasNext())
-      { cc.twittertools.post.old.Tweet tweet = tweets.next();
-        ++count;
-        printProgress (count);
-          
+    { while (rdr.hasNext())
+      { cc.twittertools.post.old.Tweet tweet;
+        try
+        { String line = rdr.next();
+          if (StringUtils.isBlank(line))
+            continue;
+
+          if (inputFormat == InputFormat.LEGACY_JSON)
+            tweet = legacy.parse(line.trim());
+          else if ((tweet = fromStatus (Status.fromJson(line), trecDates)) == null)
+            continue;
+        }
+        catch (RuntimeException e)
+        { LOG.warn ("Error reading tweet from file " + input + " : " + e.getMessage(), e);
+          if (++corruptedTweetCount >= MAX_CORRUPTED_TWEETS_PER_FILE)
+          { LOG.warn ("Encountered " + corruptedTweetCount + " corrupted tweets, so skipping the rest of the file " + input);
+            break;
+          }
+          continue;
+        }
+
+        Tweet translated = new Tweet (tweet.getId(), tweet.getAuthor(), tweet.getMsg(), tweet.getLocalTime(), tweet.getLocalTime());
+        if (tsv != null)
+        { tsv.write (Tweet.WRITER.asTabDelimStr(translated));
+          tsv.write ('\n');
+        }
+        else
+          columnar.write (translated);
+
         for (String hashTag : tweet.getHashTags())
-          hashUserStats.inc(hashTag + '\t' + tweet.getAuthor());
-        //wrtr.writeTweet(tweet);
+          result.hashUserStats.inc(hashTag + '\t' + tweet.getAuthor());
+        ++result.count;
+        printProgress (progress.incrementAndGet());
       }
-      
-      hashUserStats.write(hashAuthorStatsPath);
     }
-    return count;
+
+    LOG.info ("Translated " + result.count + " tweets from " + input + " to " + output);
+    return result;
   }
-  
+
+  /** Converts a status from the TREC corpus to a tweet, or returns null if the status is null */
+  private static cc.twittertools.post.old.Tweet fromStatus (Status status, CachedDateParser dates)
+  { if (status == null)
+      return null;
+    DateTime date = dates.parse(status.getCreatedAt().trim());
+    return new cc.twittertools.post.old.Tweet(status.getId(), status.getId(), null, date, status.getScreenname(), status.getText());
+  }
+
   private final static void printProgress (int count)
   { if (count == 0)
       return;
-  
+
     if (count % 100000 == 0)
     { System.out.print (" " + count + "\n");
     }
@@ -75,13 +290,53 @@ public class TweetTranslator implements Callable<Integer>
     }
     System.out.flush();
   }
-  
+
+  public InputFormat getInputFormat()
+  { return inputFormat;
+  }
+
+  @Option(name="-f", aliases="--input-format", usage="The format of the input: LEGACY_JSON, as written by the old spider, or TREC_JSON", metaVar=" ")
+  public void setInputFormat(InputFormat inputFormat)
+  { this.inputFormat = inputFormat;
+  }
+
+  public OutputFormat getOutputFormat()
+  { return outputFormat;
+  }
+
+  @Option(name="-g", aliases="--output-format", usage="The format of the output: TAB_DELIMITED or COLUMNAR", metaVar=" ")
+  public void setOutputFormat(OutputFormat outputFormat)
+  { this.outputFormat = outputFormat;
+  }
+
+  public int getThreadCount()
+  { return threadCount;
+  }
+
+  /** The number of files to translate in parallel */
+  @Option(name="-t", aliases="--threads", usage="The number of files to translate in parallel. Defaults to the number of processors", metaVar=" ")
+  public void setThreadCount(int threadCount)
+  { this.threadCount = threadCount;
+  }
+
+  @Option(name="-i", aliases="--input", usage="The input file, or a directory of input files", metaVar=" ", required=true)
+  private void setInputPath(String inputPath)
+  { this.inputPath = Paths.get(inputPath);
+  }
+
+  @Option(name="-o", aliases="--output", usage="The output file, or if the input is a directory, the output directory", metaVar=" ", required=true)
+  private void setOutputPath(String outputPath)
+  { this.outputPath = Paths.get(outputPath);
+  }
+
+  @Option(name="-s", aliases="--hash-author-stats", usage="The file to which to write counts of each hashtag's use by each author", metaVar=" ")
+  private void setHashAuthorStatsPath(String hashAuthorStatsPath)
+  { this.hashAuthorStatsPath = Paths.get(hashAuthorStatsPath);
+  }
+
   public final static void main (String[] args) throws Exception
-  { Path dataDir  = Paths.get("/local/datasets/twitter/TREC/crawl");
-    Path outDir   = Paths.get("/local/datasets/twitter/TREC/crawl.fmt.csv");
-    Path userHashFile = Paths.get("/local/datasets/twitter/TREC/crawl.authors.hash.csv");
-    
-    TweetTranslator trans = new TweetTranslator(dataDir, outDir, userHashFile);
+  { TweetTranslator trans = new TweetTranslator();
+    trans.parseArguments(args);
     System.out.println ("Processed " + trans.call() + " tweets");
   }
 }
@@ -0,0 +1,160 @@
+package cc.twittertools.post.columnar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Constants and encoding helpers shared by {@link ColumnarTweetWriter} and
+ * {@link ColumnarTweetReader}.
+ * <p>
+ * A columnar tweet file starts with a magic number and version, followed by
+ * blocks of up to a few thousand tweets. Each block starts with an
+ * uncompressed header holding the number of tweets, the minimum and
+ * maximum tweet IDs and UTC times, the block's dictionary of authors, and
+ * the lengths of its three compressed sections, so readers can skip blocks
+ * which can't match without decompressing them. The sections are
+ * <ol>
+ * <li>The core columns, one after the other: delta-encoded IDs, delta-encoded
+ *     UTC times, the offset of each local time from its UTC time, each
+ *     author's index in the dictionary, and flags saying whether the tweet
+ *     embeds a web excerpt or retweet
+ * <li>The text of every tweet
+ * <li>The side columns: the embedded web excerpts and retweets, for only
+ *     those tweets which have them
+ * </ol>
+ * Integers are written as variable-length zig-zag encoded longs, and
+ * strings as a variable-length byte count followed by UTF-8 bytes.
+ */
+final class ColumnarFormat
+{
+  static final int MAGIC   = 0x54574331; // "TWC1"
+  static final int VERSION = 1;
+
+  static final int DEFAULT_BLOCK_SIZE = 4096;
+
+  static final int HAS_EXCERPT = 1;
+  static final int HAS_RETWEET = 2;
+
+  /** The number of compressed sections in each block */
+  static final int SECTIONS = 3;
+
+  private ColumnarFormat()
+  {
+  }
+
+  /** A byte array output stream whose buffer can be compressed without copying */
+  static final class Buffer extends ByteArrayOutputStream
+  { public Buffer (int size)
+    { super (size);
+    }
+
+    public byte[] array()
+    { return buf;
+    }
+  }
+
+  static void writeVarLong (Buffer out, long value)
+  { long v = (value << 1) ^ (value >> 63); // zig-zag
+    while ((v & ~0x7FL) != 0)
+    { out.write ((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.write ((int) v);
+  }
+
+  static void writeString (Buffer out, String value)
+  { byte[] bytes = value.getBytes (StandardCharsets.UTF_8);
+    writeVarLong (out, bytes.length);
+    out.write (bytes, 0, bytes.length);
+  }
+
+  /** Reads values written to a {@link Buffer} back out of a byte array */
+  static final class Cursor
+  { private final byte[] bytes;
+    private       int    pos;
+
+    public Cursor (byte[] bytes)
+    { this.bytes = bytes;
+    }
+
+    public long readVarLong() throws IOException
+    { long v     = 0;
+      int  shift = 0;
+      while (true)
+      { if (pos >= bytes.length)
+          throw new EOFException ("Truncated integer in a columnar tweet block");
+        byte b = bytes[pos++];
+        v |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0)
+          break;
+        shift += 7;
+      }
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    public int readVarInt() throws IOException
+    { return (int) readVarLong();
+    }
+
+    public String readString() throws IOException
+    { int len = readVarInt();
+      if (len < 0 || pos + len > bytes.length)
+        throw new EOFException ("Truncated string in a columnar tweet block");
+      String value = new String (bytes, pos, len, StandardCharsets.UTF_8);
+      pos += len;
+      return value;
+    }
+  }
+
+  /** Compresses the contents of the given buffer */
+  static byte[] deflate (Buffer buffer, Deflater deflater)
+  { deflater.reset();
+    deflater.setInput (buffer.array(), 0, buffer.size());
+    deflater.finish();
+
+    Buffer out = new Buffer (Math.max (64, buffer.size() / 2));
+    byte[] chunk = new byte[8192];
+    while (! deflater.finished())
+    { int len = deflater.deflate (chunk);
+      out.write (chunk, 0, len);
+    }
+    return out.toByteArray();
+  }
+
+  /** Decompresses the given bytes, which must decompress to exactly the given length */
+  static byte[] inflate (byte[] compressed, int length, Inflater inflater) throws IOException
+  { inflater.reset();
+    inflater.setInput (compressed);
+    byte[] result = new byte[length];
+    try
+    { int pos = 0;
+      while (pos < length && ! inflater.finished())
+      { int len = inflater.inflate (result, pos, length - pos);
+        if (len == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          break;
+        pos += len;
+      }
+      if (pos != length)
+        throw new IOException ("Corrupt columnar tweet block: expected " + length + " bytes but decompressed " + pos);
+    }
+    catch (DataFormatException e)
+    { throw new IOException ("Corrupt columnar tweet block: " + e.getMessage(), e);
+    }
+    return result;
+  }
+
+  static void skipFully (DataInput in, int len) throws IOException
+  { while (len > 0)
+    { int skipped = in.skipBytes (len);
+      if (skipped <= 0)
+        throw new EOFException ("Truncated columnar tweet file");
+      len -= skipped;
+    }
+  }
+}
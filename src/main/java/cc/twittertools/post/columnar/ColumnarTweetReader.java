@@ -0,0 +1,307 @@
+package cc.twittertools.post.columnar;
+
+import static cc.twittertools.post.columnar.ColumnarFormat.*;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.Inflater;
+
+import org.joda.time.DateTime;
+
+import cc.twittertools.post.Tweet;
+import cc.twittertools.post.embed.Retweet;
+import cc.twittertools.post.embed.WebExcerpt;
+
+/**
+ * Reads tweets written by {@link ColumnarTweetWriter}, optionally only those
+ * matching a {@link Filter} on author and UTC time. Blocks whose statistics
+ * show they can't contain a matching tweet are skipped without being
+ * decompressed, and the remaining blocks' tweets are filtered individually.
+ */
+public class ColumnarTweetReader implements AutoCloseable, Iterator<Tweet>
+{
+  /**
+   * Selects tweets by author, compared case-insensitively, and by a range
+   * of UTC times. Filters are immutable, so each method returns a new filter.
+   */
+  public static final class Filter
+  { private final Set<String> authors; // lower-case, null means any author
+    private final long        fromUtcMillisIncl;
+    private final long        untilUtcMillisExcl;
+
+    private Filter (Set<String> authors, long fromUtcMillisIncl, long untilUtcMillisExcl)
+    { this.authors            = authors;
+      this.fromUtcMillisIncl  = fromUtcMillisIncl;
+      this.untilUtcMillisExcl = untilUtcMillisExcl;
+    }
+
+    /** A filter which accepts every tweet */
+    public static Filter all()
+    { return new Filter (null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /** This filter, additionally only accepting tweets by one of the given authors */
+    public Filter withAuthors (Collection<String> authors)
+    { Set<String> lowerCase = new HashSet<>();
+      for (String author : authors)
+        lowerCase.add (author.toLowerCase());
+      return new Filter (lowerCase, fromUtcMillisIncl, untilUtcMillisExcl);
+    }
+
+    /** This filter, additionally only accepting tweets posted at or after the given time */
+    public Filter from (DateTime fromIncl)
+    { return new Filter (authors, fromIncl.getMillis(), untilUtcMillisExcl);
+    }
+
+    /** This filter, additionally only accepting tweets posted before the given time */
+    public Filter until (DateTime untilExcl)
+    { return new Filter (authors, fromUtcMillisIncl, untilExcl.getMillis());
+    }
+
+    boolean acceptsTime (long utcMillis)
+    { return utcMillis >= fromUtcMillisIncl && utcMillis < untilUtcMillisExcl;
+    }
+
+    boolean acceptsTimes (long minUtcMillis, long maxUtcMillis)
+    { return maxUtcMillis >= fromUtcMillisIncl && minUtcMillis < untilUtcMillisExcl;
+    }
+
+    boolean acceptsAuthor (String author)
+    { return authors == null || authors.contains (author.toLowerCase());
+    }
+  }
+
+  private final DataInputStream in;
+  private final Filter          filter;
+  private final Inflater        inflater = new Inflater();
+
+  // The current block
+  private String[] authorDict = new String[0];
+  private long[]   ids        = new long[0];
+  private long[]   utcTimes   = new long[0];
+  private long[]   offsets    = new long[0];
+  private int[]    authors    = new int[0];
+  private int[]    flags      = new int[0];
+  private Cursor   text;
+  private Cursor   side;
+  private int      rowCount;
+  private int      row;
+
+  private Tweet    nextTweet;
+  private boolean  eof;
+
+  private int blocksRead;
+  private int blocksSkipped;
+
+  public ColumnarTweetReader (Path file) throws IOException
+  { this (file, Filter.all());
+  }
+
+  public ColumnarTweetReader (Path file, Filter filter) throws IOException
+  { this (Files.newInputStream(file), filter);
+  }
+
+  public ColumnarTweetReader (InputStream in, Filter filter) throws IOException
+  { this.in     = new DataInputStream (new BufferedInputStream (in, 1 << 16));
+    this.filter = filter;
+
+    if (this.in.readInt() != MAGIC)
+      throw new IOException ("Not a columnar tweet file");
+    int version = this.in.readInt();
+    if (version != VERSION)
+      throw new IOException ("Unsupported version " + version + " of the columnar tweet format");
+  }
+
+  @Override
+  public boolean hasNext()
+  { try
+    { while (nextTweet == null && ! eof)
+      { if (row == rowCount)
+        { if (! readBlock())
+            eof = true;
+          continue;
+        }
+        nextTweet = readRow();
+      }
+      return nextTweet != null;
+    }
+    catch (IOException e)
+    { throw new RuntimeException ("Error reading columnar tweets : " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public Tweet next()
+  { if (! hasNext())
+      throw new NoSuchElementException();
+    Tweet tweet = nextTweet;
+    nextTweet   = null;
+    return tweet;
+  }
+
+  /**
+   * Reads in the next block which may contain a matching tweet, skipping
+   * those which can't. Returns false at the end of the file.
+   */
+  private boolean readBlock() throws IOException
+  { while (true)
+    { int blockRows;
+      try
+      { blockRows = in.readInt();
+      }
+      catch (EOFException e)
+      { return false;
+      }
+      in.readLong(); // min ID
+      in.readLong(); // max ID
+      long minUtcMillis = in.readLong();
+      long maxUtcMillis = in.readLong();
+
+      String[] dict = new String[in.readInt()];
+      boolean anyAuthor = false;
+      for (int a = 0; a < dict.length; a++)
+      { dict[a] = in.readUTF();
+        anyAuthor |= filter.acceptsAuthor (dict[a]);
+      }
+
+      int[] lengths = new int[SECTIONS], compressedLengths = new int[SECTIONS];
+      for (int s = 0; s < SECTIONS; s++)
+      { lengths[s]           = in.readInt();
+        compressedLengths[s] = in.readInt();
+      }
+
+      if (! anyAuthor || ! filter.acceptsTimes (minUtcMillis, maxUtcMillis))
+      { for (int s = 0; s < SECTIONS; s++)
+          skipFully (in, compressedLengths[s]);
+        ++blocksSkipped;
+        continue;
+      }
+
+      byte[][] sections = new byte[SECTIONS][];
+      for (int s = 0; s < SECTIONS; s++)
+      { byte[] compressed = new byte[compressedLengths[s]];
+        in.readFully (compressed);
+        sections[s] = inflate (compressed, lengths[s], inflater);
+      }
+
+      decodeCore (new Cursor (sections[0]), blockRows);
+      authorDict = dict;
+      text       = new Cursor (sections[1]);
+      side       = new Cursor (sections[2]);
+      row        = 0;
+      rowCount   = blockRows;
+      ++blocksRead;
+      return true;
+    }
+  }
+
+  private void decodeCore (Cursor core, int blockRows) throws IOException
+  { if (ids.length < blockRows)
+    { ids      = new long[blockRows];
+      utcTimes = new long[blockRows];
+      offsets  = new long[blockRows];
+      authors  = new int[blockRows];
+      flags    = new int[blockRows];
+    }
+
+    long id = 0, utcMillis = 0;
+    for (int r = 0; r < blockRows; r++)
+      ids[r] = id += core.readVarLong();
+    for (int r = 0; r < blockRows; r++)
+      utcTimes[r] = utcMillis += core.readVarLong();
+    for (int r = 0; r < blockRows; r++)
+      offsets[r] = core.readVarLong();
+    for (int r = 0; r < blockRows; r++)
+      authors[r] = core.readVarInt();
+    for (int r = 0; r < blockRows; r++)
+      flags[r] = core.readVarInt();
+  }
+
+  /**
+   * Reads the tweet in the current row, returning null if it doesn't match
+   * the filter. Every row's text and side columns must be read, as they're
+   * variable length.
+   */
+  private Tweet readRow() throws IOException
+  { int    r      = row++;
+    String msg    = text.readString();
+    String author = authorDict[authors[r]];
+    Optional<WebExcerpt> page    = readExcerpt (flags[r]);
+    Optional<Retweet>    retweet = readRetweet (flags[r]);
+
+    if (! filter.acceptsTime (utcTimes[r]) || ! filter.acceptsAuthor (author))
+      return null;
+
+    return new Tweet (
+      ids[r],
+      author,
+      msg,
+      new DateTime (utcTimes[r]),
+      new DateTime (utcTimes[r] + offsets[r]),
+      page,
+      retweet
+    );
+  }
+
+  private Optional<WebExcerpt> readExcerpt (int flags) throws IOException
+  { if ((flags & HAS_EXCERPT) == 0)
+      return Optional.empty();
+
+    URI uri     = URI.create (side.readString());
+    URI cardUri = URI.create (side.readString());
+    Optional<WebExcerpt.Excerpt> excerpt = side.readVarInt() == 0
+      ? Optional.<WebExcerpt.Excerpt>empty()
+      : Optional.of (new WebExcerpt.Excerpt (side.readString(), side.readString()));
+    return Optional.of (new WebExcerpt (uri, cardUri, excerpt));
+  }
+
+  private Optional<Retweet> readRetweet (int flags) throws IOException
+  { if ((flags & HAS_RETWEET) == 0)
+      return Optional.empty();
+
+    String author  = side.readString();
+    long   id      = side.readVarLong();
+    String msg     = side.readString();
+    int    rtFlags = side.readVarInt();
+    Optional<WebExcerpt> page    = readExcerpt (rtFlags);
+    Optional<Retweet>    retweet = readRetweet (rtFlags);
+    return Optional.of (new Retweet (id, author, msg, page, retweet));
+  }
+
+  /** How many blocks have been decompressed so far */
+  public int getBlocksRead()
+  { return blocksRead;
+  }
+
+  /** How many blocks have been skipped so far, as they couldn't match the filter */
+  public int getBlocksSkipped()
+  { return blocksSkipped;
+  }
+
+  @Override
+  public void remove()
+  { throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void close() throws IOException
+  { try
+    { in.close();
+    }
+    finally
+    { inflater.end();
+    }
+  }
+}
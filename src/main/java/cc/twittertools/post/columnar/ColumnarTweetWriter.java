@@ -0,0 +1,192 @@
+package cc.twittertools.post.columnar;
+
+import static cc.twittertools.post.columnar.ColumnarFormat.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import cc.twittertools.post.Tweet;
+import cc.twittertools.post.embed.Retweet;
+import cc.twittertools.post.embed.WebExcerpt;
+
+/**
+ * Writes tweets to a binary columnar file, in blocks, with statistics on
+ * each block's tweet IDs, UTC times and authors, so that
+ * {@link ColumnarTweetReader} can skip blocks which don't match its filter.
+ * See {@link ColumnarFormat} for the layout.
+ * <p>
+ * Blocks are most often skipped when the tweets written are sorted by
+ * author or by date, as the tweets spidered for each account are.
+ */
+public class ColumnarTweetWriter implements AutoCloseable
+{
+  private final DataOutputStream out;
+  private final int              blockSize;
+  private final Deflater         deflater = new Deflater();
+
+  // The current block's columns
+  private final Buffer ids      = new Buffer (1 << 14);
+  private final Buffer utcTimes = new Buffer (1 << 14);
+  private final Buffer offsets  = new Buffer (1 << 12);
+  private final Buffer authors  = new Buffer (1 << 12);
+  private final Buffer flags    = new Buffer (1 << 12);
+  private final Buffer text     = new Buffer (1 << 18);
+  private final Buffer side     = new Buffer (1 << 16);
+
+  private final Map<String, Integer> authorIds  = new HashMap<>();
+  private final List<String>         authorDict = new ArrayList<>();
+
+  private int  rowCount;
+  private long lastId, lastUtcMillis;
+  private long minId, maxId, minUtcMillis, maxUtcMillis;
+  private long tweetCount;
+
+  public ColumnarTweetWriter (Path file) throws IOException
+  { this (Files.newOutputStream(file), DEFAULT_BLOCK_SIZE);
+  }
+
+  public ColumnarTweetWriter (OutputStream out, int blockSize) throws IOException
+  { if (blockSize <= 0)
+      throw new IllegalArgumentException ("The block size must be positive, not " + blockSize);
+    this.out       = new DataOutputStream (new BufferedOutputStream (out, 1 << 16));
+    this.blockSize = blockSize;
+
+    this.out.writeInt (MAGIC);
+    this.out.writeInt (VERSION);
+    startBlock();
+  }
+
+  private void startBlock()
+  { for (Buffer column : new Buffer[] { ids, utcTimes, offsets, authors, flags, text, side })
+      column.reset();
+    authorIds.clear();
+    authorDict.clear();
+
+    rowCount      = 0;
+    lastId        = 0;
+    lastUtcMillis = 0;
+    minId         = Long.MAX_VALUE;
+    maxId         = Long.MIN_VALUE;
+    minUtcMillis  = Long.MAX_VALUE;
+    maxUtcMillis  = Long.MIN_VALUE;
+  }
+
+  /** Adds the given tweet to the current block, writing the block out if it's full */
+  public void write (Tweet tweet) throws IOException
+  { long id        = tweet.getId();
+    long utcMillis = tweet.getUtcTime().getMillis();
+
+    writeVarLong (ids,      id - lastId);
+    writeVarLong (utcTimes, utcMillis - lastUtcMillis);
+    writeVarLong (offsets,  tweet.getLocalTime().getMillis() - utcMillis);
+    writeVarLong (authors,  authorId (tweet.getAuthor()));
+    writeVarLong (flags,    flags (tweet));
+    writeString  (text,     tweet.getMsg());
+    writeSide    (tweet);
+
+    lastId        = id;
+    lastUtcMillis = utcMillis;
+    minId         = Math.min (minId, id);
+    maxId         = Math.max (maxId, id);
+    minUtcMillis  = Math.min (minUtcMillis, utcMillis);
+    maxUtcMillis  = Math.max (maxUtcMillis, utcMillis);
+
+    ++tweetCount;
+    if (++rowCount == blockSize)
+      flushBlock();
+  }
+
+  private int authorId (String author)
+  { Integer id = authorIds.get(author);
+    if (id == null)
+    { id = authorDict.size();
+      authorDict.add (author);
+      authorIds.put (author, id);
+    }
+    return id;
+  }
+
+  private static int flags (Retweet tweet)
+  { return (tweet.getEmbeddedPage().isPresent() ? HAS_EXCERPT : 0)
+         | (tweet.containsRetweet()               ? HAS_RETWEET : 0);
+  }
+
+  /** Writes out the tweet's embedded web excerpt and retweet, if it has them */
+  private void writeSide (Retweet tweet)
+  { if (tweet.getEmbeddedPage().isPresent())
+    { WebExcerpt page = tweet.getEmbeddedPage().get();
+      writeString  (side, page.getUri().toASCIIString());
+      writeString  (side, page.getCardUri().toASCIIString());
+      writeVarLong (side, page.getExcerpt().isPresent() ? 1 : 0);
+      if (page.getExcerpt().isPresent())
+      { writeString (side, page.getExcerpt().get().getTitle());
+        writeString (side, page.getExcerpt().get().getBody());
+      }
+    }
+    if (tweet.containsRetweet())
+    { Retweet retweet = tweet.getEmbeddedRetweet().get();
+      writeString  (side, retweet.getAuthor());
+      writeVarLong (side, retweet.getId());
+      writeString  (side, retweet.getMsg());
+      writeVarLong (side, flags (retweet));
+      writeSide    (retweet);
+    }
+  }
+
+  /** Compresses the current block's columns and writes them out with the block's statistics */
+  private void flushBlock() throws IOException
+  { if (rowCount == 0)
+      return;
+
+    Buffer core = new Buffer (ids.size() + utcTimes.size() + offsets.size() + authors.size() + flags.size());
+    for (Buffer column : new Buffer[] { ids, utcTimes, offsets, authors, flags })
+      column.writeTo (core);
+
+    Buffer[] sections   = { core, text, side };
+    byte[][] compressed = new byte[SECTIONS][];
+    for (int s = 0; s < SECTIONS; s++)
+      compressed[s] = deflate (sections[s], deflater);
+
+    out.writeInt  (rowCount);
+    out.writeLong (minId);
+    out.writeLong (maxId);
+    out.writeLong (minUtcMillis);
+    out.writeLong (maxUtcMillis);
+    out.writeInt  (authorDict.size());
+    for (String author : authorDict)
+      out.writeUTF (author);
+    for (int s = 0; s < SECTIONS; s++)
+    { out.writeInt (sections[s].size());
+      out.writeInt (compressed[s].length);
+    }
+    for (int s = 0; s < SECTIONS; s++)
+      out.write (compressed[s]);
+
+    startBlock();
+  }
+
+  /** The number of tweets written so far */
+  public long getTweetCount()
+  { return tweetCount;
+  }
+
+  @Override
+  public void close() throws IOException
+  { try
+    { flushBlock();
+      out.close();
+    }
+    finally
+    { deflater.end();
+    }
+  }
+}
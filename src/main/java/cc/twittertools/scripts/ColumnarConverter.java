@@ -0,0 +1,143 @@
+package cc.twittertools.scripts;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cc.twittertools.post.SavedTweetReader;
+import cc.twittertools.post.TweetFileIndex;
+import cc.twittertools.post.columnar.ColumnarTweetReader;
+import cc.twittertools.post.columnar.ColumnarTweetWriter;
+
+/**
+ * Converts saved tweet files, in the tab-delimited format read by
+ * {@link SavedTweetReader}, into the binary columnar format read by
+ * {@link ColumnarTweetReader}.
+ * <p>
+ * The input may be a single file, or a dataset directory of folders of
+ * tweet files, in which case the folder structure is recreated in the
+ * output directory, with each file given the suffix ".twc"
+ * @author bryanfeeney
+ *
+ */
+public class ColumnarConverter implements Callable<Long>
+{
+	private final static Logger LOG = LoggerFactory.getLogger(ColumnarConverter.class);
+
+	public final static String SUFFIX = ".twc";
+
+	private static final int MAX_CORRUPTED_TWEETS_PER_FILE = 5;
+
+	@Option(name="-i", aliases="--input", usage="A tweets file, or a dataset directory of folders of tweet files", metaVar=" ")
+	private String inputPath;
+
+	@Option(name="-o", aliases="--output", usage="The output file, or for a dataset, the output directory", metaVar=" ")
+	private String outputPath;
+
+	@Option(name="-b", aliases="--block-size", usage="The number of tweets in each compressed block", metaVar=" ")
+	private int blockSize = 4096;
+
+	@Option(name="-h", aliases="--help", usage="Show this help message", metaVar=" ")
+	private boolean showHelp = false;
+
+	private ColumnarConverter()
+	{
+	}
+
+
+	/** Parses the arguments */
+	private void parseArguments(String[] args)
+	{	CmdLineParser parser = null;
+		try
+		{	parser = new CmdLineParser(this);
+			parser.parseArgument(args);
+
+			if (showHelp)
+			{	System.out.println("Help for this command:");
+				showHelp (System.out, parser);
+				System.exit(0);
+			}
+		}
+		catch (CmdLineException e)
+		{	System.err.println (e.getMessage());
+			showHelp (System.err, parser);
+		}
+
+	}
+
+	/** Shows the help message to the given stream. Needs the parser object to say what the options are. */
+	private void showHelp(PrintStream out, CmdLineParser parser)
+	{	out.println ("Usage: java -jar JARNAME.jar <options>");
+		if (parser != null)
+			parser.printUsage(out);
+	}
+
+	/**
+	 * Converts the input file, or every file in the input dataset, and returns
+	 * the number of tweets written.
+	 */
+	public Long call() throws Exception
+	{	Path input  = Paths.get(inputPath);
+		Path output = Paths.get(outputPath);
+		if (! Files.isDirectory(input))
+			return convert (input, output);
+
+		long tweetCount = 0;
+		try (DirectoryStream<Path> folders = Files.newDirectoryStream(input))
+		{	for (Path folder : folders)
+			{	if (! Files.isDirectory(folder))
+					continue;
+				Path outFolder = output.resolve(folder.getFileName().toString());
+				Files.createDirectories(outFolder);
+
+				try (DirectoryStream<Path> files = Files.newDirectoryStream(folder))
+				{	for (Path file : files)
+						if (! Files.isDirectory(file) && ! TweetFileIndex.isIndexFile(file))
+							tweetCount += convert (file, outFolder.resolve(file.getFileName().toString() + SUFFIX));
+				}
+			}
+		}
+		LOG.info ("Converted " + tweetCount + " tweets in total");
+		return tweetCount;
+	}
+
+	/** Converts a single file, skipping corrupted tweets, and returns the number of tweets written */
+	private long convert (Path input, Path output) throws IOException
+	{	int corruptedTweetCount = 0;
+		try (SavedTweetReader    rdr = new SavedTweetReader(input);
+			 ColumnarTweetWriter wtr = new ColumnarTweetWriter(Files.newOutputStream(output), blockSize))
+		{	while (rdr.hasNext())
+			{	try
+				{	wtr.write (rdr.next());
+				}
+				catch (RuntimeException e)
+				{	LOG.warn ("Error reading tweet from file " + input + " : " + e.getMessage(), e);
+					if (++corruptedTweetCount >= MAX_CORRUPTED_TWEETS_PER_FILE)
+					{	LOG.warn ("Encountered " + corruptedTweetCount + " corrupted tweets, so skipping the rest of the file " + input);
+						break;
+					}
+				}
+			}
+
+			LOG.info ("Converted " + wtr.getTweetCount() + " tweets from " + input + " to " + output);
+			return wtr.getTweetCount();
+		}
+	}
+
+
+	public static final void main(String[] args) throws Exception
+	{	ColumnarConverter c = new ColumnarConverter();
+		c.parseArguments(args);
+		c.call();
+	}
+}
@@ -0,0 +1,344 @@
+package cc.twittertools.scripts;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.joda.time.format.ISODateTimeFormat;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cc.twittertools.post.BlockGzipOutputStream;
+import cc.twittertools.post.LineReader;
+import cc.twittertools.post.TweetFileIndex;
+import cc.twittertools.post.TweetSlice;
+import cc.twittertools.spider.IndividualUserTweetsSpider;
+import cc.twittertools.spider.TweetsHtmlParser;
+import cc.twittertools.util.CorpusManifest;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compacts the series of files written for each user by
+ * {@link IndividualUserTweetsSpider} and its updater, i.e. <code>user</code>,
+ * <code>user.1</code>, <code>user.2</code> and so on, into just the one
+ * file <code>user</code>, with a fresh {@link TweetFileIndex}.
+ * <p>
+ * Tweets are written newest first, i.e. by decreasing ID, as the spiders
+ * write them, so the updater still finds the last tweet it downloaded at
+ * the start of the file. Tweets appearing in more than one file are only
+ * written once. Optionally tweets posted before a given date are dropped,
+ * except for each user's newest tweet, which the updater needs.
+ * <p>
+ * The compacted file is written beside the originals and moved into place,
+ * after which the rest of the series is deleted, last file first, so an
+ * interrupted run leaves at worst some duplicated tweets, which are removed
+ * by the next run. A user whose files can't be read is left as is. This
+ * must not be run while spiders are writing to the dataset.
+ * <p>
+ * Afterwards the {@link CorpusManifest} saved in the dataset directory is
+ * brought up to date, or created if there isn't one.
+ * @author bryanfeeney
+ *
+ */
+public class CompactTweetFiles implements Callable<Integer>
+{
+	private final static Logger LOG = LoggerFactory.getLogger(CompactTweetFiles.class);
+
+	/** The suffix of the file to which a user's tweets are written before being moved into place */
+	public final static String TMP_SUFFIX = ".compacting";
+
+	@Option(name="-d", aliases="--dataset", usage="The dataset directory, a directory of folders of tweet files", metaVar=" ")
+	private String datasetPath;
+
+	@Option(name="-r", aliases="--retain-from", usage="Drop tweets posted before this date, given as yyyyMMdd, except for each user's newest tweet", metaVar=" ")
+	private String retainFrom;
+
+	@Option(name="-m", aliases="--min-files", usage="Only compact users with at least this many files. Set this to 1 to apply --retain-from to every user", metaVar=" ")
+	private int minFiles = 2;
+
+	@Option(name="-z", aliases="--block-gzip", usage="Write the compacted files block-gzipped", metaVar=" ")
+	private boolean blockGzip = false;
+
+	@Option(name="-t", aliases="--threads", usage="The number of users to compact at once. Defaults to the number of processors", metaVar=" ")
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+
+	@Option(name="-h", aliases="--help", usage="Show this help message", metaVar=" ")
+	private boolean showHelp = false;
+
+	/** The numbers of tweets and files read, written and dropped */
+	private final static class Counts
+	{	int  users;
+		int  failedUsers;
+		int  filesRemoved;
+		long tweetsRead;
+		long tweetsWritten;
+		long duplicates;
+		long expired;
+
+		void add (Counts that)
+		{	users         += that.users;
+			failedUsers   += that.failedUsers;
+			filesRemoved  += that.filesRemoved;
+			tweetsRead    += that.tweetsRead;
+			tweetsWritten += that.tweetsWritten;
+			duplicates    += that.duplicates;
+			expired       += that.expired;
+		}
+	}
+
+	/** A line of a tweets file, with the fields needed to order and index it */
+	private final static class Line
+	{	final long   id;
+		final long   utcMillis;
+		final long   localMillis;
+		final String text;
+
+		Line (long id, long utcMillis, long localMillis, String text)
+		{	this.id          = id;
+			this.utcMillis   = utcMillis;
+			this.localMillis = localMillis;
+			this.text        = text;
+		}
+	}
+
+	private final static Comparator<Line> NEWEST_FIRST = new Comparator<Line>()
+	{	@Override public int compare (Line a, Line b)
+		{	return Long.compare (b.id, a.id);
+		}
+	};
+
+	private CompactTweetFiles()
+	{
+	}
+
+
+	/** Parses the arguments */
+	private void parseArguments(String[] args)
+	{	CmdLineParser parser = null;
+		try
+		{	parser = new CmdLineParser(this);
+			parser.parseArgument(args);
+
+			if (showHelp)
+			{	System.out.println("Help for this command:");
+				showHelp (System.out, parser);
+				System.exit(0);
+			}
+		}
+		catch (CmdLineException e)
+		{	System.err.println (e.getMessage());
+			showHelp (System.err, parser);
+		}
+
+	}
+
+	/** Shows the help message to the given stream. Needs the parser object to say what the options are. */
+	private void showHelp(PrintStream out, CmdLineParser parser)
+	{	out.println ("Usage: java -jar JARNAME.jar <options>");
+		if (parser != null)
+			parser.printUsage(out);
+	}
+
+	/**
+	 * Compacts every user's series of files in the dataset, returning the
+	 * number of users compacted.
+	 */
+	public Integer call() throws Exception
+	{	final Path dataset = Paths.get(datasetPath);
+		final long retainFromMillis = retainFrom == null
+			? Long.MIN_VALUE
+			: ISODateTimeFormat.basicDate().parseMillis(retainFrom);
+
+		// Group the files by user, deleting anything left by an interrupted run
+		CorpusManifest manifest = CorpusManifest.update(dataset);
+		List<List<CorpusManifest.Entry>> series = new ArrayList<>();
+		CorpusManifest.Entry previous = null;
+		for (CorpusManifest.Entry entry : manifest.getEntries())
+		{	Path file = entry.resolve(dataset);
+			if (file.getFileName().toString().endsWith(TMP_SUFFIX))
+			{	LOG.info ("Deleting " + file + " left by an earlier run");
+				Files.deleteIfExists(file);
+				continue;
+			}
+			if (previous == null || ! previous.getFolder().equals(entry.getFolder()) || ! previous.getUser().equals(entry.getUser()))
+				series.add (new ArrayList<CorpusManifest.Entry>());
+			series.get(series.size() - 1).add (entry);
+			previous = entry;
+		}
+
+		Counts totals = new Counts();
+		ExecutorService exec = Executors.newFixedThreadPool(threadCount);
+		try
+		{	List<Future<Counts>> results = new ArrayList<>();
+			for (final List<CorpusManifest.Entry> entries : series)
+			{	if (entries.size() < minFiles)
+					continue;
+				results.add (exec.submit (new Callable<Counts>() {
+					@Override public Counts call()
+					{	Path target = dataset.resolve(entries.get(0).getFolder()).resolve(entries.get(0).getUser());
+						return compact (CorpusManifest.paths(dataset, entries), target, retainFromMillis);
+					}
+				}));
+			}
+			for (Future<Counts> result : results)
+				totals.add (result.get());
+		}
+		catch (ExecutionException e)
+		{	throw new IOException ("Failed to compact tweets : " + e.getCause().getMessage(), e.getCause());
+		}
+		finally
+		{	exec.shutdownNow();
+		}
+
+		CorpusManifest.update(dataset);
+		LOG.info ("Compacted the files of " + totals.users + " users, removing " + totals.filesRemoved + " files. "
+			+ "Of " + totals.tweetsRead + " tweets read, " + totals.duplicates + " were duplicates and "
+			+ totals.expired + " were too old, leaving " + totals.tweetsWritten + ". "
+			+ totals.failedUsers + " users' files couldn't be compacted.");
+		return totals.users;
+	}
+
+	/**
+	 * Compacts a single user's files, given in order, into the target file,
+	 * the first in the series, which may not yet exist. If they can't be read,
+	 * or the compacted file can't be written, this is logged and the files are
+	 * left as they were.
+	 */
+	private Counts compact (List<Path> files, Path target, long retainFromMillis)
+	{	Counts counts = new Counts();
+		Path   tmp    = target.resolveSibling(target.getFileName().toString() + TMP_SUFFIX);
+		try
+		{	List<Line> lines = read (files, counts);
+			lines = dedupAndExpire (lines, retainFromMillis, counts);
+			TweetFileIndex.Builder index = write (lines, tmp);
+			counts.tweetsWritten += lines.size();
+
+			Files.deleteIfExists(TweetFileIndex.indexPathFor(target));
+			Files.move (tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			index.build().writeFor(target);
+		}
+		catch (IOException | RuntimeException e)
+		{	LOG.warn ("Couldn't compact the tweets of " + target + ", so leaving its files as they are : " + e.getMessage(), e);
+			try
+			{	Files.deleteIfExists(tmp);
+			}
+			catch (IOException ignored)
+			{	// it'll be deleted by the next run
+			}
+			Counts failed = new Counts();
+			failed.failedUsers = 1;
+			return failed;
+		}
+
+		// The series must stay contiguous for the spiders, so delete from the end
+		List<Path> obsolete = new ArrayList<>(files);
+		obsolete.remove (target);
+		Collections.reverse (obsolete);
+		for (Path file : obsolete)
+		{	try
+			{	Files.deleteIfExists(file);
+				Files.deleteIfExists(TweetFileIndex.indexPathFor(file));
+				++counts.filesRemoved;
+			}
+			catch (IOException e)
+			{	LOG.warn ("Couldn't delete " + file + " after compacting it into " + target + " : " + e.getMessage());
+				break;
+			}
+		}
+
+		++counts.users;
+		LOG.info ("Compacted " + files.size() + " files into " + target);
+		return counts;
+	}
+
+	/** Reads every tweet in the given files, throwing an exception if any line is corrupt */
+	private static List<Line> read (List<Path> files, Counts counts) throws IOException
+	{	List<Line> lines = new ArrayList<>();
+		try (LineReader rdr = new LineReader (files.iterator()))
+		{	while (rdr.hasNext())
+			{	String text = rdr.next();
+				if (text.trim().isEmpty())
+					continue;
+				try
+				{	TweetSlice slice = new TweetSlice (text);
+					lines.add (new Line (slice.getId(), slice.getUtcTimeMillis(), slice.getLocalTimeMillis(), text));
+				}
+				catch (RuntimeException e)
+				{	throw new IOException ("Corrupt tweet in " + rdr.getCurrentFile() + " : " + e.getMessage(), e);
+				}
+			}
+		}
+		counts.tweetsRead += lines.size();
+		return lines;
+	}
+
+	/**
+	 * Sorts the given tweets newest first, dropping those with duplicate IDs,
+	 * and those posted before the given time, except for the newest tweet. As
+	 * placeholder IDs are shared by many different tweets, these are kept.
+	 */
+	private static List<Line> dedupAndExpire (List<Line> lines, long retainFromMillis, Counts counts)
+	{	Collections.sort (lines, NEWEST_FIRST);
+
+		List<Line> kept = new ArrayList<>(lines.size());
+		boolean keptNewest = false;
+		long    lastId     = TweetFileIndex.NO_TWEET_ID;
+		for (Line line : lines)
+		{	boolean placeholder = line.id == TweetsHtmlParser.SUSPECTED_ADVERT_TWEET_ID;
+			if (! placeholder && line.id == lastId)
+			{	++counts.duplicates;
+				continue;
+			}
+			lastId = line.id;
+
+			if (line.localMillis < retainFromMillis && (keptNewest || placeholder))
+			{	++counts.expired;
+				continue;
+			}
+			keptNewest |= ! placeholder;
+			kept.add (line);
+		}
+		return kept;
+	}
+
+	/** Writes out the given tweets, returning their index */
+	private TweetFileIndex.Builder write (List<Line> lines, Path file) throws IOException
+	{	TweetFileIndex.Builder index = new TweetFileIndex.Builder();
+		OutputStream out = Files.newOutputStream(file);
+		try (BufferedWriter wtr = new BufferedWriter(new OutputStreamWriter(
+			blockGzip ? new BlockGzipOutputStream(out) : out, Charsets.UTF_8), 1 << 16))
+		{	for (Line line : lines)
+			{	wtr.write (line.text);
+				wtr.write ('\n');
+				index.add (line.id, line.utcMillis, line.localMillis, TweetFileIndex.utf8Length(line.text) + 1);
+			}
+		}
+		return index;
+	}
+
+
+	public static final void main(String[] args) throws Exception
+	{	CompactTweetFiles c = new CompactTweetFiles();
+		c.parseArguments(args);
+		c.call();
+	}
+}
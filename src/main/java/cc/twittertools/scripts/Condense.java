@@ -7,6 +7,7 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.PrintStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.concurrent.Callable;
 
@@ -15,15 +16,31 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import cc.twittertools.util.SpaceSavingCounter;
+import cc.twittertools.util.SpillingCounter;
+
 /**
  * Given a file with a list of words, one word per line, tab-delimited file of
  * word counts.
+ * <p>
+ * If only the most frequent words are required, the <code>--top-k</code>
+ * option approximately counts words in a fixed amount of memory using a
+ * {@link SpaceSavingCounter}, and writes out just the top-k words ranked by
+ * count, as {@link Rank} would. Counts are never under-estimated, and the
+ * bound on how much they may be over-estimated can be set with
+ * <code>--max-error</code>.
+ * <p>
+ * For inputs with more distinct words than fit in memory, the
+ * <code>--external</code> option counts words in a bounded hash-map, writing
+ * it out as a sorted run file whenever it fills, and then merges the runs
+ * to create the output, which is sorted by word.
  * @author bryanfeeney
  *
  */
 public class Condense implements Callable<Integer>
 {
 	private final static String NULL_WORD = "_bryan_feeney_is_a_programmer_and_not_a_word";
+	private final static int    DEFAULT_TOP_K_CAPACITY_MULTIPLE = 10;
 	
 	
 	@Option(name="-i", aliases="--input", usage="The input file with one word per line", metaVar=" ")
@@ -38,6 +55,24 @@ public class Condense implements Callable<Integer>
 	@Option(name="-s", aliases="--sorted", usage="Has this file been sorted in advance", metaVar=" ")
 	private boolean sorted = false;
 	
+	@Option(name="-x", aliases="--external", usage="Count words exactly in bounded memory, spilling sorted runs to disk and merging them at the end. The output is sorted by word", metaVar=" ")
+	private boolean external = false;
+	
+	@Option(name="-m", aliases="--max-in-memory", usage="With --external, the number of distinct words to count in memory before spilling them to disk", metaVar=" ")
+	private int maxInMemory = 4_000_000;
+	
+	@Option(name="-t", aliases="--tmp-dir", usage="With --external, the directory in which to write temporary run files. Defaults to the output file's directory", metaVar=" ")
+	private String tmpDir;
+	
+	@Option(name="-k", aliases="--top-k", usage="Approximately count words in bounded memory, and only write out the top-k, ranked by count", metaVar=" ")
+	private int topK = 0;
+	
+	@Option(name="-e", aliases="--max-error", usage="With --top-k, the most by which a count may be over-estimated, as a fraction of the total count. Defaults to monitoring " + DEFAULT_TOP_K_CAPACITY_MULTIPLE + " times as many words as are written out", metaVar=" ")
+	private double maxError = 0;
+	
+	@Option(name="-r", aliases="--error-report", usage="With --top-k, also write out each word's count, maximum error, and whether it's guaranteed to be in the top-k, to this file", metaVar=" ")
+	private String errorReportPath;
+	
 	@Option(name="-h", aliases="--help", usage="Show this help message", metaVar=" ")
 	private boolean showHelp = false;
 	
@@ -78,7 +113,11 @@ public class Condense implements Callable<Integer>
 	 * file of word-counts
 	 */
 	public Integer call() throws Exception
-	{	return sorted ? callSorted() : callUnsorted();
+	{	if (topK > 0)
+			return callTopK();
+		if (external)
+			return callExternal();
+		return sorted ? callSorted() : callUnsorted();
 	}
 	
 	private Integer callSorted() throws Exception
@@ -127,6 +166,50 @@ public class Condense implements Callable<Integer>
 		return map.size();
 	}
 
+	private Integer callExternal() throws Exception
+	{	Path output   = Paths.get(outputPath).toAbsolutePath();
+		Path spillDir = tmpDir == null ? output.getParent() : Paths.get(tmpDir);
+		
+		String word = null;
+		try (SpillingCounter counter = new SpillingCounter(spillDir, output.getFileName().toString(), maxInMemory);)
+		{	try (BufferedReader rdr = Files.newBufferedReader(Paths.get(inputPath), Charsets.UTF_8);)
+			{	while ((word = rdr.readLine()) != null)
+					counter.inc(word);
+			}
+			
+			int runCount = counter.getRunCount();
+			long uniqWordCount = counter.writeTo(output);
+			System.out.println ("Wrote " + uniqWordCount + " distinct words, having spilled " + runCount + " sorted runs to disk");
+			return (int) uniqWordCount;
+		}
+	}
+	
+	private Integer callTopK() throws Exception
+	{	SpaceSavingCounter counter = maxError > 0
+			? SpaceSavingCounter.withErrorBound(topK, maxError)
+			: new SpaceSavingCounter(topK * DEFAULT_TOP_K_CAPACITY_MULTIPLE);
+		
+		String word = null;
+		try (BufferedReader rdr = Files.newBufferedReader(Paths.get(inputPath), Charsets.UTF_8);)
+		{	while ((word = rdr.readLine()) != null)
+				counter.inc(word);
+		}
+		
+		int written = 0;
+		try (BufferedWriter wtr = Files.newBufferedWriter(Paths.get(outputPath), Charsets.UTF_8);)
+		{	written = counter.writeTop(wtr, topK);
+		}
+		
+		if (errorReportPath != null)
+		{	try (BufferedWriter wtr = Files.newBufferedWriter(Paths.get(errorReportPath), Charsets.UTF_8);)
+			{	counter.writeTopWithErrors(wtr, topK);
+			}
+		}
+		
+		System.out.println ("Counted " + counter.getTotal() + " words, monitoring " + counter.size() + " distinct words. Counts are over-estimated by at most " + counter.getMaxError());
+		return written;
+	}
+
 	
 	public static final void main(String[] args) throws Exception
 	{	Condense c = new Condense();
@@ -0,0 +1,104 @@
+package cc.twittertools.scripts;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cc.twittertools.post.TweetFileIndex;
+import cc.twittertools.util.FilesInFoldersIterator;
+
+/**
+ * Writes a {@link TweetFileIndex} for every saved tweets file in a dataset
+ * directory of folders of tweet files which doesn't already have an
+ * up-to-date one. The spiders write indexes as they save tweets, so this is
+ * only needed for files saved before they did. Files may be plain text,
+ * block-gzipped, or GZipped with a ".gz" suffix.
+ * @author bryanfeeney
+ *
+ */
+public class IndexTweetFiles implements Callable<Integer>
+{
+	private final static Logger LOG = LoggerFactory.getLogger(IndexTweetFiles.class);
+
+	@Option(name="-d", aliases="--dataset", usage="The dataset directory, a directory of folders of tweet files", metaVar=" ")
+	private String datasetPath;
+
+	@Option(name="-f", aliases="--force", usage="Rewrite indexes even if they're up-to-date", metaVar=" ")
+	private boolean force = false;
+
+	@Option(name="-h", aliases="--help", usage="Show this help message", metaVar=" ")
+	private boolean showHelp = false;
+
+	private IndexTweetFiles()
+	{
+	}
+
+
+	/** Parses the arguments */
+	private void parseArguments(String[] args)
+	{	CmdLineParser parser = null;
+		try
+		{	parser = new CmdLineParser(this);
+			parser.parseArgument(args);
+
+			if (showHelp)
+			{	System.out.println("Help for this command:");
+				showHelp (System.out, parser);
+				System.exit(0);
+			}
+		}
+		catch (CmdLineException e)
+		{	System.err.println (e.getMessage());
+			showHelp (System.err, parser);
+		}
+
+	}
+
+	/** Shows the help message to the given stream. Needs the parser object to say what the options are. */
+	private void showHelp(PrintStream out, CmdLineParser parser)
+	{	out.println ("Usage: java -jar JARNAME.jar <options>");
+		if (parser != null)
+			parser.printUsage(out);
+	}
+
+	/**
+	 * Indexes every file in the dataset, returning the number of indexes
+	 * written. Files which can't be indexed are logged and skipped.
+	 */
+	public Integer call() throws Exception
+	{	int written = 0, failed = 0;
+		try (FilesInFoldersIterator files = new FilesInFoldersIterator(Paths.get(datasetPath)))
+		{	while (files.hasNext())
+			{	Path file = files.next();
+				if (! force && TweetFileIndex.readFor(file) != null)
+					continue;
+
+				try
+				{	TweetFileIndex.build(file).writeFor(file);
+					++written;
+				}
+				catch (IOException e)
+				{	LOG.warn ("Couldn't index " + file + " : " + e.getMessage());
+					++failed;
+				}
+			}
+		}
+		LOG.info ("Wrote " + written + " indexes, and failed to index " + failed + " files");
+		return written;
+	}
+
+
+	public static final void main(String[] args) throws Exception
+	{	IndexTweetFiles i = new IndexTweetFiles();
+		i.parseArguments(args);
+		i.call();
+	}
+}
@@ -0,0 +1,510 @@
+package cc.twittertools.scripts;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cc.twittertools.post.SavedTweetReader;
+import cc.twittertools.post.Tweet;
+import cc.twittertools.post.embed.Retweet;
+import cc.twittertools.util.CorpusManifest;
+import cc.twittertools.util.OrderedMerger;
+
+/**
+ * Builds the directed graph of interactions between users from a dataset of
+ * tweets, where each author links to every user they address, and to the
+ * original author of every tweet they retweet. Links are weighted by the
+ * number of such interactions.
+ * <p>
+ * The graph is held in compressed sparse row (CSR) form: the links from
+ * user <code>u</code> are at positions <code>offsets[u]</code> up to
+ * <code>offsets[u+1]</code> of the <code>targets</code> and
+ * <code>weights</code> arrays. PageRank is then calculated in parallel over
+ * the transpose of this graph, so each node's new rank only depends on
+ * reads.
+ * <p>
+ * Writes out <code>graph-nodes.txt</code>, with each user, whether they're
+ * an author in the dataset, their in and out degrees, their total in and out
+ * link weights, and their PageRank, ordered by decreasing PageRank; and
+ * <code>graph-degrees.txt</code> with the distributions of in and out
+ * degrees. Optionally writes out every link to <code>graph-edges.txt</code>
+ * @author bryanfeeney
+ *
+ */
+public class InteractionGraph implements Callable<Integer>
+{
+	private final static Logger LOG = LoggerFactory.getLogger(InteractionGraph.class);
+
+	private static final int MAX_CORRUPTED_TWEETS_PER_FILE = 5;
+
+	/** How many work units of about the same size to divide the files into per thread */
+	private static final int WORK_UNITS_PER_THREAD = 4;
+
+	/** How many nodes' ranks each PageRank task updates */
+	private static final int NODES_PER_TASK = 1 << 14;
+
+	@Option(name="-d", aliases="--dataset", usage="The dataset directory, a folder of folders of tweet files", metaVar=" ")
+	private String datasetPath;
+
+	@Option(name="-o", aliases="--output", usage="The directory in which to write out the graph statistics", metaVar=" ")
+	private String outputPath;
+
+	@Option(name="-a", aliases="--damping", usage="The PageRank damping factor, the probability of following a link rather than jumping to a random user", metaVar=" ")
+	private double damping = 0.85;
+
+	@Option(name="-n", aliases="--iterations", usage="The maximum number of PageRank iterations", metaVar=" ")
+	private int maxIterations = 100;
+
+	@Option(name="-e", aliases="--tolerance", usage="Stop iterating once the total absolute change in PageRank falls below this", metaVar=" ")
+	private double tolerance = 1E-9;
+
+	@Option(name="-t", aliases="--threads", usage="The number of threads with which to read tweets and calculate PageRank. Defaults to the number of processors", metaVar=" ")
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+
+	@Option(name="-w", aliases="--write-edges", usage="Also write out every link, with its weight, to graph-edges.txt", metaVar=" ")
+	private boolean writeEdges = false;
+
+	@Option(name="-m", aliases="--memory-mapped", usage="Memory-map uncompressed tweet files rather than streaming them", metaVar=" ")
+	private boolean memoryMapped = false;
+
+	@Option(name="--manifest", usage="Save the list of tweet files in this file, so later runs only list changed folders again", metaVar=" ")
+	private String manifestPath;
+
+	@Option(name="-h", aliases="--help", usage="Show this help message", metaVar=" ")
+	private boolean showHelp = false;
+
+	// Users, by node ID, and which were authors in the dataset
+	private final List<String>          users   = new ArrayList<>();
+	private final Object2IntMap<String> userIds = new Object2IntOpenHashMap<>();
+	private final BitSet                authors = new BitSet();
+
+	// The graph, and its transpose, in CSR form
+	/* pkg */ int[] offsets;
+	/* pkg */ int[] targets;
+	/* pkg */ int[] weights;
+	/* pkg */ int[] inOffsets;
+	/* pkg */ int[] sources;
+	/* pkg */ int[] inWeights;
+
+	/* pkg */ InteractionGraph()
+	{	userIds.defaultReturnValue(-1);
+	}
+
+
+	/**
+	 * The links found in the tweets of a single work unit. Users are given IDs
+	 * local to the unit, as units are read in parallel, and these are mapped
+	 * to global IDs when merged.
+	 */
+	private final static class UnitLinks
+	{	private final List<String>          users   = new ArrayList<>();
+		private final Object2IntMap<String> userIds = new Object2IntOpenHashMap<>();
+		private final BitSet                authors = new BitSet();
+		private final Long2IntMap           links   = new Long2IntOpenHashMap();
+
+		public UnitLinks()
+		{	userIds.defaultReturnValue(-1);
+			links.defaultReturnValue(0);
+		}
+
+		public int id (String user)
+		{	int id = userIds.getInt(user);
+			if (id < 0)
+			{	id = users.size();
+				users.add (user);
+				userIds.put (user, id);
+			}
+			return id;
+		}
+
+		public void link (int source, String target)
+		{	int targetId = id (target);
+			if (targetId == source)
+				return;
+			long key = edge (source, targetId);
+			links.put (key, links.get(key) + 1);
+		}
+	}
+
+	/** Parses the arguments */
+	private void parseArguments(String[] args)
+	{	CmdLineParser parser = null;
+		try
+		{	parser = new CmdLineParser(this);
+			parser.parseArgument(args);
+
+			if (showHelp)
+			{	System.out.println("Help for this command:");
+				showHelp (System.out, parser);
+				System.exit(0);
+			}
+		}
+		catch (CmdLineException e)
+		{	System.err.println (e.getMessage());
+			showHelp (System.err, parser);
+		}
+
+	}
+
+	/** Shows the help message to the given stream. Needs the parser object to say what the options are. */
+	private void showHelp(PrintStream out, CmdLineParser parser)
+	{	out.println ("Usage: java -jar JARNAME.jar <options>");
+		if (parser != null)
+			parser.printUsage(out);
+	}
+
+	/**
+	 * Builds the interaction graph, calculates PageRank, and writes out the
+	 * results. Returns the number of users in the graph.
+	 */
+	public Integer call() throws Exception
+	{	Path outputDir = Paths.get(outputPath);
+		ExecutorService exec = Executors.newFixedThreadPool(threadCount);
+		try
+		{	Long2IntMap links = readLinks (Paths.get(datasetPath), exec);
+			buildCsr (links);
+			links = null;
+			LOG.info ("Built a graph of " + users.size() + " users and " + targets.length + " links");
+
+			double[] rank = pageRank (exec);
+
+			writeNodes   (outputDir.resolve("graph-nodes.txt"), rank);
+			writeDegrees (outputDir.resolve("graph-degrees.txt"));
+			if (writeEdges)
+				writeEdges (outputDir.resolve("graph-edges.txt"));
+		}
+		finally
+		{	exec.shutdownNow();
+		}
+		return users.size();
+	}
+
+	/**
+	 * Divides the tweet files listed by the dataset's {@link CorpusManifest}
+	 * into work units of whole users' files, and reads each unit on a separate
+	 * task, merging the links found into a single map from edge to weight in
+	 * unit order. Units depend only on the files, so user IDs are the same
+	 * from run to run
+	 */
+	private Long2IntMap readLinks (Path datasetDir, ExecutorService exec) throws Exception
+	{	final Long2IntMap links = new Long2IntOpenHashMap();
+		links.defaultReturnValue(0);
+
+		// Only one more unit than there are threads may be waiting to be merged
+		OrderedMerger<UnitLinks> merger = new OrderedMerger<> (exec, OrderedMerger.defaultMaxPending(threadCount), new OrderedMerger.Merge<UnitLinks>() {
+			@Override
+			public void merge (UnitLinks unitLinks)
+			{	InteractionGraph.this.merge (unitLinks, links);
+			}
+		});
+		for (List<CorpusManifest.Entry> workUnit : CorpusManifest.list(datasetDir, manifestPath == null ? null : Paths.get(manifestPath)).partition(threadCount * WORK_UNITS_PER_THREAD))
+		{	final List<Path> files = CorpusManifest.paths (datasetDir, workUnit);
+			merger.submit (new Callable<UnitLinks>() {
+				@Override
+				public UnitLinks call() throws Exception
+				{	return readFiles (files);
+				}
+			});
+		}
+		merger.finish();
+
+		return links;
+	}
+
+	/** Collects the links in the given tweet files, which should have each user's files together and in order */
+	private UnitLinks readFiles (List<Path> files) throws IOException
+	{	UnitLinks unitLinks = new UnitLinks();
+		String  lastAccount = "not_the_last_author";
+		LongSet tweetIDs    = new LongOpenHashSet();
+
+		filesLoop:for (Path file : files)
+		{	int corruptedTweetCount = 0;
+			LOG.info ("Reading interactions from tweets in file: " + file);
+
+			try (SavedTweetReader rdr = new SavedTweetReader(Collections.singleton(file).iterator(), false, memoryMapped))
+			{	while (rdr.hasNext())
+				{	try
+					{	Tweet  tweet   = rdr.next();
+						String account = tidyUser (tweet.getAuthor());
+						if (account.isEmpty())
+							continue;
+
+						// Skip duplicate tweets, as TwitterStats does
+						if (! account.equals(lastAccount))
+						{	lastAccount = account;
+							tweetIDs.clear();
+						}
+						else if (tweetIDs.contains(tweet.getId()))
+						{	continue;
+						}
+						tweetIDs.add (tweet.getId());
+
+						int source = unitLinks.id (account);
+						unitLinks.authors.set (source);
+						for (String addressee : tweet.getAddressees())
+						{	addressee = tidyUser (addressee);
+							if (! addressee.isEmpty())
+								unitLinks.link (source, addressee);
+						}
+						if (tweet.containsRetweet())
+						{	Retweet retweet = tweet.getEmbeddedRetweet().get();
+							String  author  = tidyUser (retweet.getAuthor());
+							if (! author.isEmpty())
+								unitLinks.link (source, author);
+						}
+					}
+					catch (Exception e)
+					{	LOG.warn ("Error processing tweet from file " + file + " : " + e.getMessage(), e);
+						if (++corruptedTweetCount >= MAX_CORRUPTED_TWEETS_PER_FILE)
+						{	LOG.warn ("Encountered " + corruptedTweetCount + " corrupted tweets in the current file, so skipping it. The current file is " + file);
+							continue filesLoop;
+						}
+					}
+				}
+			}
+		}
+		return unitLinks;
+	}
+
+	/** Maps the given work unit's users to global IDs, and adds its links to the given map */
+	private void merge (UnitLinks unitLinks, Long2IntMap links)
+	{	int[] globalIds = new int[unitLinks.users.size()];
+		for (int i = 0; i < globalIds.length; i++)
+			globalIds[i] = globalId (unitLinks.users.get(i));
+
+		for (int author = unitLinks.authors.nextSetBit(0); author >= 0; author = unitLinks.authors.nextSetBit(author + 1))
+			authors.set (globalIds[author]);
+
+		for (Long2IntMap.Entry e : unitLinks.links.long2IntEntrySet())
+		{	long key = edge (globalIds[source (e.getLongKey())], globalIds[target (e.getLongKey())]);
+			links.put (key, links.get(key) + e.getIntValue());
+		}
+	}
+
+	/* pkg */ int globalId (String user)
+	{	int id = userIds.getInt(user);
+		if (id < 0)
+		{	id = users.size();
+			users.add (user);
+			userIds.put (user, id);
+		}
+		return id;
+	}
+
+	/** Packs a link into a long, which sorts by source and then target */
+	/* pkg */ static long edge (int source, int target)
+	{	return ((long) source << 32) | target;
+	}
+
+	private static int source (long edge)
+	{	return (int) (edge >>> 32);
+	}
+
+	private static int target (long edge)
+	{	return (int) edge;
+	}
+
+	/** Lays out the given links, and their transpose, in CSR form */
+	/* pkg */ void buildCsr (Long2IntMap links)
+	{	int numUsers = users.size();
+		long[] edges = links.keySet().toLongArray();
+		Arrays.parallelSort (edges);
+
+		offsets = new int[numUsers + 1];
+		targets = new int[edges.length];
+		weights = new int[edges.length];
+		for (int i = 0; i < edges.length; i++)
+		{	++offsets[source (edges[i]) + 1];
+			targets[i] = target (edges[i]);
+			weights[i] = links.get(edges[i]);
+		}
+		for (int u = 0; u < numUsers; u++)
+			offsets[u + 1] += offsets[u];
+
+		// Counting sort by target gives the transpose
+		inOffsets = new int[numUsers + 1];
+		sources   = new int[edges.length];
+		inWeights = new int[edges.length];
+		for (int target : targets)
+			++inOffsets[target + 1];
+		for (int u = 0; u < numUsers; u++)
+			inOffsets[u + 1] += inOffsets[u];
+
+		int[] next = Arrays.copyOf (inOffsets, numUsers);
+		for (int u = 0; u < numUsers; u++)
+			for (int i = offsets[u]; i < offsets[u + 1]; i++)
+			{	int pos = next[targets[i]]++;
+				sources[pos]   = u;
+				inWeights[pos] = weights[i];
+			}
+	}
+
+	/**
+	 * Calculates the weighted PageRank of every user. Each iteration every
+	 * user's rank is the sum, over its incoming links, of the source's rank
+	 * times the fraction of the source's link weight the link carries. The
+	 * rank of users without links, which would otherwise be lost, is spread
+	 * evenly over all users, as is the random jump.
+	 */
+	/* pkg */ double[] pageRank (ExecutorService exec) throws Exception
+	{	final int numUsers = users.size();
+		if (numUsers == 0)
+			return new double[0];
+
+		final long[] outWeight = new long[numUsers];
+		for (int u = 0; u < numUsers; u++)
+			for (int i = offsets[u]; i < offsets[u + 1]; i++)
+				outWeight[u] += weights[i];
+
+		double[] rank  = new double[numUsers];
+		Arrays.fill (rank, 1.0 / numUsers);
+		final double[] share = new double[numUsers]; // rank per unit of outgoing link weight
+
+		for (int iter = 1; iter <= maxIterations; iter++)
+		{	double dangling = 0;
+			for (int u = 0; u < numUsers; u++)
+			{	if (outWeight[u] == 0)
+					dangling += rank[u];
+				else
+					share[u] = rank[u] / outWeight[u];
+			}
+			final double base = (1 - damping) / numUsers + damping * dangling / numUsers;
+
+			final double[] oldRank = rank;
+			final double[] newRank = new double[numUsers];
+			List<Callable<Double>> tasks = new ArrayList<>();
+			for (int start = 0; start < numUsers; start += NODES_PER_TASK)
+			{	final int from = start, to = Math.min (numUsers, start + NODES_PER_TASK);
+				tasks.add (new Callable<Double>() {
+					@Override
+					public Double call()
+					{	double change = 0;
+						for (int v = from; v < to; v++)
+						{	double sum = 0;
+							for (int i = inOffsets[v]; i < inOffsets[v + 1]; i++)
+								sum += share[sources[i]] * inWeights[i];
+							newRank[v] = base + damping * sum;
+							change += Math.abs (newRank[v] - oldRank[v]);
+						}
+						return change;
+					}
+				});
+			}
+
+			double change = 0;
+			for (Future<Double> result : exec.invokeAll (tasks))
+				change += result.get();
+			rank = newRank;
+
+			LOG.info ("PageRank iteration " + iter + " changed ranks by " + change);
+			if (change < tolerance)
+				break;
+		}
+		return rank;
+	}
+
+	/** Writes out each user's statistics, ordered by decreasing PageRank */
+	private void writeNodes (Path file, final double[] rank) throws IOException
+	{	Integer[] order = new Integer[users.size()];
+		for (int u = 0; u < order.length; u++)
+			order[u] = u;
+		Arrays.sort (order, new Comparator<Integer>() {
+			@Override
+			public int compare (Integer left, Integer right)
+			{	return Double.compare (rank[right], rank[left]);
+			}
+		});
+
+		try (BufferedWriter wtr = Files.newBufferedWriter(file, Charsets.UTF_8))
+		{	for (int u : order)
+			{	long outWeight = 0, inWeight = 0;
+				for (int i = offsets[u]; i < offsets[u + 1]; i++)
+					outWeight += weights[i];
+				for (int i = inOffsets[u]; i < inOffsets[u + 1]; i++)
+					inWeight += inWeights[i];
+
+				wtr.write (
+					users.get(u)                       + '\t' +
+					(authors.get(u) ? 1 : 0)           + '\t' +
+					(offsets[u + 1] - offsets[u])      + '\t' +
+					(inOffsets[u + 1] - inOffsets[u])  + '\t' +
+					outWeight                          + '\t' +
+					inWeight                           + '\t' +
+					rank[u]                            + '\n'
+				);
+			}
+		}
+		LOG.info ("Wrote the statistics of " + order.length + " users to " + file);
+	}
+
+	/** Writes out how many users have each in and out degree */
+	private void writeDegrees (Path file) throws IOException
+	{	try (BufferedWriter wtr = Files.newBufferedWriter(file, Charsets.UTF_8))
+		{	writeDegrees (wtr, "out", offsets);
+			writeDegrees (wtr, "in",  inOffsets);
+		}
+	}
+
+	private void writeDegrees (BufferedWriter wtr, String name, int[] offsets) throws IOException
+	{	int[] degrees = new int[users.size()];
+		for (int u = 0; u < degrees.length; u++)
+			degrees[u] = offsets[u + 1] - offsets[u];
+		Arrays.sort (degrees);
+
+		for (int i = 0; i < degrees.length; )
+		{	int end = i;
+			while (end < degrees.length && degrees[end] == degrees[i])
+				++end;
+			wtr.write (name + '\t' + degrees[i] + '\t' + (end - i) + '\n');
+			i = end;
+		}
+	}
+
+	/** Writes out every link, with its weight */
+	private void writeEdges (Path file) throws IOException
+	{	try (BufferedWriter wtr = Files.newBufferedWriter(file, Charsets.UTF_8))
+		{	for (int u = 0; u < users.size(); u++)
+				for (int i = offsets[u]; i < offsets[u + 1]; i++)
+					wtr.write (users.get(u) + '\t' + users.get(targets[i]) + '\t' + weights[i] + '\n');
+		}
+	}
+
+	/** Lower-cases user names, and strips any leading @ */
+	private static String tidyUser (String user)
+	{	return StringUtils.removeStart (StringUtils.trimToEmpty(user), "@").toLowerCase();
+	}
+
+	public static final void main(String[] args) throws Exception
+	{	InteractionGraph g = new InteractionGraph();
+		g.parseArguments(args);
+		g.call();
+	}
+}
@@ -25,11 +25,13 @@ import cc.twittertools.post.FeatureSpecification;
 import cc.twittertools.post.TweetFeatureExtractor;
 import cc.twittertools.words.Vectorizer;
 import cc.twittertools.words.Vectorizer.InputType;
-import cc.twittertools.words.dict.CompoundTokenDictionary;
 import cc.twittertools.words.dict.Dictionary;
+import cc.twittertools.words.dict.FlatTokenDictionary;
+import cc.twittertools.words.dict.FrontCodedDictionary;
 import cc.twittertools.words.dict.LookupDictionary;
 import cc.twittertools.words.dict.NullDictionary;
 import cc.twittertools.words.dict.NullTokenDictionary;
+import cc.twittertools.words.dict.PersistentDictionary;
 import cc.twittertools.words.dict.SigilStrippingDictionary;
 
 import com.google.common.collect.Lists;
@@ -73,6 +75,7 @@ public class Main implements Callable<Integer>
   private boolean stripRetweets           = false;
   private boolean treatHashTagsAsWords    = false;
   private boolean aggregateByAuthor       = false;
+  private boolean numpyDicts              = false;
 
   private DateTime minDateIncl = new DateTime(1900,01,01,00,01,01, ISOChronology.getInstance());
   private DateTime maxDateExcl = DateTime.now();
@@ -88,13 +91,18 @@ public class Main implements Callable<Integer>
   
   // These dictionary fields are overloaded. If parseable as an int, then they
   // specify the maximum capacity of a new dictionary to be created. Otherwise
-  // they specify the path to a file from which the dict should be loaded.
+  // they specify the path to a file from which the dict should be loaded. Files
+  // ending in .pdict are dictionary stores whose IDs are stable across runs.
 	private String addresseeDict = "100000";
 	private String urlsDict      = "100000";
 	private String wordsDict     = "50000";
 	private String stocksDict    = "50000";
 	private String emoticonsDict = "500";
 	private String hashTagsDict  = "50000";
+	
+	// If true, the addressee and URL dictionaries, when loaded from a file, are
+	// stored front-coded, which saves a lot of memory as they share long prefixes
+	private boolean compressDicts = false;
   
   // Options for encoding of non-text features
   private final FeatureSpecification featSpec = new FeatureSpecification();
@@ -200,13 +208,14 @@ public class Main implements Callable<Integer>
 		
 		tfe.setStripRetweets(stripRetweets);
 		tfe.setStripRtMarkersFromText(stripRtMarkersFromText);
+		tfe.setNumpyDicts(numpyDicts);
 		
 		return tfe;
 	}
 
 	public Vectorizer newVectorizer() throws IOException
 	{
-		CompoundTokenDictionary dict = tokenDictionary();
+		FlatTokenDictionary dict = tokenDictionary();
 		Vectorizer vec = new Vectorizer(dict);
 		vec.setStemEnabled(stem);
 		vec.setStopElimEnabled(elimStopWords);
@@ -218,9 +227,9 @@ public class Main implements Callable<Integer>
 		return vec;
 	}
 
-	private CompoundTokenDictionary tokenDictionary() throws IOException
+	private FlatTokenDictionary tokenDictionary() throws IOException
 	{
-		CompoundTokenDictionary dict = new CompoundTokenDictionary(null);
+		FlatTokenDictionary dict = new FlatTokenDictionary(null);
 		
 		if (treatHashTagsAsWords)
 		{	if ("0".equals (wordsDict))
@@ -230,8 +239,8 @@ public class Main implements Callable<Integer>
 		}
 		
 		Dictionary wordDict = dictionary(wordsDict);	
-		dict.addDictionary(TokenType.USERNAME, dictionary(addresseeDict));
-		dict.addDictionary(TokenType.URL,      dictionary(urlsDict));
+		dict.addDictionary(TokenType.USERNAME, dictionary(addresseeDict, compressDicts));
+		dict.addDictionary(TokenType.URL,      dictionary(urlsDict,      compressDicts));
 		dict.addDictionary(TokenType.TOKEN,    wordDict);
 		dict.addDictionary(TokenType.STOCK,    dictionary(stocksDict));
 		dict.addDictionary(TokenType.EMOTICON, dictionary(emoticonsDict));
@@ -243,6 +252,15 @@ public class Main implements Callable<Integer>
 	}
   
   private final Dictionary dictionary(String dict) throws IOException
+  {	return dictionary(dict, false);
+  }
+  
+  /**
+   * Creates a dictionary from the given specification, either a capacity, or
+   * a path to a file with an optional minimum word count. If <tt>compress</tt>
+   * is set, dictionaries loaded from files are front-coded.
+   */
+  private final Dictionary dictionary(String dict, boolean compress) throws IOException
   {	int minWordCount = this.minWordCount;
   	
   	if (isDigitSequence (dict))
@@ -258,7 +276,15 @@ public class Main implements Callable<Integer>
 	  	{	minWordCount = Integer.parseInt (dict.substring(colonPos + 1));
 	  		dict         = dict.substring(0, colonPos);
 	  	}
-	  	return LookupDictionary.fromFile(Paths.get(dict), minWordCount);
+	  	if (dict.endsWith(PersistentDictionary.FILE_SUFFIX))
+	  	{	// Stored dictionaries keep their IDs, rare words are just unmapped
+	  		PersistentDictionary stored = PersistentDictionary.open(Paths.get(dict));
+	  		stored.setMinCount(minWordCount);
+	  		return stored;
+	  	}
+	  	return compress
+	  		? FrontCodedDictionary.fromFile(Paths.get(dict), minWordCount)
+	  		: LookupDictionary.fromFile(Paths.get(dict), minWordCount);
 	  }
   }
   
@@ -333,6 +359,15 @@ public class Main implements Callable<Integer>
     this.aggregateByAuthor = aggregateByAuthor;
   }
   
+  public boolean isNumpyDicts() {
+    return numpyDicts;
+  }
+  
+  @Option(name="--numpy-dicts", usage="Write dictionaries as numpy string blobs and offsets instead of Python lists in dicts.py", metaVar=" ")
+  public void setNumpyDicts(boolean numpyDicts) {
+    this.numpyDicts = numpyDicts;
+  }
+  
   public String getMinDateIncl() {
     return dateFormat.print(minDateIncl);
   }
@@ -526,7 +561,7 @@ public class Main implements Callable<Integer>
 	{	return wordsDict;
 	}
 
-	@Option(name="--dict-words", usage="Maximum number of words to add to dictionary, or path to dictionary to be loaded.", metaVar=" ")
+	@Option(name="--dict-words", usage="Maximum number of words to add to dictionary, or path to dictionary to be loaded. Paths ending in .pdict are dictionary stores, updated by UpdateDict, whose IDs are stable across runs.", metaVar=" ")
 	public void setWordsDict(String dict)
 	{	this.wordsDict = dict;
 	}
@@ -557,7 +592,16 @@ public class Main implements Callable<Integer>
 	public void setHashTagsDict(String dict)
 	{	this.hashTagsDict = dict;
 	}
-	
+
+	public boolean isCompressDicts()
+	{	return compressDicts;
+	}
+
+	@Option(name="--compress-dicts", usage="Store the addressee and URL dictionaries loaded from files in a compressed, front-coded, form to save memory.", metaVar=" ")
+	public void setCompressDicts(boolean compressDicts)
+	{	this.compressDicts = compressDicts;
+	}
+
 	public String getSelectedUsers()
 	{	return selectedAccounts == null ? "" : StringUtils.join (selectedAccounts, ',');
 	}
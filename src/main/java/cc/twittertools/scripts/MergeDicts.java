@@ -0,0 +1,242 @@
+package cc.twittertools.scripts;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import cc.twittertools.util.NpyFiles;
+import cc.twittertools.words.dict.DictionaryMerger;
+
+/**
+ * Merges several dictionaries, written out by the <tt>--numpy-dicts</tt>
+ * option of the encoder, into a single dictionary. For every input dictionary
+ * a table of old to new word IDs is written out, and optionally the columns
+ * of existing sparse word-count matrices can be rewritten to match the new
+ * dictionary, so that a change of vocabulary doesn't require the corpus
+ * to be re-encoded.
+ * <p>
+ * Dictionaries are specified by the path and name they were written with, so
+ * <tt>out/words</tt> reads <tt>out/words-strings.npy</tt>, <tt>out/words-offsets.npy</tt>
+ * and <tt>out/words.json</tt>.
+ * <p>
+ * Matrices are read and written as the three standard CSR component arrays
+ * (data, column indices and row pointers), each in its own <tt>.npy</tt>
+ * file, with an optional fourth file giving the shape. The suffixes of these
+ * files can be set on the command-line. Each remapped array keeps the integer
+ * type of its input, unless its values no longer fit, e.g. when the merged
+ * dictionary has more words than a 16-bit column index can address, in which
+ * case it's widened.
+ * <p>
+ * Matrices written by <tt>CsrShortMatrixBuilder.writeToFile()</tt>, as the
+ * feature extractors do, are a single pickled Python object, <tt>PREFIX.pkl</tt>,
+ * which can't be read here. Load it in Python and save its
+ * <tt>data</tt>, <tt>indices</tt>, <tt>indptr</tt> and <tt>shape</tt> with
+ * <tt>numpy.save()</tt> as <tt>PREFIX-data.npy</tt> etc. to remap it.
+ */
+public class MergeDicts implements Callable<Integer>
+{
+	@Option(name="-o", aliases="--output", usage="The path and name of the merged dictionary, e.g. merged/words", metaVar=" ")
+	private String outputPath;
+
+	@Option(name="-m", aliases="--matrices", usage="Comma-separated list of matrices to remap, each given as the index of its dictionary, a colon, and the matrix path prefix, e.g. 0:out1/words,1:out2/words", metaVar=" ")
+	private String matrices = "";
+
+	@Option(name="-x", aliases="--remapped-suffix", usage="Suffix appended to a matrix's path prefix to create the path prefix of its remapped version", metaVar=" ")
+	private String remappedSuffix = "-remapped";
+
+	@Option(name="--data-suffix", usage="Suffix of the file with the matrix's non-zero values", metaVar=" ")
+	private String dataSuffix = "-data.npy";
+
+	@Option(name="--indices-suffix", usage="Suffix of the file with the matrix's column indices", metaVar=" ")
+	private String indicesSuffix = "-indices.npy";
+
+	@Option(name="--indptr-suffix", usage="Suffix of the file with the matrix's row pointers", metaVar=" ")
+	private String indptrSuffix = "-indptr.npy";
+
+	@Option(name="--shape-suffix", usage="Suffix of the file with the matrix's shape, rewritten if it exists", metaVar=" ")
+	private String shapeSuffix = "-shape.npy";
+
+	@Option(name="-h", aliases="--help", usage="Show this help message", metaVar=" ")
+	private boolean showHelp = false;
+
+	@Argument(usage="The path and name of each dictionary to merge", metaVar="DICT")
+	private List<String> inputPaths = new ArrayList<String>();
+
+	private MergeDicts()
+	{
+	}
+
+
+	/** Parses the arguments */
+	private void parseArguments(String[] args)
+	{	CmdLineParser parser = null;
+		try
+		{	parser = new CmdLineParser(this);
+			parser.parseArgument(args);
+
+			if (showHelp)
+			{	System.out.println("Help for this command:");
+				showHelp (System.out, parser);
+				System.exit(0);
+			}
+			if (inputPaths.isEmpty() || outputPath == null)
+			{	System.err.println ("You must specify an output path and at least one input dictionary");
+				showHelp (System.err, parser);
+				System.exit(-1);
+			}
+		}
+		catch (CmdLineException e)
+		{	System.err.println (e.getMessage());
+			showHelp (System.err, parser);
+		}
+
+	}
+
+	/** Shows the help message to the given stream. Needs the parser object to say what the options are. */
+	private void showHelp(PrintStream out, CmdLineParser parser)
+	{	out.println ("Usage: java -jar JARNAME.jar <options> DICT [DICT ...]");
+		if (parser != null)
+			parser.printUsage(out);
+	}
+
+	/**
+	 * Merges the dictionaries, writes out the remap tables, and remaps the
+	 * given matrices. Returns the number of words in the merged dictionary.
+	 */
+	public Integer call() throws Exception
+	{	DictionaryMerger merger = new DictionaryMerger();
+		for (String inputPath : inputPaths)
+		{	Path input = Paths.get(inputPath);
+			merger.add (parent(input), input.getFileName().toString());
+		}
+
+		Path output = Paths.get(outputPath);
+		merger.write (parent(output), output.getFileName().toString());
+		System.out.println ("Merged " + merger.numInputs() + " dictionaries into one with " + merger.size() + " words and a capacity of " + merger.capacity());
+
+		int[][] remaps = new int[merger.numInputs()][];
+		for (int input = 0; input < remaps.length; input++)
+		{	remaps[input] = merger.remapTable(input);
+			NpyFiles.writeInts (Paths.get(outputPath + "-remap-" + input + ".npy"), remaps[input], remaps[input].length);
+		}
+
+		for (String matrix : StringUtils.split(matrices, ','))
+		{	int colonPos = matrix.indexOf(':');
+			if (colonPos < 0)
+				throw new IllegalArgumentException ("Matrices must be specified as dict-index:path-prefix, which " + matrix + " is not");
+			int input = Integer.parseInt (matrix.substring(0, colonPos).trim());
+			String prefix = matrix.substring(colonPos + 1).trim();
+
+			remapMatrix (prefix, prefix + remappedSuffix, remaps[input], merger.capacity());
+		}
+
+		return merger.size();
+	}
+
+	/**
+	 * Rewrites the given CSR matrix so that every column index is replaced by
+	 * its entry in the remap table. Columns within each row are then re-sorted,
+	 * and any which now coincide have their values summed. The types of the
+	 * arrays in the input files are preserved in the output, or widened if
+	 * necessary, see {@link #writeLike(Path, Path, int[], int)}
+	 */
+	private void remapMatrix (String inputPrefix, String outputPrefix, int[] remap, int numCols) throws Exception
+	{	Path dataPath    = Paths.get(inputPrefix + dataSuffix);
+		Path indicesPath = Paths.get(inputPrefix + indicesSuffix);
+		Path indptrPath  = Paths.get(inputPrefix + indptrSuffix);
+		Path shapePath   = Paths.get(inputPrefix + shapeSuffix);
+		Path picklePath  = Paths.get(inputPrefix + ".pkl");
+		if (! Files.exists(dataPath) && Files.exists(picklePath))
+			throw new IOException ("The matrix " + picklePath + " is pickled, as written by CsrShortMatrixBuilder.writeToFile(), and can't be remapped. "
+				+ "Save its data, indices, indptr and shape arrays with numpy.save() as " + dataPath.getFileName() + " etc. first");
+
+		int[] data    = NpyFiles.readInts(dataPath);
+		int[] indices = NpyFiles.readInts(indicesPath);
+		int[] indptr  = NpyFiles.readInts(indptrPath);
+
+		int[] newData    = new int[data.length];
+		int[] newIndices = new int[indices.length];
+		int[] newIndptr  = new int[indptr.length];
+		int   nnz        = 0;
+		int   dropped    = 0;
+
+		// Within each row, pack new column and value together so we can sort
+		// on the column index in a single pass
+		long[] row = new long[16];
+		for (int r = 0; r < indptr.length - 1; r++)
+		{	int rowLen = indptr[r + 1] - indptr[r];
+			if (row.length < rowLen)
+				row = new long[Math.max (rowLen, row.length * 2)];
+
+			int n = 0;
+			for (int k = indptr[r]; k < indptr[r + 1]; k++)
+			{	int col = indices[k] < remap.length ? remap[indices[k]] : DictionaryMerger.NO_WORD;
+				if (col == DictionaryMerger.NO_WORD)
+					++dropped;
+				else
+					row[n++] = ((long) col << 32) | (data[k] & 0xFFFFFFFFL);
+			}
+			Arrays.sort (row, 0, n);
+
+			for (int k = 0; k < n; k++)
+			{	int col   = (int) (row[k] >>> 32);
+				int value = (int) row[k];
+				if (nnz > newIndptr[r] && newIndices[nnz - 1] == col)
+					newData[nnz - 1] += value;
+				else
+				{	newIndices[nnz] = col;
+					newData[nnz]    = value;
+					++nnz;
+				}
+			}
+			newIndptr[r + 1] = nnz;
+		}
+
+		writeLike (dataPath,    Paths.get(outputPrefix + dataSuffix),    newData,    nnz);
+		writeLike (indicesPath, Paths.get(outputPrefix + indicesSuffix), newIndices, nnz);
+		writeLike (indptrPath,  Paths.get(outputPrefix + indptrSuffix),  newIndptr,  newIndptr.length);
+
+		if (Files.exists(shapePath))
+		{	int[] shape = NpyFiles.readInts(shapePath);
+			shape[1] = numCols;
+			writeLike (shapePath, Paths.get(outputPrefix + shapeSuffix), shape, shape.length);
+		}
+
+		System.out.println ("Remapped " + inputPrefix + " to " + outputPrefix + ", " + (indptr.length - 1) + " rows, " + nnz + " non-zero entries" + (dropped > 0 ? ", dropping " + dropped + " entries with unknown columns" : ""));
+	}
+
+	/**
+	 * Writes the given values with the same integer type as the given input
+	 * file, widening it if any value no longer fits, rather than truncating it.
+	 */
+	private static void writeLike (Path input, Path output, int[] values, int length) throws IOException
+	{	String descr   = NpyFiles.readHeader(input).getDescr();
+		String widened = NpyFiles.widenToFit(descr, values, length);
+		if (! widened.equals(descr))
+			System.out.println ("Widening " + output + " from " + descr + " to " + widened + " so its values fit");
+		NpyFiles.writeInts (output, widened, values, length);
+	}
+
+	/** The directory containing the given path, which may be relative */
+	private static Path parent (Path path)
+	{	return path.getParent() == null ? Paths.get("") : path.getParent();
+	}
+
+	public static final void main(String[] args) throws Exception
+	{	MergeDicts m = new MergeDicts();
+		m.parseArguments(args);
+		m.call();
+	}
+}
@@ -1,24 +1,37 @@
 package cc.twittertools.scripts;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
 
 import org.apache.commons.io.Charsets;
-import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
 /**
  * Given a file of tokens and counts, ranks it according to token-count in
- * decreasing order.
+ * decreasing order. Tokens with the same count are left in the order in which
+ * they appear in the input.
+ * <p>
+ * If only the top-k tokens are required, the input is streamed through a
+ * heap of k tokens, so memory use doesn't depend on the size of the input.
+ * Otherwise tokens are read, as UTF-8 bytes, into a single byte array with
+ * their counts and offsets stored in primitive arrays, and these are sorted
+ * in parallel.
  * @author bryanfeeney
  *
  */
@@ -26,26 +39,32 @@ public class Rank implements Callable<Integer>
 {
 	private final static String NULL_WORD = "_bryan_feeney_is_a_programmer_and_not_a_word";
 	
+	private final static int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Counts are packed with line numbers into a long for sorting, so must fit
+	 * in this many bits. The packed keys use all 64 bits, so they're sorted as
+	 * unsigned values by flipping their sign bits.
+	 */
+	private final static int  COUNT_BITS = 64 - 31;
+	private final static long MAX_COUNT  = (1L << COUNT_BITS) - 1;
+
 	private final static class TokenCount implements Comparable<TokenCount>
 	{	private final String token;
-		private final int count;
-		
-		public TokenCount(String token, int count)
-		{	this.token = token;
-			this.count = count;
-		}
+		private final long count;
+		private final int lineNum;
 		
-		public TokenCount(String tabDelimLine)
-		{	String[] parts = StringUtils.split(tabDelimLine);
-			this.token = parts[0];
-			this.count = Integer.parseInt(parts[1]);
+		public TokenCount(String token, long count, int lineNum)
+		{	this.token   = token;
+			this.count   = count;
+			this.lineNum = lineNum;
 		}
 
 		public String getToken()
 		{	return token;
 		}
 
-		public int getCount()
+		public long getCount()
 		{	return count;
 		}
 		
@@ -54,9 +73,11 @@ public class Rank implements Callable<Integer>
 		{	return token + '\t' + String.valueOf(count) + '\n';
 		}
 
+		/** Orders by decreasing count, then by position in the input */
 		@Override
 		public int compareTo(TokenCount that)
-		{	return that.count - this.count;
+		{	int cmp = Long.compare (that.count, this.count);
+			return cmp != 0 ? cmp : Integer.compare (this.lineNum, that.lineNum);
 		}
 		
 		 
@@ -68,8 +89,18 @@ public class Rank implements Callable<Integer>
 	@Option(name="-o", aliases="--output", usage="The output file, tab delimited of words and counts", metaVar=" ")
 	private String outputPath;
 	
+	@Option(name="-k", aliases="--top-k", usage="Only write out this many of the most frequent tokens. Zero, the default, means write out all tokens", metaVar=" ")
+	private int topK = 0;
+
 	@Option(name="-h", aliases="--help", usage="Show this help message", metaVar=" ")
 	private boolean showHelp = false;
+
+	// The tokens read in, stored end to end as UTF-8, and their counts
+	private byte[] arena    = new byte[BUFFER_SIZE];
+	private int    arenaEnd = 0;
+	private int[]  offsets  = new int[1024];
+	private long[] counts   = new long[1024];
+	private int    size     = 0;
 	
 	private Rank()
 	{	
@@ -104,18 +135,46 @@ public class Rank implements Callable<Integer>
 	}
 
 	/**
-	 * Given an input file of words, one per line, writes out a tab-delimited
-	 * file of word-counts
+	 * Given an input file of tokens and counts, writes out a tab-delimited
+	 * file of tokens and counts in decreasing order of count. Returns the
+	 * number of tokens written.
 	 */
 	public Integer call() throws Exception
-	{	List<TokenCount> tokenCounts = new ArrayList<TokenCount>(3_000_000);
+	{	return topK > 0 ? callTopK() : callAll();
+	}
+
+	/**
+	 * Streams through the input, keeping a heap of the top-k tokens seen so far.
+	 */
+	private Integer callTopK() throws Exception
+	{	// The head of this heap is the token which should next be evicted
+		PriorityQueue<TokenCount> heap = new PriorityQueue<>(topK + 1, Collections.reverseOrder());
 	
 		try (BufferedReader rdr = Files.newBufferedReader(Paths.get(inputPath), Charsets.UTF_8);)
 		{	String line = null;
+			int lineNum = 0;
 			while ((line = rdr.readLine()) != null)
-				tokenCounts.add(new TokenCount (line));
+			{	++lineNum;
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+
+				int sep = separatorPos (line);
+				String countStr = line.substring(sep + 1).trim();
+				if (countStr.isEmpty())
+					throw new IllegalArgumentException ("No count at line " + lineNum + " of " + inputPath);
+				long count = Long.parseLong(countStr);
+
+				// Only create an object for tokens that make it into the heap
+				if (heap.size() == topK && count <= heap.peek().getCount())
+					continue;
+				heap.add (new TokenCount (line.substring(0, sep).trim(), count, lineNum));
+				if (heap.size() > topK)
+					heap.poll();
+			}
 		}
 		
+		List<TokenCount> tokenCounts = new ArrayList<>(heap);
 		Collections.sort(tokenCounts);
 		
 		try (BufferedWriter wtr = Files.newBufferedWriter(Paths.get(outputPath), Charsets.UTF_8);)
@@ -126,10 +185,142 @@ public class Rank implements Callable<Integer>
 		return tokenCounts.size();
 	}
 	
+	/** The position of the last tab in the line, or if there is none, the last space */
+	private static int separatorPos (String line)
+	{	int sep = line.lastIndexOf('\t');
+		if (sep < 0)
+			sep = line.lastIndexOf(' ');
+		if (sep < 0)
+			throw new IllegalArgumentException ("No token and count in line '" + line + "'");
+		return sep;
+	}
+
+	/**
+	 * Reads every token into the arena, sorts them all, and writes them out.
+	 */
+	private Integer callAll() throws Exception
+	{	readAll();
+
+		// Sort by decreasing count and then line number by packing both into a long
+		long[] order = new long[size];
+		for (int i = 0; i < size; i++)
+			order[i] = (((MAX_COUNT - counts[i]) << 31) | i) ^ Long.MIN_VALUE;
+		Arrays.parallelSort (order);
+
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(outputPath)), BUFFER_SIZE);)
+		{	for (long key : order)
+			{	int i = (int) (key & Integer.MAX_VALUE);
+				out.write (arena, offsets[i], tokenLength(i));
+				out.write ('\t');
+				out.write (Long.toString(counts[i]).getBytes(StandardCharsets.US_ASCII));
+				out.write ('\n');
+			}
+		}
+
+		return size;
+	}
+
+	private int tokenLength (int i)
+	{	return (i + 1 < size ? offsets[i + 1] : arenaEnd) - offsets[i];
+	}
+
+	/**
+	 * Reads the input into the arena, scanning bytes directly rather than
+	 * decoding lines into strings. As tab, space, newline and the digits are
+	 * all single bytes in UTF-8, they can't occur inside a multi-byte character.
+	 */
+	private void readAll() throws IOException
+	{	byte[] line = new byte[256];
+		int    len  = 0;
+		int    lineNum = 0;
+		byte[] buf  = new byte[BUFFER_SIZE];
+
+		try (InputStream in = Files.newInputStream(Paths.get(inputPath)))
+		{	int read;
+			while ((read = in.read(buf)) > 0)
+			{	for (int b = 0; b < read; b++)
+				{	if (buf[b] == '\n')
+					{	addLine (line, len, ++lineNum);
+						len = 0;
+					}
+					else
+					{	if (len == line.length)
+							line = Arrays.copyOf (line, len * 2);
+						line[len++] = buf[b];
+					}
+				}
+			}
+			if (len > 0)
+				addLine (line, len, ++lineNum);
+		}
+	}
+
+	/** Parses the token and count in the given line, and adds them to the arena */
+	private void addLine (byte[] line, int len, int lineNum)
+	{	while (len > 0 && isSpace (line[len - 1]))
+			--len;
+		if (len == 0)
+			return;
+
+		int sep = len - 1;
+		while (sep >= 0 && line[sep] != '\t')
+			--sep;
+		if (sep < 0)
+		{	sep = len - 1;
+			while (sep >= 0 && line[sep] != ' ')
+				--sep;
+		}
+		if (sep < 0)
+			throw new IllegalArgumentException ("No token and count at line " + lineNum + " of " + inputPath);
+
+		long    count     = 0;
+		boolean hasDigits = false;
+		for (int i = sep + 1; i < len; i++)
+		{	if (line[i] < '0' || line[i] > '9')
+			{	if (isSpace (line[i]))
+					continue;
+				throw new IllegalArgumentException ("Invalid count at line " + lineNum + " of " + inputPath);
+			}
+			count = count * 10 + (line[i] - '0');
+			hasDigits = true;
+			if (count > MAX_COUNT)
+				throw new IllegalArgumentException ("Count at line " + lineNum + " of " + inputPath + " exceeds the maximum of " + MAX_COUNT);
+		}
+		if (! hasDigits)
+			throw new IllegalArgumentException ("No count at line " + lineNum + " of " + inputPath);
+
+		int start = 0, end = sep;
+		while (start < end && isSpace (line[start]))
+			++start;
+		while (end > start && isSpace (line[end - 1]))
+			--end;
+
+		if (size == Integer.MAX_VALUE - 8)
+			throw new IllegalStateException ("Too many tokens to rank");
+		if (size == offsets.length)
+		{	offsets = Arrays.copyOf (offsets, size * 2);
+			counts  = Arrays.copyOf (counts,  size * 2);
+		}
+		if ((long) arenaEnd + (end - start) > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException ("Tokens are too large to rank in memory, use --top-k instead");
+		if (arenaEnd + (end - start) > arena.length)
+			arena = Arrays.copyOf (arena, (int) Math.min (Integer.MAX_VALUE - 8, Math.max ((long) arena.length * 2, arenaEnd + (end - start))));
+
+		System.arraycopy (line, start, arena, arenaEnd, end - start);
+		offsets[size] = arenaEnd;
+		counts[size]  = count;
+		arenaEnd += end - start;
+		++size;
+	}
+
+	private static boolean isSpace (byte b)
+	{	return b == ' ' || b == '\t' || b == '\r';
+	}
+
 	
 	public static final void main(String[] args) throws Exception
 	{	Rank c = new Rank();
 		c.parseArguments(args);
 		c.call();
 	}
-}
\ No newline at end of file
+}
@@ -7,14 +7,23 @@ import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.Object2IntAVLTreeMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.charset.MalformedInputException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -25,7 +34,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Hex;
@@ -35,14 +49,26 @@ import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.commons.lang3.tuple.Pair;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
-import org.joda.time.Interval;
+import org.joda.time.chrono.ISOChronology;
+import org.joda.time.format.ISODateTimeFormat;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import cc.twittertools.post.MappedLineScanner;
 import cc.twittertools.post.SavedTweetReader;
-import cc.twittertools.post.Tweet;
-import cc.twittertools.util.FilesInFoldersIterator;
+import cc.twittertools.post.TweetBatch;
+import cc.twittertools.spider.TweetsHtmlParser;
+import cc.twittertools.util.CorpusManifest;
+import cc.twittertools.util.HyperLogLog;
+import cc.twittertools.util.LogHistogram;
+import cc.twittertools.util.OrderedMerger;
 import cc.twittertools.util.PathUtils;
+import cc.twittertools.util.SpaceSavingCounter;
+import cc.twittertools.util.SpillingCounter;
+import cc.twittertools.util.TrendCounter;
 import cc.twittertools.words.Vectorizer;
 
 import com.twitter.common.text.token.attribute.TokenType;
@@ -52,10 +78,22 @@ import com.twitter.common.text.token.attribute.TokenType;
  * <ul>
  * <li>The date of each author's first tweet
  * <li>How many tweets exist given from each starting point
- * <li>Statistics on the inter-post time in minutes
+ * <li>Statistics on the inter-post time in minutes, over all authors, and
+ *     quantiles of the inter-post time and the hour of posting, in local time, for each author
  * <li>Statistics on how often authors retweet. There are two kinds of retweet:
  *     the built-in kind, and one where a message is quoted via "RT"
+ * <li>Counts of every word, URL, hashtag, addressee, smiley and stock symbol
+ *     in tab-delimited files named after the token type, e.g. words-counts.txt
+ * <li>Approximate counts of the distinct hashtags, addressees and URLs used
+ *     by each author, and of the distinct authors and words in each week,
+ *     estimated using {@link HyperLogLog} sketches
+ * <li>Bursts in the hourly and daily use of hashtags and URLs over the most
+ *     recent week and quarter respectively, found by {@link TrendCounter}s,
+ *     in files such as hashtags-trends.txt
  * </ul>
+ * If run incrementally, see {@link #setIncremental(boolean)}, the statistics
+ * are saved in a binary state file along with a manifest of the tweet files
+ * processed, so that subsequent runs need only process new and changed files.
  * @author bryanfeeney
  *
  */
@@ -69,211 +107,985 @@ public class TwitterStats implements Callable<Integer>
 //	private static final int EXPECTED_WORD_COUNT = 5_000_000;
 	
 	private static final int MAX_CORRUPTED_TWEETS_PER_FILE = 5;
+	private static final int DEFAULT_MAX_COUNTS_IN_MEMORY  = 4_000_000;
+	
+	/** How many work units of about the same size to divide the files into per thread */
+	private static final int WORK_UNITS_PER_THREAD = 4;
 
 	private final static Logger LOG = LoggerFactory.getLogger(TwitterStats.class);
 	
-	private final Int2IntMap            postsSinceDay;
-	private final Map<String, DateTime> lastPostByUser;
-	private final Map<String, DateTime> firstPostByUser;
-	private final Object2IntMap<String> firstPostByUserAsDay;
-	private final Int2IntMap            interPostTimeMins;
-	private final Map<String, MutableInt> emptyRetweet;
-	private final Map<String, MutableInt> emptyRetweetRetweet;
-	private final Map<String, MutableInt> commentRetweet;
-	private final Map<String, MutableInt> commentRetweetRetweet;
-	private final Map<String, MutableInt> rtRetweetsByUser;
-	private final Map<String, MutableInt> tweetsPerUser;
-	private final Int2IntMap            tweetsPerWeek;
-	private final Int2IntMap            wordsPerTweet;
-	private final Int2IntMap            urlsPerTweet;
-	private final Int2IntMap            hashTagsPerTweet;
-	private final Int2IntMap            smileysPerTweet;
-	private final Int2IntMap            addrsPerTweet;
-	private final Int2IntMap            stocksPerTweet;
-	private final Int2IntMap            tokensPerTweet;
+	private final static DateTime FIRST_DAY = new DateTime (2000, 01, 01, 00, 00, 01);
+	
+	/** Used to find the week of a tweet's time, in the default time zone as Joda's parser does */
+	private final static ISOChronology CHRONOLOGY = ISOChronology.getInstance();
+	/** Used to find the hour of a tweet's local time, given as milliseconds since the epoch plus its UTC offset */
+	private final static ISOChronology UTC_CHRONOLOGY = ISOChronology.getInstanceUTC();
+	private final static long NO_DATE = Long.MIN_VALUE;
+	
+	private final static String STATE_FILE    = "stats-state.bin";
+	private final static int    STATE_MAGIC   = 0x54535453; // "TSTS"
+	private final static int    STATE_VERSION = 5;
+	
+	/** Precision of the per-user distinct-count sketches: 1KB each, with a 3.25% standard error */
+	private final static int USER_SKETCH_PRECISION = 10;
+	/** Precision of the per-week distinct-count sketches: 16KB each, with a 0.8% standard error */
+	private final static int WEEK_SKETCH_PRECISION = 14;
+	
+	/** Inter-post times over all users are exact up to 256 minutes, and within 1% after */
+	private final static int GLOBAL_HISTOGRAM_BITS = 7;
+	/** Per-user inter-post times are exact up to 32 minutes, and within 6% after */
+	private final static int USER_HISTOGRAM_BITS   = 4;
+	/** Posting hours are always exact, as they're less than 32 */
+	private final static int HOUR_HISTOGRAM_BITS   = 4;
+	
+	/** Hashtags and URLs are counted by hour for the last week, and by day for the last 90 days */
+	private final static long HOUR_MILLIS        = TimeUnit.HOURS.toMillis(1);
+	private final static long DAY_MILLIS         = TimeUnit.DAYS.toMillis(1);
+	private final static int  TREND_HOURS        = 7 * 24;
+	private final static int  TREND_DAYS         = 90;
+	private final static int  MAX_TREND_TERMS    = 20_000;
+	/** The weight of each new count in the moving averages used to find bursts */
+	private final static double TREND_ALPHA      = 0.1;
+	
+	/**
+	 * What's been counted of an account's tweets in a folder, which is how
+	 * files are grouped into work units, so that an incremental run can carry
+	 * on where the last left off.
+	 */
+	private final static class GroupState
+	{	/** The largest ID counted */
+		private long    maxTweetId = Long.MIN_VALUE;
+		/** When the last tweet counted, in file order, was posted */
+		private long    lastMillis = NO_DATE;
+		/** Whether a placeholder tweet, see {@link TweetsHtmlParser#SUSPECTED_ADVERT_TWEET_ID}, has been counted */
+		private boolean placeholderCounted = false;
+		
+		GroupState()
+		{
+		}
+		
+		GroupState (GroupState that)
+		{	this.maxTweetId         = that.maxTweetId;
+			this.lastMillis         = that.lastMillis;
+			this.placeholderCounted = that.placeholderCounted;
+		}
+	}
+	
+	/**
+	 * The statistics collected from some subset of the tweets. Each work unit
+	 * of whole users' files is processed by a separate task which fills in its
+	 * own accumulator, and these are then merged together in unit order.
+	 * <p>
+	 * Each task counts tokens with its own {@link TokenCounters}, which spill
+	 * to disk, or count only the top-k, so a task's memory doesn't grow with
+	 * the number of distinct terms it sees. When merged, the corpus-wide
+	 * counters take over their run files, rather than another accumulator.
+	 */
+	private final static class Accumulator
+	{
+		private final Int2IntMap            postsSinceDay         = new Int2IntAVLTreeMap();
+		private final Map<String, DateTime> lastPostByUser        = new HashMap<>();
+		private final Map<String, DateTime> firstPostByUser       = new HashMap<>();
+		private final Object2IntMap<String> firstPostByUserAsDay  = new Object2IntAVLTreeMap<>();
+		private final LogHistogram          interPostTimeMins     = new LogHistogram(GLOBAL_HISTOGRAM_BITS);
+		private final Map<String, MutableInt> emptyRetweet          = new HashMap<>();
+		private final Map<String, MutableInt> emptyRetweetRetweet   = new HashMap<>();
+		private final Map<String, MutableInt> commentRetweet        = new HashMap<>();
+		private final Map<String, MutableInt> commentRetweetRetweet = new HashMap<>();
+		private final Map<String, MutableInt> rtRetweetsByUser      = new HashMap<>();
+		private final Map<String, MutableInt> tweetsPerUser         = new HashMap<>();
+		private final Int2IntMap            tweetsPerWeek         = new Int2IntAVLTreeMap();
+		private final Int2IntMap            wordsPerTweet         = new Int2IntAVLTreeMap();
+		private final Int2IntMap            urlsPerTweet          = new Int2IntAVLTreeMap();
+		private final Int2IntMap            hashTagsPerTweet      = new Int2IntAVLTreeMap();
+		private final Int2IntMap            smileysPerTweet       = new Int2IntAVLTreeMap();
+		private final Int2IntMap            addrsPerTweet         = new Int2IntAVLTreeMap();
+		private final Int2IntMap            stocksPerTweet        = new Int2IntAVLTreeMap();
+		private final Int2IntMap            tokensPerTweet        = new Int2IntAVLTreeMap();
+		private final Map<String, GroupState> groups              = new HashMap<>();
+		
+		private final Map<String, HyperLogLog>  distinctHashtagsByUser   = new HashMap<>();
+		private final Map<String, HyperLogLog>  distinctAddresseesByUser = new HashMap<>();
+		private final Map<String, HyperLogLog>  distinctUrlsByUser       = new HashMap<>();
+		private final Map<Integer, HyperLogLog> activeUsersPerWeek       = new TreeMap<>();
+		private final Map<Integer, HyperLogLog> distinctWordsPerWeek     = new TreeMap<>();
+		
+		private final Map<String, LogHistogram> interPostMinsByUser = new HashMap<>();
+		private final Map<String, LogHistogram> postingHourByUser   = new HashMap<>();
+		
+		private final TrendCounter hashtagsByHour = new TrendCounter (HOUR_MILLIS, TREND_HOURS, MAX_TREND_TERMS);
+		private final TrendCounter hashtagsByDay  = new TrendCounter (DAY_MILLIS,  TREND_DAYS,  MAX_TREND_TERMS);
+		private final TrendCounter urlsByHour     = new TrendCounter (HOUR_MILLIS, TREND_HOURS, MAX_TREND_TERMS);
+		private final TrendCounter urlsByDay      = new TrendCounter (DAY_MILLIS,  TREND_DAYS,  MAX_TREND_TERMS);
+		
+		/** The task's token counts, or null if this holds only totals */
+		private final TokenCounters tokens;
+		
+		private int tweetCount = 0;
+		
+		/** Creates an accumulator for totals, which doesn't count tokens */
+		public Accumulator()
+		{	this (null);
+		}
+		
+		/** Creates an accumulator which counts tokens with the given counters */
+		public Accumulator (TokenCounters tokens)
+		{	this.tokens = tokens;
+			
+			postsSinceDay.defaultReturnValue(0);
+			firstPostByUserAsDay.defaultReturnValue(0);
+			
+			tweetsPerWeek.defaultReturnValue(0);
+			wordsPerTweet.defaultReturnValue(0);
+			urlsPerTweet.defaultReturnValue(0);
+			hashTagsPerTweet.defaultReturnValue(0);
+			smileysPerTweet.defaultReturnValue(0);
+			addrsPerTweet.defaultReturnValue(0);
+			stocksPerTweet.defaultReturnValue(0);
+			tokensPerTweet.defaultReturnValue(0);
+		}
+		
+		/**
+		 * Adds the statistics in the given accumulator to this one. Token
+		 * counts are not merged, see {@link TokenCounters#merge(TokenCounters)}.
+		 * The given accumulator's group states replace these, as each is either
+		 * for a different group or carries on from the state saved by an earlier
+		 * run.
+		 */
+		public void merge (Accumulator that)
+		{	for (Map.Entry<String, DateTime> entry : that.firstPostByUser.entrySet())
+			{	String   account   = entry.getKey();
+				DateTime firstPost = firstPostByUser.get(account);
+				if (firstPost == null || entry.getValue().isBefore(firstPost))
+				{	firstPostByUser.put (account, entry.getValue());
+					firstPostByUserAsDay.put (account, that.firstPostByUserAsDay.getInt(account));
+				}
+			}
+			for (Map.Entry<String, DateTime> entry : that.lastPostByUser.entrySet())
+			{	DateTime lastPost = lastPostByUser.get(entry.getKey());
+				if (lastPost == null || entry.getValue().isAfter(lastPost))
+					lastPostByUser.put (entry.getKey(), entry.getValue());
+			}
+			
+			addAll (emptyRetweet,          that.emptyRetweet);
+			addAll (emptyRetweetRetweet,   that.emptyRetweetRetweet);
+			addAll (commentRetweet,        that.commentRetweet);
+			addAll (commentRetweetRetweet, that.commentRetweetRetweet);
+			addAll (rtRetweetsByUser,      that.rtRetweetsByUser);
+			addAll (tweetsPerUser,         that.tweetsPerUser);
+			
+			interPostTimeMins.merge (that.interPostTimeMins);
+			mergeHistograms (interPostMinsByUser, that.interPostMinsByUser);
+			mergeHistograms (postingHourByUser,   that.postingHourByUser);
+			
+			TrendCounter[] trends = trends(), thoseTrends = that.trends();
+			for (int i = 0; i < trends.length; i++)
+				trends[i].merge (thoseTrends[i]);
+			
+			addAll (postsSinceDay,     that.postsSinceDay);
+			addAll (tweetsPerWeek,     that.tweetsPerWeek);
+			addAll (wordsPerTweet,     that.wordsPerTweet);
+			addAll (urlsPerTweet,      that.urlsPerTweet);
+			addAll (hashTagsPerTweet,  that.hashTagsPerTweet);
+			addAll (smileysPerTweet,   that.smileysPerTweet);
+			addAll (addrsPerTweet,     that.addrsPerTweet);
+			addAll (stocksPerTweet,    that.stocksPerTweet);
+			addAll (tokensPerTweet,    that.tokensPerTweet);
+			
+			groups.putAll (that.groups);
+			
+			mergeAll (distinctHashtagsByUser,   that.distinctHashtagsByUser);
+			mergeAll (distinctAddresseesByUser, that.distinctAddresseesByUser);
+			mergeAll (distinctUrlsByUser,       that.distinctUrlsByUser);
+			mergeAll (activeUsersPerWeek,       that.activeUsersPerWeek);
+			mergeAll (distinctWordsPerWeek,     that.distinctWordsPerWeek);
+			
+			tweetCount += that.tweetCount;
+		}
+		
+		/**
+		 * Merges the given sketches into these. Sketches are taken as is, rather
+		 * than copied, as the accumulator they come from is discarded once merged
+		 */
+		private static <K> void mergeAll (Map<K, HyperLogLog> sketches, Map<K, HyperLogLog> moreSketches)
+		{	for (Map.Entry<K, HyperLogLog> e : moreSketches.entrySet())
+			{	HyperLogLog sketch = sketches.get(e.getKey());
+				if (sketch == null)
+					sketches.put (e.getKey(), e.getValue());
+				else
+					sketch.merge (e.getValue());
+			}
+		}
+		
+		/** Merges the given histograms into these, taking them as is, like {@link #mergeAll(Map, Map)} */
+		private static void mergeHistograms (Map<String, LogHistogram> histograms, Map<String, LogHistogram> moreHistograms)
+		{	for (Map.Entry<String, LogHistogram> e : moreHistograms.entrySet())
+			{	LogHistogram histogram = histograms.get(e.getKey());
+				if (histogram == null)
+					histograms.put (e.getKey(), e.getValue());
+				else
+					histogram.merge (e.getValue());
+			}
+		}
+		
+		/**
+		 * The state of the given group, an account's tweets in a folder,
+		 * starting from its state at the end of the previous run, if any.
+		 */
+		private GroupState group (String key, Map<String, GroupState> previousGroups)
+		{	GroupState group = groups.get(key);
+			if (group == null)
+			{	GroupState previous = previousGroups.get(key);
+				group = previous == null ? new GroupState() : new GroupState (previous);
+				groups.put (key, group);
+			}
+			return group;
+		}
+		
+		/** The trend counters, in the order in which they're saved */
+		private TrendCounter[] trends()
+		{	return new TrendCounter[] { hashtagsByHour, hashtagsByDay, urlsByHour, urlsByDay };
+		}
+		
+		/** The histograms, in the order in which they're saved */
+		private Int2IntMap[] histograms()
+		{	return new Int2IntMap[] {
+				postsSinceDay, tweetsPerWeek,
+				wordsPerTweet, urlsPerTweet, hashTagsPerTweet, smileysPerTweet,
+				addrsPerTweet, stocksPerTweet, tokensPerTweet
+			};
+		}
+		
+		/**
+		 * Writes out the per-user statistics, histograms and distinct-count
+		 * sketches in a compact binary form. Token counts are not written.
+		 */
+		public void write (DataOutput out) throws IOException
+		{	out.writeInt (tweetCount);
+			
+			out.writeInt (firstPostByUser.size());
+			for (Map.Entry<String, DateTime> entry : firstPostByUser.entrySet())
+			{	String account = entry.getKey();
+				out.writeUTF  (account);
+				writeDate     (out, entry.getValue());
+				out.writeInt  (firstPostByUserAsDay.getInt(account));
+				writeDate     (out, lastPostByUser.get(account));
+				out.writeInt  (get (tweetsPerUser,         account));
+				out.writeInt  (get (emptyRetweet,          account));
+				out.writeInt  (get (emptyRetweetRetweet,   account));
+				out.writeInt  (get (commentRetweet,        account));
+				out.writeInt  (get (commentRetweetRetweet, account));
+				out.writeInt  (get (rtRetweetsByUser,      account));
+			}
+			
+			out.writeInt (groups.size());
+			for (Map.Entry<String, GroupState> entry : groups.entrySet())
+			{	out.writeUTF     (entry.getKey());
+				out.writeLong    (entry.getValue().maxTweetId);
+				out.writeLong    (entry.getValue().lastMillis);
+				out.writeBoolean (entry.getValue().placeholderCounted);
+			}
+			
+			for (Int2IntMap histogram : histograms())
+			{	out.writeInt (histogram.size());
+				for (Int2IntMap.Entry e : histogram.int2IntEntrySet())
+				{	out.writeInt (e.getIntKey());
+					out.writeInt (e.getIntValue());
+				}
+			}
+			
+			interPostTimeMins.write (out);
+			for (Map<String, LogHistogram> histograms : Arrays.asList (interPostMinsByUser, postingHourByUser))
+			{	out.writeInt (histograms.size());
+				for (Map.Entry<String, LogHistogram> e : histograms.entrySet())
+				{	out.writeUTF (e.getKey());
+					e.getValue().write (out);
+				}
+			}
+			for (TrendCounter trend : trends())
+				trend.write (out);
+			
+			for (Map<String, HyperLogLog> sketches : Arrays.asList (distinctHashtagsByUser, distinctAddresseesByUser, distinctUrlsByUser))
+			{	out.writeInt (sketches.size());
+				for (Map.Entry<String, HyperLogLog> e : sketches.entrySet())
+				{	out.writeUTF (e.getKey());
+					e.getValue().write (out);
+				}
+			}
+			for (Map<Integer, HyperLogLog> sketches : Arrays.asList (activeUsersPerWeek, distinctWordsPerWeek))
+			{	out.writeInt (sketches.size());
+				for (Map.Entry<Integer, HyperLogLog> e : sketches.entrySet())
+				{	out.writeInt (e.getKey());
+					e.getValue().write (out);
+				}
+			}
+		}
+		
+		/** Reads in statistics written by {@link #write(DataOutput)} */
+		public static Accumulator read (DataInput in) throws IOException
+		{	Accumulator stats = new Accumulator();
+			stats.tweetCount = in.readInt();
+			
+			for (int u = 0, numUsers = in.readInt(); u < numUsers; u++)
+			{	String account = in.readUTF();
+				stats.firstPostByUser.put      (account, readDate (in));
+				stats.firstPostByUserAsDay.put (account, in.readInt());
+				stats.lastPostByUser.put       (account, readDate (in));
+				put (stats.tweetsPerUser,         account, in.readInt());
+				put (stats.emptyRetweet,          account, in.readInt());
+				put (stats.emptyRetweetRetweet,   account, in.readInt());
+				put (stats.commentRetweet,        account, in.readInt());
+				put (stats.commentRetweetRetweet, account, in.readInt());
+				put (stats.rtRetweetsByUser,      account, in.readInt());
+			}
+			
+			for (int g = 0, numGroups = in.readInt(); g < numGroups; g++)
+			{	String     key   = in.readUTF();
+				GroupState group = new GroupState();
+				group.maxTweetId         = in.readLong();
+				group.lastMillis         = in.readLong();
+				group.placeholderCounted = in.readBoolean();
+				stats.groups.put (key, group);
+			}
+			
+			for (Int2IntMap histogram : stats.histograms())
+				for (int i = 0, size = in.readInt(); i < size; i++)
+					histogram.put (in.readInt(), in.readInt());
+			
+			stats.interPostTimeMins.merge (LogHistogram.read (in));
+			for (Map<String, LogHistogram> histograms : Arrays.asList (stats.interPostMinsByUser, stats.postingHourByUser))
+				for (int i = 0, size = in.readInt(); i < size; i++)
+					histograms.put (in.readUTF(), LogHistogram.read (in));
+			for (TrendCounter trend : stats.trends())
+				trend.merge (TrendCounter.read (in));
+			
+			for (Map<String, HyperLogLog> sketches : Arrays.asList (stats.distinctHashtagsByUser, stats.distinctAddresseesByUser, stats.distinctUrlsByUser))
+				for (int i = 0, size = in.readInt(); i < size; i++)
+					sketches.put (in.readUTF(), HyperLogLog.read (in));
+			for (Map<Integer, HyperLogLog> sketches : Arrays.asList (stats.activeUsersPerWeek, stats.distinctWordsPerWeek))
+				for (int i = 0, size = in.readInt(); i < size; i++)
+					sketches.put (in.readInt(), HyperLogLog.read (in));
+			
+			return stats;
+		}
+		
+		private static void writeDate (DataOutput out, DateTime date) throws IOException
+		{	out.writeLong (date.getMillis());
+			out.writeUTF  (date.getZone().getID());
+		}
+		
+		private static DateTime readDate (DataInput in) throws IOException
+		{	long millis = in.readLong();
+			return new DateTime (millis, DateTimeZone.forID(in.readUTF()));
+		}
+		
+		private static void put (Map<String, MutableInt> counts, String key, int count)
+		{	if (count > 0)
+				counts.put (key, new MutableInt(count));
+		}
+	}
+	
+	/**
+	 * The counts of each kind of token, either corpus-wide or for a single
+	 * task. Addressees, hashtags and URLs have very long tails, so if the
+	 * approximate top-k counters are given they're counted with those instead
+	 * of the exact counters.
+	 */
+	private final static class TokenCounters implements AutoCloseable
+	{	private final SpillingCounter words;
+		private final SpillingCounter stocks;
+		private final SpillingCounter addressees;
+		private final SpillingCounter hashtags;
+		private final SpillingCounter smileys;
+		private final SpillingCounter urls;
+		
+		private SpaceSavingCounter topAddressees;
+		private SpaceSavingCounter topHashtags;
+		private SpaceSavingCounter topUrls;
+		
+		public TokenCounters (Path spillDir, int maxCountsInMemory, int topKCapacity)
+		{	words      = new SpillingCounter (spillDir, "words",      maxCountsInMemory);
+			stocks     = new SpillingCounter (spillDir, "stocks",     maxCountsInMemory);
+			addressees = new SpillingCounter (spillDir, "addressees", maxCountsInMemory);
+			hashtags   = new SpillingCounter (spillDir, "hashtags",   maxCountsInMemory);
+			smileys    = new SpillingCounter (spillDir, "smileys",    maxCountsInMemory);
+			urls       = new SpillingCounter (spillDir, "urls",       maxCountsInMemory);
+			
+			topAddressees = topKCapacity > 0 ? new SpaceSavingCounter (topKCapacity) : null;
+			topHashtags   = topKCapacity > 0 ? new SpaceSavingCounter (topKCapacity) : null;
+			topUrls       = topKCapacity > 0 ? new SpaceSavingCounter (topKCapacity) : null;
+		}
+		
+		public boolean isApproximate()
+		{	return topUrls != null;
+		}
+		
+		public void incAddressee (String addressee) throws IOException
+		{	if (isApproximate())
+				topAddressees.inc (addressee);
+			else
+				addressees.inc (addressee);
+		}
+		
+		public void incHashtag (String hashtag) throws IOException
+		{	if (isApproximate())
+				topHashtags.inc (hashtag);
+			else
+				hashtags.inc (hashtag);
+		}
+		
+		public void incUrl (String url) throws IOException
+		{	if (isApproximate())
+				topUrls.inc (url);
+			else
+				urls.inc (url);
+		}
+		
+		/**
+		 * Adds the given counts to these, taking over any run files they've
+		 * spilled. The given counters are left empty.
+		 */
+		public void merge (TokenCounters that) throws IOException
+		{	words.addAll   (that.words);
+			stocks.addAll  (that.stocks);
+			smileys.addAll (that.smileys);
+			
+			if (isApproximate())
+			{	topAddressees.merge (that.topAddressees);
+				topHashtags.merge   (that.topHashtags);
+				topUrls.merge       (that.topUrls);
+			}
+			else
+			{	addressees.addAll (that.addressees);
+				hashtags.addAll   (that.hashtags);
+				urls.addAll       (that.urls);
+			}
+		}
+		
+		/** The exact counters, in the order in which they're written out and saved */
+		public List<SpillingCounter> exact()
+		{	return isApproximate()
+				? Arrays.asList (words, stocks, smileys)
+				: Arrays.asList (words, stocks, smileys, addressees, hashtags, urls);
+		}
+		
+		/**
+		 * Includes the counts from a previous run, read from its saved state,
+		 * in these counts. See {@link #save(DataOutput)}
+		 */
+		public void restore (DataInput state) throws IOException
+		{	if (isApproximate())
+			{	topAddressees = SpaceSavingCounter.read(state);
+				topHashtags   = SpaceSavingCounter.read(state);
+				topUrls       = SpaceSavingCounter.read(state);
+			}
+			for (SpillingCounter counter : exact())
+				counter.addRun (state);
+		}
+		
+		/**
+		 * Writes out the approximate counts, if any, to the saved state. The
+		 * exact counts are copied to it afterwards, in the order given by
+		 * {@link #exact()}, as they're written out.
+		 */
+		public void save (DataOutput state) throws IOException
+		{	if (isApproximate())
+			{	topAddressees.write(state);
+				topHashtags.write(state);
+				topUrls.write(state);
+			}
+		}
+
+		@Override
+		public void close()
+		{	words.close();
+			stocks.close();
+			addressees.close();
+			hashtags.close();
+			smileys.close();
+			urls.close();
+		}
+	}
 
 	
 	private final Set<String> excludedUsers = new HashSet<>();
 	private       DateTime startDateIncl = new DateTime (1900, 01, 01, 00, 00, 01);
 	
-	private final Path datasetDirectory;
-	private final Path outputDir;
+	private Path datasetDirectory;
+	private Path outputDir;
 	  
 	/** Whether or not we should attempt to tokenize CJKV text */
 	private final boolean tokenizeCjkv = false;
+	
+	/** How many distinct terms of each type to count in memory before spilling to disk */
+	private int maxCountsInMemory = DEFAULT_MAX_COUNTS_IN_MEMORY;
+	
+	/**
+	 * If positive, only the approximate top-k addressees, hashtags and URLs
+	 * are counted, see {@link #setTopK(int)}
+	 */
+	private int topK = 0;
+	
+	/** When approximately counting the top-k, how many terms to monitor for each k */
+	private int topKCapacityMultiple = 10;
+	
+	/**
+	 * Whether to save statistics between runs, and only process files
+	 * that are new or have changed since the last run.
+	 */
+	private boolean incremental = false;
+	
+	/** How many standard deviations above its moving average a hashtag or URL's count must be to be a burst */
+	private double trendThreshold = 3.0;
+	
+	/** The smallest hourly or daily count of a hashtag or URL that may be a burst */
+	private int trendMinCount = 10;
+	
+	/** How many work units to process simultaneously */
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	
+	/** Whether to memory-map uncompressed tweet files rather than stream them */
+	private boolean memoryMapped = false;
+	
+	/** Where to save the dataset's {@link CorpusManifest}, or null to not save it */
+	private Path manifestFile;
+	
+	@Option(name="-h", aliases="--help", usage="Show this help message", metaVar=" ")
+	private boolean showHelp = false;
 		
 	public TwitterStats(Path datasetDirectory, Path outputDir)
 	{
 		super();
 		this.datasetDirectory  = datasetDirectory;
 		this.outputDir         = outputDir;
+	}
+	
+	private TwitterStats()
+	{
+	}
+
+
+	/** Parses the arguments */
+	private void parseArguments(String[] args)
+	{	CmdLineParser parser = null;
+		try
+		{	parser = new CmdLineParser(this);
+			parser.parseArgument(args);
+
+			if (showHelp)
+			{	System.out.println("Help for this command:");
+				showHelp (System.out, parser);
+				System.exit(0);
+			}
+		}
+		catch (CmdLineException e)
+		{	System.err.println (e.getMessage());
+			showHelp (System.err, parser);
+			System.exit(-1);
+		}
+
+	}
+
+	/** Shows the help message to the given stream. Needs the parser object to say what the options are. */
+	private void showHelp(PrintStream out, CmdLineParser parser)
+	{	out.println ("Usage: java -jar JARNAME.jar <options>");
+		if (parser != null)
+			parser.printUsage(out);
+	}
+	
+	/**
+	 * Divides the tweet files listed by the dataset's {@link CorpusManifest}
+	 * into work units of whole users' files, processes each unit on a separate
+	 * task, merging the resulting statistics in unit order, and writes them
+	 * all out at the end. Returns the number of tweets processed, which for an incremental
+	 * run includes those processed in previous runs.
+	 */
+	public Integer call() throws Exception
+	{	// Vectorizers aren't threadsafe, so each running task borrows its own
+		Main main = new Main();
+		final BlockingQueue<Vectorizer> vectorizers = new ArrayBlockingQueue<>(threadCount);
+		for (int t = 0; t < threadCount; t++)
+			vectorizers.add (main.newVectorizer());
 		
-		postsSinceDay        = new Int2IntAVLTreeMap();
-		lastPostByUser       = new HashMap<>(NUM_USERS_IN_DATASET);
-		firstPostByUser      = new HashMap<>(NUM_USERS_IN_DATASET);
-		firstPostByUserAsDay = new Object2IntAVLTreeMap<>();
-		interPostTimeMins    = new Int2IntAVLTreeMap();
-		
-//		retweetsByUser       = new Object2IntAVLTreeMap<>();
-//		rtRetweetsByUser     = new Object2IntAVLTreeMap<>();
-//		tweetsPerUser        = new Object2IntAVLTreeMap<>();
-//		hashTagCounts        = new Object2IntAVLTreeMap<>();
-//		smileyCounts         = new Object2IntAVLTreeMap<>();
-//		addresseeCounts      = new Object2IntAVLTreeMap<>();
-//		urlCounts            = new Object2IntAVLTreeMap<>();
-//		wordCounts           = new Object2IntAVLTreeMap<>();
-//
-		emptyRetweet         = new HashMap<>(   20_000, 0.75f);
-		emptyRetweetRetweet  = new HashMap<>(   20_000, 0.75f);
-		commentRetweet       = new HashMap<>(   20_000, 0.75f);
-		commentRetweetRetweet= new HashMap<>(   20_000, 0.75f);
-		rtRetweetsByUser     = new HashMap<>(   20_000, 0.75f);
-		tweetsPerUser        = new HashMap<>(   20_000, 0.75f);
+		// List every file, and determine which need processing. The corpus
+		// manifest only lists those folders which have changed since it was saved
+		CorpusManifest corpus = CorpusManifest.list(datasetDirectory, manifestFile);
+		Map<String, String> oldManifest = incremental ? readSavedManifest() : new HashMap<String, String>();
+		Map<String, String> newManifest = new TreeMap<>();
+		List<CorpusManifest.Entry> changedFiles = new ArrayList<>();
+		for (CorpusManifest.Entry file : corpus.getEntries())
+		{	String signature = file.getSize() + "\t" + file.getModifiedMillis();
+			newManifest.put (file.getRelativePath(), signature);
+			if (! signature.equals (oldManifest.get(file.getRelativePath())))
+				changedFiles.add (file);
+		}
+		boolean resume = incremental && canResume (oldManifest, newManifest);
 		
-		tweetsPerWeek        = new Int2IntAVLTreeMap();
-		wordsPerTweet        = new Int2IntAVLTreeMap();
-		urlsPerTweet         = new Int2IntAVLTreeMap();
-		hashTagsPerTweet     = new Int2IntAVLTreeMap();
-		smileysPerTweet      = new Int2IntAVLTreeMap();
-		addrsPerTweet        = new Int2IntAVLTreeMap();
-		stocksPerTweet       = new Int2IntAVLTreeMap();
-		tokensPerTweet       = new Int2IntAVLTreeMap();
+		// Each user's files go to the same work unit, and units are about the
+		// same size. There are several per thread, so one large unit doesn't leave
+		// the other threads idle at the end
+		List<List<CorpusManifest.Entry>> workUnits = CorpusManifest.partition (
+			resume ? changedFiles : corpus.getEntries(),
+			threadCount * WORK_UNITS_PER_THREAD);
 		
-		postsSinceDay.defaultReturnValue(0);
-		firstPostByUserAsDay.defaultReturnValue(0);
-		interPostTimeMins.defaultReturnValue(0);
+		Accumulator totals = new Accumulator(); 
+		ExecutorService exec = Executors.newFixedThreadPool(threadCount);
+		try (
+			TokenCounters counters = new TokenCounters (outputDir, countsInMemoryPerCounter(), topK * topKCapacityMultiple);
+			BufferedWriter tokenizerErrors = Files.newBufferedWriter(outputDir.resolve("tokenizer-errors.txt"), Charsets.UTF_8,
+				resume
+					? new StandardOpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.APPEND }
+					: new StandardOpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE })
+		)
+		{	if (resume)
+			{	try (DataInputStream state = new DataInputStream (new BufferedInputStream (Files.newInputStream (outputDir.resolve(STATE_FILE)))))
+				{	readStateHeader (state, counters.isApproximate());
+					readManifest (state);
+					totals = Accumulator.read(state);
+					counters.restore(state);
+				}
+				LOG.info ("Resuming from the statistics for " + totals.tweetCount + " tweets. " + changedFiles.size() + " files are new or changed");
+			}
+			
+			// Tasks skip tweets counted in previous runs, and continue inter-post
+			// times from the last post counted for each account in each folder.
+			final Map<String, GroupState> previousGroups = new HashMap<>(totals.groups);
+			
+			// To bound memory, only one more result than there are threads may be
+			// waiting to be merged at any one time, far fewer than there are work
+			// units. Merging in submission order keeps the output deterministic
+			final Accumulator runTotals = totals;
+			OrderedMerger<Accumulator> merger = new OrderedMerger<> (exec, OrderedMerger.defaultMaxPending(threadCount), new OrderedMerger.Merge<Accumulator>() {
+				@Override
+				public void merge (Accumulator result) throws Exception
+				{	mergeResult (result, runTotals, counters);
+				}
+			});
+			for (List<CorpusManifest.Entry> workUnit : workUnits)
+			{	final List<Path> files = CorpusManifest.paths (datasetDirectory, workUnit);
+				merger.submit (new Callable<Accumulator>() {
+					@Override
+					public Accumulator call() throws Exception
+					{	Vectorizer vec = vectorizers.take();
+						try
+						{	return processFiles (files, vec, tokenizerErrors, previousGroups);
+						}
+						finally
+						{	vectorizers.put (vec);
+						}
+					}
+				});
+			}
+			merger.finish();
+			
+			if (incremental)
+				writeCountsAndState (totals, counters, newManifest);
+			else
+				writeCounts (counters, null);
+		}
+		finally
+		{	exec.shutdownNow();
+			writeStatistics(totals);
+		}
 		
-//		retweetsByUser.defaultReturnValue(0);
-//		rtRetweetsByUser.defaultReturnValue(0);
-//		tweetsPerUser.defaultReturnValue(0);
-//		hashTagCounts.defaultReturnValue(0);
-//		smileyCounts.defaultReturnValue(0);
-//		addresseeCounts.defaultReturnValue(0);
-//		urlCounts.defaultReturnValue(0);
-//		wordCounts.defaultReturnValue(0);
+		return totals.tweetCount;
+	}
+	
+	/** Merges the results of a finished task into the totals */
+	private void mergeResult (Accumulator result, Accumulator totals, TokenCounters counters) throws Exception
+	{	try
+		{	totals.merge (result);
+			counters.merge (result.tokens);
+		}
+		finally
+		{	result.tokens.close();
+		}
 		
-		tweetsPerWeek.defaultReturnValue(0);
-		wordsPerTweet.defaultReturnValue(0);
-		urlsPerTweet.defaultReturnValue(0);
-		hashTagsPerTweet.defaultReturnValue(0);
-		smileysPerTweet.defaultReturnValue(0);
-		addrsPerTweet.defaultReturnValue(0);
-		tokensPerTweet.defaultReturnValue(0);
+		LOG.info ("Total tweets processed thus far : " + totals.tweetCount);
 	}
 	
-	public Integer call() throws Exception
-	{	final DateTime firstDay = new DateTime (2000, 01, 01, 00, 00, 01);
-		Main main = new Main();
-		Vectorizer vec = main.newVectorizer();
+	/**
+	 * How many distinct terms each of the corpus-wide and per-task counters
+	 * may hold in memory. Up to {@link OrderedMerger#defaultMaxPending(int)}
+	 * tasks may be running or awaiting a merge at once, so the memory allowed
+	 * for each token type is shared between them and the corpus-wide counter.
+	 */
+	private int countsInMemoryPerCounter()
+	{	return Math.max (1, maxCountsInMemory / (OrderedMerger.defaultMaxPending(threadCount) + 1));
+	}
+	
+	/**
+	 * Reads the manifest of files processed by the last run from its saved
+	 * state, mapping each file's path, relative to the dataset directory, to
+	 * its signature. If there is no saved state, an empty map is returned.
+	 */
+	private Map<String, String> readSavedManifest() throws IOException
+	{	Path stateFile = outputDir.resolve(STATE_FILE);
+		if (! Files.exists(stateFile))
+			return new HashMap<>();
 		
-		int tweetCount = 0;
-		String currentAccount = null;
-		DateTime lastDate     = null;
-  	
-	  	String lastAccount = "not_the_last_author";
+		try (DataInputStream state = new DataInputStream (new BufferedInputStream (Files.newInputStream (stateFile))))
+		{	readStateHeader (state, topK > 0);
+			return readManifest (state);
+		}
+	}
+	
+	/** Reads a manifest written by {@link #writeManifest(DataOutput, Map)} */
+	private static Map<String, String> readManifest (DataInput state) throws IOException
+	{	Map<String, String> manifest = new HashMap<>();
+		for (int i = 0, size = state.readInt(); i < size; i++)
+			manifest.put (state.readUTF(), state.readUTF());
+		return manifest;
+	}
+	
+	private static void writeManifest (DataOutput state, Map<String, String> manifest) throws IOException
+	{	state.writeInt (manifest.size());
+		for (Map.Entry<String, String> entry : manifest.entrySet())
+		{	state.writeUTF (entry.getKey());
+			state.writeUTF (entry.getValue());
+		}
+	}
+	
+	/**
+	 * Can the statistics saved by the last run be updated with the files that
+	 * are new or changed since then. This is only possible if every file from
+	 * the last run still exists and is no smaller than it was, i.e. tweets have
+	 * only been added, as a spider update would do.
+	 */
+	private boolean canResume (Map<String, String> oldManifest, Map<String, String> newManifest)
+	{	if (oldManifest.isEmpty())
+			return false;
+		for (Map.Entry<String, String> entry : oldManifest.entrySet())
+		{	String signature = newManifest.get(entry.getKey());
+			if (signature == null || size (signature) < size (entry.getValue()))
+			{	LOG.warn ("The file " + entry.getKey() + " has been deleted or truncated since the last run, so all files will be processed again");
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static long size (String signature)
+	{	return Long.parseLong (signature.substring(0, signature.indexOf('\t')));
+	}
+	
+	/**
+	 * Checks the header of the saved state. We can't resume if the last
+	 * run counted tokens differently
+	 */
+	private static void readStateHeader (DataInput state, boolean approximate) throws IOException
+	{	if (state.readInt() != STATE_MAGIC)
+			throw new IOException ("The file " + STATE_FILE + " is not a saved statistics file");
+		int version = state.readInt();
+		if (version != STATE_VERSION)
+			throw new IOException ("Unsupported version " + version + " of the saved statistics file " + STATE_FILE);
+		if (state.readBoolean() != approximate)
+			throw new IOException ("The saved statistics were counted " + (approximate ? "exactly" : "approximately") + ". Delete " + STATE_FILE + " to start again");
+	}
+	
+	/**
+	 * Writes out the token counts, and saves them, the other statistics and
+	 * the manifest of files processed in a single file for use by the next
+	 * incremental run. Exact counts are copied to the state, in binary, as
+	 * they're written out. Everything is written to a temporary file, which
+	 * replaces the saved state in one step only once complete, so a failed run
+	 * never leaves behind a half-written or inconsistent state.
+	 */
+	private void writeCountsAndState (Accumulator totals, TokenCounters counters, Map<String, String> manifest) throws IOException
+	{	Path stateFile = outputDir.resolve(STATE_FILE);
+		Path stateTmp  = outputDir.resolve(STATE_FILE + ".tmp");
+		boolean written = false;
+		try
+		{	try (DataOutputStream state = new DataOutputStream (new BufferedOutputStream (Files.newOutputStream(stateTmp))))
+			{	state.writeInt (STATE_MAGIC);
+				state.writeInt (STATE_VERSION);
+				state.writeBoolean (counters.isApproximate());
+				writeManifest (state, manifest);
+				totals.write (state);
+				counters.save (state);
+				written = writeCounts (counters, state);
+			}
+			
+			if (written)
+			{	Files.move (stateTmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				LOG.info ("Saved the statistics for " + totals.tweetCount + " tweets from " + manifest.size() + " files to " + stateFile);
+			}
+			else
+				LOG.error ("Not saving statistics for the next incremental run, as token counts could not be written out");
+		}
+		finally
+		{	if (! written)
+				Files.deleteIfExists (stateTmp);
+		}
+	}
+	
+	/**
+	 * Collects statistics on all the tweets in the given files, which should be
+	 * a work unit of new or changed files, with each user's files together and
+	 * in order. Tweets whose IDs are no greater than the largest ID counted for
+	 * their account and folder in a previous run are skipped, as are placeholder
+	 * tweets if one was counted before. As the spider saves new tweets to new
+	 * files, this counts the same tweets as processing every file would.
+	 */
+	private Accumulator processFiles (List<Path> files, Vectorizer vec, BufferedWriter tokenizerErrors,
+			Map<String, GroupState> previousGroups) throws IOException
+	{	TokenCounters tokens = new TokenCounters (outputDir, countsInMemoryPerCounter(), topK * topKCapacityMultiple);
+		try
+		{	return processFiles (files, vec, tokenizerErrors, previousGroups, new Accumulator (tokens));
+		}
+		catch (IOException | RuntimeException e)
+		{	tokens.close();
+			throw e;
+		}
+	}
+	
+	private Accumulator processFiles (List<Path> files, Vectorizer vec, BufferedWriter tokenizerErrors,
+			Map<String, GroupState> previousGroups, Accumulator stats) throws IOException
+	{	
+	  	String     lastAccount = "not_the_last_author";
+	  	Path       lastFolder  = null;
+	  	GroupState group       = null;
+	  	long       previousMaxTweetId         = Long.MIN_VALUE;
+	  	boolean    previousPlaceholderCounted = false;
 	  	LongSet tweetIDs = new LongOpenHashSet(100_000);
+	  	
+	  	// Tweets are read a batch at a time into primitive arrays, so there's
+	  	// no per-tweet garbage except for the message strings
+	  	TweetBatch batch = new TweetBatch();
+	  	int    batchAuthorId = -1;
+	  	String account       = null;
 		
-		try (
-			FilesInFoldersIterator tweetFiles = new FilesInFoldersIterator(datasetDirectory); 
-			BufferedWriter dictionary = Files.newBufferedWriter (outputDir.resolve("words.txt"), Charsets.UTF_8);
-			BufferedWriter stocks     = Files.newBufferedWriter (outputDir.resolve("stocks.txt"), Charsets.UTF_8);
-			BufferedWriter addressees = Files.newBufferedWriter (outputDir.resolve("addressees.txt"), Charsets.UTF_8);
-			BufferedWriter hashtags   = Files.newBufferedWriter (outputDir.resolve("hashtags.txt"), Charsets.UTF_8);
-			BufferedWriter smileys    = Files.newBufferedWriter (outputDir.resolve("smileys.txt"), Charsets.UTF_8);
-			BufferedWriter urls       = Files.newBufferedWriter (outputDir.resolve("urls.txt"), Charsets.UTF_8);
-			BufferedWriter tokenizerErrors = Files.newBufferedWriter(outputDir.resolve("tokenizer-errors.txt"), Charsets.UTF_8)
-		)
-		{	
-			filesLoop:while (tweetFiles.hasNext())
-	  	{	
-	  		int corruptedTweetCount = 0;
-	  		Path currentFile = tweetFiles.next();
-	  		LOG.info ("Processing tweets in file: " + currentFile);
-	  		
-	  		try (SavedTweetReader rdr = new SavedTweetReader(currentFile); )
-			{	
-				while (rdr.hasNext())
-				{	
+		// Files are read ahead on a background thread, while the tweets of the
+		// current file are processed on this one.
+		try (SavedTweetReader rdr = new SavedTweetReader(files.iterator(), true, memoryMapped); )
+		{	Path currentFile = null;
+			int corruptedTweetCount = 0;
+			
+			while (rdr.hasNext())
+			{	try
+				{	rdr.nextBatch(batch);
+				}
+				catch (Exception e)
+				{	if (rdr.getCurrentFile() != currentFile)
+					{	currentFile = rdr.getCurrentFile();
+						corruptedTweetCount = 0;
+					}
+					if (countCorruptedTweet (e, currentFile, ++corruptedTweetCount))
+						rdr.skipRestOfFile();
+					continue;
+				}
+				
+				if (batch.getFile() != currentFile)
+				{	currentFile = batch.getFile();
+					corruptedTweetCount = 0;
+					LOG.info ("Processing tweets in file: " + currentFile);
+				}
+				
+				for (int t = 0; t < batch.size(); t++)
+				{
 					try
-					{	Tweet    tweet     = rdr.next();
-		  			String   account   = tidyStringKey (tweet.getAuthor());
-		  			DateTime tweetDate = tweet.getLocalTime();
-		  			
+					{	if (batch.getAuthorId(t) != batchAuthorId)
+						{	batchAuthorId = batch.getAuthorId(t);
+							account       = tidyStringKey (batch.getAuthor(t));
+						}
+						long tweetMillis = batch.getEpochMillis(t);
+	  			
 		  			if (excludedUsers.contains (account)
-					   || tweetDate.isBefore(startDateIncl))
+					   || tweetMillis < startDateIncl.getMillis())
 		  				continue;
+		  			if (tweetMillis < FIRST_DAY.getMillis())
+		  				throw new IllegalArgumentException ("The tweet was posted before " + FIRST_DAY);
 
 			  		// There are some duplicate tweets in the dataset. We <em>presume</em>
 			  		// files are sorted by name, and keep a track of each account's IDs
-			  		// so we can filter out already processed tweets.
-			  		long tweetId = tweet.getId();
-			  		if (! account.equals(lastAccount))
+			  		// so we can filter out already processed tweets. This, and the
+			  		// inter-post times, are tracked per account in each folder, as
+			  		// that's how files are grouped into work units, so the results
+			  		// don't depend on how many units there are.
+			  		long tweetId = batch.getId(t);
+			  		Path folder  = batch.getFile().getParent();
+			  		if (! account.equals(lastAccount) || ! folder.equals(lastFolder))
 			  		{	lastAccount = account;
+			  			lastFolder  = folder;
 			  			tweetIDs.clear();
+			  			group = stats.group (datasetDirectory.relativize(folder).toString() + '/' + account, previousGroups);
+			  			previousMaxTweetId         = group.maxTweetId;
+			  			previousPlaceholderCounted = group.placeholderCounted;
 			  		}
 			  		else if (tweetIDs.contains(tweetId))
 			  		{	continue;
 			  		}
 			  		tweetIDs.add(tweetId);
-		  			
-		  			++tweetCount;
-		  			
+			  		
+			  		// Placeholders all share the same ID, which may be less than that
+			  		// of tweets counted in a previous run
+			  		if (tweetId == TweetsHtmlParser.SUSPECTED_ADVERT_TWEET_ID)
+			  		{	if (previousPlaceholderCounted)
+			  				continue;
+			  			group.placeholderCounted = true;
+			  		}
+			  		else if (tweetId <= previousMaxTweetId)
+			  			continue;
+			  		else if (tweetId > group.maxTweetId)
+			  			group.maxTweetId = tweetId;
+	  			
+		  			++stats.tweetCount;
+	  			
 		  			// Retweet statistics
-			  		if (tweet.containsRetweet()) {
-						if (tweet.getMsg().isEmpty()) {
-							if (tweet.getEmbeddedRetweet().get().containsRetweet()) {
-								inc(emptyRetweetRetweet, account);
+			  		if (batch.containsRetweet(t)) {
+						if (batch.getMsgLength(t) == 0) {
+							if (batch.retweetContainsRetweet(t)) {
+								inc(stats.emptyRetweetRetweet, account);
 							} else {
-								inc(emptyRetweet, account);
+								inc(stats.emptyRetweet, account);
 							}
 						} else {
-							if (tweet.getEmbeddedRetweet().get().containsRetweet()) {
-								inc(commentRetweetRetweet, account);
+							if (batch.retweetContainsRetweet(t)) {
+								inc(stats.commentRetweetRetweet, account);
 							} else {
-								inc(commentRetweet, account);
+								inc(stats.commentRetweet, account);
 							}
 						}
 					}
-			  		else if (tweet.isManualRetweet()) {
-						inc(rtRetweetsByUser, account);
+			  		else if (batch.isManualRetweet(t)) {
+						inc(stats.rtRetweetsByUser, account);
 					} else {
-						inc(tweetsPerUser, account);
+						inc(stats.tweetsPerUser, account);
 					}
-			  		
+		  		
 			  		// Inter-post time statistics
-			  		if (account.equals (currentAccount) && lastDate != null)
-			  		{	int interTweetTimeMins = (int) TimeUnit.MILLISECONDS.toMinutes(
-			  				lastDate.isBefore(tweetDate)
-			  				? new Interval (lastDate, tweetDate).toDurationMillis()
-			  				:	new Interval (tweetDate, lastDate).toDurationMillis()
-			  			);
-			  			inc (interPostTimeMins, interTweetTimeMins);
+			  		if (group.lastMillis != NO_DATE)
+			  		{	int interTweetTimeMins = (int) TimeUnit.MILLISECONDS.toMinutes(Math.abs (tweetMillis - group.lastMillis));
+			  			stats.interPostTimeMins.add (interTweetTimeMins);
+			  			histogram (stats.interPostMinsByUser, account, USER_HISTOGRAM_BITS).add (interTweetTimeMins);
 			  		}
-			  		currentAccount = account;
-			  		lastDate       = tweetDate;
-			  		
+			  		long localMillis = tweetMillis + batch.getUtcOffsetMinutes(t) * 60_000L;
+			  		histogram (stats.postingHourByUser, account, HOUR_HISTOGRAM_BITS).add (UTC_CHRONOLOGY.hourOfDay().get(localMillis));
+			  		group.lastMillis = tweetMillis;
+		  		
 			  		// Total posts by date range (then until now)
-			  		Interval interval = new Interval (firstDay, tweetDate);
-			  		int dayOfTweet = (int) TimeUnit.MILLISECONDS.toDays(interval.toDurationMillis());
-			  		inc (postsSinceDay, dayOfTweet);
-			  		
+			  		int dayOfTweet = (int) TimeUnit.MILLISECONDS.toDays(tweetMillis - FIRST_DAY.getMillis());
+			  		inc (stats.postsSinceDay, dayOfTweet);
+		  		
 			  		// tweets per week
-			  		int year = tweetDate.getWeekyear();       // Jodatime Javadoc explains why this...
-			  		int week = tweetDate.getWeekOfWeekyear(); // ...makes sense even if it looks wrong
+			  		int year = CHRONOLOGY.weekyear().get(tweetMillis);       // Jodatime Javadoc explains why this...
+			  		int week = CHRONOLOGY.weekOfWeekyear().get(tweetMillis); // ...makes sense even if it looks wrong
 			  		int time = year * 100 + week;
-			  		inc (tweetsPerWeek, time);
-			  		
+			  		inc (stats.tweetsPerWeek, time);
+			  		sketch (stats.activeUsersPerWeek, time, WEEK_SKETCH_PRECISION).add (account);
+			  		HyperLogLog weeksWords = sketch (stats.distinctWordsPerWeek, time, WEEK_SKETCH_PRECISION);
+		  		
 			  		// Dates of each user's first posts
-			  		DateTime accountsFirstPost = firstPostByUser.get(account);
-			  		if (accountsFirstPost == null || tweetDate.isBefore(accountsFirstPost))
-			  		{	firstPostByUser.put (account, tweetDate);
-			  			firstPostByUserAsDay.put (account, dayOfTweet);
+			  		DateTime accountsFirstPost = stats.firstPostByUser.get(account);
+			  		if (accountsFirstPost == null || tweetMillis < accountsFirstPost.getMillis())
+			  		{	stats.firstPostByUser.put (account, new DateTime (tweetMillis, CHRONOLOGY));
+			  			stats.firstPostByUserAsDay.put (account, dayOfTweet);
 			  		}
-			  		DateTime accountsLastPost = lastPostByUser.get(account);
-			  		if (accountsLastPost == null || tweetDate.isAfter(accountsLastPost))
-			  		{	lastPostByUser.put (account, tweetDate);
+			  		DateTime accountsLastPost = stats.lastPostByUser.get(account);
+			  		if (accountsLastPost == null || tweetMillis > accountsLastPost.getMillis())
+			  		{	stats.lastPostByUser.put (account, new DateTime (tweetMillis, CHRONOLOGY));
 			  		}
-			  		
+		  		
 			  		// Content statistics	
 			  		int wordCount   = 0;
 			  		int urlCount    = 0;
@@ -281,75 +1093,91 @@ public class TwitterStats implements Callable<Integer>
 			  		int smileyCount = 0;
 			  		int addrsCount  = 0;
 			  		int stockCount  = 0;
-			  		
-			  		Iterator<Pair<TokenType, String>> iter = vec.toWords(tweet.getMsg());
+		  		
+			  		Iterator<Pair<TokenType, String>> iter = vec.toWords(batch.getMsg(t));
 			  		while (iter.hasNext())
 			  		{	Pair<TokenType, String> tokenValue = iter.next();
 			  			switch (tokenValue.getKey())
 			  			{	case URL:
-			  					writeSafely(urls, "urls", tokenValue.getValue() + '\n');
+			  					stats.tokens.incUrl (tokenValue.getValue());
+			  					sketch (stats.distinctUrlsByUser, account, USER_SKETCH_PRECISION).add (tokenValue.getValue());
+			  					stats.urlsByHour.add (tokenValue.getValue(), tweetMillis);
+			  					stats.urlsByDay.add  (tokenValue.getValue(), tweetMillis);
 			  					++urlCount;
 			  					break;
 			  				case USERNAME:
-			  					writeSafely(addressees, "addressees", tokenValue.getValue() + '\n');
+			  					stats.tokens.incAddressee (tokenValue.getValue());
+			  					sketch (stats.distinctAddresseesByUser, account, USER_SKETCH_PRECISION).add (tokenValue.getValue());
 			  					++addrsCount;
 			  					break;
 			  				case HASHTAG:
-			  					writeSafely (hashtags, "hashTags", tokenValue.getValue() + '\n');
+			  					stats.tokens.incHashtag (tokenValue.getValue());
+			  					sketch (stats.distinctHashtagsByUser, account, USER_SKETCH_PRECISION).add (tokenValue.getValue());
+			  					stats.hashtagsByHour.add (tokenValue.getValue(), tweetMillis);
+			  					stats.hashtagsByDay.add  (tokenValue.getValue(), tweetMillis);
 			  					++hashCount;
 			  					break;
 			  				case EMOTICON:
-			  					writeSafely (smileys, "emoticons", tokenValue.getValue() + '\n');
+			  					stats.tokens.smileys.inc (tokenValue.getValue());
 			  					++smileyCount;
 			  					break;
 			  				case STOCK:
-			  					writeSafely (stocks, "stocks", tokenValue.getValue() + '\n');
+			  					stats.tokens.stocks.inc (tokenValue.getValue());
 			  					++stockCount;
 			  					break;
 			  				case TOKEN:
 			  					if (! tokenizeCjkv && containsCjkv(tokenValue.getValue()))
 			  						break;
 			  					++wordCount;
-			  					writeSafely (dictionary, "words", tokenValue.getValue() + '\n');
+			  					stats.tokens.words.inc (tokenValue.getValue());
+			  					weeksWords.add (tokenValue.getValue());
 			  					break;
 			  				default:
 			  					break;
 			  			}
 			  		}
-			  		
-			  		checkForTokenizerError(tokenizerErrors, tweet, "URL",        urlCount,     6);
-			  		checkForTokenizerError(tokenizerErrors, tweet, "ADDRESSEES", addrsCount,  20);
-			  		checkForTokenizerError(tokenizerErrors, tweet, "HASHTAGS",   hashCount,   20);
-			  		checkForTokenizerError(tokenizerErrors, tweet, "EMOTICONS",  smileyCount, 10);
-			  		checkForTokenizerError(tokenizerErrors, tweet, "STOCKS",     stockCount,   6);
-			  		checkForTokenizerError(tokenizerErrors, tweet, "WORDS",      wordCount,   60);
-			  		
-			  		inc (wordsPerTweet,    wordCount);
-			  		inc (urlsPerTweet,     urlCount);
-			  		inc (hashTagsPerTweet, hashCount);
-			  		inc (smileysPerTweet,  smileyCount);
-			  		inc (addrsPerTweet,    addrsCount);
-			  		inc (stocksPerTweet,   stockCount);
-			  		inc (tokensPerTweet,   wordCount + urlCount + hashCount + smileyCount + addrsCount);
+		  		
+			  		checkForTokenizerError(tokenizerErrors, batch, t, "URL",        urlCount,     6);
+			  		checkForTokenizerError(tokenizerErrors, batch, t, "ADDRESSEES", addrsCount,  20);
+			  		checkForTokenizerError(tokenizerErrors, batch, t, "HASHTAGS",   hashCount,   20);
+			  		checkForTokenizerError(tokenizerErrors, batch, t, "EMOTICONS",  smileyCount, 10);
+			  		checkForTokenizerError(tokenizerErrors, batch, t, "STOCKS",     stockCount,   6);
+			  		checkForTokenizerError(tokenizerErrors, batch, t, "WORDS",      wordCount,   60);
+		  		
+			  		inc (stats.wordsPerTweet,    wordCount);
+			  		inc (stats.urlsPerTweet,     urlCount);
+			  		inc (stats.hashTagsPerTweet, hashCount);
+			  		inc (stats.smileysPerTweet,  smileyCount);
+			  		inc (stats.addrsPerTweet,    addrsCount);
+			  		inc (stats.stocksPerTweet,   stockCount);
+			  		inc (stats.tokensPerTweet,   wordCount + urlCount + hashCount + smileyCount + addrsCount);
 					}
 					catch (Exception e)
-					{	LOG.warn ("Error processing tweet from file " + currentFile + " : " + e.getMessage(), e);
-						if (++corruptedTweetCount >= MAX_CORRUPTED_TWEETS_PER_FILE)
-						{	LOG.warn ("Encountered " + corruptedTweetCount + " corrupted tweets in the current file, so skipping it. The current file is " + currentFile);
-							continue filesLoop; // skip this file.
+					{	if (countCorruptedTweet (e, currentFile, ++corruptedTweetCount))
+						{	// The reader may already be into the next file, in which case this one's done
+							if (rdr.getCurrentFile() == currentFile)
+								rdr.skipRestOfFile();
+							break;
 						}
 					}
 				}
-			
-				LOG.info ("Total tweets processed thus far : " + tweetCount);
 			}
-		  }
-		}
-		finally
-		{	writeStatistics();
 		}
 		
-		return tweetCount;
+		return stats;
+	}
+
+	/**
+	 * Logs a tweet which couldn't be read or processed, returning true if the
+	 * given count of such tweets means the rest of the file should be skipped
+	 */
+	private static boolean countCorruptedTweet (Exception e, Path file, int corruptedTweetCount)
+	{	LOG.warn ("Error processing tweet from file " + file + " : " + e.getMessage(), e);
+		if (corruptedTweetCount < MAX_CORRUPTED_TWEETS_PER_FILE)
+			return false;
+		
+		LOG.warn ("Encountered " + corruptedTweetCount + " corrupted tweets in the current file, so skipping it. The current file is " + file);
+		return true;
 	}
 
 	/**
@@ -369,11 +1197,11 @@ public class TwitterStats implements Callable<Integer>
 	 * of the error to the given 
 	 */
 	private void checkForTokenizerError(BufferedWriter tokenizerErrors,
-			Tweet tweet, String testName, int testValue, int expectedMax)
+			TweetBatch batch, int tweet, String testName, int testValue, int expectedMax)
 	{	try
 		{
 			if (testValue > expectedMax)
-				tokenizerErrors.write(testName + "\t" + testValue + "\t" + Tweet.WRITER.asTabDelimStr(tweet));
+				tokenizerErrors.write(testName + "\t" + testValue + "\t" + batch.getAuthor(tweet) + "\t" + batch.getId(tweet) + "\t" + batch.getMsg(tweet) + "\n");
 		}
 		catch (IOException ioe)
 		{	LOG.error("Can't write out invalid tweet from with " + testName + " > " + expectedMax);
@@ -381,40 +1209,121 @@ public class TwitterStats implements Callable<Integer>
 	}
 	
 	
+	/**
+	 * Writes out the given token counts to a tab-delimited file of tokens and
+	 * counts, sorted by token, named after the given token type.
+	 */
+	/**
+	 * Writes out every type of token count, also copying the exact counts to
+	 * the given saved state, if not null. Returns false if any exact counts
+	 * could not be written.
+	 */
+	private boolean writeCounts (TokenCounters counters, DataOutput state)
+	{	boolean written = true;
+		for (SpillingCounter counter : counters.exact())
+			written &= writeCounts (counter, counter.getName(), state);
+		if (counters.isApproximate())
+		{	writeTopCounts (counters.topAddressees, "addressees");
+			writeTopCounts (counters.topHashtags,   "hashtags");
+			writeTopCounts (counters.topUrls,       "urls");
+		}
+		return written;
+	}
+	
+	private boolean writeCounts (SpillingCounter counts, String name, DataOutput state)
+	{	Path file = outputDir.resolve(name + "-counts.txt");
+		try
+		{	long numTerms = counts.writeTo(file, state);
+			LOG.info ("Wrote " + numTerms + " distinct " + name + " to " + file);
+			return true;
+		}
+		catch (Exception ioe)
+		{	LOG.error("Error writing out the " + name + " counts to file " + ioe.getMessage(), ioe);
+			return false;
+		}
+	}
 	
+	/**
+	 * Writes out the approximate top-k tokens of the given type, ranked by
+	 * count, to one file, and the same tokens with their error estimates to
+	 * another.
+	 */
+	private void writeTopCounts (SpaceSavingCounter counts, String name)
+	{	Path file   = outputDir.resolve(name + "-top.txt");
+		Path errors = outputDir.resolve(name + "-top-errors.txt");
+		try (BufferedWriter wtr    = Files.newBufferedWriter(file,   Charsets.UTF_8);
+			 BufferedWriter errWtr = Files.newBufferedWriter(errors, Charsets.UTF_8))
+		{	int numTerms = counts.writeTop(wtr, topK);
+			counts.writeTopWithErrors(errWtr, topK);
+			LOG.info ("Wrote the top " + numTerms + " " + name + " to " + file + ", out of " + counts.getTotal() + " occurrences. Counts are over-estimated by at most " + counts.getMaxError());
+		}
+		catch (Exception ioe)
+		{	LOG.error("Error writing out the top " + name + " counts to file " + ioe.getMessage(), ioe);
+		}
+	}
 	
-	private void writeStatistics() throws IOException
+	private void writeStatistics(Accumulator stats) throws IOException
 	{	// User statistics
 		try (BufferedWriter wtr = Files.newBufferedWriter(outputDir.resolve("userStats.txt"), Charsets.UTF_8))
 		{
-			List<String> users = new ArrayList<String>(firstPostByUser.keySet());
+			List<String> users = new ArrayList<String>(stats.firstPostByUser.keySet());
 			System.out.println ("There are " + users.size() + " user accounts");
 			Collections.sort(users);
 			
 			for (String user : users)
+			{	LogHistogram interPostMins = stats.interPostMinsByUser.get(user);
+				LogHistogram postingHours  = stats.postingHourByUser.get(user);
+				if (interPostMins == null) // users with a single post
+					interPostMins = new LogHistogram(USER_HISTOGRAM_BITS);
 				writeSafely (wtr, "user-statistics",
 					user                             + '\t' +
-					firstPostByUser.get(user)        + '\t' +
-					get (firstPostByUserAsDay, user) + '\t' +
-					lastPostByUser.get(user)         + '\t' +
-					get (tweetsPerUser, user)        + '\t' +
+					stats.firstPostByUser.get(user)        + '\t' +
+					get (stats.firstPostByUserAsDay, user) + '\t' +
+					stats.lastPostByUser.get(user)         + '\t' +
+					get (stats.tweetsPerUser, user)        + '\t' +
 
-					get (emptyRetweet, user)         + '\t' +
-					get (emptyRetweetRetweet, user)  + '\t' +
-					get (commentRetweet, user)       + '\t' +
-					get (commentRetweetRetweet, user)+ '\t' +
+					get (stats.emptyRetweet, user)         + '\t' +
+					get (stats.emptyRetweetRetweet, user)  + '\t' +
+					get (stats.commentRetweet, user)       + '\t' +
+					get (stats.commentRetweetRetweet, user)+ '\t' +
 
-					get (rtRetweetsByUser, user)     + '\n'
+					get (stats.rtRetweetsByUser, user)     + '\t' +
+					
+					interPostMins.quantile(0.5)            + '\t' +
+					interPostMins.quantile(0.9)            + '\t' +
+					postingHours.mode()                    + '\n'
 				);
+			}
 		}
 		catch (Exception ioe)
 		{	LOG.error("Error writing out user statistics to file " + ioe.getMessage(), ioe);
 		}
 		
+		// How many posts each user made in each hour of the day, in their local time,
+		// which is UTC for tweets whose UTC offset wasn't recorded
+		try (BufferedWriter wtr = Files.newBufferedWriter(outputDir.resolve("userPostingHours.txt"), Charsets.UTF_8))
+		{	List<String> users = new ArrayList<String>(stats.postingHourByUser.keySet());
+			Collections.sort(users);
+			
+			for (String user : users)
+			{	LogHistogram postingHours = stats.postingHourByUser.get(user);
+				StringBuilder line = new StringBuilder(user);
+				for (int hour = 0; hour < 24; hour++)
+					line.append('\t').append(hour < postingHours.bucketCount() ? postingHours.bucketCount(hour) : 0);
+				writeSafely (wtr, "user-posting-hours", line.append('\n').toString());
+			}
+		}
+		catch (Exception ioe)
+		{	LOG.error("Error writing out users' posting hours to file " + ioe.getMessage(), ioe);
+		}
+		
 		// Inter post time statistics
 		try (BufferedWriter wtr = Files.newBufferedWriter(outputDir.resolve("interPostStats.txt"), Charsets.UTF_8))
-		{	for (Int2IntMap.Entry entry : interPostTimeMins.int2IntEntrySet())
-			{	writeSafely(wtr, "inter-post-time", entry.getKey().toString() + '\t' + entry.getIntValue() + '\n');
+		{	// Each line is the smallest time counted in a bucket, and the count
+			LogHistogram interPostTimeMins = stats.interPostTimeMins;
+			for (int i = 0; i < interPostTimeMins.bucketCount(); i++)
+			{	if (interPostTimeMins.bucketCount(i) > 0)
+					writeSafely(wtr, "inter-post-time", Long.toString(interPostTimeMins.bucketLowestValue(i)) + '\t' + interPostTimeMins.bucketCount(i) + '\n');
 			}
 		}
 		catch (Exception ioe)
@@ -423,13 +1332,13 @@ public class TwitterStats implements Callable<Integer>
 		
 		// Tweets since date counts
 		try (BufferedWriter wtr = Files.newBufferedWriter(outputDir.resolve("postsSinceDay.txt"), Charsets.UTF_8))
-		{	Set<Integer> set = postsSinceDay.keySet();
+		{	Set<Integer> set = stats.postsSinceDay.keySet();
 			int    start = min (set);
 			int    end   = max (set);
 			
 			int cumulative = 0;
 			for (int day = end; day >= start; day--)
-			{	cumulative += postsSinceDay.get(day);
+			{	cumulative += stats.postsSinceDay.get(day);
 				writeSafely(wtr, "posts-since-day", Integer.toString (day) + '\t' + Integer.toString (cumulative) + '\n');
 			}
 		}
@@ -438,18 +1347,103 @@ public class TwitterStats implements Callable<Integer>
 		}
 		
 		// Tweets per week
-		writeMapsToFile(outputDir.resolve("tweets-per-week"), Charsets.UTF_8, tweetsPerWeek, "tweets");
+		writeMapsToFile(outputDir.resolve("tweets-per-week"), Charsets.UTF_8, stats.tweetsPerWeek, "tweets");
 		
 		// Empirical distributions over the number of words, urls, hashtags etc. in each individual tweet.
 		writeMapsToFile (outputDir.resolve ("tokencounts"), Charsets.UTF_8,
-			wordsPerTweet,    "words",
-			urlsPerTweet,     "urls",
-			hashTagsPerTweet, "hashtags",
-			smileysPerTweet,  "smileys",
-			addrsPerTweet,    "addrs",
-			stocksPerTweet,   "stocks",
-			tokensPerTweet,   "tokens"
+			stats.wordsPerTweet,    "words",
+			stats.urlsPerTweet,     "urls",
+			stats.hashTagsPerTweet, "hashtags",
+			stats.smileysPerTweet,  "smileys",
+			stats.addrsPerTweet,    "addrs",
+			stats.stocksPerTweet,   "stocks",
+			stats.tokensPerTweet,   "tokens"
 		);
+		
+		// Distinct hashtags, addressees and URLs per user
+		try (BufferedWriter wtr = Files.newBufferedWriter(outputDir.resolve("distinct-per-user.txt"), Charsets.UTF_8))
+		{	List<String> users = new ArrayList<String>(stats.firstPostByUser.keySet());
+			Collections.sort(users);
+			
+			for (String user : users)
+				writeSafely (wtr, "distinct-per-user",
+					user                                               + '\t' +
+					cardinality (stats.distinctHashtagsByUser,   user) + '\t' +
+					cardinality (stats.distinctAddresseesByUser, user) + '\t' +
+					cardinality (stats.distinctUrlsByUser,       user) + '\n'
+				);
+		}
+		catch (Exception ioe)
+		{	LOG.error("Error writing out distinct counts per user to file " + ioe.getMessage(), ioe);
+		}
+		
+		// Distinct active users and words per week
+		try (BufferedWriter wtr = Files.newBufferedWriter(outputDir.resolve("distinct-per-week.txt"), Charsets.UTF_8))
+		{	for (Integer week : stats.activeUsersPerWeek.keySet())
+				writeSafely (wtr, "distinct-per-week",
+					week                                           + "\t" +
+					cardinality (stats.activeUsersPerWeek,   week) + '\t' +
+					cardinality (stats.distinctWordsPerWeek, week) + '\n'
+				);
+		}
+		catch (Exception ioe)
+		{	LOG.error("Error writing out distinct counts per week to file " + ioe.getMessage(), ioe);
+		}
+		
+		// Bursts in the use of hashtags and URLs
+		writeTrends (outputDir.resolve("hashtags-trends.txt"), stats.hashtagsByHour, stats.hashtagsByDay);
+		writeTrends (outputDir.resolve("urls-trends.txt"),     stats.urlsByHour,     stats.urlsByDay);
+	}
+	
+	/**
+	 * Writes out the bursts found by the given hourly and daily counters. Each
+	 * line has the bucket size, the bucket's start in UTC, the term, its count,
+	 * its expected count, and how many standard deviations above that it was.
+	 */
+	private void writeTrends (Path file, TrendCounter byHour, TrendCounter byDay)
+	{	try (BufferedWriter wtr = Files.newBufferedWriter(file, Charsets.UTF_8))
+		{	int numBursts = 0;
+			for (Pair<String, TrendCounter> trend : Arrays.asList (Pair.of ("hour", byHour), Pair.of ("day", byDay)))
+			{	int warmUpBuckets = (trend.getKey().equals("hour") ? TREND_HOURS : TREND_DAYS) / 4;
+				for (TrendCounter.Burst burst : trend.getValue().detect (TREND_ALPHA, trendThreshold, trendMinCount, warmUpBuckets))
+				{	writeSafely (wtr, "trends",
+						trend.getKey()                                                + '\t' +
+						new DateTime (burst.getBucketStartMillis(), DateTimeZone.UTC) + '\t' +
+						burst.getTerm()                                               + '\t' +
+						burst.getCount()                                              + '\t' +
+						String.format ("%.1f", burst.getExpected())                   + '\t' +
+						String.format ("%.2f", burst.getZScore())                     + '\n'
+					);
+					++numBursts;
+				}
+			}
+			LOG.info ("Wrote " + numBursts + " bursts to " + file);
+		}
+		catch (Exception ioe)
+		{	LOG.error("Error writing out trends to file " + file + " : " + ioe.getMessage(), ioe);
+		}
+	}
+	
+	/** The given key's sketch, created with the given precision if it doesn't exist */
+	private static <K> HyperLogLog sketch (Map<K, HyperLogLog> sketches, K key, int precision)
+	{	HyperLogLog sketch = sketches.get(key);
+		if (sketch == null)
+			sketches.put (key, sketch = new HyperLogLog(precision));
+		return sketch;
+	}
+	
+	/** The given user's histogram, created with the given sub-bucket bits if it doesn't exist */
+	private static LogHistogram histogram (Map<String, LogHistogram> histograms, String user, int subBucketBits)
+	{	LogHistogram histogram = histograms.get(user);
+		if (histogram == null)
+			histograms.put (user, histogram = new LogHistogram(subBucketBits));
+		return histogram;
+	}
+	
+	/** The estimated distinct count in the given key's sketch, zero if it has none */
+	private static <K> long cardinality (Map<K, HyperLogLog> sketches, K key)
+	{	HyperLogLog sketch = sketches.get(key);
+		return sketch == null ? 0 : sketch.cardinality();
 	}
 	
 	/**
@@ -577,6 +1571,21 @@ public class TwitterStats implements Callable<Integer>
 	{	counts.put (key, counts.get(key) + 1);
 	}
 	
+	private static void addAll (Int2IntMap counts, Int2IntMap moreCounts)
+	{	for (Int2IntMap.Entry e : moreCounts.int2IntEntrySet())
+			counts.put (e.getIntKey(), counts.get(e.getIntKey()) + e.getIntValue());
+	}
+	
+	private static void addAll (Map<String, MutableInt> counts, Map<String, MutableInt> moreCounts)
+	{	for (Map.Entry<String, MutableInt> e : moreCounts.entrySet())
+		{	MutableInt count = counts.get(e.getKey());
+			if (count == null)
+				counts.put (e.getKey(), new MutableInt(e.getValue().intValue()));
+			else
+				count.add (e.getValue().intValue());
+		}
+	}
+	
 	private static int get (Object2IntMap<String> counts, String key)
 	{	key = tidyStringKey(key);
 		return counts.getInt(key);
@@ -598,6 +1607,139 @@ public class TwitterStats implements Callable<Integer>
 			this.excludedUsers.add (tidyStringKey(user));
 	}
 
+	public int getMaxCountsInMemory()
+	{	return maxCountsInMemory;
+	}
+
+	/**
+	 * The number of distinct words, URLs, hashtags etc. to count in memory
+	 * before sorting the counts and spilling them to a file on disk. This is
+	 * per token type, and shared between the tasks running at any one time.
+	 */
+	@Option(name="-m", aliases="--max-in-memory", usage="The number of distinct terms of each type to count in memory before spilling them to disk", metaVar=" ")
+	public void setMaxCountsInMemory(int maxCountsInMemory)
+	{	this.maxCountsInMemory = maxCountsInMemory;
+	}
+
+	public int getTopK()
+	{	return topK;
+	}
+
+	/**
+	 * If positive, addressees, hashtags and URLs are counted approximately in
+	 * a fixed amount of memory, and only the top-k of each are written out,
+	 * ranked by count, to files such as urls-top.txt. Each count is
+	 * over-estimated by at most the total number of occurrences divided by
+	 * the number of terms monitored, see {@link #setTopKCapacityMultiple(int)}.
+	 * Error estimates are written to files such as urls-top-errors.txt
+	 */
+	@Option(name="-k", aliases="--top-k", usage="Approximately count addressees, hashtags and URLs in bounded memory, and only write out the top-k of each, ranked by count", metaVar=" ")
+	public void setTopK(int topK)
+	{	this.topK = topK;
+	}
+
+	public int getTopKCapacityMultiple()
+	{	return topKCapacityMultiple;
+	}
+
+	/**
+	 * When counting the top-k, how many terms to monitor for each one
+	 * written out. Larger values give smaller errors but use more memory.
+	 */
+	@Option(name="-c", aliases="--top-k-capacity", usage="With --top-k, how many terms to monitor for each one written out", metaVar=" ")
+	public void setTopKCapacityMultiple(int topKCapacityMultiple)
+	{	this.topKCapacityMultiple = topKCapacityMultiple;
+	}
+
+	public boolean isIncremental()
+	{	return incremental;
+	}
+
+	/**
+	 * If true, the statistics are saved at the end of each run, along with a
+	 * manifest of the files processed, and subsequent runs only process files
+	 * which are new, or have grown, since then. Tweets in changed files which
+	 * were counted before are skipped. If a file has been deleted or truncated
+	 * everything is processed again. Changing the excluded users, start date,
+	 * or top-k settings between runs requires the saved state to be deleted.
+	 * <p>
+	 * As long as new tweets are saved to new files, as the spider does, the
+	 * statistics are the same as if every file were processed in a single run.
+	 */
+	@Option(name="-i", aliases="--incremental", usage="Save the statistics, and on later runs only process files which are new or have grown since", metaVar=" ")
+	public void setIncremental(boolean incremental)
+	{	this.incremental = incremental;
+	}
+
+	public int getThreadCount()
+	{	return threadCount;
+	}
+
+	/**
+	 * The number of threads with which to process tweets. Files are divided
+	 * into four work units per thread, each made up of whole users' files
+	 * from a folder, so the statistics are the same whatever the thread count.
+	 */
+	@Option(name="-t", aliases="--threads", usage="The number of threads with which to process tweets. Defaults to the number of processors", metaVar=" ")
+	public void setThreadCount(int threadCount)
+	{	this.threadCount = threadCount;
+	}
+
+	public boolean isMemoryMapped()
+	{	return memoryMapped;
+	}
+
+	/**
+	 * If true, uncompressed tweet files are memory-mapped and their lines
+	 * found directly in the mapped bytes, rather than being copied through
+	 * a stream, see {@link MappedLineScanner}. Compressed files are
+	 * unaffected.
+	 */
+	@Option(name="--memory-mapped", usage="Memory-map uncompressed tweet files rather than stream them", metaVar=" ")
+	public void setMemoryMapped(boolean memoryMapped)
+	{	this.memoryMapped = memoryMapped;
+	}
+
+	public Path getManifestFile()
+	{	return manifestFile;
+	}
+
+	/**
+	 * Where to save the dataset's {@link CorpusManifest} so later runs only
+	 * list changed folders again. If null, the default, nothing is written.
+	 */
+	public void setManifestFile(Path manifestFile)
+	{	this.manifestFile = manifestFile;
+	}
+
+	@Option(name="--manifest", usage="Save the list of tweet files in this file, so later runs only list changed folders again", metaVar=" ")
+	private void setManifestPath(String manifestPath)
+	{	this.manifestFile = Paths.get(manifestPath);
+	}
+
+	public double getTrendThreshold()
+	{	return trendThreshold;
+	}
+
+	/**
+	 * How many standard deviations above its moving average a hashtag or
+	 * URL's hourly or daily count must be for it to be written out as a burst
+	 */
+	@Option(name="--trend-threshold", usage="How many standard deviations above its moving average a hashtag or URL's count must be to be a burst", metaVar=" ")
+	public void setTrendThreshold(double trendThreshold)
+	{	this.trendThreshold = trendThreshold;
+	}
+
+	public int getTrendMinCount()
+	{	return trendMinCount;
+	}
+
+	/** The smallest hourly or daily count of a hashtag or URL that may be a burst */
+	@Option(name="--trend-min-count", usage="The smallest hourly or daily count of a hashtag or URL that may be a burst", metaVar=" ")
+	public void setTrendMinCount(int trendMinCount)
+	{	this.trendMinCount = trendMinCount;
+	}
+
 	public DateTime getStartDateIncl()
 	{	return startDateIncl;
 	}
@@ -606,6 +1748,22 @@ public class TwitterStats implements Callable<Integer>
 	{	this.startDateIncl = startDateIncl;
 	}
 
+	/** Sets the start date, given as yyyyMMdd, from which tweets are counted, in UTC */
+	@Option(name="-s", aliases="--start-date", usage="Only tweets on or after this date, given as yyyyMMdd in UTC, are counted", metaVar=" ")
+	private void setStartDate(String startDate)
+	{	this.startDateIncl = ISODateTimeFormat.basicDate().withZoneUTC().parseDateTime(startDate);
+	}
+
+	@Option(name="-d", aliases="--dataset", usage="The dataset directory, a directory of folders of tweet files", metaVar=" ", required=true)
+	private void setDatasetPath(String datasetPath)
+	{	this.datasetDirectory = Paths.get(datasetPath);
+	}
+
+	@Option(name="-o", aliases="--output", usage="The directory in which to write the statistics", metaVar=" ", required=true)
+	private void setOutputPath(String outputPath)
+	{	this.outputDir = Paths.get(outputPath);
+	}
+
 	@SuppressWarnings("unused")
 	private final void inc (Map<Integer, Object2IntMap<String>> counts, DateTime tweetDate, String hashTag)
 	{
@@ -620,13 +1778,9 @@ public class TwitterStats implements Callable<Integer>
 	}
 	
 	public static void main (String[] args) throws Exception
-	{
-		Path inputDir  = Paths.get("/Users/bryanfeeney/opt/twitter-tools-spider/src/test/resources/spider");
-		Path outputDir = Paths.get("/Users/bryanfeeney/Desktop/BiggerDB-WithFeats/Stats");
-		
-		TwitterStats stats = new TwitterStats (inputDir, outputDir);
+	{	TwitterStats stats = new TwitterStats();
+		stats.parseArguments(args);
 		stats.setExcludedUsers(DEFAULT_EXCLUDED_USERS);
-		stats.setStartDateIncl(new DateTime (2013, 04, 01, 00, 00, 01, DateTimeZone.UTC));
 		stats.call();
 	}
 	
@@ -0,0 +1,272 @@
+package cc.twittertools.scripts;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.mutable.MutableLong;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import cc.twittertools.util.NpyFiles;
+import cc.twittertools.words.dict.PersistentDictionary;
+
+/**
+ * Updates a {@link PersistentDictionary} store with the word counts from one
+ * or more files, such as those created by {@link Condense}, whose last two
+ * columns are a word and a count. Existing words keep their IDs and have
+ * their counts increased. New words are appended, most frequent first, so
+ * that data encoded with earlier versions of the dictionary remains valid.
+ * <p>
+ * New words seen fewer than the minimum number of times aren't discarded:
+ * their counts are kept in a pending file beside the store, and added to
+ * the counts read on the next update, so a word is added once its total
+ * count across all updates reaches the minimum.
+ * <p>
+ * The dictionary and pending file are replaced together: both are written
+ * to temporary files, the dictionary's first, and then renamed over the
+ * originals. If an update is interrupted, the next one finds which
+ * temporary files are left and either completes the interrupted update or
+ * discards it, so pending counts are never added twice.
+ * <p>
+ * Optionally the store can then be compacted, dropping rare words. As this
+ * changes IDs, a table mapping old IDs to new ones is written out as a numpy
+ * array, with -1 for words which were removed.
+ */
+public class UpdateDict implements Callable<Integer>
+{
+	@Option(name="-d", aliases="--dict", usage="The dictionary store to update, created if it doesn't exist. Should end in " + PersistentDictionary.FILE_SUFFIX, metaVar=" ")
+	private String dictPath;
+
+	/** Appended to the dictionary path to give the file of counts of words not yet added */
+	public static final String PENDING_SUFFIX = "-pending.txt";
+
+	@Option(name="-c", aliases="--min-count", usage="New words are only added once they've occurred at least this many times, across this and earlier updates", metaVar=" ")
+	private long minNewWordCount = 1;
+
+	@Option(name="--compact", usage="After updating, remove all words whose total count is less than this. Zero, the default, means no compaction", metaVar=" ")
+	private long compactMinCount = 0;
+
+	@Option(name="-r", aliases="--remap", usage="Where to write the table of old to new IDs when compacting. Defaults to the dictionary path with -remap.npy appended", metaVar=" ")
+	private String remapPath;
+
+	@Option(name="-h", aliases="--help", usage="Show this help message", metaVar=" ")
+	private boolean showHelp = false;
+
+	@Argument(usage="The files of word counts", metaVar="COUNTS")
+	private List<String> countsPaths = new ArrayList<String>();
+
+	private UpdateDict()
+	{
+	}
+
+
+	/** Parses the arguments */
+	private void parseArguments(String[] args)
+	{	CmdLineParser parser = null;
+		try
+		{	parser = new CmdLineParser(this);
+			parser.parseArgument(args);
+
+			if (showHelp)
+			{	System.out.println("Help for this command:");
+				showHelp (System.out, parser);
+				System.exit(0);
+			}
+			if (dictPath == null)
+			{	System.err.println ("You must specify the dictionary to update");
+				showHelp (System.err, parser);
+				System.exit(-1);
+			}
+		}
+		catch (CmdLineException e)
+		{	System.err.println (e.getMessage());
+			showHelp (System.err, parser);
+		}
+
+	}
+
+	/** Shows the help message to the given stream. Needs the parser object to say what the options are. */
+	private void showHelp(PrintStream out, CmdLineParser parser)
+	{	out.println ("Usage: java -jar JARNAME.jar <options> COUNTS [COUNTS ...]");
+		if (parser != null)
+			parser.printUsage(out);
+	}
+
+	/**
+	 * Updates, and optionally compacts, the dictionary, returning the number
+	 * of words in the dictionary afterwards.
+	 */
+	public Integer call() throws Exception
+	{	Path dictFile    = Paths.get(dictPath);
+		Path pendingFile = Paths.get(dictPath + PENDING_SUFFIX);
+		recover (dictFile, pendingFile);
+
+		PersistentDictionary dict = PersistentDictionary.open(dictFile);
+		int oldSize = dict.size();
+
+		final Map<String, MutableLong> batch = new HashMap<>();
+		if (Files.exists(pendingFile))
+			readCounts (pendingFile, batch);
+		for (String countsPath : countsPaths)
+			readCounts (Paths.get(countsPath), batch);
+
+		// Update the counts of existing words, and collect the new ones
+		List<String> newWords     = new ArrayList<>();
+		List<String> pendingWords = new ArrayList<>();
+		for (Map.Entry<String, MutableLong> entry : batch.entrySet())
+		{	String word  = entry.getKey();
+			long   count = entry.getValue().longValue();
+			if (dict.contains(word))
+				dict.add (word, count);
+			else if (StringUtils.isBlank(word))
+				continue;
+			else if (count >= minNewWordCount)
+				newWords.add (word);
+			else
+				pendingWords.add (word);
+		}
+
+		// Append new words, most frequent first, ties broken alphabetically, so
+		// the same input always gives the same IDs.
+		Collections.sort (newWords, new Comparator<String>() {
+			@Override
+			public int compare (String left, String right)
+			{	int cmp = Long.compare (batch.get(right).longValue(), batch.get(left).longValue());
+				return cmp != 0 ? cmp : left.compareTo(right);
+			}
+		});
+		for (String word : newWords)
+			dict.add (word, batch.get(word).longValue());
+
+		System.out.println ("Added " + (dict.size() - oldSize) + " new words to the " + oldSize + " existing words in " + dictPath);
+
+		if (compactMinCount > 0)
+		{	int[] remap = dict.compact(compactMinCount);
+			Path remapFile = Paths.get (remapPath == null ? dictPath + "-remap.npy" : remapPath);
+			NpyFiles.writeInts (remapFile, remap, remap.length);
+
+			System.out.println ("Compacted dictionary to " + dict.size() + " words, wrote ID remapping table to " + remapFile);
+		}
+
+		// The dictionary's temporary file must exist before the pending one,
+		// see recover()
+		Path dictTmp    = dict.saveToTemporaryFile();
+		Path pendingTmp = writePending (pendingFile, pendingWords, batch);
+		Files.move (dictTmp, dictFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		commitPending (pendingTmp, pendingFile);
+		return dict.size();
+	}
+
+	/**
+	 * Completes or discards an update which was interrupted while replacing
+	 * the dictionary and pending file. If the pending file's temporary file
+	 * is left, but not the dictionary's, the dictionary was replaced, so the
+	 * pending file is too. Otherwise the dictionary wasn't replaced, so any
+	 * temporary files are deleted, and the update can simply be run again.
+	 */
+	private static void recover (Path dictFile, Path pendingFile) throws IOException
+	{	Path dictTmp    = PersistentDictionary.temporaryFileFor(dictFile);
+		Path pendingTmp = pendingTemporaryFile(pendingFile);
+		if (Files.exists(pendingTmp) && ! Files.exists(dictTmp))
+		{	System.err.println ("Completing the interrupted update of " + dictFile);
+			commitPending (pendingTmp, pendingFile);
+		}
+		else
+		{	Files.deleteIfExists(pendingTmp);
+			Files.deleteIfExists(dictTmp);
+		}
+	}
+
+	/**
+	 * Writes out the counts of the given words, not yet added to the dictionary,
+	 * in the same format as the counts files, to a temporary file which
+	 * {@link #commitPending(Path, Path)} later moves over the pending file.
+	 * @return the temporary file
+	 */
+	private static Path writePending (Path pendingFile, List<String> words, Map<String, MutableLong> counts) throws IOException
+	{	Collections.sort (words);
+		Path tmp = pendingTemporaryFile(pendingFile);
+		try (BufferedWriter wtr = Files.newBufferedWriter(tmp, Charsets.UTF_8))
+		{	for (String word : words)
+			{	wtr.write (word);
+				wtr.write ('\t');
+				wtr.write (Long.toString (counts.get(word).longValue()));
+				wtr.write ('\n');
+			}
+		}
+		return tmp;
+	}
+
+	/**
+	 * Replaces the pending file with the given temporary file, or if that's
+	 * empty deletes both, as there's no need for a pending file without any
+	 * words.
+	 */
+	private static void commitPending (Path pendingTmp, Path pendingFile) throws IOException
+	{	if (Files.size(pendingTmp) == 0)
+		{	Files.deleteIfExists(pendingFile);
+			Files.delete(pendingTmp);
+		}
+		else
+			Files.move (pendingTmp, pendingFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static Path pendingTemporaryFile (Path pendingFile)
+	{	return pendingFile.resolveSibling(pendingFile.getFileName() + ".tmp");
+	}
+
+	/**
+	 * Reads a file whose last two columns are a word and a count, adding
+	 * the counts into the given map.
+	 */
+	private static void readCounts (Path path, Map<String, MutableLong> counts) throws Exception
+	{	String line = null;
+		int lineCount = 0;
+		try (BufferedReader rdr = Files.newBufferedReader(path, Charsets.UTF_8); )
+		{	while ((line = rdr.readLine()) != null)
+			{	++lineCount;
+				if ((line = line.trim()).isEmpty())
+					continue;
+
+				int lastTab  = line.lastIndexOf('\t');
+				if (lastTab < 0)
+				{	System.err.println ("Invalid line:" + lineCount + " of " + path + " '" + line + "'");
+					continue;
+				}
+				int penulTab = line.lastIndexOf('\t', lastTab - 1);
+
+				String word  = line.substring(penulTab + 1, lastTab);
+				long   count = Long.parseLong (line.substring(lastTab + 1));
+
+				MutableLong total = counts.get(word);
+				if (total == null)
+					counts.put (word, new MutableLong(count));
+				else
+					total.add (count);
+			}
+		}
+	}
+
+	public static final void main(String[] args) throws Exception
+	{	UpdateDict u = new UpdateDict();
+		u.parseArguments(args);
+		u.call();
+	}
+}
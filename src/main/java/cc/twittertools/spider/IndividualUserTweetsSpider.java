@@ -4,6 +4,7 @@ import static cc.twittertools.download.AsyncEmbeddedJsonStatusBlockCrawler.CONNE
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
@@ -27,8 +28,10 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import cc.twittertools.post.BlockGzipOutputStream;
 import cc.twittertools.post.SavedTweetReader;
 import cc.twittertools.post.Tweet;
+import cc.twittertools.post.TweetFileIndex;
 
 import com.google.common.base.Charsets;
 import com.j256.simplejmx.common.BaseJmxSelfNaming;
@@ -117,6 +120,9 @@ implements JmxSelfNaming, Callable<Integer> {
   @JmxAttributeField(description = "Users in Category", isWritable = false)
   private       int userCount = 0;
   
+  @JmxAttributeField(description = "Write block-gzipped tweet files", isWritable = true)
+  private volatile boolean blockGzipOutput = false;
+  
   private final Throttle throttle;
   private final ProgressMonitor progress;
 
@@ -313,22 +319,34 @@ implements JmxSelfNaming, Callable<Integer> {
 
   
   /**
-   * Write all the tweets to a file.
+   * Write all the tweets to a file, and a {@link TweetFileIndex} alongside it.
+   * The file is block-gzipped if {@link #setBlockGzipOutput(boolean)} was set,
+   * but keeps the same name, as readers detect compression from its header.
    * @param tweets the user's tweets.
    * @throws IOException
    */
   private void writeTweets(Path userOutputPath, List<Tweet> tweets) throws IOException
-  { try (
-      BufferedWriter wtr = Files.newBufferedWriter(userOutputPath, Charsets.UTF_8);
+  { TweetFileIndex.Builder index = new TweetFileIndex.Builder();
+    try (
+      BufferedWriter wtr = blockGzipOutput
+        ? new BufferedWriter(new OutputStreamWriter(new BlockGzipOutputStream(Files.newOutputStream(userOutputPath)), Charsets.UTF_8))
+        : Files.newBufferedWriter(userOutputPath, Charsets.UTF_8);
     )
-    { Tweet.WRITER.writeAllAsTabDelim(wtr, tweets.iterator());
+    { for (Tweet tweet : tweets)
+      { String line = Tweet.WRITER.asTabDelimStr(tweet);
+        wtr.write(line);
+        wtr.write('\n');
+        index.add(tweet, TweetFileIndex.utf8Length(line) + 1);
+      }
       LOG.info("Wrote " + tweets.size() + " tweets to file " + userOutputPath.toFile().getName() + " in directory " + userOutputPath.toFile().getParentFile().getName());
     }
+    index.build().writeFor(userOutputPath);
   }
   
   /**
    * If it exists, read the most recent user file, and find the ID of their most recent
-   * tweet.
+   * tweet. This is taken from the file's index if it has one, otherwise the file
+   * is read.
    * @throws IOException 
    */
   private long readLastTweetId(String user) throws IOException
@@ -336,6 +354,12 @@ implements JmxSelfNaming, Callable<Integer> {
     if (! Files.exists (path))
       return DOWNLOAD_ALL_AVAILABLE_TWEETS;
     
+    TweetFileIndex index = TweetFileIndex.readFor (path);
+    if (index != null)
+    { long id = index.getFirstTweetId();
+      return id == TweetFileIndex.NO_TWEET_ID ? DOWNLOAD_ALL_AVAILABLE_TWEETS : id;
+    }
+    
     try (
       SavedTweetReader rdr = new SavedTweetReader (path);
     )
@@ -454,6 +478,19 @@ implements JmxSelfNaming, Callable<Integer> {
   }
   
   
+  public boolean isBlockGzipOutput()
+  { return blockGzipOutput;
+  }
+
+  /**
+   * Whether tweet files should be written using {@link BlockGzipOutputStream},
+   * which is much smaller on disk, and which {@link SavedTweetReader} can still
+   * seek within and decompress in parallel.
+   */
+  public void setBlockGzipOutput(boolean blockGzipOutput)
+  { this.blockGzipOutput = blockGzipOutput;
+  }
+  
   public synchronized boolean isPaused()
   { return paused;
   }
@@ -16,6 +16,8 @@ import javax.management.JMException;
 
 import org.apache.log4j.BasicConfigurator;
 
+import cc.twittertools.post.TweetFileIndex;
+
 import com.google.common.base.Charsets;
 
 /**
@@ -55,7 +57,7 @@ public class UserTweetUpdatesSpider extends UserTweetsSpider
           )
           {
             for (Path userFile : us)
-            { if (! Files.isRegularFile(userFile))
+            { if (! Files.isRegularFile(userFile) || TweetFileIndex.isIndexFile(userFile))
                 continue;
               
               String userName = extractUserName(userFile);
@@ -124,12 +126,13 @@ public class UserTweetUpdatesSpider extends UserTweetsSpider
     Path chosenUsersPath     = Paths.get(args.length > 1 ? args[1] : "/Users/bryanfeeney/Desktop/SpiderUpTest/updatedUserList.csv");
     Path outputDirectoryPath = Paths.get(args.length > 2 ? args[2] : "/Users/bryanfeeney/Desktop/SpiderUpTest");
     Path excludedCatsPath    = args.length > 3 ? Paths.get(args[3]) : null;
+    boolean blockGzipOutput  = args.length > 4 && Boolean.parseBoolean(args[4]);
     
     new UserTweetUpdatesSpider(
       inputPath,
       excludedCatsPath,
       chosenUsersPath,
       outputDirectoryPath
-    ).init().call();
+    ).withBlockGzipOutput(blockGzipOutput).init().call();
   }
 }
@@ -45,6 +45,7 @@ public class UserTweetsSpider
   final Path outputDirectoryPath;  
   final Map<String, Set<TwitterUser>> users;
   final ExecutorService executor;
+  boolean blockGzipOutput = false;
   
   
   public UserTweetsSpider(Path inputFile, Path excludedCatsPath ,Path chosenUsersFile, Path outputDirectory)
@@ -129,6 +130,7 @@ public class UserTweetsSpider
       
       IndividualUserTweetsSpider task = 
         newIndividualSpider(throttle, progress, entry.getKey(), userNames);
+      task.setBlockGzipOutput(blockGzipOutput);
     
       jmxServer.register (task);
       executor.submit(task);
@@ -141,6 +143,15 @@ public class UserTweetsSpider
     jmxServer.stop();
   }
 
+  /**
+   * Whether the spiders should write block-gzipped tweet files. See
+   * {@link IndividualUserTweetsSpider#setBlockGzipOutput(boolean)}
+   */
+  public UserTweetsSpider withBlockGzipOutput(boolean blockGzipOutput)
+  { this.blockGzipOutput = blockGzipOutput;
+    return this;
+  }
+
   protected IndividualUserTweetsSpider newIndividualSpider(Throttle throttle,
       ProgressMonitor progress, String category, List<String> userNames) {
     return new IndividualUserTweetsSpider(
@@ -168,12 +179,13 @@ public class UserTweetsSpider
     Path chosenUsersPath     = Paths.get(args.length > 1 ? args[1] : "/home/bfeeney/Workspace/twitter-tools/src/test/resources/selectedUserList.csv");
     Path outputDirectoryPath = Paths.get(args.length > 2 ? args[2] : "/home/bfeeney/Workspace/twitter-tools/src/test/resources/spider/");   
     Path excludedCatsPath    = args.length > 3 ? Paths.get(args[3]) : null;
+    boolean blockGzipOutput  = args.length > 4 && Boolean.parseBoolean(args[4]);
     
     new UserTweetsSpider(
       inputPath,
       excludedCatsPath,
       chosenUsersPath,
       outputDirectoryPath
-    ).init().call();
+    ).withBlockGzipOutput(blockGzipOutput).init().call();
   }
 }
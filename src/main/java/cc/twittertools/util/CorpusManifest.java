@@ -0,0 +1,455 @@
+package cc.twittertools.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cc.twittertools.post.TweetFileIndex;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A list of every tweet file in a dataset, i.e. a folder of folders of tweet
+ * files, with each file's size, modification time, user, sequence number
+ * (<tt>user</tt> is 0, <tt>user.1</tt> is 1 and so on) and tweet count, the
+ * latter taken from the file's {@link TweetFileIndex}, if it has one.
+ * <p>
+ * Files are ordered by folder, then user, then sequence number, so all of a
+ * user's files are together and in the order they were written.
+ * <p>
+ * A manifest is only saved when asked, by {@link #update(Path, Path)}, by
+ * default in the dataset directory as {@link #FILE_NAME}, so merely listing
+ * a dataset with {@link #list(Path)} never writes to it. A saved manifest is
+ * brought up to date incrementally: only folders whose modification time has
+ * changed, i.e. which have had files added or removed, are listed again.
+ * Files rewritten in place don't change their folder's modification time,
+ * so use {@link #refresh(boolean)} with <tt>rescan</tt> set to catch these.
+ */
+public final class CorpusManifest
+{
+	private final static Logger LOG = LoggerFactory.getLogger(CorpusManifest.class);
+
+	public  final static String FILE_NAME = "corpus-manifest.tsv";
+	private final static String HEADER    = "CorpusManifest";
+	private final static int    VERSION   = 1;
+
+	/** Returned by {@link Entry#getTweetCount()} when the file isn't indexed */
+	public  final static int    UNKNOWN_TWEET_COUNT = -1;
+
+	private final static Pattern SEQUENCED_NAME = Pattern.compile("^(.*)\\.(\\d+)$");
+
+	/** A single tweet file */
+	public final static class Entry implements Comparable<Entry>
+	{	private final String folder;
+		private final String name;
+		private final String user;
+		private final int    sequence;
+		private final long   size;
+		private final long   modifiedMillis;
+		private final int    tweetCount;
+
+		Entry (String folder, String name, long size, long modifiedMillis, int tweetCount)
+		{	this.folder         = folder;
+			this.name           = name;
+			this.size           = size;
+			this.modifiedMillis = modifiedMillis;
+			this.tweetCount     = tweetCount;
+
+			Matcher m = SEQUENCED_NAME.matcher(name);
+			this.user     = m.matches() ? m.group(1) : name;
+			this.sequence = m.matches() ? Integer.parseInt(m.group(2)) : 0;
+		}
+
+		/** The path to this file, given the path to the dataset directory */
+		public Path resolve (Path datasetDir)
+		{	return datasetDir.resolve(folder).resolve(name);
+		}
+
+		/** The path to this file, relative to the dataset directory */
+		public String getRelativePath()
+		{	return folder + '/' + name;
+		}
+
+		public String getFolder()
+		{	return folder;
+		}
+
+		public String getUser()
+		{	return user;
+		}
+
+		public int getSequence()
+		{	return sequence;
+		}
+
+		public long getSize()
+		{	return size;
+		}
+
+		public long getModifiedMillis()
+		{	return modifiedMillis;
+		}
+
+		/** The number of tweets in the file, or {@link CorpusManifest#UNKNOWN_TWEET_COUNT} */
+		public int getTweetCount()
+		{	return tweetCount;
+		}
+
+		/** Has the file the same size and modification time as the given attributes */
+		boolean isUnchanged (BasicFileAttributes attrs)
+		{	return size == attrs.size() && modifiedMillis == attrs.lastModifiedTime().toMillis();
+		}
+
+		@Override
+		public int compareTo(Entry that)
+		{	int c = this.folder.compareTo(that.folder);
+			if (c == 0)
+				c = this.user.compareTo(that.user);
+			if (c == 0)
+				c = Integer.compare(this.sequence, that.sequence);
+			if (c == 0)
+				c = this.name.compareTo(that.name);
+			return c;
+		}
+
+		@Override
+		public String toString()
+		{	return getRelativePath();
+		}
+	}
+
+	/** A work unit being filled by {@link CorpusManifest#partition(Collection, int)} */
+	private final static class WorkUnit
+	{	final int         id;
+		final List<Entry> entries = new ArrayList<>();
+		long              size;
+
+		WorkUnit (int id)
+		{	this.id = id;
+		}
+
+		/** Orders units by size, smallest first, and then by ID */
+		final static Comparator<WorkUnit> SMALLEST_FIRST = new Comparator<WorkUnit>() {
+			@Override
+			public int compare (WorkUnit a, WorkUnit b)
+			{	return a.size != b.size ? Long.compare(a.size, b.size) : Integer.compare(a.id, b.id);
+			}
+		};
+
+		/** Orders units by size, largest first, and then by ID */
+		final static Comparator<WorkUnit> LARGEST_FIRST = new Comparator<WorkUnit>() {
+			@Override
+			public int compare (WorkUnit a, WorkUnit b)
+			{	return a.size != b.size ? Long.compare(b.size, a.size) : Integer.compare(a.id, b.id);
+			}
+		};
+	}
+
+	private final Path                      datasetDir;
+	private final Path                      file;
+	private final Map<String, Long>         folderModifiedMillis = new TreeMap<>();
+	private final Map<String, List<Entry>>  entriesByFolder      = new TreeMap<>();
+
+	private CorpusManifest (Path datasetDir, Path file)
+	{	this.datasetDir = datasetDir;
+		this.file       = file;
+	}
+
+	/**
+	 * Lists the tweet files in the given dataset, starting from the manifest
+	 * saved in its directory, if there is one, so only changed folders are
+	 * listed again. Nothing is written.
+	 */
+	public static CorpusManifest list (Path datasetDir) throws IOException
+	{	CorpusManifest manifest = load (datasetDir);
+		manifest.refresh (false);
+		return manifest;
+	}
+
+	/**
+	 * Lists the tweet files in the given dataset. If a manifest file is
+	 * given this is {@link #update(Path, Path)}, otherwise {@link #list(Path)}.
+	 */
+	public static CorpusManifest list (Path datasetDir, Path manifestFile) throws IOException
+	{	return manifestFile == null ? list (datasetDir) : update (datasetDir, manifestFile);
+	}
+
+	/**
+	 * Loads the manifest saved in the given dataset's directory, brings it up
+	 * to date, and saves it again if anything changed.
+	 */
+	public static CorpusManifest update (Path datasetDir) throws IOException
+	{	return update (datasetDir, datasetDir.resolve(FILE_NAME));
+	}
+
+	/**
+	 * Loads the manifest of the given dataset saved in the given file, brings
+	 * it up to date, and saves it there again if anything changed.
+	 * @throws IOException if the dataset can't be listed or the manifest
+	 * can't be saved
+	 */
+	public static CorpusManifest update (Path datasetDir, Path manifestFile) throws IOException
+	{	CorpusManifest manifest = load (datasetDir, manifestFile);
+		if (manifest.refresh (false) || ! Files.exists(manifestFile))
+			manifest.save();
+		return manifest;
+	}
+
+	/**
+	 * Loads the manifest saved in the given dataset's directory, without
+	 * checking whether it's up to date. If there's no saved manifest, or it
+	 * can't be read, an empty manifest is returned.
+	 */
+	public static CorpusManifest load (Path datasetDir) throws IOException
+	{	return load (datasetDir, datasetDir.resolve(FILE_NAME));
+	}
+
+	/**
+	 * Loads the manifest of the given dataset saved in the given file, without
+	 * checking whether it's up to date. If there's no saved manifest, or it
+	 * can't be read, an empty manifest is returned.
+	 */
+	public static CorpusManifest load (Path datasetDir, Path file) throws IOException
+	{	CorpusManifest manifest = new CorpusManifest (datasetDir, file);
+		if (! Files.exists(file))
+			return manifest;
+
+		try (BufferedReader rdr = Files.newBufferedReader(file, Charsets.UTF_8))
+		{	String[] header = rdr.readLine().split("\t");
+			if (! header[0].equals(HEADER) || Integer.parseInt(header[1]) != VERSION)
+				throw new IOException ("Not a version " + VERSION + " corpus manifest");
+
+			String line;
+			while ((line = rdr.readLine()) != null)
+			{	String[] parts = line.split("\t");
+				if (parts[0].equals("folder") && parts.length == 3)
+				{	manifest.folderModifiedMillis.put (parts[1], Long.parseLong(parts[2]));
+					manifest.entriesByFolder.put (parts[1], new ArrayList<Entry>());
+				}
+				else if (parts[0].equals("file") && parts.length == 6)
+					manifest.entriesByFolder.get(parts[1]).add (new Entry (
+						parts[1], parts[2], Long.parseLong(parts[3]), Long.parseLong(parts[4]), Integer.parseInt(parts[5])));
+				else
+					throw new IOException ("Unexpected line '" + line + "'");
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{	LOG.warn ("Ignoring unreadable corpus manifest " + file + " : " + e.getMessage());
+			return new CorpusManifest (datasetDir, file);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Brings the manifest up to date with the dataset directory, returning
+	 * true if anything changed.
+	 * @param rescan if true every folder is listed, and every file checked,
+	 * otherwise only those folders whose modification time has changed.
+	 */
+	public boolean refresh (boolean rescan) throws IOException
+	{	boolean changed = false;
+		List<String> folders = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(datasetDir, new DirectoryStream.Filter<Path>()
+			{	@Override public boolean accept(Path path) throws IOException
+				{	return Files.isDirectory(path);
+				}
+			}))
+		{	for (Path folder : stream)
+				folders.add (folder.getFileName().toString());
+		}
+
+		changed |= folderModifiedMillis.keySet().retainAll(folders);
+		entriesByFolder.keySet().retainAll(folders);
+		for (String folder : folders)
+		{	long modified = Files.getLastModifiedTime(datasetDir.resolve(folder)).toMillis();
+			Long previous = folderModifiedMillis.get(folder);
+			if (rescan || previous == null || previous != modified)
+			{	changed |= listFolder (folder);
+				folderModifiedMillis.put (folder, modified);
+				changed |= previous == null || previous != modified;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Lists the files in the given folder, replacing its entries. Files which
+	 * haven't changed keep their old entries. Returns true if any entry changed.
+	 */
+	private boolean listFolder (String folder) throws IOException
+	{	Map<String, Entry> oldEntries = new TreeMap<>();
+		List<Entry> previous = entriesByFolder.get(folder);
+		if (previous != null)
+			for (Entry entry : previous)
+				oldEntries.put (entry.name, entry);
+
+		boolean     changed = false;
+		List<Entry> entries = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(datasetDir.resolve(folder)))
+		{	for (Path file : stream)
+			{	BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+				if (! attrs.isRegularFile() || TweetFileIndex.isIndexFile(file))
+					continue;
+
+				String name = file.getFileName().toString();
+				Entry  old  = oldEntries.remove(name);
+				if (old != null && old.isUnchanged(attrs) && old.tweetCount != UNKNOWN_TWEET_COUNT)
+				{	entries.add (old);
+					continue;
+				}
+
+				TweetFileIndex index      = TweetFileIndex.readFor(file);
+				int            tweetCount = index == null ? UNKNOWN_TWEET_COUNT : index.getTweetCount();
+				Entry entry = new Entry (folder, name, attrs.size(), attrs.lastModifiedTime().toMillis(), tweetCount);
+				changed |= old == null || ! old.isUnchanged(attrs) || old.tweetCount != tweetCount;
+				entries.add (entry);
+			}
+		}
+		Collections.sort (entries);
+		entriesByFolder.put (folder, entries);
+
+		return changed || ! oldEntries.isEmpty();
+	}
+
+	/**
+	 * Saves the manifest in the file it was loaded from. It's written to a
+	 * temporary file first, which then replaces the original.
+	 */
+	public void save() throws IOException
+	{	Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (BufferedWriter wtr = Files.newBufferedWriter(tmp, Charsets.UTF_8))
+		{	wtr.write (HEADER + '\t' + VERSION + '\n');
+			for (Map.Entry<String, Long> folder : folderModifiedMillis.entrySet())
+			{	wtr.write ("folder\t" + folder.getKey() + '\t' + folder.getValue() + '\n');
+				for (Entry e : entriesByFolder.get(folder.getKey()))
+					wtr.write ("file\t" + e.folder + '\t' + e.name + '\t' + e.size + '\t' + e.modifiedMillis + '\t' + e.tweetCount + '\n');
+			}
+		}
+		Files.move (tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** Every tweet file, ordered by folder, user and sequence number */
+	public List<Entry> getEntries()
+	{	List<Entry> entries = new ArrayList<>();
+		for (List<Entry> folderEntries : entriesByFolder.values())
+			entries.addAll (folderEntries);
+		return entries;
+	}
+
+	/** The paths of every tweet file, ordered by folder, user and sequence number */
+	public List<Path> getPaths()
+	{	return paths (datasetDir, getEntries());
+	}
+
+	/** The paths of the given entries, in the same order */
+	public static List<Path> paths (Path datasetDir, List<Entry> entries)
+	{	List<Path> paths = new ArrayList<>(entries.size());
+		for (Entry entry : entries)
+			paths.add (entry.resolve(datasetDir));
+		return paths;
+	}
+
+	public Path getDatasetDir()
+	{	return datasetDir;
+	}
+
+	/** The total size of all tweet files */
+	public long getTotalBytes()
+	{	long total = 0;
+		for (List<Entry> folderEntries : entriesByFolder.values())
+			for (Entry entry : folderEntries)
+				total += entry.size;
+		return total;
+	}
+
+	/**
+	 * Divides all tweet files into at most the given number of work units of
+	 * about the same total size. See {@link #partition(Collection, int)}
+	 */
+	public List<List<Entry>> partition (int count)
+	{	return partition (getEntries(), count);
+	}
+
+	/**
+	 * Divides the given files into at most the given number of non-empty work
+	 * units of about the same total size. All of a user's files in a folder
+	 * go to the same unit, and within a unit files are ordered by folder,
+	 * user and sequence number, so a unit can be read as a folder would be.
+	 * <p>
+	 * Users are assigned largest first, each to the smallest unit so far,
+	 * which gives units no more than a third larger than the optimum. Units
+	 * are returned largest first, so the longest tasks can be started first.
+	 * The result depends only on the files, not the order they're given in.
+	 */
+	public static List<List<Entry>> partition (Collection<Entry> entries, int count)
+	{	if (count < 1)
+			throw new IllegalArgumentException ("Can't partition files into " + count + " work units");
+
+		// Group each user's files in each folder
+		Map<String, List<Entry>> groups = new TreeMap<>();
+		for (Entry entry : entries)
+		{	String key = entry.folder + '/' + entry.user;
+			List<Entry> group = groups.get(key);
+			if (group == null)
+				groups.put (key, group = new ArrayList<>());
+			group.add (entry);
+		}
+
+		List<List<Entry>> sorted = new ArrayList<>(groups.values());
+		Collections.sort (sorted, new Comparator<List<Entry>>() { // stable, so ties stay in name order
+			@Override
+			public int compare (List<Entry> a, List<Entry> b)
+			{	return Long.compare(totalSize(b), totalSize(a));
+			}
+		});
+
+		PriorityQueue<WorkUnit> units = new PriorityQueue<>(count, WorkUnit.SMALLEST_FIRST);
+		for (int i = 0; i < count; i++)
+			units.add (new WorkUnit (i));
+
+		for (List<Entry> group : sorted)
+		{	WorkUnit unit = units.poll();
+			unit.entries.addAll (group);
+			unit.size += totalSize (group);
+			units.add (unit);
+		}
+
+		List<WorkUnit> nonEmpty = new ArrayList<>();
+		for (WorkUnit unit : units)
+			if (! unit.entries.isEmpty())
+				nonEmpty.add (unit);
+		Collections.sort (nonEmpty, WorkUnit.LARGEST_FIRST);
+
+		List<List<Entry>> result = new ArrayList<>(nonEmpty.size());
+		for (WorkUnit unit : nonEmpty)
+		{	Collections.sort (unit.entries);
+			result.add (unit.entries);
+		}
+		return result;
+	}
+
+	private static long totalSize (List<Entry> entries)
+	{	long total = 0;
+		for (Entry entry : entries)
+			total += entry.size;
+		return total;
+	}
+}
@@ -0,0 +1,183 @@
+package cc.twittertools.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct strings added to it, using a fixed,
+ * small, amount of memory, via the HyperLogLog algorithm of Flajolet et al.,
+ * "HyperLogLog: the analysis of a near-optimal cardinality estimation
+ * algorithm" (2007).
+ * <p>
+ * There are 2<sup>p</sup> one-byte registers, where p is the precision, and
+ * the relative standard error of the estimate is about 1.04 / sqrt(2<sup>p</sup>),
+ * e.g. 3.25% for a precision of 10, or 0.8% for 14. Small cardinalities are
+ * estimated by linear counting, which is much more accurate. Sketches with
+ * the same precision can be merged, giving the distinct count of the union
+ * of their inputs.
+ * <p>
+ * Not threadsafe.
+ */
+public final class HyperLogLog
+{
+	public static final int MIN_PRECISION = 4;
+	public static final int MAX_PRECISION = 18;
+
+	private final int    precision;
+	private final byte[] registers;
+
+	/** Creates a new, empty, sketch with 2^precision registers */
+	public HyperLogLog (int precision)
+	{	if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+			throw new IllegalArgumentException ("Precision must be in the range [" + MIN_PRECISION + ".." + MAX_PRECISION + "], not " + precision);
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/** Adds the given string to the set whose size is being estimated */
+	public void add (CharSequence value)
+	{	addHash (hash (value));
+	}
+
+	/** Adds a value, given its 64-bit hash, to the set whose size is being estimated */
+	public void addHash (long hash)
+	{	int  index = (int) (hash >>> (64 - precision));
+		// Rank of the first set bit in the remaining bits, the sentinel bit bounds it
+		long rest  = (hash << precision) | (1L << (precision - 1));
+		byte rank  = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+		if (rank > registers[index])
+			registers[index] = rank;
+	}
+
+	/** The estimated number of distinct values added to this sketch */
+	public long cardinality()
+	{	int    m     = registers.length;
+		double sum   = 0;
+		int    zeros = 0;
+		for (byte register : registers)
+		{	sum += 1.0 / (1L << register);
+			if (register == 0)
+				++zeros;
+		}
+
+		double estimate = alpha (m) * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0)
+			estimate = m * Math.log ((double) m / zeros); // linear counting
+		return Math.round (estimate);
+	}
+
+	private static double alpha (int m)
+	{	switch (m)
+		{	case 16: return 0.673;
+			case 32: return 0.697;
+			case 64: return 0.709;
+			default: return 0.7213 / (1 + 1.079 / m);
+		}
+	}
+
+	/**
+	 * Merges the given sketch into this one, so this estimates the distinct
+	 * count of the union of both sketches' values.
+	 */
+	public void merge (HyperLogLog that)
+	{	if (this.precision != that.precision)
+			throw new IllegalArgumentException ("Cannot merge a sketch of precision " + that.precision + " with one of precision " + this.precision);
+		for (int i = 0; i < registers.length; i++)
+			if (that.registers[i] > registers[i])
+				registers[i] = that.registers[i];
+	}
+
+	public int getPrecision()
+	{	return precision;
+	}
+
+	/** Has nothing been added to this sketch */
+	public boolean isEmpty()
+	{	for (byte register : registers)
+			if (register != 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Writes out this sketch. Sketches with few non-empty registers, as is
+	 * usual for small sets, are written as a list of register indices and
+	 * values, otherwise all registers are written. Indices are written as
+	 * ints, as at the maximum precision they don't fit in a short.
+	 */
+	public void write (DataOutput out) throws IOException
+	{	int nonZero = 0;
+		for (byte register : registers)
+			if (register != 0)
+				++nonZero;
+
+		out.writeByte (precision);
+		boolean sparse = nonZero * 5 < registers.length;
+		out.writeBoolean (sparse);
+		if (sparse)
+		{	out.writeInt (nonZero);
+			for (int i = 0; i < registers.length; i++)
+				if (registers[i] != 0)
+				{	out.writeInt (i);
+					out.writeByte (registers[i]);
+				}
+		}
+		else
+			out.write (registers);
+	}
+
+	/** Reads in a sketch written by {@link #write(DataOutput)} */
+	public static HyperLogLog read (DataInput in) throws IOException
+	{	HyperLogLog sketch = new HyperLogLog (in.readByte());
+		if (in.readBoolean())
+		{	for (int i = 0, nonZero = in.readInt(); i < nonZero; i++)
+			{	int index = in.readInt();
+				sketch.registers[index] = in.readByte();
+			}
+		}
+		else
+			in.readFully (sketch.registers);
+		return sketch;
+	}
+
+	/**
+	 * A 64-bit hash of the given string: FNV-1a over its characters, followed
+	 * by the MurmurHash3 finalizer to spread the bits.
+	 */
+	public static long hash (CharSequence value)
+	{	long h = 0xcbf29ce484222325L;
+		for (int i = 0, len = value.length(); i < len; i++)
+		{	h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	@Override
+	public boolean equals (Object obj)
+	{	if (this == obj)
+			return true;
+		if (! (obj instanceof HyperLogLog))
+			return false;
+		HyperLogLog that = (HyperLogLog) obj;
+		return this.precision == that.precision && Arrays.equals (this.registers, that.registers);
+	}
+
+	@Override
+	public int hashCode()
+	{	return Arrays.hashCode (registers);
+	}
+
+	@Override
+	public String toString()
+	{	return "HyperLogLog[precision=" + precision + ", cardinality=" + cardinality() + "]";
+	}
+}
@@ -0,0 +1,223 @@
+package cc.twittertools.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative values whose buckets grow exponentially in
+ * width, in the style of the HDR histogram, so that the quantiles of
+ * values spanning many orders of magnitude, such as the minutes between
+ * posts, can be estimated with a bounded relative error using a small
+ * array of counts.
+ * <p>
+ * Each power of two is split into 2<sup>b</sup> equal-width sub-buckets,
+ * where b is the number of sub-bucket bits, so values less than
+ * 2<sup>b+1</sup> are counted exactly and larger values to within a
+ * relative error of 2<sup>-b</sup>. The array of counts only grows as
+ * large as the largest value added needs. Histograms with the same
+ * number of sub-bucket bits can be merged.
+ * <p>
+ * Not threadsafe.
+ */
+public final class LogHistogram
+{
+	public static final int MAX_SUB_BUCKET_BITS = 16;
+
+	private final int subBucketBits;
+	private final int subBucketCount;
+	private long[]    counts = new long[0];
+	private long      total;
+	private long      sum;
+	private long      min = Long.MAX_VALUE;
+	private long      max = Long.MIN_VALUE;
+
+	public LogHistogram (int subBucketBits)
+	{	if (subBucketBits < 0 || subBucketBits > MAX_SUB_BUCKET_BITS)
+			throw new IllegalArgumentException ("The sub-bucket bits must be in the range [0.." + MAX_SUB_BUCKET_BITS + "], not " + subBucketBits);
+		this.subBucketBits  = subBucketBits;
+		this.subBucketCount = 1 << subBucketBits;
+	}
+
+	/** Adds a single occurrence of the given value */
+	public void add (long value)
+	{	add (value, 1);
+	}
+
+	/** Adds the given number of occurrences of the given value */
+	public void add (long value, long count)
+	{	if (value < 0)
+			throw new IllegalArgumentException ("Values must not be negative: " + value);
+		if (count <= 0)
+			return;
+
+		int index = bucketIndex (value);
+		if (index >= counts.length)
+			counts = Arrays.copyOf (counts, Math.max (index + 1, counts.length + subBucketCount));
+		counts[index] += count;
+
+		total += count;
+		sum   += value * count;
+		min    = Math.min (min, value);
+		max    = Math.max (max, value);
+	}
+
+	/**
+	 * The bucket holding the given value. Values below 2^(b+1) have a bucket
+	 * each, after which each power of two is split into 2^b buckets
+	 */
+	private int bucketIndex (long value)
+	{	int magnitude = 63 - Long.numberOfLeadingZeros (value | 1);
+		if (magnitude <= subBucketBits)
+			return (int) value;
+		int shift = magnitude - subBucketBits;
+		return ((shift + 1) << subBucketBits) + (int) ((value >>> shift) - subBucketCount);
+	}
+
+	/** The smallest value counted in the given bucket */
+	private long lowestValue (int index)
+	{	if (index < 2 * subBucketCount)
+			return index;
+		int shift = (index >>> subBucketBits) - 1;
+		return ((long) ((index & (subBucketCount - 1)) + subBucketCount)) << shift;
+	}
+
+	/** The largest value counted in the given bucket */
+	private long highestValue (int index)
+	{	return index + 1 < 2 * subBucketCount
+			? index
+			: lowestValue (index + 1) - 1;
+	}
+
+	/** Adds all the values in the given histogram to this one */
+	public void merge (LogHistogram that)
+	{	if (this.subBucketBits != that.subBucketBits)
+			throw new IllegalArgumentException ("Cannot merge a histogram with " + that.subBucketBits + " sub-bucket bits into one with " + this.subBucketBits);
+		if (that.total == 0)
+			return;
+
+		if (that.counts.length > counts.length)
+			counts = Arrays.copyOf (counts, that.counts.length);
+		for (int i = 0; i < that.counts.length; i++)
+			counts[i] += that.counts[i];
+
+		total += that.total;
+		sum   += that.sum;
+		min    = Math.min (min, that.min);
+		max    = Math.max (max, that.max);
+	}
+
+	/** The number of values added */
+	public long getTotalCount()
+	{	return total;
+	}
+
+	/** The exact mean of the values added, or zero if there are none */
+	public double getMean()
+	{	return total == 0 ? 0 : (double) sum / total;
+	}
+
+	/** The exact smallest value added, or zero if there are none */
+	public long getMin()
+	{	return total == 0 ? 0 : min;
+	}
+
+	/** The exact largest value added, or zero if there are none */
+	public long getMax()
+	{	return total == 0 ? 0 : max;
+	}
+
+	/**
+	 * The approximate value below which the given fraction of values lie,
+	 * given as the midpoint of the bucket holding the quantile, clamped to
+	 * the range of values added. Returns zero if no values were added.
+	 */
+	public long quantile (double q)
+	{	if (q < 0 || q > 1)
+			throw new IllegalArgumentException ("The quantile must be in the range [0..1], not " + q);
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max (1, (long) Math.ceil (q * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++)
+		{	seen += counts[i];
+			if (seen >= rank)
+			{	long mid = lowestValue (i) + (highestValue (i) - lowestValue (i)) / 2;
+				return Math.max (min, Math.min (max, mid));
+			}
+		}
+		return max;
+	}
+
+	/** The value with the most occurrences, as the lowest value of its bucket. Zero if there are no values */
+	public long mode()
+	{	int best = 0;
+		for (int i = 1; i < counts.length; i++)
+			if (counts[i] > counts[best])
+				best = i;
+		return total == 0 ? 0 : lowestValue (best);
+	}
+
+	/** The number of buckets, which {@link #bucketLowestValue(int)} and {@link #bucketCount(int)} accept */
+	public int bucketCount()
+	{	return counts.length;
+	}
+
+	/** The smallest value counted in the given bucket */
+	public long bucketLowestValue (int index)
+	{	return lowestValue (index);
+	}
+
+	/** The number of values counted in the given bucket */
+	public long bucketCount (int index)
+	{	return counts[index];
+	}
+
+	/** Writes out this histogram, omitting empty buckets */
+	public void write (DataOutput out) throws IOException
+	{	out.writeByte (subBucketBits);
+		out.writeLong (total);
+		if (total == 0)
+			return;
+		out.writeLong (sum);
+		out.writeLong (min);
+		out.writeLong (max);
+
+		int nonZero = 0;
+		for (long count : counts)
+			if (count != 0)
+				++nonZero;
+		out.writeInt (nonZero);
+		for (int i = 0; i < counts.length; i++)
+			if (counts[i] != 0)
+			{	out.writeInt  (i);
+				out.writeLong (counts[i]);
+			}
+	}
+
+	/** Reads in a histogram written by {@link #write(DataOutput)} */
+	public static LogHistogram read (DataInput in) throws IOException
+	{	LogHistogram hist = new LogHistogram (in.readByte());
+		hist.total = in.readLong();
+		if (hist.total == 0)
+			return hist;
+		hist.sum = in.readLong();
+		hist.min = in.readLong();
+		hist.max = in.readLong();
+
+		for (int i = 0, nonZero = in.readInt(); i < nonZero; i++)
+		{	int index = in.readInt();
+			if (index >= hist.counts.length)
+				hist.counts = Arrays.copyOf (hist.counts, index + 1);
+			hist.counts[index] = in.readLong();
+		}
+		return hist;
+	}
+
+	@Override
+	public String toString()
+	{	return "LogHistogram[count=" + total + ", min=" + getMin() + ", median=" + quantile(0.5) + ", max=" + getMax() + "]";
+	}
+}
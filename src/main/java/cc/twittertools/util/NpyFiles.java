@@ -0,0 +1,389 @@
+package cc.twittertools.util;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes one-dimensional arrays in numpy's <tt>.npy</tt> format (version 1.0)
+ * so they can be read directly by <tt>numpy.load()</tt>, without going through
+ * a Python literal or a text file. All values are written little-endian.
+ * <p>
+ * One-dimensional arrays of little-endian integers can also be read back in,
+ * whether written by this class or by numpy itself. Unsigned values are read
+ * as such, and an exception is thrown for any value too large for the type
+ * it's read into.
+ */
+public final class NpyFiles
+{
+	private static final byte[] MAGIC = { (byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0 };
+
+	/** Numpy pads the header so the data starts on a 64-byte boundary */
+	private static final int HEADER_ALIGNMENT = 64;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final Pattern DESCR = Pattern.compile("'descr'\\s*:\\s*'([^']+)'");
+	private static final Pattern SHAPE = Pattern.compile("'shape'\\s*:\\s*\\(\\s*(\\d+)\\s*,?\\s*\\)");
+
+	public static final String UINT8 = "|u1";
+	public static final String INT16 = "<i2";
+	public static final String INT32 = "<i4";
+	public static final String INT64 = "<i8";
+
+	/**
+	 * The type descriptor and length of a one-dimensional array, as read from
+	 * the header of a <tt>.npy</tt> file.
+	 */
+	public static final class Header
+	{	private final String descr;
+		private final long   length;
+
+		private Header (String descr, long length)
+		{	this.descr  = descr;
+			this.length = length;
+		}
+
+		/** The numpy type descriptor, e.g. {@link NpyFiles#INT32} */
+		public String getDescr()
+		{	return descr;
+		}
+
+		/** The number of elements in the array */
+		public long getLength()
+		{	return length;
+		}
+
+		/** The number of bytes used to store each element */
+		public int getElementSize()
+		{	return elementSize (descr);
+		}
+
+		/** Are the elements unsigned integers */
+		public boolean isUnsigned()
+		{	return descr.charAt(1) == 'u';
+		}
+	}
+
+	private NpyFiles() { }
+
+	/**
+	 * Writes the first <tt>length</tt> values of the given array to the given
+	 * path as a numpy array of unsigned bytes.
+	 */
+	public static void writeBytes (Path path, byte[] values, int length) throws IOException
+	{	try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE))
+		{	writeHeader (out, UINT8, length);
+			out.write (values, 0, length);
+		}
+	}
+
+	/**
+	 * Writes the first <tt>length</tt> values of the given array to the given
+	 * path as a numpy array of 32-bit integers.
+	 */
+	public static void writeInts (Path path, int[] values, int length) throws IOException
+	{	writeInts (path, INT32, values, length);
+	}
+
+	/**
+	 * Writes the first <tt>length</tt> values of the given array to the given
+	 * path as a numpy array of integers of the given type, which may be
+	 * narrower than 32-bits. An exception is thrown if any value doesn't fit
+	 * in the type, see {@link #widenToFit(String, int[], int)}, before
+	 * anything is written.
+	 */
+	public static void writeInts (Path path, String descr, int[] values, int length) throws IOException
+	{	int size = elementSize (descr);
+		for (int i = 0; i < length; i++)
+			if (! fits (descr, values[i]))
+				throw new IllegalArgumentException ("Value " + values[i] + " at position " + i + " does not fit in the type " + descr + " of " + path);
+
+		try (OutputStream out = Files.newOutputStream(path))
+		{	writeHeader (out, descr, length);
+
+			ByteBuffer buf = newBuffer();
+			for (int i = 0; i < length; i++)
+			{	if (buf.remaining() < size)
+					flush (buf, out);
+				putInteger (buf, size, values[i]);
+			}
+			flush (buf, out);
+		}
+	}
+
+	/**
+	 * Returns the given integer type if the first <tt>length</tt> values of
+	 * the given array all fit in it, or otherwise the narrowest wider integer
+	 * type in which they do, signed if any value is negative.
+	 */
+	public static String widenToFit (String descr, int[] values, int length)
+	{	int min = 0, max = 0;
+		for (int i = 0; i < length; i++)
+		{	min = Math.min (min, values[i]);
+			max = Math.max (max, values[i]);
+		}
+		if (fits (descr, min) && fits (descr, max))
+			return descr;
+
+		boolean unsigned = descr.charAt(1) == 'u' && min >= 0;
+		for (int size = elementSize (descr) * 2; size <= Long.BYTES; size *= 2)
+		{	String wider = "<" + (unsigned ? 'u' : 'i') + size;
+			if (fits (wider, min) && fits (wider, max))
+				return wider;
+		}
+		return INT64;
+	}
+
+	/** Can the given value be stored in the given integer type */
+	private static boolean fits (String descr, long value)
+	{	int size = elementSize (descr);
+		if (size == Long.BYTES)
+			return descr.charAt(1) == 'i' || value >= 0;
+
+		int bits = size * Byte.SIZE;
+		return descr.charAt(1) == 'u'
+			? value >= 0 && value < (1L << bits)
+			: value >= -(1L << (bits - 1)) && value < (1L << (bits - 1));
+	}
+
+	/**
+	 * Writes the first <tt>length</tt> values of the given array to the given
+	 * path as a numpy array of 64-bit integers.
+	 */
+	public static void writeLongs (Path path, long[] values, int length) throws IOException
+	{	try (OutputStream out = Files.newOutputStream(path))
+		{	writeHeader (out, INT64, length);
+
+			ByteBuffer buf = newBuffer();
+			for (int i = 0; i < length; i++)
+			{	if (buf.remaining() < Long.BYTES)
+					flush (buf, out);
+				buf.putLong(values[i]);
+			}
+			flush (buf, out);
+		}
+	}
+
+	/**
+	 * Reads the header of the given <tt>.npy</tt> file, which must contain a
+	 * one-dimensional array.
+	 */
+	public static Header readHeader (Path path) throws IOException
+	{	try (ReadableByteChannel in = Files.newByteChannel(path))
+		{	return readHeader (in, path);
+		}
+	}
+
+	/**
+	 * Reads in the given <tt>.npy</tt> file, which must contain a one-dimensional
+	 * array of bytes.
+	 */
+	public static byte[] readBytes (Path path) throws IOException
+	{	try (ReadableByteChannel in = Files.newByteChannel(path))
+		{	Header header = readHeader (in, path);
+			if (header.getElementSize() != 1)
+				throw new IOException ("Expected an array of bytes in " + path + " but the type is " + header.getDescr());
+
+			byte[] values = new byte[checkedLength (header, path)];
+			readFully (in, ByteBuffer.wrap(values), path);
+			return values;
+		}
+	}
+
+	/**
+	 * Reads in the given <tt>.npy</tt> file, which must contain a one-dimensional
+	 * array of little-endian integers of any width. An exception is thrown if
+	 * any value does not fit in a signed 32-bit integer.
+	 */
+	public static int[] readInts (Path path) throws IOException
+	{	try (ReadableByteChannel in = Files.newByteChannel(path))
+		{	Header header = readHeader (in, path);
+			int    size   = header.getElementSize();
+			int[]  values = new int[checkedLength (header, path)];
+
+			ByteBuffer buf = newBuffer();
+			buf.flip();
+			for (int i = 0; i < values.length; i++)
+			{	if (buf.remaining() < size)
+					refill (in, buf, size, path);
+				long value = getInteger (buf, size, header.isUnsigned(), i, path);
+				if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+					throw new IOException ("Value " + value + " at position " + i + " of " + path + " does not fit in a 32-bit integer");
+				values[i] = (int) value;
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * Reads in the given <tt>.npy</tt> file, which must contain a one-dimensional
+	 * array of little-endian integers of any width. An exception is thrown if
+	 * any value does not fit in a signed 64-bit integer, as can happen with
+	 * unsigned 64-bit values.
+	 */
+	public static long[] readLongs (Path path) throws IOException
+	{	try (ReadableByteChannel in = Files.newByteChannel(path))
+		{	Header header = readHeader (in, path);
+			int    size   = header.getElementSize();
+			long[] values = new long[checkedLength (header, path)];
+
+			ByteBuffer buf = newBuffer();
+			buf.flip();
+			for (int i = 0; i < values.length; i++)
+			{	if (buf.remaining() < size)
+					refill (in, buf, size, path);
+				values[i] = getInteger (buf, size, header.isUnsigned(), i, path);
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * Reads the magic string, version and header dictionary from the start of
+	 * the given channel, leaving it positioned at the start of the data.
+	 */
+	private static Header readHeader (ReadableByteChannel in, Path path) throws IOException
+	{	ByteBuffer prefix = ByteBuffer.allocate(MAGIC.length + 2).order(ByteOrder.LITTLE_ENDIAN);
+		readFully (in, prefix, path);
+		for (int i = 0; i < MAGIC.length - 2; i++)
+			if (prefix.get(i) != MAGIC[i])
+				throw new IOException ("Not a numpy file: " + path);
+
+		// Version 1.0 has a two-byte header length, later versions four-bytes
+		int majorVersion = prefix.get(MAGIC.length - 2);
+		int headerLength;
+		if (majorVersion == 1)
+			headerLength = prefix.getShort(MAGIC.length) & 0xFFFF;
+		else
+		{	ByteBuffer rest = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+			readFully (in, rest, path);
+			headerLength = (prefix.getShort(MAGIC.length) & 0xFFFF) | ((rest.getShort(0) & 0xFFFF) << 16);
+		}
+
+		ByteBuffer headerBytes = ByteBuffer.allocate(headerLength);
+		readFully (in, headerBytes, path);
+		String header = new String (headerBytes.array(), StandardCharsets.ISO_8859_1);
+
+		Matcher descr = DESCR.matcher(header);
+		Matcher shape = SHAPE.matcher(header);
+		if (! descr.find() || ! shape.find())
+			throw new IOException ("Only one-dimensional numpy arrays are supported, but the header of " + path + " is " + header.trim());
+
+		String type = descr.group(1);
+		elementSize (type); // validate
+		return new Header (type, Long.parseLong(shape.group(1)));
+	}
+
+	/**
+	 * The number of bytes in each element of an integer type, throwing an
+	 * exception if the type is not a little-endian integer type.
+	 */
+	private static int elementSize (String descr)
+	{	if (descr.length() != 3
+			|| (descr.charAt(1) != 'i' && descr.charAt(1) != 'u')
+			|| (descr.charAt(0) != '<' && descr.charAt(0) != '|' && descr.charAt(0) != '='))
+			throw new IllegalArgumentException ("Only little-endian integer types are supported, not " + descr);
+
+		int size = descr.charAt(2) - '0';
+		if (size != 1 && size != 2 && size != 4 && size != 8)
+			throw new IllegalArgumentException ("Unsupported integer width in type " + descr);
+		return size;
+	}
+
+	private static int checkedLength (Header header, Path path) throws IOException
+	{	if (header.getLength() > Integer.MAX_VALUE - 8)
+			throw new IOException ("The array in " + path + " is too large to be read into memory: " + header.getLength() + " elements");
+		return (int) header.getLength();
+	}
+
+	/**
+	 * Reads the next integer of the given width, which is the i-th in the
+	 * given file. Throws an exception if it's an unsigned 64-bit value too
+	 * large for a long.
+	 */
+	private static long getInteger (ByteBuffer buf, int size, boolean unsigned, int i, Path path) throws IOException
+	{	switch (size)
+		{	case 1:  return unsigned ? buf.get()      & 0xFF        : buf.get();
+			case 2:  return unsigned ? buf.getShort() & 0xFFFF      : buf.getShort();
+			case 4:  return unsigned ? buf.getInt()   & 0xFFFFFFFFL : buf.getInt();
+			case 8:
+			{	long value = buf.getLong();
+				if (unsigned && value < 0)
+					throw new IOException ("Value " + Long.toUnsignedString(value) + " at position " + i + " of " + path + " does not fit in a signed 64-bit integer");
+				return value;
+			}
+			default: throw new IllegalArgumentException ("Unsupported integer width " + size);
+		}
+	}
+
+	private static void putInteger (ByteBuffer buf, int size, long value)
+	{	switch (size)
+		{	case 1:  buf.put      ((byte)  value); break;
+			case 2:  buf.putShort ((short) value); break;
+			case 4:  buf.putInt   ((int)   value); break;
+			case 8:  buf.putLong  (value);         break;
+			default: throw new IllegalArgumentException ("Unsupported integer width " + size);
+		}
+	}
+
+	/**
+	 * Compacts the buffer and fills it from the channel until at least
+	 * <tt>required</tt> bytes are available, leaving it ready to read
+	 */
+	private static void refill (ReadableByteChannel in, ByteBuffer buf, int required, Path path) throws IOException
+	{	buf.compact();
+		while (buf.position() < required)
+			if (in.read(buf) < 0)
+				throw new EOFException ("Unexpected end of file in " + path);
+		buf.flip();
+	}
+
+	private static void readFully (ReadableByteChannel in, ByteBuffer buf, Path path) throws IOException
+	{	while (buf.hasRemaining())
+			if (in.read(buf) < 0)
+				throw new EOFException ("Unexpected end of file in " + path);
+	}
+
+	/**
+	 * Writes the magic string, version and header dictionary of a one-dimensional
+	 * array with the given numpy type descriptor and length.
+	 */
+	private static void writeHeader (OutputStream out, String descr, long length) throws IOException
+	{	StringBuilder header = new StringBuilder (HEADER_ALIGNMENT * 2);
+		header.append ("{'descr': '").append (descr)
+		      .append ("', 'fortran_order': False, 'shape': (").append (length)
+		      .append (",), }");
+
+		// Pad with spaces, and terminate with a newline, so the data is aligned
+		int unpadded = MAGIC.length + Short.BYTES + header.length() + 1;
+		int padding  = (HEADER_ALIGNMENT - unpadded % HEADER_ALIGNMENT) % HEADER_ALIGNMENT;
+		for (int i = 0; i < padding; i++)
+			header.append (' ');
+		header.append ('\n');
+
+		byte[] headerBytes = header.toString().getBytes(StandardCharsets.US_ASCII);
+		out.write (MAGIC);
+		out.write (headerBytes.length & 0xFF);
+		out.write ((headerBytes.length >>> 8) & 0xFF);
+		out.write (headerBytes);
+	}
+
+	private static ByteBuffer newBuffer()
+	{	return ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void flush (ByteBuffer buf, OutputStream out) throws IOException
+	{	out.write (buf.array(), 0, buf.position());
+		buf.clear();
+	}
+}
@@ -0,0 +1,82 @@
+package cc.twittertools.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs tasks on an executor and merges their results, one at a time, in
+ * the order the tasks were submitted, which keeps the merged output
+ * deterministic.
+ * <p>
+ * To bound memory, at most a given number of tasks may have been submitted
+ * and not yet merged. Once that many are pending, submitting another first
+ * waits for the oldest to finish and merges it. Results at the head of the
+ * queue are also merged as soon as they're found to be done, so they're
+ * not kept around for longer than necessary.
+ * <p>
+ * Not threadsafe: tasks must be submitted, and results merged, on a single
+ * thread.
+ */
+public final class OrderedMerger<T>
+{
+	/** Merges a single task's result into the totals */
+	public interface Merge<T>
+	{	public void merge (T result) throws Exception;
+	}
+
+	private final ExecutorService  exec;
+	private final int              maxPending;
+	private final Merge<T>         merge;
+	private final Deque<Future<T>> pending = new ArrayDeque<>();
+
+	/**
+	 * Creates a merger running tasks on the given executor, and merging
+	 * their results with the given merge
+	 * @param maxPending how many tasks may be submitted, but not yet merged,
+	 * at any one time. See {@link #defaultMaxPending(int)}
+	 */
+	public OrderedMerger (ExecutorService exec, int maxPending, Merge<T> merge)
+	{	if (maxPending <= 0)
+			throw new IllegalArgumentException ("At least one task must be allowed to be pending, not " + maxPending);
+		this.exec       = exec;
+		this.maxPending = maxPending;
+		this.merge      = merge;
+	}
+
+	/**
+	 * The default limit on pending tasks for an executor with the given number
+	 * of threads: enough to keep every thread busy, with one more result
+	 * ready to be merged, but no more.
+	 */
+	public static int defaultMaxPending (int threadCount)
+	{	return threadCount + 1;
+	}
+
+	/**
+	 * Submits the given task, first merging the results of earlier tasks as
+	 * necessary to keep within the limit on pending tasks.
+	 */
+	public void submit (Callable<T> task) throws Exception
+	{	while (! pending.isEmpty() && (pending.size() >= maxPending || pending.peekFirst().isDone()))
+			mergeNext();
+		pending.addLast (exec.submit (task));
+	}
+
+	/** Waits for every task submitted to finish, and merges their results */
+	public void finish() throws Exception
+	{	while (! pending.isEmpty())
+			mergeNext();
+	}
+
+	/** The number of tasks submitted whose results haven't yet been merged */
+	public int getPendingCount()
+	{	return pending.size();
+	}
+
+	private void mergeNext() throws Exception
+	{	merge.merge (pending.removeFirst().get());
+	}
+}
@@ -0,0 +1,392 @@
+package cc.twittertools.util;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Approximately counts the most frequent strings in a stream using a fixed
+ * amount of memory, via the Space-Saving algorithm of Metwally, Agrawal and
+ * El Abbadi, "Efficient Computation of Frequent and Top-k Elements in Data
+ * Streams" (2005).
+ * <p>
+ * At most {@link #capacity()} terms are monitored. When a new term arrives
+ * and there's no room for it, it replaces the term with the smallest count,
+ * inheriting that count as its error. Consequently counts are never
+ * under-estimated, and are over-estimated by at most {@link #getMaxError()},
+ * which is no more than the total count divided by the capacity. Any term
+ * occurring more often than that is guaranteed to be monitored.
+ * <p>
+ * The monitored terms are kept in an indexed min-heap ordered by count, so
+ * each update takes logarithmic time. Not threadsafe.
+ */
+public class SpaceSavingCounter
+{
+	private static final int NO_SLOT = -1;
+
+	private final Object2IntMap<String> slots;
+	private final String[] terms;
+	private final long[]   counts;
+	private final long[]   errors;
+	private final int[]    heap;      // slots, ordered as a min-heap by count
+	private final int[]    heapPos;   // the position in the heap of each slot
+	private       int      size  = 0;
+	private       long     total = 0;
+
+	/**
+	 * Creates a new counter which monitors up to the given number of terms.
+	 */
+	public SpaceSavingCounter (int capacity)
+	{	if (capacity < 1)
+			throw new IllegalArgumentException ("Capacity must be positive, not " + capacity);
+
+		this.slots   = new Object2IntOpenHashMap<>(capacity);
+		this.terms   = new String[capacity];
+		this.counts  = new long[capacity];
+		this.errors  = new long[capacity];
+		this.heap    = new int[capacity];
+		this.heapPos = new int[capacity];
+		slots.defaultReturnValue(NO_SLOT);
+	}
+
+	/**
+	 * Creates a counter which can return the given number of most frequent
+	 * terms, and whose counts are over-estimated by no more than the given
+	 * fraction of the total count.
+	 */
+	public static SpaceSavingCounter withErrorBound (int topK, double maxErrorFraction)
+	{	if (maxErrorFraction <= 0 || maxErrorFraction >= 1)
+			throw new IllegalArgumentException ("The maximum error must be a fraction between 0 and 1, not " + maxErrorFraction);
+		long capacity = Math.max (topK + 1L, (long) Math.ceil (1.0 / maxErrorFraction));
+		if (capacity > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException ("An error bound of " + maxErrorFraction + " requires too many terms to be monitored");
+		return new SpaceSavingCounter ((int) capacity);
+	}
+
+	/** Increments the count of the given term by one */
+	public void inc (String term)
+	{	add (term, 1);
+	}
+
+	/** Increments the count of the given term by the given, positive, amount */
+	public void add (String term, long count)
+	{	total += count;
+
+		int slot = slots.getInt(term);
+		if (slot != NO_SLOT)
+		{	counts[slot] += count;
+			siftDown (heapPos[slot]);
+		}
+		else if (size < terms.length)
+		{	slot = size++;
+			terms[slot]   = term;
+			counts[slot]  = count;
+			errors[slot]  = 0;
+			heap[slot]    = slot;
+			heapPos[slot] = slot;
+			slots.put (term, slot);
+			siftUp (slot);
+		}
+		else
+		{	// Evict the least frequent term, the new term inherits its count as error
+			slot = heap[0];
+			slots.removeInt (terms[slot]);
+			errors[slot]  = counts[slot];
+			counts[slot] += count;
+			terms[slot]   = term;
+			slots.put (term, slot);
+			siftDown (0);
+		}
+	}
+
+	/** Adds all the given counts to this counter */
+	public void addAll (Object2IntMap<String> moreCounts)
+	{	for (Object2IntMap.Entry<String> entry : moreCounts.object2IntEntrySet())
+			add (entry.getKey(), entry.getIntValue());
+	}
+
+	/**
+	 * Adds the counts of the given counter to these, so this counter
+	 * summarises both streams. A term monitored by only one of the counters
+	 * is taken to have occurred in the other's stream as often as the
+	 * other's least frequent term, so counts are still never
+	 * under-estimated. Of the terms monitored by either counter, the most
+	 * frequent are kept. The given counter is unchanged.
+	 * <p>
+	 * After merging, the maximum error is at least the sum of the two
+	 * counters' maximum errors, and may exceed the total count divided by
+	 * the capacity.
+	 */
+	public void merge (SpaceSavingCounter that)
+	{	long thisFloor = getMaxError();
+		long thatFloor = that.getMaxError();
+
+		// The union of the two counters' terms, with their combined counts and errors
+		int       unionSize   = size;
+		String[]  unionTerms  = Arrays.copyOf (terms,  size + that.size);
+		long[]    unionCounts = Arrays.copyOf (counts, size + that.size);
+		long[]    unionErrors = Arrays.copyOf (errors, size + that.size);
+		boolean[] inBoth      = new boolean[size];
+		for (int thatSlot = 0; thatSlot < that.size; thatSlot++)
+		{	int slot = slots.getInt(that.terms[thatSlot]);
+			if (slot != NO_SLOT)
+			{	unionCounts[slot] += that.counts[thatSlot];
+				unionErrors[slot] += that.errors[thatSlot];
+				inBoth[slot] = true;
+			}
+			else
+			{	unionTerms[unionSize]  = that.terms[thatSlot];
+				unionCounts[unionSize] = thisFloor + that.counts[thatSlot];
+				unionErrors[unionSize] = thisFloor + that.errors[thatSlot];
+				++unionSize;
+			}
+		}
+		for (int slot = 0; slot < size; slot++)
+			if (! inBoth[slot])
+			{	unionCounts[slot] += thatFloor;
+				unionErrors[slot] += thatFloor;
+			}
+
+		// Keep the most frequent terms, with ties broken alphabetically so
+		// the result doesn't depend on the order of the slots
+		final String[] sortTerms  = unionTerms;
+		final long[]   sortCounts = unionCounts;
+		Integer[] byCount = new Integer[unionSize];
+		for (int i = 0; i < unionSize; i++)
+			byCount[i] = i;
+		Arrays.sort (byCount, new Comparator<Integer>() {
+			@Override
+			public int compare (Integer left, Integer right)
+			{	int cmp = Long.compare (sortCounts[right], sortCounts[left]);
+				return cmp != 0 ? cmp : sortTerms[left].compareTo(sortTerms[right]);
+			}
+		});
+
+		int newSize = Math.min (unionSize, terms.length);
+		slots.clear();
+		for (int slot = 0; slot < newSize; slot++)
+		{	int i = byCount[slot];
+			terms[slot]  = unionTerms[i];
+			counts[slot] = unionCounts[i];
+			errors[slot] = unionErrors[i];
+			slots.put (terms[slot], slot);
+		}
+		Arrays.fill (terms, newSize, terms.length, null);
+		size   = newSize;
+		total += that.total;
+
+		// The slots are in decreasing order of count, so reversed they form a min-heap
+		for (int pos = 0; pos < size; pos++)
+			place (size - 1 - pos, pos);
+	}
+
+	private void siftUp (int pos)
+	{	int slot = heap[pos];
+		while (pos > 0)
+		{	int parent = (pos - 1) >>> 1;
+			if (counts[heap[parent]] <= counts[slot])
+				break;
+			place (heap[parent], pos);
+			pos = parent;
+		}
+		place (slot, pos);
+	}
+
+	private void siftDown (int pos)
+	{	int slot = heap[pos];
+		int half = size >>> 1;
+		while (pos < half)
+		{	int child = 2 * pos + 1;
+			if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]])
+				++child;
+			if (counts[slot] <= counts[heap[child]])
+				break;
+			place (heap[child], pos);
+			pos = child;
+		}
+		place (slot, pos);
+	}
+
+	private void place (int slot, int pos)
+	{	heap[pos]     = slot;
+		heapPos[slot] = pos;
+	}
+
+	/** The maximum number of terms monitored */
+	public int capacity()
+	{	return terms.length;
+	}
+
+	/** The number of terms currently monitored */
+	public int size()
+	{	return size;
+	}
+
+	/** The sum of all counts added so far */
+	public long getTotal()
+	{	return total;
+	}
+
+	/**
+	 * The most by which any count may be over-estimated. Zero if there has
+	 * never been any need to evict a term, in which case all counts are exact.
+	 */
+	public long getMaxError()
+	{	return size < terms.length ? 0 : counts[heap[0]];
+	}
+
+	/**
+	 * The estimated count of the given term, which is never less than its
+	 * true count. Terms which aren't monitored are estimated to occur
+	 * {@link #getMaxError()} times.
+	 */
+	public long count (String term)
+	{	int slot = slots.getInt(term);
+		return slot == NO_SLOT ? getMaxError() : counts[slot];
+	}
+
+	/**
+	 * Returns the (at most) k monitored terms with the greatest counts, in
+	 * decreasing order of count, ties broken alphabetically.
+	 */
+	public List<HeavyHitter> top (int k)
+	{	Integer[] byCount = new Integer[size];
+		for (int slot = 0; slot < size; slot++)
+			byCount[slot] = slot;
+		Arrays.sort (byCount, new Comparator<Integer>() {
+			@Override
+			public int compare (Integer left, Integer right)
+			{	int cmp = Long.compare (counts[right], counts[left]);
+				return cmp != 0 ? cmp : terms[left].compareTo(terms[right]);
+			}
+		});
+
+		// A term is certainly in the true top-k if its smallest possible count
+		// is at least the largest possible count of any term not in the list
+		int  len       = Math.min (k, size);
+		long threshold = len < size ? counts[byCount[len]] : getMaxError();
+
+		List<HeavyHitter> result = new ArrayList<>(len);
+		for (int i = 0; i < len; i++)
+		{	int slot = byCount[i];
+			result.add (new HeavyHitter (
+				terms[slot],
+				counts[slot],
+				errors[slot],
+				counts[slot] - errors[slot] >= threshold
+			));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes out the (at most) k most frequent terms with their estimated
+	 * counts, tab-delimited, in decreasing order of count. Returns the number
+	 * of terms written.
+	 */
+	public int writeTop (BufferedWriter wtr, int k) throws IOException
+	{	List<HeavyHitter> hitters = top (k);
+		for (HeavyHitter hitter : hitters)
+			wtr.write (hitter.getTerm() + '\t' + hitter.getCount() + '\n');
+		return hitters.size();
+	}
+
+	/**
+	 * Writes out the (at most) k most frequent terms with their estimated
+	 * counts, the most by which each count may be over-estimated, and
+	 * whether or not the term is guaranteed to be in the true top-k, all
+	 * tab-delimited, in decreasing order of count. Returns the number of
+	 * terms written.
+	 */
+	public int writeTopWithErrors (BufferedWriter wtr, int k) throws IOException
+	{	List<HeavyHitter> hitters = top (k);
+		for (HeavyHitter hitter : hitters)
+			wtr.write (
+				hitter.getTerm()  + '\t' +
+				hitter.getCount() + '\t' +
+				hitter.getError() + '\t' +
+				hitter.isGuaranteed() + '\n'
+			);
+		return hitters.size();
+	}
+
+	/**
+	 * Writes out the full state of this counter, so it can be recreated
+	 * by {@link #read(DataInput)} and further updated.
+	 */
+	public void write (DataOutput out) throws IOException
+	{	out.writeInt  (terms.length);
+		out.writeInt  (size);
+		out.writeLong (total);
+		for (int slot = 0; slot < size; slot++)
+		{	out.writeUTF  (terms[slot]);
+			out.writeLong (counts[slot]);
+			out.writeLong (errors[slot]);
+		}
+	}
+
+	/** Reads in a counter written out by {@link #write(DataOutput)} */
+	public static SpaceSavingCounter read (DataInput in) throws IOException
+	{	SpaceSavingCounter counter = new SpaceSavingCounter (in.readInt());
+		int size = in.readInt();
+		counter.total = in.readLong();
+		for (int slot = 0; slot < size; slot++)
+		{	counter.terms[slot]   = in.readUTF();
+			counter.counts[slot]  = in.readLong();
+			counter.errors[slot]  = in.readLong();
+			counter.heap[slot]    = slot;
+			counter.heapPos[slot] = slot;
+			counter.slots.put (counter.terms[slot], slot);
+			counter.size = slot + 1;
+			counter.siftUp (slot);
+		}
+		return counter;
+	}
+
+	/** A frequent term, with its estimated count */
+	public static final class HeavyHitter
+	{	private final String  term;
+		private final long    count;
+		private final long    error;
+		private final boolean guaranteed;
+
+		public HeavyHitter(String term, long count, long error, boolean guaranteed)
+		{	this.term       = term;
+			this.count      = count;
+			this.error      = error;
+			this.guaranteed = guaranteed;
+		}
+
+		public String getTerm()
+		{	return term;
+		}
+
+		/** The estimated count, which is at least the true count */
+		public long getCount()
+		{	return count;
+		}
+
+		/** The most by which the count may exceed the true count */
+		public long getError()
+		{	return error;
+		}
+
+		/** Is this term certainly in the true top-k list */
+		public boolean isGuaranteed()
+		{	return guaranteed;
+		}
+
+		@Override
+		public String toString()
+		{	return term + '\t' + count + " (+/-" + error + (guaranteed ? ", guaranteed)" : ")");
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package cc.twittertools.util;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.io.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts occurrences of strings using a bounded amount of memory. Counts are
+ * accumulated in a hash-map until it reaches a maximum number of entries,
+ * at which point its contents are sorted and written out to a temporary
+ * "run" file, and the map is cleared. When {@link #writeTo(Path)} is called
+ * the runs and the remaining in-memory counts are merged to create a single
+ * tab-delimited file of terms and counts, sorted by term.
+ * <p>
+ * This replaces writing out every single occurrence of a term to disk, then
+ * sorting the file and condensing it with {@link cc.twittertools.scripts.Condense}.
+ * <p>
+ * Run files are binary, each term being written by {@link DataOutputStream#writeUTF(String)}
+ * followed by its count as a long, so terms containing tabs, newlines or
+ * unpaired surrogates are read back exactly, and in the order in which they
+ * were sorted. Terms must therefore be less than 64KB when encoded. Run files
+ * are deleted once they've been merged, or when this counter is closed.
+ * <p>
+ * The final counts may also be copied, in the same binary form, to some other
+ * output, such as a file of saved state, and later read back into another
+ * counter with {@link #addRun(DataInput)}.
+ * Not threadsafe.
+ */
+public class SpillingCounter implements Closeable
+{
+	private final static Logger LOG = LoggerFactory.getLogger(SpillingCounter.class);
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The map grows from this size, as many counters are short-lived and small */
+	private static final int INITIAL_CAPACITY = 1 << 16;
+
+	private final Path       spillDir;
+	private final String     name;
+	private final int        maxEntries;
+	private final List<Path> runs = new ArrayList<>();
+
+	private Object2IntMap<String> counts;
+
+	/**
+	 * Creates a new counter
+	 * @param spillDir the directory in which to write temporary run files
+	 * @param name a name for this counter, used as a prefix for run files
+	 * @param maxEntries the maximum number of distinct terms to hold in memory
+	 * before spilling to disk.
+	 */
+	public SpillingCounter (Path spillDir, String name, int maxEntries)
+	{	this.spillDir   = spillDir;
+		this.name       = name;
+		this.maxEntries = maxEntries;
+		this.counts     = newMap();
+	}
+
+	private Object2IntMap<String> newMap()
+	{	Object2IntMap<String> map = new Object2IntOpenHashMap<>(Math.min (maxEntries, INITIAL_CAPACITY));
+		map.defaultReturnValue(0);
+		return map;
+	}
+
+	/** Increments the count of the given term by one */
+	public void inc (String term) throws IOException
+	{	add (term, 1);
+	}
+
+	/** Increments the count of the given term by the given amount */
+	public void add (String term, int count) throws IOException
+	{	counts.put (term, counts.getInt(term) + count);
+		if (counts.size() >= maxEntries)
+			spill();
+	}
+
+	/** Adds all the given counts to this counter's counts */
+	public void addAll (Object2IntMap<String> moreCounts) throws IOException
+	{	for (Object2IntMap.Entry<String> entry : moreCounts.object2IntEntrySet())
+			add (entry.getKey(), entry.getIntValue());
+	}
+
+	/**
+	 * Moves all the counts of the given counter into this one. Its run files
+	 * are taken over, rather than copied, and its in-memory counts added to
+	 * these, so the given counter is left empty. Both counters should spill
+	 * to the same directory.
+	 */
+	public void addAll (SpillingCounter that) throws IOException
+	{	runs.addAll (that.runs);
+		that.runs.clear();
+
+		Object2IntMap<String> moreCounts = that.counts;
+		that.counts = that.newMap();
+		addAll (moreCounts);
+	}
+
+	/**
+	 * Includes counts copied by {@link #writeTo(Path, DataOutput)}, read from
+	 * the given input, when the final counts are written out. They're copied
+	 * to a new run file, as they're already sorted.
+	 */
+	public void addRun (DataInput in) throws IOException
+	{	Path run = Files.createTempFile(spillDir, "." + name + "-run-", ".tmp");
+		runs.add (run);
+
+		try (DataOutputStream out = newRunWriter (run))
+		{	while (in.readBoolean())
+			{	out.writeUTF  (in.readUTF());
+				out.writeLong (in.readLong());
+			}
+		}
+	}
+
+	/** The name of this counter, used as a prefix for run files */
+	public String getName()
+	{	return name;
+	}
+
+	/** The number of run files written to disk so far */
+	public int getRunCount()
+	{	return runs.size();
+	}
+
+	/** Sorts the in-memory counts, writes them to a new run file, and clears them */
+	private void spill() throws IOException
+	{	if (counts.isEmpty())
+			return;
+
+		Path run = Files.createTempFile(spillDir, "." + name + "-run-", ".tmp");
+		runs.add (run);
+		LOG.info ("Spilling " + counts.size() + " " + name + " counts to " + run);
+
+		try (DataOutputStream out = newRunWriter (run))
+		{	for (String term : sortedTerms (counts))
+			{	out.writeUTF  (term);
+				out.writeLong (counts.getInt(term));
+			}
+		}
+
+		// Dropping the map, rather than clearing it, releases its (large) arrays
+		counts = newMap();
+	}
+
+	/**
+	 * Writes out the given map's terms and counts, sorted by term, to the given
+	 * writer, and to the given copy if it's not null.
+	 */
+	private static void writeSorted (Object2IntMap<String> counts, BufferedWriter wtr, DataOutput copy) throws IOException
+	{	for (String term : sortedTerms (counts))
+			write (term, counts.getInt(term), wtr, copy);
+	}
+
+	/**
+	 * Writes out a term and its count on its own line, and to the given copy,
+	 * if not null, preceded by a flag to say another term follows.
+	 */
+	private static void write (String term, long count, BufferedWriter wtr, DataOutput copy) throws IOException
+	{	wtr.write (term);
+		wtr.write ('\t');
+		wtr.write (Long.toString (count));
+		wtr.write ('\n');
+
+		if (copy != null)
+		{	copy.writeBoolean (true);
+			copy.writeUTF     (term);
+			copy.writeLong    (count);
+		}
+	}
+
+	/** The given map's terms, sorted */
+	private static String[] sortedTerms (Object2IntMap<String> counts)
+	{	String[] terms = counts.keySet().toArray(new String[counts.size()]);
+		Arrays.sort (terms);
+		return terms;
+	}
+
+	/**
+	 * Writes out a tab-delimited file of every term and its total count,
+	 * sorted by term. Returns the number of distinct terms written. All run
+	 * files are deleted afterwards and the counter is reset.
+	 */
+	public long writeTo (Path output) throws IOException
+	{	return writeTo (output, null);
+	}
+
+	/**
+	 * Writes out a tab-delimited file of every term and its total count, as
+	 * {@link #writeTo(Path)} does, and also copies the counts to the given
+	 * output, if not null, to be read back by {@link #addRun(DataInput)}.
+	 */
+	public long writeTo (Path output, DataOutput copy) throws IOException
+	{	try (BufferedWriter wtr = newWriter (output))
+		{	return writeTo (wtr, copy);
+		}
+	}
+
+	/**
+	 * Writes out every term and its total count, each on its own line and
+	 * separated by a tab, sorted by term. Returns the number of distinct terms
+	 * written. All run files are deleted afterwards and the counter is reset.
+	 */
+	public long writeTo (BufferedWriter wtr) throws IOException
+	{	return writeTo (wtr, null);
+	}
+
+	private long writeTo (BufferedWriter wtr, DataOutput copy) throws IOException
+	{	try
+		{	long numTerms;
+			if (runs.isEmpty())
+			{	writeSorted (counts, wtr, copy);
+				numTerms = counts.size();
+			}
+			else
+			{	spill();
+				numTerms = merge (wtr, copy);
+			}
+
+			if (copy != null)
+				copy.writeBoolean (false);
+			return numTerms;
+		}
+		finally
+		{	counts = newMap();
+			deleteRuns();
+		}
+	}
+
+	/** Merges all the run files, summing counts for the same term */
+	private long merge (BufferedWriter wtr, DataOutput copy) throws IOException
+	{	PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size());
+		List<RunReader> readers = new ArrayList<>(runs.size());
+		long numTerms = 0;
+		try
+		{	for (Path run : runs)
+			{	RunReader rdr = new RunReader(run);
+				readers.add (rdr);
+				if (rdr.advance())
+					queue.add (rdr);
+			}
+
+			while (! queue.isEmpty())
+			{	RunReader rdr   = queue.poll();
+				String    term  = rdr.term;
+				long      total = rdr.count;
+				if (rdr.advance())
+					queue.add (rdr);
+
+				while (! queue.isEmpty() && queue.peek().term.equals(term))
+				{	rdr    = queue.poll();
+					total += rdr.count;
+					if (rdr.advance())
+						queue.add (rdr);
+				}
+
+				write (term, total, wtr, copy);
+				++numTerms;
+			}
+		}
+		finally
+		{	for (RunReader rdr : readers)
+				rdr.close();
+		}
+		return numTerms;
+	}
+
+	/** Deletes all the run files */
+	private void deleteRuns()
+	{	for (Path run : runs)
+		{	try
+			{	Files.deleteIfExists(run);
+			}
+			catch (IOException e)
+			{	LOG.warn ("Could not delete temporary file " + run + " : " + e.getMessage());
+			}
+		}
+		runs.clear();
+	}
+
+	/** Discards all counts and deletes any run files */
+	@Override
+	public void close()
+	{	counts = newMap();
+		deleteRuns();
+	}
+
+	/**
+	 * Creates a UTF-8 writer which, unlike {@link Files#newBufferedWriter(Path, java.nio.charset.Charset)},
+	 * substitutes unencodable characters, such as unpaired surrogates, rather than
+	 * throwing an exception.
+	 */
+	private static BufferedWriter newWriter (Path path) throws IOException
+	{	return new BufferedWriter (new OutputStreamWriter (Files.newOutputStream(path), Charsets.UTF_8), BUFFER_SIZE);
+	}
+
+	private static DataOutputStream newRunWriter (Path run) throws IOException
+	{	return new DataOutputStream (new BufferedOutputStream (Files.newOutputStream(run), BUFFER_SIZE));
+	}
+
+	/** Reads the terms and counts in a run file, one at a time */
+	private static final class RunReader implements Comparable<RunReader>, Closeable
+	{	private final DataInputStream in;
+		private       String          term;
+		private       long            count;
+
+		RunReader (Path run) throws IOException
+		{	in = new DataInputStream (new BufferedInputStream (Files.newInputStream(run), BUFFER_SIZE));
+		}
+
+		/** Reads the next term and count, returning false if there are none left */
+		boolean advance() throws IOException
+		{	try
+			{	term = in.readUTF();
+			}
+			catch (EOFException e)
+			{	return false;
+			}
+			count = in.readLong();
+			return true;
+		}
+
+		@Override
+		public int compareTo (RunReader that)
+		{	return this.term.compareTo(that.term);
+		}
+
+		@Override
+		public void close() throws IOException
+		{	in.close();
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package cc.twittertools.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts how often each term occurs in each fixed-length time bucket, e.g.
+ * each hour, over a sliding window of the most recent buckets, and finds
+ * the bursts in those counts.
+ * <p>
+ * Each term's counts are held in a ring buffer of int counts, one per
+ * bucket in the window. The window ends at the latest bucket seen so far,
+ * and slides forward as later times are added, so times may be added in
+ * any order, but only those within the window of the latest time are
+ * counted. Stale slots are cleared lazily, when a term is next updated.
+ * <p>
+ * To bound memory, once twice the maximum number of terms are being
+ * counted, those with the smallest total counts over the window are
+ * discarded until only the maximum remain. Counters with the same bucket
+ * length and window can be merged.
+ * <p>
+ * Bursts are found by running a streaming z-score detector over each
+ * term's counts in time order: the mean and variance of the counts are
+ * estimated with exponentially weighted moving averages, and a bucket is
+ * a burst if its count is more than the given number of standard deviations
+ * above the mean of the preceding buckets.
+ * <p>
+ * Not threadsafe.
+ */
+public final class TrendCounter
+{
+	/** A term's counts, and the latest bucket they're valid up to */
+	private final static class Series
+	{	private final int[] counts;
+		private long        lastBucket;
+
+		public Series (int windowBuckets, long lastBucket)
+		{	this.counts     = new int[windowBuckets];
+			this.lastBucket = lastBucket;
+		}
+	}
+
+	/** A bucket in which a term's count was unexpectedly high */
+	public final static class Burst
+	{	private final String term;
+		private final long   bucketStartMillis;
+		private final int    count;
+		private final double expected;
+		private final double zScore;
+
+		public Burst (String term, long bucketStartMillis, int count, double expected, double zScore)
+		{	this.term              = term;
+			this.bucketStartMillis = bucketStartMillis;
+			this.count             = count;
+			this.expected          = expected;
+			this.zScore            = zScore;
+		}
+
+		public String getTerm()
+		{	return term;
+		}
+
+		/** The start of the bucket, in milliseconds since the epoch */
+		public long getBucketStartMillis()
+		{	return bucketStartMillis;
+		}
+
+		public int getCount()
+		{	return count;
+		}
+
+		/** The moving average of the term's count in preceding buckets */
+		public double getExpected()
+		{	return expected;
+		}
+
+		/** How many standard deviations the count is above the expected count */
+		public double getZScore()
+		{	return zScore;
+		}
+	}
+
+	/** Orders bursts by time, and then by decreasing z-score */
+	public final static Comparator<Burst> BY_TIME = new Comparator<Burst>() {
+		@Override
+		public int compare (Burst left, Burst right)
+		{	int cmp = Long.compare (left.bucketStartMillis, right.bucketStartMillis);
+			return cmp != 0 ? cmp : Double.compare (right.zScore, left.zScore);
+		}
+	};
+
+	private final long   bucketMillis;
+	private final int    windowBuckets;
+	private final int    maxTerms;
+	private final Map<String, Series> series = new HashMap<>();
+	private long         lastBucket = Long.MIN_VALUE;
+
+	/**
+	 * Creates a new counter
+	 * @param bucketMillis the length of each bucket in milliseconds
+	 * @param windowBuckets how many of the most recent buckets to count
+	 * @param maxTerms the number of terms to keep when pruning
+	 */
+	public TrendCounter (long bucketMillis, int windowBuckets, int maxTerms)
+	{	if (bucketMillis <= 0 || windowBuckets <= 0 || maxTerms <= 0)
+			throw new IllegalArgumentException ("The bucket length, window and maximum number of terms must all be positive");
+		this.bucketMillis  = bucketMillis;
+		this.windowBuckets = windowBuckets;
+		this.maxTerms      = maxTerms;
+	}
+
+	/** Counts an occurrence of the given term at the given time, in milliseconds since the epoch */
+	public void add (String term, long timeMillis)
+	{	add (term, Math.floorDiv (timeMillis, bucketMillis), 1);
+	}
+
+	private void add (String term, long bucket, int count)
+	{	if (bucket > lastBucket)
+			lastBucket = bucket;
+		else if (bucket <= lastBucket - windowBuckets)
+			return; // too old
+
+		Series s = series.get(term);
+		if (s == null)
+		{	series.put (term, s = new Series (windowBuckets, bucket));
+			if (series.size() > 2 * maxTerms)
+				prune();
+		}
+		else if (bucket > s.lastBucket)
+		{	// Clear the slots of the buckets which have slid out of this term's window
+			for (long b = Math.max (s.lastBucket + 1, bucket - windowBuckets + 1); b <= bucket; b++)
+				s.counts[slot (b)] = 0;
+			s.lastBucket = bucket;
+		}
+		else if (bucket <= s.lastBucket - windowBuckets)
+		{	return; // older than this term's slots hold, and so older than the window
+		}
+		s.counts[slot (bucket)] += count;
+	}
+
+	private int slot (long bucket)
+	{	return (int) Math.floorMod (bucket, (long) windowBuckets);
+	}
+
+	/** The term's count in the given bucket, zero if it's not in the window */
+	private int count (Series s, long bucket)
+	{	return bucket > s.lastBucket || bucket <= s.lastBucket - windowBuckets || bucket <= lastBucket - windowBuckets
+			? 0
+			: s.counts[slot (bucket)];
+	}
+
+	/** The term's total count over the window */
+	private long total (Series s)
+	{	long total = 0;
+		for (long b = lastBucket - windowBuckets + 1; b <= lastBucket; b++)
+			total += count (s, b);
+		return total;
+	}
+
+	/** Discards the terms with the smallest counts over the window, until only the maximum number remain */
+	public void prune()
+	{	if (series.size() <= maxTerms)
+			return;
+
+		long[] totals = new long[series.size()];
+		int i = 0;
+		for (Series s : series.values())
+			totals[i++] = total (s);
+		Arrays.sort (totals);
+		long threshold = totals[totals.length - maxTerms];
+
+		// Ties at the threshold may leave a few more than the maximum
+		for (Iterator<Series> iter = series.values().iterator(); iter.hasNext(); )
+			if (total (iter.next()) < threshold)
+				iter.remove();
+	}
+
+	/** Adds the counts in the given counter to this one */
+	public void merge (TrendCounter that)
+	{	if (this.bucketMillis != that.bucketMillis || this.windowBuckets != that.windowBuckets)
+			throw new IllegalArgumentException ("Cannot merge counters with different bucket lengths or windows");
+		if (that.series.isEmpty())
+			return;
+
+		lastBucket = Math.max (lastBucket, that.lastBucket);
+		for (Map.Entry<String, Series> e : that.series.entrySet())
+			for (long b = lastBucket - windowBuckets + 1; b <= lastBucket; b++)
+			{	int count = that.count (e.getValue(), b);
+				if (count > 0)
+					add (e.getKey(), b, count);
+			}
+		prune();
+	}
+
+	/** The number of terms being counted */
+	public int size()
+	{	return series.size();
+	}
+
+	/** The start of the latest bucket in the window, in milliseconds since the epoch */
+	public long getLastBucketStartMillis()
+	{	return lastBucket * bucketMillis;
+	}
+
+	/**
+	 * Finds the bursts in every term's counts.
+	 * @param alpha the weight given to each new count by the moving averages
+	 * @param threshold how many standard deviations above the mean a count
+	 * must be to be a burst. The standard deviation is taken to be at least
+	 * one, so bursts in rare terms need a count of at least the threshold
+	 * @param minCount the smallest count which may be a burst
+	 * @param warmUpBuckets the number of buckets at the start of the window
+	 * used only to estimate the mean and variance, as earlier counts are
+	 * unknown
+	 * @return the bursts, ordered by time, and then by decreasing z-score
+	 */
+	public List<Burst> detect (double alpha, double threshold, int minCount, int warmUpBuckets)
+	{	List<Burst> bursts = new ArrayList<>();
+		if (series.isEmpty())
+			return bursts;
+
+		long firstBucket = lastBucket - windowBuckets + 1;
+		for (Map.Entry<String, Series> e : series.entrySet())
+		{	double mean = 0, var = 0;
+			for (long b = firstBucket; b <= lastBucket; b++)
+			{	int count = count (e.getValue(), b);
+				double sd = Math.max (1, Math.sqrt (var));
+				double z  = (count - mean) / sd;
+				if (b - firstBucket >= warmUpBuckets && count >= minCount && z >= threshold)
+					bursts.add (new Burst (e.getKey(), b * bucketMillis, count, mean, z));
+
+				double diff = count - mean;
+				mean += alpha * diff;
+				var   = (1 - alpha) * (var + alpha * diff * diff);
+			}
+		}
+
+		Collections.sort (bursts, BY_TIME);
+		return bursts;
+	}
+
+	/** Writes out this counter, including only the non-empty buckets in the window */
+	public void write (DataOutput out) throws IOException
+	{	out.writeLong (bucketMillis);
+		out.writeInt  (windowBuckets);
+		out.writeInt  (maxTerms);
+		out.writeLong (lastBucket);
+
+		out.writeInt (series.size());
+		for (Map.Entry<String, Series> e : series.entrySet())
+		{	out.writeUTF (e.getKey());
+			int nonZero = 0;
+			for (long b = lastBucket - windowBuckets + 1; b <= lastBucket; b++)
+				if (count (e.getValue(), b) > 0)
+					++nonZero;
+			out.writeInt (nonZero);
+			for (long b = lastBucket - windowBuckets + 1; b <= lastBucket; b++)
+			{	int count = count (e.getValue(), b);
+				if (count > 0)
+				{	out.writeInt ((int) (lastBucket - b));
+					out.writeInt (count);
+				}
+			}
+		}
+	}
+
+	/** Reads in a counter written by {@link #write(DataOutput)} */
+	public static TrendCounter read (DataInput in) throws IOException
+	{	TrendCounter counter = new TrendCounter (in.readLong(), in.readInt(), in.readInt());
+		long lastBucket = in.readLong();
+		counter.lastBucket = lastBucket;
+
+		for (int t = 0, numTerms = in.readInt(); t < numTerms; t++)
+		{	String term = in.readUTF();
+			Series s = new Series (counter.windowBuckets, lastBucket);
+			for (int i = 0, nonZero = in.readInt(); i < nonZero; i++)
+			{	long bucket = lastBucket - in.readInt();
+				s.counts[counter.slot (bucket)] = in.readInt();
+			}
+			counter.series.put (term, s);
+		}
+		return counter;
+	}
+}
@@ -29,9 +29,9 @@ import cc.twittertools.words.combiners.EmoticonCombiners;
 import cc.twittertools.words.combiners.MyPossessiveContractionTokenCombiner;
 import cc.twittertools.words.combiners.SlashTokenCombiner;
 import cc.twittertools.words.combiners.UrlCombiner;
-import cc.twittertools.words.dict.CompoundTokenDictionary;
 import cc.twittertools.words.dict.Dictionary;
 import cc.twittertools.words.dict.ExcessUnmappableTokens;
+import cc.twittertools.words.dict.FlatTokenDictionary;
 import cc.twittertools.words.dict.TokenDictionary;
 
 import com.google.common.base.Function;
@@ -80,11 +80,11 @@ public class Vectorizer {
 	}
 	
 	public Vectorizer(Map<TokenType, Dictionary> dicts) {
-		CompoundTokenDictionary compound = new CompoundTokenDictionary(TokenType.TOKEN);
+		FlatTokenDictionary flat = new FlatTokenDictionary(TokenType.TOKEN);
 		for (Map.Entry<TokenType, Dictionary> entry : dicts.entrySet())
-			compound.addDictionary(entry.getKey(), entry.getValue());
+			flat.addDictionary(entry.getKey(), entry.getValue());
 		
-		this.dict = compound;
+		this.dict = flat;
 		twitterTokenIter = createTokenizer("");
 	}
 	
@@ -194,7 +194,23 @@ public class CompoundTokenDictionary implements TokenDictionary
 	}
 
 	/**
-	 * Given a string, returns the same string, with the first character in 
+	 * Writes out every sub-dictionary into a single string blob, padding each
+	 * out to its capacity so that the offsets array can be indexed directly by
+	 * the IDs returned from {@link #toInt(TokenType, String)}. The ID range of
+	 * each token type is written to the JSON sidecar.
+	 */
+	@Override
+	public void writeAsNumpyArrays (Path directory, String name) throws IOException
+	{	NumpyDictionaryWriter npy = new NumpyDictionaryWriter();
+		for (int tokenId = 1; tokenId <= numDicts; tokenId++)
+		{	npy.addRange (tokens[tokenId], npy.nextId(), dicts[tokenId].size(), dicts[tokenId].capacity());
+			npy.addAll (dicts[tokenId], /* padToCapacity = */ true);
+		}
+		npy.write (directory, name, size(), capacity());
+	}
+
+	/**
+	 * Given a string, returns the same string, with the first character in
 	 * upper-case, and all subsequent characters in lower-case.
 	 * @param string
 	 * @return
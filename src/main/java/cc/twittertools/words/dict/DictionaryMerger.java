@@ -0,0 +1,228 @@
+package cc.twittertools.words.dict;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.Charsets;
+
+import cc.twittertools.util.NpyFiles;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Merges several dictionaries, as written out by
+ * {@link Dictionary#writeAsNumpyArrays(Path, String)}, into a single dictionary,
+ * and generates for each input a table mapping its word IDs to the IDs in the
+ * merged dictionary. Those tables can then be used to remap the columns of
+ * matrices created with the input dictionaries, avoiding the need to
+ * re-tokenize the corpus.
+ * <p>
+ * Words are matched by both their token type and their text. The merged
+ * dictionary lists token types in the order in which they're first
+ * encountered, and within each token type lists first the words of the first
+ * input which used that type, in their original order, followed by words
+ * from subsequent inputs in the order they're encountered. Each token type
+ * is given the greater of the largest capacity of any input and the number
+ * of words merged. Consequently, if the first input's token types are a
+ * superset of everyone else's, and its capacities are large enough, its IDs
+ * are unchanged.
+ * <p>
+ * Dictionaries which were not written with token types, e.g. a
+ * {@link LookupDictionary}, are treated as having a single, unnamed, type.
+ */
+public class DictionaryMerger
+{
+	/** The type name used for dictionaries without token types */
+	private static final String UNTYPED = "";
+
+	/** Used in remap tables for IDs that had no word in the input dictionary */
+	public static final int NO_WORD = -1;
+
+	private final List<String>                         typeNames  = new ArrayList<>();
+	private final Map<String, Integer>                 typeIds    = new HashMap<>();
+	private final List<Object2IntMap<String>>          typeLookup = new ArrayList<>();
+	private final List<List<String>>                   typeWords  = new ArrayList<>();
+	private final List<int[]>                          typeCaps   = new ArrayList<>();
+
+	// For every input, and every ID, the type and local ID in the merged dict
+	private final List<int[]> inputTypes    = new ArrayList<>();
+	private final List<int[]> inputLocalIds = new ArrayList<>();
+
+	/**
+	 * Reads in the dictionary with the given name in the given directory, and
+	 * merges its words in. Returns the index of this input, to be used with
+	 * {@link #remapTable(int)}
+	 */
+	public int add (Path directory, String name) throws IOException
+	{	byte[] strings = NpyFiles.readBytes(directory.resolve(name + NumpyDictionaryWriter.STRINGS_SUFFIX));
+		long[] offsets = NpyFiles.readLongs(directory.resolve(name + NumpyDictionaryWriter.OFFSETS_SUFFIX));
+
+		JsonObject meta;
+		try (BufferedReader rdr = Files.newBufferedReader(directory.resolve(name + NumpyDictionaryWriter.RANGES_SUFFIX), Charsets.UTF_8))
+		{	meta = new JsonParser().parse(rdr).getAsJsonObject();
+		}
+
+		int size     = meta.get("size").getAsInt();
+		int capacity = meta.get("capacity").getAsInt();
+		int numIds   = Math.max (capacity, offsets.length - 1);
+
+		int[] types    = new int[numIds];
+		int[] localIds = new int[numIds];
+		Arrays.fill (types,    NO_WORD);
+		Arrays.fill (localIds, NO_WORD);
+
+		JsonArray ranges = meta.getAsJsonArray("ranges");
+		if (ranges == null || ranges.size() == 0)
+			addRange (UNTYPED, 0, size, capacity, strings, offsets, types, localIds);
+		else
+			for (JsonElement elem : ranges)
+			{	JsonObject range = elem.getAsJsonObject();
+				addRange (
+					range.get("type").getAsString(),
+					range.get("start").getAsInt(),
+					range.get("size").getAsInt(),
+					range.get("capacity").getAsInt(),
+					strings, offsets, types, localIds);
+			}
+
+		inputTypes.add    (types);
+		inputLocalIds.add (localIds);
+		return inputTypes.size() - 1;
+	}
+
+	/**
+	 * Merges in the words with IDs <tt>[start, start + size)</tt> of the given
+	 * type, recording their type and local IDs in the merged dictionary
+	 */
+	private void addRange (String typeName, int start, int size, int capacity, byte[] strings, long[] offsets, int[] types, int[] localIds) throws IOException
+	{	if (start + size > offsets.length - 1)
+			throw new IOException ("The range of token type " + typeName + " exceeds the number of words in the dictionary");
+
+		int type = typeId (typeName);
+		Object2IntMap<String> lookup = typeLookup.get(type);
+		List<String>          words  = typeWords.get(type);
+		int[]                 cap    = typeCaps.get(type);
+		cap[0] = Math.max (cap[0], capacity);
+
+		for (int wordId = start; wordId < start + size; wordId++)
+		{	String word = new String (strings, (int) offsets[wordId], (int) (offsets[wordId + 1] - offsets[wordId]), Charsets.UTF_8);
+			int localId = lookup.getInt(word);
+			if (localId == NO_WORD)
+			{	localId = words.size();
+				lookup.put (word, localId);
+				words.add  (word);
+			}
+			types[wordId]    = type;
+			localIds[wordId] = localId;
+		}
+	}
+
+	/** Returns the index of the given token type, adding it if necessary */
+	private int typeId (String typeName)
+	{	Integer type = typeIds.get(typeName);
+		if (type != null)
+			return type.intValue();
+
+		Object2IntMap<String> lookup = new Object2IntOpenHashMap<>();
+		lookup.defaultReturnValue(NO_WORD);
+
+		typeIds.put    (typeName, typeNames.size());
+		typeNames.add  (typeName);
+		typeLookup.add (lookup);
+		typeWords.add  (new ArrayList<String>());
+		typeCaps.add   (new int[1]);
+
+		return typeNames.size() - 1;
+	}
+
+	/** Is this just a single dictionary of untyped words */
+	private boolean isUntyped()
+	{	return typeNames.size() == 1 && typeNames.get(0).equals(UNTYPED);
+	}
+
+	/** The number of inputs merged so far */
+	public int numInputs()
+	{	return inputTypes.size();
+	}
+
+	/** The number of words in the merged dictionary */
+	public int size()
+	{	int size = 0;
+		for (List<String> words : typeWords)
+			size += words.size();
+		return size;
+	}
+
+	/** The total capacity of the merged dictionary */
+	public int capacity()
+	{	int capacity = 0;
+		for (int type = 0; type < typeNames.size(); type++)
+			capacity += capacity(type);
+		return capacity;
+	}
+
+	private int capacity (int type)
+	{	return Math.max (typeCaps.get(type)[0], typeWords.get(type).size());
+	}
+
+	/** The first global ID of each token type in the merged dictionary */
+	private int[] typeBases()
+	{	int[] bases = new int[typeNames.size()];
+		for (int type = 1; type < bases.length; type++)
+			bases[type] = bases[type - 1] + capacity(type - 1);
+		return bases;
+	}
+
+	/**
+	 * Returns a table mapping the IDs of the given input to IDs in the merged
+	 * dictionary. IDs with no word in the input are mapped to {@link #NO_WORD}.
+	 * This is only valid once all inputs have been added.
+	 */
+	public int[] remapTable (int input)
+	{	int[] bases    = typeBases();
+		int[] types    = inputTypes.get(input);
+		int[] localIds = inputLocalIds.get(input);
+
+		int[] remap = new int[types.length];
+		for (int wordId = 0; wordId < remap.length; wordId++)
+			remap[wordId] = types[wordId] == NO_WORD
+				? NO_WORD
+				: bases[types[wordId]] + localIds[wordId];
+		return remap;
+	}
+
+	/**
+	 * Writes out the merged dictionary in the same format as
+	 * {@link Dictionary#writeAsNumpyArrays(Path, String)}
+	 */
+	public void write (Path directory, String name) throws IOException
+	{	NumpyDictionaryWriter npy = new NumpyDictionaryWriter();
+		if (isUntyped())
+		{	for (String word : typeWords.get(0))
+				npy.add (word);
+		}
+		else
+		{	for (int type = 0; type < typeNames.size(); type++)
+			{	List<String> words = typeWords.get(type);
+				npy.addRange (typeNames.get(type), npy.nextId(), words.size(), capacity(type));
+				for (String word : words)
+					npy.add (word);
+				npy.addBlanks (capacity(type) - words.size());
+			}
+		}
+		npy.write (directory, name, size(), capacity());
+	}
+}
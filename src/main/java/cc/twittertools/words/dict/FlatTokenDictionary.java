@@ -0,0 +1,461 @@
+package cc.twittertools.words.dict;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.twitter.common.text.token.attribute.TokenType;
+
+/**
+ * A non-threadsafe dictionary mapping pairs of token and word to IDs, which
+ * can be used in place of a {@link CompoundTokenDictionary} and assigns the
+ * same IDs. Rather than delegating to a {@link Dictionary} per token type,
+ * all words of all token types are stored in a single open-addressing hash
+ * table, keyed on the token type and the word, so a lookup is a single probe
+ * sequence with no boxing and no virtual calls.
+ * <p>
+ * Dictionaries are added with {@link #addDictionary(TokenType, Dictionary)},
+ * and are absorbed according to their type:
+ * <ul>
+ * <li>The words of a {@link LookupDictionary} are copied in, and as with the
+ *     original, new words may be added until the capacity is reached or the
+ *     dictionary is sealed. If the original was already sealed, so is its
+ *     copy.
+ * <li>A {@link SigilStrippingDictionary} becomes a normalization rule,
+ *     stripping the sigil, before looking up the word in the same table as
+ *     the wrapped dictionary.
+ * <li>If the same dictionary is added for several token types, all share
+ *     the same words and local IDs, but, as with {@link CompoundTokenDictionary},
+ *     each type has its own range of IDs.
+ * <li>{@link NullDictionary} and {@link NullTokenDictionary} return
+ *     {@link #UNMAPPABLE_WORD} and {@link #IGNORABLE_WORD} respectively.
+ * <li>Any other dictionary, such as a {@link FrontCodedDictionary}, is
+ *     retained and delegated to.
+ * </ul>
+ * If no token is specified, we use the default {@link TokenType} specified
+ * in the constructor.
+ */
+public class FlatTokenDictionary implements TokenDictionary
+{
+	/** How each token type is mapped to IDs */
+	private static final byte LOOKUP     = 0;
+	private static final byte UNMAPPABLE = 1;
+	private static final byte IGNORABLE  = 2;
+	private static final byte DELEGATE   = 3;
+
+	private static final int MAX_INITIAL_CAPACITY = 10000;
+	private static final int MAX_TYPES            = TokenType.values().length;
+	private static final char NO_SIGIL            = '\0';
+
+	private final TokenType defaultToken;
+
+	// Token types are assigned "slots" in the order they're added, and IDs
+	// are assigned to slots in that order. This maps a type's ordinal to its
+	// slot, or -1 if it has none
+	private final int[] slotOfType = new int[MAX_TYPES];
+	private       int   numSlots   = 0;
+
+	// Per-slot information. The owner is the slot whose words are used: itself,
+	// or an earlier slot sharing the same dictionary.
+	private final TokenType[]  types      = new TokenType[MAX_TYPES];
+	private final byte[]       kinds      = new byte[MAX_TYPES];
+	private final int[]        owners     = new int[MAX_TYPES];
+	private final char[]       sigils     = new char[MAX_TYPES];
+	private final int[]        bases      = new int[MAX_TYPES + 1];
+	private final int[]        capacities = new int[MAX_TYPES];
+	private final int[]        sizes      = new int[MAX_TYPES];
+	private final boolean[]    slotSealed = new boolean[MAX_TYPES];
+	private final String[][]   words      = new String[MAX_TYPES][];
+	private final Dictionary[] delegates  = new Dictionary[MAX_TYPES];
+	private final Dictionary[] sources    = new Dictionary[MAX_TYPES];
+
+	// The hash-table of owner slots and words to local IDs, with linear probing
+	private String[] keys;
+	private byte[]   keySlots;
+	private int[]    keyIds;
+	private int      numKeys = 0;
+
+	private boolean sealed = false;
+
+	public FlatTokenDictionary(TokenType defaultToken)
+	{	this.defaultToken = defaultToken;
+		Arrays.fill (slotOfType, -1);
+		allocateTable (16);
+	}
+
+	protected FlatTokenDictionary(FlatTokenDictionary that)
+	{	this.defaultToken = that.defaultToken;
+		this.numSlots     = that.numSlots;
+		this.sealed       = that.sealed;
+		this.numKeys      = that.numKeys;
+
+		System.arraycopy (that.slotOfType, 0, this.slotOfType, 0, MAX_TYPES);
+		System.arraycopy (that.types,      0, this.types,      0, MAX_TYPES);
+		System.arraycopy (that.kinds,      0, this.kinds,      0, MAX_TYPES);
+		System.arraycopy (that.owners,     0, this.owners,     0, MAX_TYPES);
+		System.arraycopy (that.sigils,     0, this.sigils,     0, MAX_TYPES);
+		System.arraycopy (that.bases,      0, this.bases,      0, MAX_TYPES + 1);
+		System.arraycopy (that.capacities, 0, this.capacities, 0, MAX_TYPES);
+		System.arraycopy (that.sizes,      0, this.sizes,      0, MAX_TYPES);
+		System.arraycopy (that.slotSealed, 0, this.slotSealed, 0, MAX_TYPES);
+		System.arraycopy (that.sources,    0, this.sources,    0, MAX_TYPES);
+
+		for (int slot = 0; slot < numSlots; slot++)
+		{	if (that.words[slot] != null)
+				this.words[slot] = that.words[slot].clone();
+			if (that.delegates[slot] != null)
+				this.delegates[slot] = that.delegates[slot].clone();
+		}
+
+		this.keys     = that.keys.clone();
+		this.keySlots = that.keySlots.clone();
+		this.keyIds   = that.keyIds.clone();
+	}
+
+	/**
+	 * Adds a dictionary for the given token type, which is assigned the range
+	 * of IDs following those of all previously added dictionaries.
+	 */
+	public void addDictionary (TokenType tokenType, Dictionary dictionary)
+	{	if (slotOfType[tokenType.ordinal()] >= 0)
+			throw new IllegalArgumentException ("A dictionary has already been defined for token " + tokenType);
+
+		int slot = numSlots++;
+		slotOfType[tokenType.ordinal()] = slot;
+		types[slot]   = tokenType;
+		sources[slot] = dictionary;
+		owners[slot]  = slot;
+		sigils[slot]  = NO_SIGIL;
+
+		if (dictionary instanceof SigilStrippingDictionary)
+		{	sigils[slot] = ((SigilStrippingDictionary) dictionary).getSigil();
+			dictionary   = ((SigilStrippingDictionary) dictionary).getDictionary();
+		}
+
+		// If this dictionary has been added before, share its words
+		for (int prev = 0; prev < slot; prev++)
+			if (sources[prev] == dictionary
+				|| (sources[prev] instanceof SigilStrippingDictionary
+					&& ((SigilStrippingDictionary) sources[prev]).getDictionary() == dictionary))
+			{	owners[slot] = owners[prev];
+				break;
+			}
+
+		if (dictionary instanceof NullDictionary)
+			kinds[slot] = UNMAPPABLE;
+		else if (dictionary instanceof NullTokenDictionary)
+			kinds[slot] = IGNORABLE;
+		else if (owners[slot] != slot)
+			kinds[slot] = kinds[owners[slot]];
+		else if (dictionary instanceof LookupDictionary)
+		{	kinds[slot]      = LOOKUP;
+			slotSealed[slot] = ((LookupDictionary) dictionary).isSealed();
+			copyWords (slot, dictionary);
+		}
+		else
+		{	kinds[slot]     = DELEGATE;
+			delegates[slot] = dictionary;
+		}
+
+		capacities[slot] = owners[slot] == slot ? dictionary.capacity() : capacities[owners[slot]];
+		bases[slot + 1]  = bases[slot] + capacities[slot];
+	}
+
+	/** Copies all the words from the given dictionary into the given slot */
+	private void copyWords (int slot, Dictionary dictionary)
+	{	int size = dictionary.size();
+		words[slot] = new String[Math.max (size, Math.min (MAX_INITIAL_CAPACITY, dictionary.capacity()))];
+		ensureTableCapacity (numKeys + words[slot].length);
+
+		for (int localId = 0; localId < size; localId++)
+			add (slot, dictionary.toWord(localId));
+	}
+
+	@Override
+	public int toInt (String word)
+	{	return toInt (defaultToken, word);
+	}
+
+	@Override
+	public int toInt (TokenType tokenType, String word)
+	{	int slot = slot(tokenType);
+		switch (kinds[slot])
+		{	case LOOKUP:
+			{	if (sigils[slot] != NO_SIGIL && word.length() > 0 && word.charAt(0) == sigils[slot])
+					word = word.substring(1);
+				if (StringUtils.isBlank(word))
+					return UNMAPPABLE_WORD;
+
+				int owner = owners[slot];
+				int pos   = find (owner, word);
+				if (pos >= 0)
+					return bases[slot] + keyIds[pos];
+				if (sealed || slotSealed[owner] || sizes[owner] >= capacities[owner])
+					return UNMAPPABLE_WORD;
+
+				return bases[slot] + add (owner, word);
+			}
+			case DELEGATE:
+			{	if (sigils[slot] != NO_SIGIL && word.length() > 0 && word.charAt(0) == sigils[slot])
+					word = word.substring(1);
+				int wordId = delegates[owners[slot]].toInt(word);
+				return wordId < 0 ? wordId : bases[slot] + wordId;
+			}
+			case IGNORABLE:
+				return IGNORABLE_WORD;
+			default:
+				return UNMAPPABLE_WORD;
+		}
+	}
+
+	@Override
+	public String toWord (int wordId)
+	{	return toWordToken(wordId).getValue();
+	}
+
+	@Override
+	public Pair<TokenType, String> toWordToken (int wordId)
+	{	if (wordId < 0 || wordId >= bases[numSlots])
+			throw new IllegalArgumentException ("Word ID must be in the range [0.." + (bases[numSlots] - 1) + "]");
+
+		// Find the last slot whose range starts at or before this ID. Empty
+		// slots share their base with the next slot, so skip over them.
+		int lo = 0, hi = numSlots - 1;
+		while (lo < hi)
+		{	int mid = (lo + hi + 1) >>> 1;
+			if (bases[mid] <= wordId)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		int slot = lo;
+		while (capacities[slot] == 0)
+			--slot;
+
+		int localId = wordId - bases[slot];
+		int owner   = owners[slot];
+		if (kinds[slot] == DELEGATE)
+			return Pair.of (types[slot], delegates[owner].toWord(localId));
+
+		if (localId >= sizes[owner])
+			throw new IllegalArgumentException ("No word has been assigned to the ID " + wordId);
+		return Pair.of (types[slot], words[owner][localId]);
+	}
+
+	/**
+	 * Dictionaries and their capacity are stored in arrays. This maps a
+	 * {@link TokenType} to an index into those arrays. It throws a
+	 * sensible exception if the given token type can't be found in the
+	 * array.
+	 */
+	private int slot (TokenType tokenType)
+	{	int slot = tokenType == null ? -1 : slotOfType[tokenType.ordinal()];
+		if (slot < 0)
+			throw new IllegalArgumentException ("No dictionary defined for token " + tokenType);
+		return slot;
+	}
+
+	/**
+	 * Returns the position in the hash-table of the given owner-slot and word,
+	 * or, if absent, the one's complement of the empty position where it
+	 * should be inserted.
+	 */
+	private int find (int owner, String word)
+	{	int mask = keys.length - 1;
+		int pos  = hash (owner, word) & mask;
+
+		String key;
+		while ((key = keys[pos]) != null)
+		{	if (keySlots[pos] == owner && key.equals(word))
+				return pos;
+			pos = (pos + 1) & mask;
+		}
+		return ~pos;
+	}
+
+	/** Adds a word not already in the table, returning its local ID */
+	private int add (int owner, String word)
+	{	if ((numKeys + 1) * 4 > keys.length * 3)
+			ensureTableCapacity (numKeys + 1);
+
+		int pos = find (owner, word);
+		if (pos >= 0)
+			return keyIds[pos]; // duplicate in the source dictionary
+		pos = ~pos;
+
+		int localId = sizes[owner]++;
+		if (localId >= words[owner].length)
+			words[owner] = Arrays.copyOf (words[owner], Math.max (localId + 1, Math.min (capacities[owner], words[owner].length * 2)));
+		words[owner][localId] = word;
+
+		keys[pos]     = word;
+		keySlots[pos] = (byte) owner;
+		keyIds[pos]   = localId;
+		++numKeys;
+
+		return localId;
+	}
+
+	/** Combines the word's hash-code and slot, then spreads the bits */
+	private static int hash (int owner, String word)
+	{	int h = word.hashCode() * 31 + owner;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	/** Grows the hash-table, if necessary, so it can hold the given number of keys */
+	private void ensureTableCapacity (int numKeys)
+	{	int required = Integer.highestOneBit (Math.max (16, numKeys * 4 / 3 + 1) - 1) << 1;
+		if (keys != null && keys.length >= required)
+			return;
+
+		String[] oldKeys  = keys;
+		byte[]   oldSlots = keySlots;
+		int[]    oldIds   = keyIds;
+		allocateTable (required);
+
+		if (oldKeys != null)
+			for (int i = 0; i < oldKeys.length; i++)
+				if (oldKeys[i] != null)
+				{	int pos = ~find (oldSlots[i], oldKeys[i]);
+					keys[pos]     = oldKeys[i];
+					keySlots[pos] = oldSlots[i];
+					keyIds[pos]   = oldIds[i];
+				}
+	}
+
+	private void allocateTable (int size)
+	{	keys     = new String[size];
+		keySlots = new byte[size];
+		keyIds   = new int[size];
+	}
+
+	@Override
+	public void seal()
+	{	sealed = true;
+		for (int slot = 0; slot < numSlots; slot++)
+			if (delegates[slot] != null)
+				delegates[slot].seal();
+	}
+
+	@Override
+	public int size()
+	{	int size = 0;
+		for (int slot = 0; slot < numSlots; slot++)
+			size += size (slot);
+		return size;
+	}
+
+	@Override
+	public int size (TokenType tokenType)
+	{	return size (slot(tokenType));
+	}
+
+	private int size (int slot)
+	{	int owner = owners[slot];
+		return kinds[slot] == DELEGATE ? delegates[owner].size() : sizes[owner];
+	}
+
+	@Override
+	public int capacity()
+	{	return bases[numSlots];
+	}
+
+	@Override
+	public int capacity (TokenType tokenType)
+	{	return capacities[slot(tokenType)];
+	}
+
+	@Override
+	public FlatTokenDictionary clone()
+	{	return new FlatTokenDictionary(this);
+	}
+
+	@Override
+	public void writeAsPythonList (String pyVarName, BufferedWriter writer) throws IOException
+	{	String[] dictNames = new String[numSlots];
+		for (int slot = 0; slot < numSlots; slot++)
+			dictNames[slot] = pyVarName + CompoundTokenDictionary.ucFirst(types[slot].toString());
+
+		for (int slot = 0; slot < numSlots; slot++)
+		{	int owner = owners[slot];
+			if (owner != slot)
+				writer.write (dictNames[slot] + " = " + dictNames[owner] + '\n');
+			else if (kinds[slot] == DELEGATE)
+				delegates[slot].writeAsPythonList (dictNames[slot], writer);
+			else if (sizes[slot] == 0)
+				writer.write (dictNames[slot] + " = [ ]\n");
+			else
+			{	writer.write (dictNames[slot] + "_len = " + sizes[slot] + '\n');
+				writer.write (dictNames[slot] + " = [ \\\n");
+				for (int localId = 0; localId < sizes[slot]; localId++)
+					writer.write ("\t\"" + StringEscapeUtils.escapeJava(words[slot][localId]) + "\", \\\n");
+				writer.write ("\t]\n\n");
+			}
+		}
+
+		// Write out the list of dictionaries
+		writer.write ("\n" + pyVarName + " = [ ");
+		for (int slot = 0; slot < numSlots; slot++)
+			writer.write (dictNames[slot] + ", ");
+		writer.write("]\n\n");
+		writer.flush();
+	}
+
+	/**
+	 * Writes out the words of every token type into a single string blob,
+	 * padding each out to its capacity so that the offsets array can be indexed
+	 * directly by the IDs returned from {@link #toInt(TokenType, String)}.
+	 * The ID range of each token type is written to the JSON sidecar.
+	 */
+	@Override
+	public void writeAsNumpyArrays (Path directory, String name) throws IOException
+	{	NumpyDictionaryWriter npy = new NumpyDictionaryWriter();
+		for (int slot = 0; slot < numSlots; slot++)
+		{	int owner = owners[slot];
+			npy.addRange (types[slot], npy.nextId(), size(slot), capacities[slot]);
+			if (kinds[slot] == DELEGATE)
+				npy.addAll (delegates[owner], /* padToCapacity = */ true);
+			else
+			{	for (int localId = 0; localId < sizes[owner]; localId++)
+					npy.add (words[owner][localId]);
+				npy.addBlanks (capacities[slot] - sizes[owner]);
+			}
+		}
+		npy.write (directory, name, size(), capacity());
+	}
+
+	@Override
+	public void writeDelimited (Path path, Charset charset) throws IOException
+	{	try (BufferedWriter wtr = Files.newBufferedWriter(path, charset);)
+		{	writeDelimited (wtr, null);
+		}
+	}
+
+	/**
+	 * Writes out every word as its token type, the word, and its ID within
+	 * the token type, as {@link CompoundTokenDictionary} does.
+	 */
+	@Override
+	public void writeDelimited (BufferedWriter wtr, String prefix) throws IOException
+	{	for (int slot = 0; slot < numSlots; slot++)
+		{	String tokPrefix = prefix == null ? String.valueOf(types[slot]) : prefix + '\t' + types[slot].toString();
+			int    owner     = owners[slot];
+
+			if (kinds[slot] == DELEGATE)
+				delegates[owner].writeDelimited (wtr, tokPrefix);
+			else
+				for (int localId = 0; localId < sizes[owner]; localId++)
+					wtr.write (tokPrefix + '\t' + words[owner][localId] + '\t' + localId + '\n');
+		}
+	}
+}
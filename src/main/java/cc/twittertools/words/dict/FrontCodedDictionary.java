@@ -0,0 +1,374 @@
+package cc.twittertools.words.dict;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.mutable.MutableInt;
+
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * A sealed, read-only dictionary which stores its words in sorted order,
+ * front-coded in blocks of {@link #BLOCK_SIZE}. The first word in each block
+ * is stored in full, every subsequent word is stored as the length of the
+ * prefix it shares with its predecessor, followed by the remaining suffix.
+ * A word's ID is its position in the sorted order.
+ * <p>
+ * This is intended for very large vocabularies with long shared prefixes,
+ * such as URLs and usernames, which take up a great deal of heap when
+ * stored in a {@link LookupDictionary}. Lookups are a binary search over
+ * the first word of each block followed by a linear scan within the block,
+ * so they're slower than a hash-lookup, but typically this dictionary takes
+ * a small fraction of the memory.
+ * <p>
+ * As it's immutable, this dictionary is thread-safe, and {@link #clone()}
+ * simply returns the same instance. Words are decoded into a scratch buffer
+ * kept for each thread, so lookups don't allocate.
+ */
+public final class FrontCodedDictionary extends AbstractDictionary
+{
+	/** The number of words in each front-coded block */
+	public static final int BLOCK_SIZE = 16;
+
+	private static final Comparator<byte[]> UNSIGNED_LEXICOGRAPHIC =
+		UnsignedBytes.lexicographicalComparator();
+
+	/** The front-coded words, with variable-length integers for lengths */
+	private final byte[] data;
+
+	/** The offset in {@link #data} of the first word of each block */
+	private final int[]  blockOffsets;
+
+	/** The length in bytes of the longest word, used to size scratch buffers */
+	private final int    maxWordLength;
+
+	/** A buffer for decoding words, and the last variable-length int read */
+	private static final class Scratch
+	{	private final byte[] word;
+		private       int    varInt;
+
+		Scratch (int maxWordLength)
+		{	word = new byte[maxWordLength];
+		}
+	}
+
+	private final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue()
+		{	return new Scratch (maxWordLength);
+		}
+	};
+
+	private FrontCodedDictionary (byte[][] sortedWords)
+	{	super (sortedWords.length);
+
+		int numBlocks = (sortedWords.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int[] blockOffsets = new int[numBlocks];
+
+		byte[] data     = new byte[1024];
+		int    numBytes = 0;
+		int    maxLen   = 0;
+
+		byte[] prev = null;
+		for (int wordId = 0; wordId < sortedWords.length; wordId++)
+		{	byte[] word = sortedWords[wordId];
+			maxLen = Math.max (maxLen, word.length);
+
+			int prefix = 0;
+			if (wordId % BLOCK_SIZE == 0)
+				blockOffsets[wordId / BLOCK_SIZE] = numBytes;
+			else
+				prefix = sharedPrefixLength (prev, word);
+
+			// Two variable-length ints of at most five bytes each, plus the suffix
+			int required = numBytes + 10 + word.length - prefix;
+			if (required > data.length)
+				data = Arrays.copyOf (data, Math.max (data.length * 2, required));
+
+			if (wordId % BLOCK_SIZE != 0)
+				numBytes = writeVarInt (data, numBytes, prefix);
+			numBytes = writeVarInt (data, numBytes, word.length - prefix);
+			System.arraycopy (word, prefix, data, numBytes, word.length - prefix);
+			numBytes += word.length - prefix;
+
+			prev = word;
+		}
+
+		this.data          = Arrays.copyOf (data, numBytes);
+		this.blockOffsets  = blockOffsets;
+		this.maxWordLength = maxLen;
+	}
+
+	/**
+	 * Creates a new dictionary containing the given words. Duplicates are
+	 * ignored, as are blank words.
+	 */
+	public static FrontCodedDictionary fromWords (Collection<String> words)
+	{	List<byte[]> utf8Words = new ArrayList<>(words.size());
+		for (String word : words)
+			if (! StringUtils.isBlank(word))
+				utf8Words.add (word.getBytes(Charsets.UTF_8));
+
+		byte[][] sortedWords = utf8Words.toArray(new byte[utf8Words.size()][]);
+		utf8Words = null;
+		Arrays.sort (sortedWords, UNSIGNED_LEXICOGRAPHIC);
+
+		// Strip out duplicates
+		int numUnique = 0;
+		for (int i = 0; i < sortedWords.length; i++)
+			if (numUnique == 0 || ! Arrays.equals (sortedWords[numUnique - 1], sortedWords[i]))
+				sortedWords[numUnique++] = sortedWords[i];
+
+		return new FrontCodedDictionary (Arrays.copyOf (sortedWords, numUnique));
+	}
+
+	/**
+	 * Load a dictionary from a file. The last two columns of a file should
+	 * be a word and a frequency count respectively, as with
+	 * {@link LookupDictionary#fromFile(Path, int)}. All words whose summed
+	 * frequency is greater than or equal to the limit are included.
+	 */
+	public static FrontCodedDictionary fromFile (Path file, int minOccurrenceCount) throws IOException
+	{	Map<String, MutableInt> wordFreqs = LookupDictionary.readWordFrequencies(file);
+
+		List<String> words = new ArrayList<>(wordFreqs.size());
+		for (Map.Entry<String, MutableInt> entry : wordFreqs.entrySet())
+			if (entry.getValue().intValue() >= minOccurrenceCount)
+				words.add (entry.getKey());
+		wordFreqs = null;
+
+		FrontCodedDictionary dict = fromWords (words);
+		words = null;
+		System.gc();
+
+		return dict;
+	}
+
+	@Override
+	public int toInt (String word)
+	{	if (StringUtils.isBlank(word))
+			return UNMAPPABLE_WORD;
+
+		byte[] key = word.getBytes(Charsets.UTF_8);
+		if (key.length > maxWordLength)
+			return UNMAPPABLE_WORD;
+
+		// Find the last block whose first word is less than or equal to the key
+		Scratch scratch = scratches.get();
+		byte[]  buf     = scratch.word;
+		int lo = 0, hi = blockOffsets.length - 1, block = -1;
+		while (lo <= hi)
+		{	int mid = (lo + hi) >>> 1;
+			int cmp = compareFirstWord (mid, key, scratch);
+			if (cmp == 0)
+				return mid * BLOCK_SIZE;
+			else if (cmp < 0)
+			{	block = mid;
+				lo    = mid + 1;
+			}
+			else
+				hi = mid - 1;
+		}
+		if (block < 0)
+			return UNMAPPABLE_WORD;
+
+		// Scan the remainder of the block, stopping once we've passed the key
+		int pos     = blockOffsets[block];
+		int lastId  = Math.min (capacity, (block + 1) * BLOCK_SIZE);
+
+		pos = readVarInt (data, pos, scratch);
+		int len = scratch.varInt;
+		System.arraycopy (data, pos, buf, 0, len);
+		pos += len;
+
+		for (int wordId = block * BLOCK_SIZE + 1; wordId < lastId; wordId++)
+		{	pos = readVarInt (data, pos, scratch);
+			int prefix = scratch.varInt;
+			pos = readVarInt (data, pos, scratch);
+			int suffix = scratch.varInt;
+
+			len = prefix + suffix;
+			if (len > buf.length)
+				return UNMAPPABLE_WORD; // can't happen, words are at most maxWordLength
+			System.arraycopy (data, pos, buf, prefix, suffix);
+			pos += suffix;
+
+			int cmp = compare (buf, len, key);
+			if (cmp == 0)
+				return wordId;
+			else if (cmp > 0)
+				break;
+		}
+		return UNMAPPABLE_WORD;
+	}
+
+	@Override
+	public String toWord (int wordId)
+	{	if (wordId < 0 || wordId >= capacity) throw new IllegalArgumentException ("Word ID must be in the range [0.." + (capacity - 1) + "]");
+
+		Scratch scratch = scratches.get();
+		byte[]  buf     = scratch.word;
+		int     block   = wordId / BLOCK_SIZE;
+		int     pos     = blockOffsets[block];
+
+		pos = readVarInt (data, pos, scratch);
+		int len = scratch.varInt;
+		System.arraycopy (data, pos, buf, 0, len);
+		pos += len;
+
+		for (int i = block * BLOCK_SIZE + 1; i <= wordId; i++)
+		{	pos = readVarInt (data, pos, scratch);
+			int prefix = scratch.varInt;
+			pos = readVarInt (data, pos, scratch);
+			int suffix = scratch.varInt;
+
+			System.arraycopy (data, pos, buf, prefix, suffix);
+			pos += suffix;
+			len  = prefix + suffix;
+		}
+
+		return new String (buf, 0, len, Charsets.UTF_8);
+	}
+
+	/**
+	 * Compares the first word of the given block to the given key, returning
+	 * a negative number, zero or a positive number if the word is less than,
+	 * equal to, or greater than the key.
+	 */
+	private int compareFirstWord (int block, byte[] key, Scratch scratch)
+	{	int pos = readVarInt (data, blockOffsets[block], scratch);
+		int len = scratch.varInt;
+		System.arraycopy (data, pos, scratch.word, 0, len);
+		return compare (scratch.word, len, key);
+	}
+
+	/**
+	 * Compares the first <tt>len</tt> bytes of <tt>word</tt> to the given key
+	 * treating bytes as unsigned, which is consistent with the ordering of
+	 * code-points in UTF-8 strings.
+	 */
+	private static int compare (byte[] word, int len, byte[] key)
+	{	int minLen = Math.min (len, key.length);
+		for (int i = 0; i < minLen; i++)
+		{	int cmp = (word[i] & 0xFF) - (key[i] & 0xFF);
+			if (cmp != 0)
+				return cmp;
+		}
+		return len - key.length;
+	}
+
+	private static int sharedPrefixLength (byte[] left, byte[] right)
+	{	int minLen = Math.min (left.length, right.length);
+		int i = 0;
+		while (i < minLen && left[i] == right[i])
+			++i;
+		return i;
+	}
+
+	/**
+	 * Writes a non-negative int as a sequence of seven-bit groups, least
+	 * significant first, with the high bit set on all but the last byte.
+	 * Returns the position after the last byte written.
+	 */
+	private static int writeVarInt (byte[] buf, int pos, int value)
+	{	while ((value & ~0x7F) != 0)
+		{	buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * Reads an int written by {@link #writeVarInt(byte[], int, int)} into
+	 * the scratch's <tt>varInt</tt>, returning the position after the last
+	 * byte read
+	 */
+	private static int readVarInt (byte[] buf, int pos, Scratch result)
+	{	int value = 0;
+		int shift = 0;
+		byte b;
+		do
+		{	b = buf[pos++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while ((b & 0x80) != 0);
+
+		result.varInt = value;
+		return pos;
+	}
+
+	/** A no-op, this dictionary is always sealed */
+	@Override
+	public void seal()
+	{
+	}
+
+	@Override
+	public int size()
+	{	return capacity;
+	}
+
+	/** The number of bytes used to store the words themselves */
+	public int byteSize()
+	{	return data.length + blockOffsets.length * Integer.BYTES;
+	}
+
+	@Override
+	public void writeAsPythonList (String pyVarName, BufferedWriter writer) throws IOException
+	{	int size = size();
+		if (size == 0)
+		{	writer.write (pyVarName + " = [ ]\n");
+			return;
+		}
+
+		writer.write (pyVarName + "_len = " + size + '\n');
+		writer.write (pyVarName + " = [ \\\n");
+		for (int wordId = 0; wordId < size; wordId++)
+			writer.write ("\t\"" + StringEscapeUtils.escapeJava(toWord(wordId)) + "\", \\\n");
+		writer.write ("\t]\n\n");
+		writer.flush();
+	}
+
+	@Override
+	public void writeAsNumpyArrays (Path directory, String name) throws IOException
+	{	NumpyDictionaryWriter npy = new NumpyDictionaryWriter();
+		npy.addAll (this, /* padToCapacity = */ false);
+		npy.write (directory, name, size(), capacity);
+	}
+
+	/** This dictionary is immutable, so there's no need to copy it */
+	@Override
+	public FrontCodedDictionary clone()
+	{	return this;
+	}
+
+	@Override
+	public void writeDelimited (Path path, Charset charset) throws IOException
+	{	try (BufferedWriter wtr = Files.newBufferedWriter(path, charset);)
+		{	writeDelimited(wtr, null);
+		}
+	}
+
+	@Override
+	public void writeDelimited (BufferedWriter wtr, String prefix) throws IOException
+	{	for (int wordId = 0; wordId < capacity; wordId++)
+			if (prefix == null)
+				wtr.write(toWord(wordId) + '\t' + wordId + '\n');
+			else
+				wtr.write(prefix + '\t' + toWord(wordId) + '\t' + wordId + '\n');
+	}
+}
@@ -67,6 +67,31 @@ public class LookupDictionary extends AbstractDictionary
 	 * the limit are taken to create a sealed dictionary
 	 */
 	public static LookupDictionary fromFile (Path file, int minOccurrenceCount) throws IOException
+	{	Map<String, MutableInt> wordFreqs = readWordFrequencies(file);
+		
+		int dictSize = 0;
+		for (MutableInt freq : wordFreqs.values())
+			if (freq.intValue() >= minOccurrenceCount)
+				++dictSize;
+		
+		LookupDictionary dict = new LookupDictionary(dictSize);
+		for (Map.Entry<String, MutableInt> entry : wordFreqs.entrySet())
+			if (entry.getValue().intValue() >= minOccurrenceCount)
+				dict.toInt(entry.getKey());
+		
+		dict.seal();
+		wordFreqs = null;
+		System.gc();
+		
+		return dict;
+	}
+	
+	/**
+	 * Reads in a file whose last two columns are a word and a frequency count
+	 * respectively, summing the counts of words which occur several times. 
+	 * Used by {@link #fromFile(Path, int)} and {@link FrontCodedDictionary#fromFile(Path, int)}
+	 */
+	/* pkg */ static Map<String, MutableInt> readWordFrequencies (Path file) throws IOException
 	{	Map<String, MutableInt> wordFreqs = new HashMap<>(4_000_000);
 		String line = null;
 		int lineCount = 0;
@@ -113,21 +138,7 @@ public class LookupDictionary extends AbstractDictionary
 		{	throw new IOException ("Failed to parse file at line " + lineCount + ". Line was '" + line + "'. Error was " + e.getMessage(), e);
 		}
 		
-		int dictSize = 0;
-		for (MutableInt freq : wordFreqs.values())
-			if (freq.intValue() >= minOccurrenceCount)
-				++dictSize;
-		
-		LookupDictionary dict = new LookupDictionary(dictSize);
-		for (Map.Entry<String, MutableInt> entry : wordFreqs.entrySet())
-			if (entry.getValue().intValue() >= minOccurrenceCount)
-				dict.toInt(entry.getKey());
-		
-		dict.seal();
-		wordFreqs = null;
-		System.gc();
-		
-		return dict;
+		return wordFreqs;
 	}
 
 	@Override
@@ -157,6 +168,11 @@ public class LookupDictionary extends AbstractDictionary
 	{	this.sealed = true;
 	}
 
+	/** Returns true if this dictionary has been sealed, see {@link #seal()} */
+	public boolean isSealed()
+	{	return sealed;
+	}
+
 	/**
 	 * Returns true if we can add more words to the dictionary, false otherwise.
 	 * Cases where we can't add more words are if the dictionary has been
@@ -206,6 +222,13 @@ public class LookupDictionary extends AbstractDictionary
 		writer.flush();
 	}
 	
+	@Override
+	public void writeAsNumpyArrays (Path directory, String name) throws IOException
+	{	NumpyDictionaryWriter npy = new NumpyDictionaryWriter();
+		npy.addAll (this, /* padToCapacity = */ false);
+		npy.write (directory, name, size(), capacity);
+	}
+	
 	@Override
 	public LookupDictionary clone()
 	{	return new LookupDictionary (this);
@@ -63,6 +63,11 @@ public class NullDictionary implements TokenDictionary
 	{	writer.write (pyVarName + " = []\n\n");
 	}
 	
+	@Override
+	public void writeAsNumpyArrays (Path directory, String name) throws IOException
+	{	new NumpyDictionaryWriter().write(directory, name, 0, 0);
+	}
+	
 	@Override
 	public NullDictionary clone()
 	{	return this;
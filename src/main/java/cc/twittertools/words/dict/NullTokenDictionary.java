@@ -68,6 +68,11 @@ public class NullTokenDictionary implements TokenDictionary {
 		return 0;
 	}
 	
+	@Override
+	public void writeAsNumpyArrays(Path directory, String name) throws IOException {
+		new NumpyDictionaryWriter().write(directory, name, 0, 0);
+	}
+
 	@Override
 	public NullTokenDictionary clone() {
 		return this; // this is a threadsafe, stateless singleton class.
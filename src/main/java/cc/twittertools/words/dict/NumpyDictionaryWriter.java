@@ -0,0 +1,121 @@
+package cc.twittertools.words.dict;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.apache.commons.io.Charsets;
+
+import cc.twittertools.util.NpyFiles;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.twitter.common.text.token.attribute.TokenType;
+
+/**
+ * Accumulates the words of one or more dictionaries, in ID order, into a
+ * single blob of UTF-8 bytes with an array of offsets, and writes them out
+ * as numpy arrays. This is the implementation behind
+ * {@link Dictionary#writeAsNumpyArrays(Path, String)}. Three files are written
+ * <ul>
+ * <li><tt>name-strings.npy</tt> the UTF-8 bytes of every word concatenated
+ * <li><tt>name-offsets.npy</tt> 64-bit offsets such that word <tt>i</tt> is
+ *     <tt>strings[offsets[i]:offsets[i+1]]</tt>. IDs with no word are empty.
+ * <li><tt>name.json</tt> the size and capacity of the dictionary, and the
+ *     range of IDs assigned to each {@link TokenType}, if any
+ * </ul>
+ */
+/* pkg */ final class NumpyDictionaryWriter
+{
+	public static final String STRINGS_SUFFIX = "-strings.npy";
+	public static final String OFFSETS_SUFFIX = "-offsets.npy";
+	public static final String RANGES_SUFFIX  = ".json";
+
+	private static final int INITIAL_BYTES = 1 << 20;
+
+	private       byte[]        bytes    = new byte[INITIAL_BYTES];
+	private       int           numBytes = 0;
+	private final LongArrayList offsets  = new LongArrayList();
+	private final JsonArray     ranges   = new JsonArray();
+
+	/* pkg */ NumpyDictionaryWriter()
+	{	offsets.add (0L);
+	}
+
+	/** The ID that will be assigned to the next word added */
+	public int nextId()
+	{	return offsets.size() - 1;
+	}
+
+	/** Appends the given word, assigning it the next available ID */
+	public void add (String word)
+	{	byte[] wordBytes = word.getBytes(Charsets.UTF_8);
+		if (numBytes + wordBytes.length > bytes.length)
+			bytes = Arrays.copyOf(bytes, Math.max (bytes.length * 2, numBytes + wordBytes.length));
+
+		System.arraycopy(wordBytes, 0, bytes, numBytes, wordBytes.length);
+		numBytes += wordBytes.length;
+		offsets.add (numBytes);
+	}
+
+	/** Appends the given number of empty strings, for IDs that map to no word */
+	public void addBlanks (int count)
+	{	for (int i = 0; i < count; i++)
+			offsets.add (numBytes);
+	}
+
+	/**
+	 * Appends every word in the given dictionary, in ID order, then pads with
+	 * blanks up to the dictionary's capacity if <tt>padToCapacity</tt> is set.
+	 */
+	public void addAll (Dictionary dict, boolean padToCapacity)
+	{	int size = dict.size();
+		for (int wordId = 0; wordId < size; wordId++)
+			add (dict.toWord(wordId));
+
+		if (padToCapacity)
+			addBlanks (dict.capacity() - size);
+	}
+
+	/**
+	 * Records that the IDs <tt>[start, start + capacity)</tt> are assigned
+	 * to the given token type, of which the first <tt>size</tt> are used.
+	 */
+	public void addRange (TokenType tokenType, int start, int size, int capacity)
+	{	addRange (tokenType.toString(), start, size, capacity);
+	}
+
+	/**
+	 * Records that the IDs <tt>[start, start + capacity)</tt> are assigned
+	 * to the token type with the given name, of which the first <tt>size</tt>
+	 * are used.
+	 */
+	public void addRange (String tokenTypeName, int start, int size, int capacity)
+	{	JsonObject range = new JsonObject();
+		range.addProperty("type",     tokenTypeName);
+		range.addProperty("start",    start);
+		range.addProperty("size",     size);
+		range.addProperty("capacity", capacity);
+		ranges.add (range);
+	}
+
+	/** Writes out the strings, offsets and ranges files to the given directory */
+	public void write (Path directory, String name, int size, int capacity) throws IOException
+	{	NpyFiles.writeBytes (directory.resolve(name + STRINGS_SUFFIX), bytes, numBytes);
+		NpyFiles.writeLongs (directory.resolve(name + OFFSETS_SUFFIX), offsets.elements(), offsets.size());
+
+		JsonObject meta = new JsonObject();
+		meta.addProperty("size",     size);
+		meta.addProperty("capacity", capacity);
+		meta.add ("ranges", ranges);
+
+		try (BufferedWriter wtr = Files.newBufferedWriter(directory.resolve(name + RANGES_SUFFIX), Charsets.UTF_8))
+		{	wtr.write (meta.toString());
+			wtr.write ('\n');
+		}
+	}
+}
@@ -0,0 +1,298 @@
+package cc.twittertools.words.dict;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
+
+/**
+ * A dictionary backed by a file, in which words keep the same IDs from one
+ * run to the next. The file has one line per word, in ID order, with the
+ * word and the total number of times it has been observed, separated by a
+ * tab. Consequently it can also be read by {@link LookupDictionary#fromFile(Path, int)}
+ * though that won't preserve the IDs.
+ * <p>
+ * New words are only ever appended, via {@link #add(String, long)}, and
+ * are given IDs after all existing words. Words are only ever removed by
+ * an explicit call to {@link #compact(long)}, which renumbers the remaining
+ * words and returns a table mapping old IDs to new ones, so that existing
+ * encoded data can be remapped.
+ * <p>
+ * When used as a {@link Dictionary}, {@link #toInt(String)} never adds words,
+ * and returns {@link #UNMAPPABLE_WORD} for words seen fewer than
+ * {@link #getMinCount()} times, though such words still occupy their IDs.
+ */
+public class PersistentDictionary implements Dictionary
+{
+	/** The suffix used for dictionary store files */
+	public static final String FILE_SUFFIX = ".pdict";
+
+	/** Used in the table returned by {@link #compact(long)} for removed words */
+	public static final int REMOVED_WORD = -1;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final Path file;
+
+	private final Object2IntMap<String> ids;
+	private       String[]              words;
+	private       long[]                counts;
+	private       int                   size     = 0;
+	private       long                  minCount = 0;
+
+	private PersistentDictionary (Path file, int capacity)
+	{	this.file   = file;
+		this.ids    = new Object2IntOpenHashMap<>(capacity);
+		this.words  = new String[capacity];
+		this.counts = new long[capacity];
+		ids.defaultReturnValue(UNMAPPABLE_WORD);
+	}
+
+	/** Create a copy of the given dictionary */
+	protected PersistentDictionary (PersistentDictionary that)
+	{	this.file     = that.file;
+		this.ids      = new Object2IntOpenHashMap<>(that.ids);
+		this.words    = Arrays.copyOf (that.words,  Math.max (INITIAL_CAPACITY, that.size));
+		this.counts   = Arrays.copyOf (that.counts, Math.max (INITIAL_CAPACITY, that.size));
+		this.size     = that.size;
+		this.minCount = that.minCount;
+		ids.defaultReturnValue(UNMAPPABLE_WORD);
+	}
+
+	/**
+	 * Opens the dictionary stored in the given file. If the file does not
+	 * exist, an empty dictionary is returned, which will be written to that
+	 * file when {@link #save()} is called.
+	 */
+	public static PersistentDictionary open (Path file) throws IOException
+	{	PersistentDictionary dict = new PersistentDictionary(file, INITIAL_CAPACITY);
+		if (! Files.exists(file))
+			return dict;
+
+		String line = null;
+		int lineCount = 0;
+		try (BufferedReader rdr = Files.newBufferedReader(file, Charsets.UTF_8); )
+		{	while ((line = rdr.readLine()) != null)
+			{	++lineCount;
+				int tab = line.lastIndexOf('\t');
+				if (tab < 0)
+					throw new IOException ("No tab-separated count");
+
+				String word = line.substring(0, tab);
+				if (dict.ids.containsKey(word))
+					throw new IOException ("The word " + word + " occurs more than once");
+				dict.append (word, Long.parseLong (line.substring(tab + 1)));
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{	throw new IOException ("Failed to parse dictionary " + file + " at line " + lineCount + ". Line was '" + line + "'. Error was " + e.getMessage(), e);
+		}
+
+		return dict;
+	}
+
+	/**
+	 * Adds the given number of observations of the given word, appending it
+	 * to the dictionary if it's not already present. Returns the word's ID.
+	 */
+	public int add (String word, long count)
+	{	if (StringUtils.isBlank(word) || word.indexOf('\t') >= 0 || word.indexOf('\n') >= 0 || word.indexOf('\r') >= 0)
+			throw new IllegalArgumentException ("Words cannot be blank or contain tabs or newlines: '" + StringEscapeUtils.escapeJava(word) + "'");
+
+		int id = ids.getInt(word);
+		if (id == UNMAPPABLE_WORD)
+			id = append (word, count);
+		else
+			counts[id] += count;
+		return id;
+	}
+
+	private int append (String word, long count)
+	{	if (size == words.length)
+		{	words  = Arrays.copyOf (words,  size * 2);
+			counts = Arrays.copyOf (counts, size * 2);
+		}
+		words[size]  = word;
+		counts[size] = count;
+		ids.put (word, size);
+		return size++;
+	}
+
+	/** Is the given word in the dictionary, whatever its count */
+	public boolean contains (String word)
+	{	return ids.containsKey(word);
+	}
+
+	/** The number of times the word with the given ID has been observed */
+	public long count (int wordId)
+	{	checkWordId (wordId);
+		return counts[wordId];
+	}
+
+	/**
+	 * Removes all words observed fewer than the given number of times, and
+	 * renumbers the remaining words, preserving their order. Returns a table
+	 * mapping every old ID to its new one, or {@link #REMOVED_WORD}. The changes
+	 * are not written out until {@link #save()} is called.
+	 */
+	public int[] compact (long minCount)
+	{	int[] remap   = new int[size];
+		int   newSize = 0;
+		for (int oldId = 0; oldId < size; oldId++)
+		{	if (counts[oldId] < minCount)
+			{	ids.removeInt (words[oldId]);
+				remap[oldId] = REMOVED_WORD;
+			}
+			else
+			{	words[newSize]  = words[oldId];
+				counts[newSize] = counts[oldId];
+				ids.put (words[newSize], newSize);
+				remap[oldId] = newSize++;
+			}
+		}
+		Arrays.fill (words, newSize, size, null);
+		size = newSize;
+
+		return remap;
+	}
+
+	/**
+	 * Writes the dictionary out to its file. The new contents are written to
+	 * a temporary file which then replaces the original, so the store is never
+	 * left half-written.
+	 */
+	public void save() throws IOException
+	{	Files.move (saveToTemporaryFile(), file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Writes the dictionary out to its temporary file, see {@link #temporaryFileFor(Path)},
+	 * without replacing the store. This lets callers replace the store only
+	 * once other files which must change with it have been written too.
+	 * @return the temporary file
+	 */
+	public Path saveToTemporaryFile() throws IOException
+	{	Path tmp = temporaryFileFor(file);
+		try (BufferedWriter wtr = Files.newBufferedWriter(tmp, Charsets.UTF_8))
+		{	for (int id = 0; id < size; id++)
+			{	wtr.write (words[id]);
+				wtr.write ('\t');
+				wtr.write (Long.toString (counts[id]));
+				wtr.write ('\n');
+			}
+		}
+		return tmp;
+	}
+
+	/** The temporary file to which the dictionary in the given store is written before replacing it */
+	public static Path temporaryFileFor (Path file)
+	{	return file.resolveSibling(file.getFileName() + ".tmp");
+	}
+
+	/** The file this dictionary is stored in */
+	public Path getFile()
+	{	return file;
+	}
+
+	public long getMinCount()
+	{	return minCount;
+	}
+
+	/**
+	 * Words observed fewer than this many times are not mapped by {@link #toInt(String)}
+	 * but still keep their IDs, so that IDs are the same whatever the minimum count.
+	 */
+	public void setMinCount (long minCount)
+	{	this.minCount = minCount;
+	}
+
+	@Override
+	public int toInt (String word)
+	{	if (StringUtils.isBlank(word))
+			return UNMAPPABLE_WORD;
+		int id = ids.getInt(word);
+		return id == UNMAPPABLE_WORD || counts[id] < minCount
+			? UNMAPPABLE_WORD
+			: id;
+	}
+
+	@Override
+	public String toWord (int wordId)
+	{	checkWordId (wordId);
+		return words[wordId];
+	}
+
+	private void checkWordId (int wordId)
+	{	if (wordId < 0 || wordId >= size) throw new IllegalArgumentException ("Word ID must be in the range [0.." + (size - 1) + "]");
+	}
+
+	/** A no-op: words are only added by {@link #add(String, long)}, never by {@link #toInt(String)} */
+	@Override
+	public void seal()
+	{
+	}
+
+	@Override
+	public int size()
+	{	return size;
+	}
+
+	@Override
+	public int capacity()
+	{	return size;
+	}
+
+	@Override
+	public void writeAsPythonList (String pyVarName, BufferedWriter writer) throws IOException
+	{	if (size == 0)
+		{	writer.write (pyVarName + " = [ ]\n");
+			return;
+		}
+
+		writer.write (pyVarName + "_len = " + size + '\n');
+		writer.write (pyVarName + " = [ \\\n");
+		for (int wordId = 0; wordId < size; wordId++)
+			writer.write ("\t\"" + StringEscapeUtils.escapeJava(words[wordId]) + "\", \\\n");
+		writer.write ("\t]\n\n");
+		writer.flush();
+	}
+
+	@Override
+	public void writeAsNumpyArrays (Path directory, String name) throws IOException
+	{	NumpyDictionaryWriter npy = new NumpyDictionaryWriter();
+		npy.addAll (this, /* padToCapacity = */ false);
+		npy.write (directory, name, size, size);
+	}
+
+	@Override
+	public PersistentDictionary clone()
+	{	return new PersistentDictionary (this);
+	}
+
+	@Override
+	public void writeDelimited (Path path, Charset charset) throws IOException
+	{	try (BufferedWriter wtr = Files.newBufferedWriter(path, charset);)
+		{	writeDelimited(wtr, null);
+		}
+	}
+
+	@Override
+	public void writeDelimited (BufferedWriter wtr, String prefix) throws IOException
+	{	for (int wordId = 0; wordId < size; wordId++)
+			if (prefix == null)
+				wtr.write(words[wordId] + '\t' + wordId + '\n');
+			else
+				wtr.write(prefix + '\t' + words[wordId] + '\t' + wordId + '\n');
+	}
+}
@@ -52,6 +52,11 @@ public class SigilStrippingDictionary implements Dictionary
 	{	dict.writeAsPythonList(pyVarName, writer);
 	}
 
+	@Override
+	public void writeAsNumpyArrays (Path directory, String name) throws IOException
+	{	dict.writeAsNumpyArrays(directory, name);
+	}
+
 	@Override
 	public SigilStrippingDictionary clone()
 	{	return new SigilStrippingDictionary(sigil, dict);
@@ -61,6 +66,10 @@ public class SigilStrippingDictionary implements Dictionary
 	{	return dict;
 	}
 	
+	public char getSigil()
+	{	return sigil;
+	}
+	
 	@Override
 	public void writeDelimited(Path path, Charset charset) throws IOException
 	{	dict.writeDelimited(path, charset);
@@ -0,0 +1,152 @@
+package cc.twittertools.post;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+public class BlockGzipStreamTest
+{
+  private Path   dir;
+  private Path   file;
+  private byte[] text;
+
+  /** Writes several blocks' worth of lines, some compressible and some not */
+  @Before
+  public void setUp() throws IOException
+  { dir  = Files.createTempDirectory("bgzf");
+    file = dir.resolve("alice.1");
+
+    Random        rng = new Random(0xb92f);
+    StringBuilder sb  = new StringBuilder();
+    for (int line = 0; line < 8000; line++)
+    { sb.append ("Line ").append (line).append ('\t');
+      for (int i = rng.nextInt(40); i > 0; i--)
+        sb.append ((char) (line % 3 == 0 ? 'a' + rng.nextInt(26) : 0x4e00 + rng.nextInt(500)));
+      sb.append ('\n');
+    }
+    text = sb.toString().getBytes(Charsets.UTF_8);
+
+    try (OutputStream out = new BlockGzipOutputStream (Files.newOutputStream(file)))
+    { out.write (text, 0, 1000);
+      for (int i = 1000; i < 3000; i++)
+        out.write (text[i]);
+      out.write (text, 3000, text.length - 3000);
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException
+  { Files.deleteIfExists (TweetFileIndex.indexPathFor (file));
+    Files.deleteIfExists (file);
+    Files.deleteIfExists (dir);
+  }
+
+  @Test
+  public void testReadsAsBlocksAndAsGzip() throws IOException
+  { assertTrue (text.length > 3 * BlockGzipOutputStream.MAX_DATA_SIZE);
+
+    try (InputStream in = new GZIPInputStream (Files.newInputStream(file)))
+    { assertArrayEquals (text, ByteStreams.toByteArray(in));
+    }
+    for (int blocksAhead : new int[] { 1, 3, BlockGzipInputStream.DEFAULT_BLOCKS_AHEAD })
+      try (InputStream in = new BlockGzipInputStream (Files.newByteChannel(file), null, blocksAhead))
+      { assertArrayEquals (text, ByteStreams.toByteArray(in));
+      }
+
+    Path plainFile = Files.write (dir.resolve ("plain"), text);
+    try (SeekableByteChannel plain   = Files.newByteChannel(plainFile);
+         SeekableByteChannel blocked = Files.newByteChannel(file))
+    { assertFalse (BlockGzipInputStream.isBlockGzipped (plain));
+      assertTrue  (BlockGzipInputStream.isBlockGzipped (blocked));
+      assertEquals (0, blocked.position());
+    }
+    Files.delete (plainFile);
+  }
+
+  @Test
+  public void testReadsRanges() throws IOException
+  { int block = BlockGzipOutputStream.MAX_DATA_SIZE;
+    long[][] rangeSets = {
+      { },
+      { 0, text.length },
+      { 10, 20, 30, 40 },                              // two ranges in one block
+      { block - 5, block + 5 },                        // across a block boundary
+      { 100, 200, 2 * block + 7, 3 * block + 100 },    // skipping a whole block
+      { text.length - 50, text.length + 50 }           // running off the end
+    };
+
+    for (long[] ranges : rangeSets)
+    { ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      for (int r = 0; r < ranges.length; r += 2)
+        expected.write (text, (int) ranges[r], (int) (Math.min (ranges[r + 1], text.length) - ranges[r]));
+
+      try (InputStream in = new BlockGzipInputStream (Files.newByteChannel(file), ranges, 2))
+      { assertArrayEquals (Arrays.toString (ranges), expected.toByteArray(), ByteStreams.toByteArray(in));
+      }
+    }
+  }
+
+  @Test
+  public void testIndexedTweetsFile() throws IOException
+  { DateTime    start  = new DateTime (2014, 1, 1, 12, 0, DateTimeZone.UTC);
+    List<Tweet> tweets = new ArrayList<>();
+    for (int hour = 0; hour < 24 * 90; hour++)
+    { DateTime utc = start.plusHours(hour);
+      tweets.add (new Tweet (440_000_000_000_000_000L + hour, "alice", "Tweet number " + hour + " of many #tag", utc, utc));
+    }
+    Collections.reverse (tweets);
+
+    TweetFileIndex.Builder builder = new TweetFileIndex.Builder();
+    try (BufferedWriter wtr = new BufferedWriter (new OutputStreamWriter (new BlockGzipOutputStream (Files.newOutputStream(file)), Charsets.UTF_8)))
+    { for (Tweet tweet : tweets)
+      { String line = Tweet.WRITER.asTabDelimStr (tweet);
+        wtr.write (line);
+        wtr.write ('\n');
+        builder.add (tweet, TweetFileIndex.utf8Length (line) + 1);
+      }
+    }
+    builder.build().writeFor (file);
+
+    TweetFileIndex index = TweetFileIndex.readFor (file);
+    assertEquals (Files.size (file), index.getFileBytes());
+    assertEquals (Files.size (file), TweetFileIndex.build (file).getFileBytes());
+    assertEquals (tweets.size(), TweetFileIndex.build (file).getTweetCount());
+
+    DateTime from  = new DateTime (2014, 2, 1, 0, 0, DateTimeZone.UTC);
+    DateTime until = new DateTime (2014, 3, 1, 0, 0, DateTimeZone.UTC);
+    List<Tweet> read = new ArrayList<>();
+    try (SavedTweetReader rdr = new SavedTweetReader (Collections.singleton(file).iterator(), true, from, until))
+    { while (rdr.hasNext())
+        read.add (rdr.next());
+    }
+
+    List<Tweet> expected = new ArrayList<>();
+    for (Tweet tweet : tweets)
+      if (tweet.getLocalTime().getMonthOfYear() == 2)
+        expected.add (tweet);
+    assertEquals (expected, read);
+  }
+}
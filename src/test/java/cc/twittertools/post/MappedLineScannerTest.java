@@ -0,0 +1,111 @@
+package cc.twittertools.post;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedLineScannerTest
+{
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException
+  { file = Files.createTempFile ("mapped", ".txt");
+  }
+
+  @After
+  public void tearDown() throws IOException
+  { Files.deleteIfExists (file);
+  }
+
+  private static List<String> lines (MappedLineScanner scanner) throws IOException
+  { List<String> lines = new ArrayList<>();
+    while (scanner.next())
+      lines.add (scanner.line());
+    return lines;
+  }
+
+  @Test
+  public void testLinesAcrossWindows() throws IOException
+  { List<String> expected = new ArrayList<>();
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 50; i++)
+    { String line = "line " + i + " é中" + (i % 3 == 0 ? "" : "\ttab");
+      expected.add (line);
+      text.append (line).append (i % 7 == 0 ? "\r\n" : "\n");
+    }
+    expected.add ("");
+    expected.add ("no newline");
+    text.append ("\nno newline");
+    Files.write (file, text.toString().getBytes (StandardCharsets.UTF_8));
+
+    try (MappedLineScanner scanner = new MappedLineScanner (file, null, 32))
+    { assertEquals (expected, lines (scanner));
+    }
+
+    try (MappedLineScanner scanner = new MappedLineScanner (file, null, 8))
+    { scanner.next();
+      fail ("Read a line longer than the window");
+    }
+    catch (IOException e)
+    { // expected
+    }
+  }
+
+  @Test
+  public void testRangesReadOnlyTheirLines() throws IOException
+  { List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 100; i++)
+      lines.add ("Line number " + i);
+    Files.write (file, lines, StandardCharsets.UTF_8);
+
+    // The offsets of the starts of lines 10, 20, 50 and 60
+    long[] offsets = new long[101];
+    for (int i = 0; i < 100; i++)
+      offsets[i + 1] = offsets[i] + lines.get(i).length() + 1;
+    long[] ranges = new long[] { offsets[10], offsets[20], offsets[50], offsets[60] };
+
+    List<String> expected = new ArrayList<>(lines.subList (10, 20));
+    expected.addAll (lines.subList (50, 60));
+    try (MappedLineScanner scanner = new MappedLineScanner (file, ranges, 64))
+    { assertEquals (expected, lines (scanner));
+    }
+
+    // Empty ranges, and ranges past the end of the file, have no lines
+    ranges = new long[] { 0, 0, offsets[99], offsets[100] + 1000 };
+    try (MappedLineScanner scanner = new MappedLineScanner (file, ranges))
+    { assertEquals (Arrays.asList ("Line number 99"), lines (scanner));
+    }
+  }
+
+  @Test
+  public void testLineReaderParity() throws IOException
+  { Files.write (file, new byte[] { 'o', 'k', '\n', 'x', (byte) 0xC3, '\n' }); // a truncated two-byte sequence
+
+    try (LineReader rdr = new LineReader (Collections.singleton(file).iterator(), null, true))
+    { assertTrue   (rdr.hasNext());
+      assertEquals ("ok", rdr.next());
+      assertTrue   (rdr.hasNext());
+      try
+      { rdr.next();
+        fail ("Decoded invalid UTF-8");
+      }
+      catch (RuntimeException e)
+      { assertTrue (e.getCause() instanceof CharacterCodingException);
+      }
+      assertFalse  (rdr.hasNext());
+    }
+  }
+}
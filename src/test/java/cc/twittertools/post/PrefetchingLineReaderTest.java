@@ -0,0 +1,96 @@
+package cc.twittertools.post;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class PrefetchingLineReaderTest
+{
+  private final static int FILE_COUNT = 5;
+  private final static int LINES_PER_FILE = 1000;
+
+  private Path       dir;
+  private List<Path> files;
+
+  /** Writes out a mix of plain and gzipped files */
+  @Before
+  public void setUp() throws IOException
+  { dir   = Files.createTempDirectory("prefetch");
+    files = new ArrayList<>();
+    for (int f = 0; f < FILE_COUNT; f++)
+    { Path file = dir.resolve("file-" + f + (f % 2 == 0 ? ".json.gz" : ".json"));
+      try (OutputStream out = f % 2 == 0 ? new GZIPOutputStream(Files.newOutputStream(file)) : Files.newOutputStream(file);
+           Writer       wtr = new OutputStreamWriter(out, Charsets.UTF_8))
+      { for (int l = 0; l < LINES_PER_FILE; l++)
+          wtr.write ("Line " + l + " of file " + f + " é中\n");
+      }
+      files.add (file);
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException
+  { for (Path file : files)
+      Files.deleteIfExists(file);
+    Files.deleteIfExists(dir);
+  }
+
+  @Test
+  public void testMatchesLineReader() throws IOException
+  { List<String> expected = new ArrayList<>();
+    List<Path>   expectedFiles = new ArrayList<>();
+    try (LineReader rdr = new LineReader (files.iterator()))
+    { while (rdr.hasNext())
+      { expected.add (rdr.next());
+        expectedFiles.add (rdr.getCurrentFile());
+      }
+    }
+    assertEquals (FILE_COUNT * LINES_PER_FILE, expected.size());
+
+    // Small batches and a short queue, so the reader has to wait on the consumer
+    try (PrefetchingLineReader rdr = new PrefetchingLineReader (files.iterator(), 7, 2))
+    { for (int i = 0; i < expected.size(); i++)
+      { assertTrue (rdr.hasNext());
+        assertEquals (expected.get(i), rdr.next());
+        assertEquals (expectedFiles.get(i), rdr.getCurrentFile());
+      }
+      assertFalse (rdr.hasNext());
+    }
+  }
+
+  @Test
+  public void testSkipRestOfFile() throws IOException
+  { try (PrefetchingLineReader rdr = new PrefetchingLineReader (files.iterator(), 64, 4))
+    { int count = 0;
+      while (rdr.hasNext())
+      { String line = rdr.next();
+        ++count;
+        if (line.startsWith ("Line 9 "))
+          rdr.skipRestOfFile();
+      }
+      assertEquals (FILE_COUNT * 10, count);
+    }
+  }
+
+  @Test
+  public void testCloseBeforeEnd() throws IOException
+  { try (PrefetchingLineReader rdr = new PrefetchingLineReader (files.iterator(), 16, 1))
+    { assertTrue (rdr.hasNext());
+      assertEquals ("Line 0 of file 0 é中", rdr.next());
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package cc.twittertools.post;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import cc.twittertools.post.embed.Retweet;
+import cc.twittertools.post.embed.WebExcerpt;
+
+public class TweetBatchTest
+{
+  private final static DateTime UTC = new DateTime (2014, 3, 1, 4, 0, 9, DateTimeZone.UTC);
+
+  private final static Retweet NESTED = new Retweet (
+    440000000000000001L, "erin", "Nested RT @frank", Optional.<WebExcerpt>empty(),
+    Optional.of (new Retweet (440000000000000009L, "frank", "Deepest", Optional.<WebExcerpt>empty(), Optional.<Retweet>empty())));
+
+  private final static WebExcerpt PAGE = new WebExcerpt (
+    URI.create("http://t.co/abc"), URI.create("https://twitter.com/i/cards/abc"),
+    Optional.of (new WebExcerpt.Excerpt ("Title", "Body")));
+
+  private final static List<Tweet> TWEETS = Arrays.asList (
+    new Tweet (440000000000000002L, "alice", "Plain #one to @bob", UTC, UTC.withZone(DateTimeZone.forOffsetHours(-5))),
+    new Tweet (440000000000000003L, "alice", "RT @bob: with a page", UTC, UTC.withZone(DateTimeZone.forOffsetHoursMinutes(5, 30)), PAGE),
+    new Tweet (440000000000000004L, "carol", "", UTC, UTC,
+      new Retweet (440000000000000005L, "dave", "Retweeting", Optional.of (PAGE), Optional.of (NESTED))),
+    new Tweet (440000000000000006L, "dave", "Both", UTC, UTC.withZone(DateTimeZone.forOffsetHours(9)), PAGE,
+      new Retweet (440000000000000007L, "erin", "Once", Optional.<WebExcerpt>empty(), Optional.<Retweet>empty()))
+  );
+
+  @Test
+  public void testMatchesTweets()
+  { TweetBatch batch = new TweetBatch (TWEETS.size(), new TweetBatch.Authors());
+    for (Tweet tweet : TWEETS)
+      batch.add (new TweetSlice (Tweet.WRITER.asTabDelimStr (tweet)));
+    assertTrue   (batch.isFull());
+    assertEquals (3, batch.getAuthors().size());
+
+    for (int i = 0; i < TWEETS.size(); i++)
+    { Tweet expected = Tweet.WRITER.fromTabDelimStr (Tweet.WRITER.asTabDelimStr (TWEETS.get(i)));
+      assertEquals (expected.getId(),                       batch.getId(i));
+      assertEquals (expected.getAuthor(),                   batch.getAuthor(i));
+      assertEquals (expected.getMsg(),                      batch.getMsg(i));
+      assertEquals (expected.getMsg(),                      batch.getMsgChars(i).toString());
+      assertEquals (expected.getMsg().length(),             batch.getMsgLength(i));
+      assertEquals (expected.getLocalTime().getMillis(),    batch.getEpochMillis(i));
+      assertEquals (expected.getEmbeddedPage().isPresent(), batch.hasEmbeddedPage(i));
+      assertEquals (expected.containsRetweet(),             batch.containsRetweet(i));
+      assertEquals (expected.isManualRetweet(),             batch.isManualRetweet(i));
+      assertEquals (expected.containsRetweet() && expected.getEmbeddedRetweet().get().containsRetweet(),
+                    batch.retweetContainsRetweet(i));
+
+      DateTime local = TWEETS.get(i).getLocalTime();
+      assertEquals (local.getZone().getOffset(local) / 60_000, batch.getUtcOffsetMinutes(i));
+      assertEquals (local.getHourOfDay(),                   batch.getLocalTime(i).getHourOfDay());
+    }
+    assertEquals (batch.getAuthorId(0), batch.getAuthorId(1));
+    assertTrue   (batch.isManualRetweet(1));
+    assertTrue   (batch.retweetContainsRetweet(2));
+
+    try
+    { batch.add (new TweetSlice (Tweet.WRITER.asTabDelimStr (TWEETS.get(0))));
+      fail ("Added a tweet to a full batch");
+    }
+    catch (IllegalStateException e)
+    { // expected
+    }
+
+    batch.clear();
+    assertTrue   (batch.isEmpty());
+    batch.add (new TweetSlice (Tweet.WRITER.asTabDelimStr (TWEETS.get(3))));
+    assertEquals ("Both", batch.getMsg(0));
+    assertEquals (2, batch.getAuthorId(0)); // IDs are kept across batches
+  }
+
+  @Test
+  public void testReaderFillsBatchesPerFile() throws IOException
+  { Path dir = Files.createTempDirectory("batches");
+    Path alice = dir.resolve("alice"), bob = dir.resolve("bob");
+    try
+    { List<String> aliceLines = new ArrayList<>();
+      for (int i = 0; i < 5; i++)
+        aliceLines.add (Tweet.WRITER.asTabDelimStr (new Tweet (100 + i, "alice", "Tweet " + i, UTC, UTC)));
+      aliceLines.add (3, "corrupt");
+      Files.write (alice, aliceLines, StandardCharsets.UTF_8);
+      Files.write (bob, Arrays.asList (Tweet.WRITER.asTabDelimStr (new Tweet (200, "bob", "Hi", UTC, UTC))), StandardCharsets.UTF_8);
+
+      List<Long>   ids   = new ArrayList<>();
+      List<String> sizes = new ArrayList<>();
+      int errors = 0;
+      TweetBatch batch = new TweetBatch (2, new TweetBatch.Authors());
+      try (SavedTweetReader rdr = new SavedTweetReader (Arrays.asList (alice, bob).iterator(), true))
+      { while (rdr.hasNext())
+        { try
+          { rdr.nextBatch (batch);
+          }
+          catch (RuntimeException e)
+          { assertEquals (alice, rdr.getCurrentFile());
+            ++errors;
+            continue;
+          }
+          sizes.add (batch.getFile().getFileName() + ":" + batch.size());
+          for (int i = 0; i < batch.size(); i++)
+            ids.add (batch.getId(i));
+        }
+        assertEquals (0, rdr.nextBatch (batch));
+      }
+
+      assertEquals (1, errors);
+      assertEquals (Arrays.asList ("alice:2", "alice:1", "alice:2", "bob:1"), sizes);
+      assertEquals (Arrays.asList (100L, 101L, 102L, 103L, 104L, 200L), ids);
+    }
+    finally
+    { Files.deleteIfExists (alice);
+      Files.deleteIfExists (bob);
+      Files.deleteIfExists (dir);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package cc.twittertools.post;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class TweetFileIndexTest
+{
+  private final static DateTime START = new DateTime (2014, 1, 1, 12, 0, DateTimeZone.UTC);
+  private final static int      DAYS  = 120;
+
+  private Path        dir;
+  private Path        file;
+  private List<Tweet> tweets;
+
+  /** Writes a day's tweet for four months, newest first, as the spiders do */
+  @Before
+  public void setUp() throws IOException
+  { dir    = Files.createTempDirectory("tidx");
+    file   = dir.resolve("alice.1");
+    tweets = new ArrayList<>();
+    for (int day = 0; day < DAYS; day++)
+    { DateTime utc = START.plusDays(day);
+      tweets.add (new Tweet (440_000_000_000_000_000L + day, "alice", "Tweet é中 on day " + day, utc, utc));
+    }
+    Collections.reverse (tweets);
+
+    TweetFileIndex.Builder builder = new TweetFileIndex.Builder();
+    try (BufferedWriter wtr = Files.newBufferedWriter (file, Charsets.UTF_8))
+    { for (Tweet tweet : tweets)
+      { String line = Tweet.WRITER.asTabDelimStr (tweet);
+        wtr.write (line);
+        wtr.write ('\n');
+        builder.add (tweet, TweetFileIndex.utf8Length (line) + 1);
+      }
+    }
+    builder.build().writeFor (file);
+  }
+
+  @After
+  public void tearDown() throws IOException
+  { Files.deleteIfExists (TweetFileIndex.indexPathFor (file));
+    Files.deleteIfExists (file);
+    Files.deleteIfExists (dir);
+  }
+
+  @Test
+  public void testReadMatchesBuild() throws IOException
+  { TweetFileIndex index = TweetFileIndex.readFor (file);
+    assertNotNull (index);
+    TweetFileIndex built = TweetFileIndex.build (file);
+
+    for (TweetFileIndex i : new TweetFileIndex[] { index, built })
+    { assertEquals (DAYS,                 i.getTweetCount());
+      assertEquals (Files.size (file),    i.getFileBytes());
+      assertEquals (tweets.get(0).getId(), i.getFirstTweetId());
+      assertEquals (tweets.get(DAYS - 1).getId(), i.getMinId());
+      assertEquals (tweets.get(0).getId(), i.getMaxId());
+      assertEquals (START.getMillis(),    i.getMinLocalMillis());
+      assertEquals (4,                    i.getRunCount()); // January to April
+    }
+    assertTrue  (TweetFileIndex.isIndexFile (TweetFileIndex.indexPathFor (file)));
+    assertFalse (TweetFileIndex.isIndexFile (file));
+  }
+
+  @Test
+  public void testGZippedFileIndexed() throws IOException
+  { Path gzFile = dir.resolve ("alice.1.gz");
+    try (OutputStream out = new GZIPOutputStream (Files.newOutputStream (gzFile)))
+    { Files.copy (file, out);
+    }
+
+    try
+    { TweetFileIndex index = TweetFileIndex.build (gzFile);
+      assertEquals (DAYS,                  index.getTweetCount());
+      assertEquals (Files.size (gzFile),   index.getFileBytes());
+      assertEquals (tweets.get(0).getId(), index.getFirstTweetId());
+      assertEquals (4,                     index.getRunCount());
+    }
+    finally
+    { Files.delete (gzFile);
+    }
+  }
+
+  @Test
+  public void testStaleIndexIgnored() throws IOException
+  { try (BufferedWriter wtr = Files.newBufferedWriter (file, Charsets.UTF_8, StandardOpenOption.APPEND))
+    { wtr.write (Tweet.WRITER.asTabDelimStr (tweets.get(0)) + '\n');
+    }
+    assertNull (TweetFileIndex.readFor (file));
+  }
+
+  @Test
+  public void testByteRangesSkipOtherMonths() throws IOException
+  { DateTime from  = new DateTime (2014, 2, 10, 0, 0, DateTimeZone.UTC);
+    DateTime until = new DateTime (2014, 3, 5, 0, 0, DateTimeZone.UTC);
+    TweetFileIndex index = TweetFileIndex.readFor (file);
+
+    assertFalse (index.overlaps (START.plusYears(1).getMillis(), Long.MAX_VALUE));
+    assertEquals (0, index.byteRangesFor (START.plusYears(1).getMillis(), Long.MAX_VALUE).length);
+
+    final long[] ranges = index.byteRangesFor (from.getMillis(), until.getMillis());
+    assertEquals (2, ranges.length); // February and March are adjacent, so merged
+
+    List<Tweet> read = new ArrayList<>();
+    try (LineReader rdr = new LineReader (Collections.singleton(file).iterator(), path -> ranges))
+    { while (rdr.hasNext())
+        read.add (Tweet.WRITER.fromTabDelimStr (rdr.next()));
+    }
+
+    // Everything in February and March, newest first, and nothing else
+    List<Tweet> expected = new ArrayList<>();
+    for (Tweet tweet : tweets)
+      if (tweet.getLocalTime().getMonthOfYear() == 2 || tweet.getLocalTime().getMonthOfYear() == 3)
+        expected.add (tweet);
+    assertEquals (expected, read);
+  }
+}
@@ -0,0 +1,91 @@
+package cc.twittertools.post;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import cc.twittertools.post.embed.Retweet;
+import cc.twittertools.post.embed.WebExcerpt;
+import cc.twittertools.post.tabwriter.TabWriter;
+
+public class TweetSliceTest
+{
+  private final static DateTime UTC = new DateTime (2014, 3, 1, 4, 0, 9, DateTimeZone.UTC);
+
+  private final static Retweet NESTED = new Retweet (
+    440000000000000001L, "erin", "Nested #tag", Optional.<WebExcerpt>empty(), Optional.<Retweet>empty());
+
+  private final static WebExcerpt PAGE = new WebExcerpt (
+    URI.create("http://t.co/abc"), URI.create("https://twitter.com/i/cards/abc"),
+    Optional.of (new WebExcerpt.Excerpt ("Title", "Body")));
+
+  private final static List<Tweet> TWEETS = Arrays.asList (
+    new Tweet (440000000000000002L, "alice", "Plain #one #two to @bob", UTC, UTC.withZone(DateTimeZone.forOffsetHours(-5))),
+    new Tweet (440000000000000003L, "Bob", "With a page", UTC, UTC.withZone(DateTimeZone.forOffsetHoursMinutes(5, 30)), PAGE),
+    new Tweet (440000000000000004L, "carol", "", UTC, UTC,
+      new Retweet (440000000000000005L, "dave", "Retweeting RT @erin", Optional.of (PAGE), Optional.of (NESTED))),
+    new Tweet (440000000000000006L, "dave", "Both", UTC, UTC.withZone(DateTimeZone.forOffsetHours(9)), PAGE, NESTED)
+  );
+
+  @Test
+  public void testMatchesWriter()
+  { for (Tweet tweet : TWEETS)
+    { String     line     = Tweet.WRITER.asTabDelimStr (tweet);
+      Tweet      expected = Tweet.WRITER.fromTabDelimStr (line);
+      TweetSlice slice    = new TweetSlice (line);
+
+      assertEquals (expected.getAuthor(),                      slice.getAuthor());
+      assertTrue   (slice.isAuthorIgnoreCase (expected.getAuthor().toUpperCase()));
+      assertFalse  (slice.isAuthorIgnoreCase ("zed"));
+      assertEquals (expected.getId(),                          slice.getId());
+      assertEquals (expected.getLocalTime().getMillis(),       slice.getLocalTimeMillis());
+      assertEquals (expected.getUtcTime().getMillis(),         slice.getUtcTimeMillis());
+      assertEquals (expected.getEmbeddedPage().isPresent(),    slice.hasEmbeddedPage());
+      assertEquals (expected.containsRetweet(),                slice.containsRetweet());
+      assertEquals (expected.getHashTags(),                    slice.getHashTags());
+      assertEquals (expected.getAddressees(),                  slice.getAddressees());
+
+      Tweet actual = slice.toTweet();
+      assertEquals (expected,                                  actual);
+      assertEquals (expected.getLocalTime(),                   actual.getLocalTime());
+      assertEquals (expected.getUtcTime(),                     actual.getUtcTime());
+      assertEquals (expected.getEmbeddedRetweet(),             actual.getEmbeddedRetweet());
+      assertEquals (expected.getLocalTime(),                   slice.getLocalTime());
+    }
+  }
+
+  @Test
+  public void testLeapDays()
+  { String line = Tweet.WRITER.asTabDelimStr (TWEETS.get(0));
+    assertTrue (line.contains ("2014-02-28T23:00:09-05:00"));
+
+    TweetSlice leap = new TweetSlice (line.replace ("2014-02-28T", "2012-02-29T"));
+    assertEquals (leap.getLocalTime().getMillis(), leap.getLocalTimeMillis());
+
+    for (String invalid : new String[] { "2014-02-29T", "2100-02-29T", "2014-04-31T" })
+    { TweetSlice slice = new TweetSlice (line.replace ("2014-02-28T", invalid));
+      try
+      { slice.getLocalTimeMillis();
+        fail ("Accepted " + invalid);
+      }
+      catch (IllegalArgumentException e)
+      { // expected
+      }
+    }
+  }
+
+  @Test
+  public void testFieldsAreViews()
+  { TweetSlice slice = new TweetSlice (Tweet.WRITER.asTabDelimStr (TWEETS.get(0)));
+    assertEquals ("alice", slice.getField(3).toString());
+    assertEquals ("Plain #one #two to @bob", slice.getField(5).toString());
+    assertEquals (TabWriter.NONE, slice.getField(6).toString());
+  }
+}
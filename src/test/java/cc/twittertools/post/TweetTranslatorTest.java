@@ -0,0 +1,170 @@
+package cc.twittertools.post;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.twittertools.post.columnar.ColumnarTweetReader;
+
+import com.google.common.base.Charsets;
+
+public class TweetTranslatorTest
+{
+  private Path dir;
+  private Path input;
+  private Path output;
+
+  @Before
+  public void setUp() throws IOException
+  { dir    = Files.createTempDirectory("translator");
+    input  = Files.createDirectories(dir.resolve("in"));
+    output = dir.resolve("out");
+  }
+
+  @After
+  public void tearDown() throws IOException
+  { try (Stream<Path> paths = Files.walk(dir))
+    { for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+        Files.delete (path);
+    }
+  }
+
+  private static String legacy (long id, String user, String text, String date)
+  { return "{\"id\":" + id + ",\"screenName\":\"" + user + "\",\"text\":\"" + text + "\",\"createdAt\":\"" + date
+      + "\",\"timestamp\":\"1295912263\",\"requested_id\":" + id + "}";
+  }
+
+  @Test
+  public void testTranslatesLegacyFilesInParallel() throws Exception
+  { Files.write (input.resolve("a.json"), Arrays.asList (
+      legacy (29684302916624384L, "alice", "Hello #world", "3:37 PM - 24 Jan 11"),
+      "",
+      "{\"id\":",
+      legacy (29684302916624385L, "alice", "Again #world", "3:37 PM - 24 Jan 11")
+    ), Charsets.UTF_8);
+    Files.write (input.resolve("b.json"), Collections.singletonList (
+      legacy (29684302916624386L, "bob", "#world says bob", "2:41 AM - 1 Jul 09")
+    ), Charsets.UTF_8);
+    Files.write (input.resolve("ignored.txt"), Collections.singletonList ("not json"), Charsets.UTF_8);
+
+    Path stats = dir.resolve("stats.txt");
+    TweetTranslator translator = new TweetTranslator (input, output, stats);
+    translator.setThreadCount (2);
+    assertEquals (Integer.valueOf(3), translator.call());
+
+    List<Tweet> tweets = new ArrayList<>();
+    try (SavedTweetReader rdr = new SavedTweetReader (Arrays.asList (output.resolve("a"), output.resolve("b")).iterator()))
+    { while (rdr.hasNext())
+        tweets.add (rdr.next());
+    }
+    assertEquals (3, tweets.size());
+    assertEquals (29684302916624384L, tweets.get(0).getId());
+    assertEquals ("alice",            tweets.get(0).getAuthor());
+    assertEquals ("Hello #world",     tweets.get(0).getMsg());
+    assertEquals (new DateTime (2011, 1, 24, 15, 37, DateTimeZone.UTC).getMillis(), tweets.get(1).getUtcTime().getMillis());
+    assertEquals (new DateTime (2009, 7, 1, 2, 41, DateTimeZone.UTC).getMillis(),   tweets.get(2).getLocalTime().getMillis());
+    assertFalse  (Files.exists (output.resolve("ignored")));
+
+    List<String> counts = Files.readAllLines (stats, Charsets.UTF_8);
+    Collections.sort (counts);
+    assertEquals (Arrays.asList ("world\talice\t2", "world\tbob\t1"), counts);
+  }
+
+  @Test
+  public void testReadsSlightlyMalformedLegacyJson() throws Exception
+  { // Unquoted and single-quoted names and strings, as the old lenient parser accepted
+    Files.write (input.resolve("a.json"), Arrays.asList (
+      "{id:29684302916624384,screenName:'alice','text':'Hello #world',\"createdAt\":\"3:37 PM - 24 Jan 11\",requested_id:29684302916624384}",
+      legacy (29684302916624385L, "alice", "Again #world", "3:37 PM - 24 Jan 11") + " "
+    ), Charsets.UTF_8);
+
+    TweetTranslator translator = new TweetTranslator (input, output, null);
+    assertEquals (Integer.valueOf(2), translator.call());
+
+    try (SavedTweetReader rdr = new SavedTweetReader (Collections.singleton (output.resolve("a")).iterator()))
+    { Tweet tweet = rdr.next();
+      assertEquals (29684302916624384L, tweet.getId());
+      assertEquals ("alice",            tweet.getAuthor());
+      assertEquals ("Hello #world",     tweet.getMsg());
+      assertEquals (29684302916624385L, rdr.next().getId());
+      assertFalse  (rdr.hasNext());
+    }
+  }
+
+  @Test
+  public void testTranslatesTrecFileToColumnar() throws Exception
+  { String html = "<blockquote class=\\\"twitter-tweet\\\"><p>Hello from #trec</p>&mdash; Carol (@carol) "
+      + "<a href=\\\"https://twitter.com/carol/status/311000000000000001\\\">March 10, 2013</a></blockquote>";
+    Path file = input.resolve("block-001.json.gz");
+    try (Writer wtr = new OutputStreamWriter (new GZIPOutputStream (Files.newOutputStream(file)), Charsets.UTF_8))
+    { wtr.write ("{\"url\":\"https://twitter.com/carol/status/311000000000000001\",\"author_name\":\"Carol\","
+        + "\"author_url\":\"https://twitter.com/carol\",\"html\":\"" + html + "\",\"width\":550}\n");
+      wtr.write ("{\"error\":\"Sorry, you are not authorized to see this status.\"}\n");
+    }
+
+    TweetTranslator translator = new TweetTranslator (input, output, null);
+    translator.setInputFormat  (TweetTranslator.InputFormat.TREC_JSON);
+    translator.setOutputFormat (TweetTranslator.OutputFormat.COLUMNAR);
+    assertEquals (Integer.valueOf(1), translator.call());
+
+    try (ColumnarTweetReader rdr = new ColumnarTweetReader (output.resolve("block-001" + TweetTranslator.COLUMNAR_SUFFIX)))
+    { assertTrue   (rdr.hasNext());
+      Tweet tweet = rdr.next();
+      assertEquals (311000000000000001L,  tweet.getId());
+      assertEquals ("carol",              tweet.getAuthor());
+      assertEquals ("Hello from #trec",   tweet.getMsg());
+      assertEquals (new DateTime (2013, 3, 10, 0, 0, DateTimeZone.UTC).getMillis(), tweet.getUtcTime().getMillis());
+      assertFalse  (rdr.hasNext());
+    }
+  }
+
+  @Test
+  public void testCommandLineTranslatesDirectoryToDirectory() throws Exception
+  { Files.write (input.resolve("a.json"), Collections.singletonList (
+      legacy (29684302916624384L, "alice", "Hello #world", "3:37 PM - 24 Jan 11")
+    ), Charsets.UTF_8);
+    Files.write (input.resolve("b.json"), Collections.singletonList (
+      legacy (29684302916624386L, "bob", "#world says bob", "2:41 AM - 1 Jul 09")
+    ), Charsets.UTF_8);
+
+    TweetTranslator.main (new String[] {
+      "-i", input.toString(), "-o", output.toString(), "-f", "LEGACY_JSON", "-g", "COLUMNAR", "-t", "2"
+    });
+
+    assertTrue (Files.isDirectory (output));
+    for (String name : Arrays.asList ("a", "b"))
+      try (ColumnarTweetReader rdr = new ColumnarTweetReader (output.resolve(name + TweetTranslator.COLUMNAR_SUFFIX)))
+      { assertTrue  (rdr.hasNext());
+        rdr.next();
+        assertFalse (rdr.hasNext());
+      }
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testDirectoryIsNotTranslatedToAFile() throws Exception
+  { Files.write (input.resolve("a.json"), Collections.singletonList (
+      legacy (29684302916624384L, "alice", "Hello #world", "3:37 PM - 24 Jan 11")
+    ), Charsets.UTF_8);
+    Files.write (output, new byte[0]);
+
+    new TweetTranslator (input, output, null).call();
+  }
+}
@@ -0,0 +1,107 @@
+package cc.twittertools.post.columnar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.twittertools.post.Tweet;
+import cc.twittertools.post.embed.Retweet;
+import cc.twittertools.post.embed.WebExcerpt;
+
+public class ColumnarTweetTest
+{
+  private final static DateTime START = new DateTime (2014, 3, 1, 0, 0, DateTimeZone.UTC);
+
+  private List<Tweet> tweets;
+
+  /** Three authors' tweets, sorted by author and then date, one tweet a day */
+  @Before
+  public void setUp()
+  { tweets = new ArrayList<>();
+    long id = 440_000_000_000_000_000L;
+    for (String author : new String[] { "alice", "Bob", "carol" })
+    { for (int day = 0; day < 100; day++)
+      { DateTime utc   = START.plusDays(day).plusMinutes(author.length());
+        DateTime local = utc.plusHours(-5);
+        String   msg   = "Tweet " + day + " by " + author + " é中";
+        Optional<WebExcerpt> page = day % 7 == 0
+          ? Optional.of (new WebExcerpt (URI.create("http://t.co/" + day), URI.create("https://twitter.com/i/cards/" + day),
+              day % 2 == 0 ? Optional.of (new WebExcerpt.Excerpt ("Title " + day, "Body\tof " + day)) : Optional.<WebExcerpt.Excerpt>empty()))
+          : Optional.<WebExcerpt>empty();
+        Optional<Retweet> retweet = day % 5 == 0
+          ? Optional.of (new Retweet (id - 1000, "dave", "Original " + day, Optional.<WebExcerpt>empty(),
+              day % 10 == 0 ? Optional.of (new Retweet (id - 2000, "erin", "Nested", page, Optional.<Retweet>empty())) : Optional.<Retweet>empty()))
+          : Optional.<Retweet>empty();
+        tweets.add (new Tweet (id += 17, author, msg, utc, local, page, retweet));
+      }
+    }
+  }
+
+  private byte[] write (int blockSize) throws Exception
+  { ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ColumnarTweetWriter wtr = new ColumnarTweetWriter (bytes, blockSize))
+    { for (Tweet tweet : tweets)
+        wtr.write (tweet);
+      assertEquals (tweets.size(), wtr.getTweetCount());
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception
+  { try (ColumnarTweetReader rdr = new ColumnarTweetReader (new ByteArrayInputStream (write (32)), ColumnarTweetReader.Filter.all()))
+    { for (Tweet expected : tweets)
+      { assertTrue (rdr.hasNext());
+        assertTweetEquals (expected, rdr.next());
+      }
+      assertFalse (rdr.hasNext());
+    }
+  }
+
+  @Test
+  public void testFiltersSkipBlocks() throws Exception
+  { ColumnarTweetReader.Filter filter = ColumnarTweetReader.Filter.all()
+      .withAuthors (Arrays.asList ("BOB"))
+      .from  (START.plusDays(10))
+      .until (START.plusDays(20));
+
+    List<Tweet> expected = new ArrayList<>();
+    for (Tweet tweet : tweets)
+      if (tweet.getAuthor().equals("Bob")
+       && ! tweet.getUtcTime().isBefore(START.plusDays(10))
+       && tweet.getUtcTime().isBefore(START.plusDays(20)))
+        expected.add (tweet);
+
+    try (ColumnarTweetReader rdr = new ColumnarTweetReader (new ByteArrayInputStream (write (10)), filter))
+    { for (Tweet tweet : expected)
+        assertTweetEquals (tweet, rdr.next());
+      assertFalse (rdr.hasNext());
+
+      // 30 blocks of 10 tweets, and Bob's tweets from days 10-19 are in at most two
+      assertTrue (rdr.getBlocksRead() <= 2);
+      assertEquals (30, rdr.getBlocksRead() + rdr.getBlocksSkipped());
+    }
+  }
+
+  private static void assertTweetEquals (Tweet expected, Tweet actual)
+  { assertEquals (expected, actual);
+    assertEquals (expected.getUtcTime().getMillis(),   actual.getUtcTime().getMillis());
+    assertEquals (expected.getLocalTime().getMillis(), actual.getLocalTime().getMillis());
+    assertEquals (expected.getEmbeddedRetweet(),       actual.getEmbeddedRetweet());
+    if (expected.containsRetweet())
+      assertEquals (expected.getEmbeddedRetweet().get().getEmbeddedRetweet(), actual.getEmbeddedRetweet().get().getEmbeddedRetweet());
+  }
+}
@@ -0,0 +1,107 @@
+package cc.twittertools.scripts;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.twittertools.post.BlockGzipInputStream;
+import cc.twittertools.post.SavedTweetReader;
+import cc.twittertools.post.Tweet;
+import cc.twittertools.post.TweetFileIndex;
+import cc.twittertools.util.CorpusManifest;
+
+import com.google.common.base.Charsets;
+
+public class CompactTweetFilesTest
+{
+	private Path dataset;
+	private Path news;
+
+	@Before
+	public void setUp() throws IOException
+	{	dataset = Files.createTempDirectory("compact");
+		news    = Files.createDirectories(dataset.resolve("news"));
+
+		// Each run of the spider writes the newest tweets first, overlapping the last run
+		write ("alice",   10, 9, 8);
+		write ("alice.1", 12, 11, 10);
+		write ("alice.2", 13, 1, 12);
+		write ("bob",     5, 4);
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	try (Stream<Path> paths = Files.walk(dataset))
+		{	for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+				Files.delete (path);
+		}
+	}
+
+	/** Writes out tweets with the given IDs, each posted on the day of January 2014 given by its ID */
+	private void write (String name, long... ids) throws IOException
+	{	List<String> lines = new ArrayList<>();
+		for (long id : ids)
+		{	DateTime time = new DateTime (2014, 1, id == 1 ? 20 : (int) id, 12, 0, DateTimeZone.UTC);
+			lines.add (Tweet.WRITER.asTabDelimStr (new Tweet (id, name.replaceAll("\\..*", ""), "Tweet " + id, time, time)));
+		}
+		Files.write (news.resolve(name), lines, Charsets.UTF_8);
+	}
+
+	private static List<Long> ids (Path file) throws IOException
+	{	List<Long> ids = new ArrayList<>();
+		try (SavedTweetReader rdr = new SavedTweetReader (file))
+		{	while (rdr.hasNext())
+				ids.add (rdr.next().getId());
+		}
+		return ids;
+	}
+
+	@Test
+	public void testMergesSeriesNewestFirst() throws Exception
+	{	CompactTweetFiles.main (new String[] { "-d", dataset.toString(), "-t", "2" });
+
+		assertFalse  (Files.exists (news.resolve("alice.1")));
+		assertFalse  (Files.exists (news.resolve("alice.2")));
+		assertEquals (Arrays.asList (13L, 12L, 11L, 10L, 9L, 8L, 1L), ids (news.resolve("alice")));
+		assertEquals (Arrays.asList (5L, 4L), ids (news.resolve("bob")));
+		assertFalse  (Files.exists (TweetFileIndex.indexPathFor (news.resolve("bob"))));
+
+		TweetFileIndex index = TweetFileIndex.readFor (news.resolve("alice"));
+		assertEquals (7,   index.getTweetCount());
+		assertEquals (13L, index.getFirstTweetId());
+
+		List<String> names = new ArrayList<>();
+		for (CorpusManifest.Entry entry : CorpusManifest.load(dataset).getEntries())
+			names.add (entry.getRelativePath());
+		assertEquals (Arrays.asList ("news/alice", "news/bob"), names);
+	}
+
+	@Test
+	public void testDropsOldTweetsButKeepsTheNewest() throws Exception
+	{	Files.write (news.resolve("bob" + CompactTweetFiles.TMP_SUFFIX), new byte[10]);
+		CompactTweetFiles.main (new String[] { "-d", dataset.toString(), "-r", "20140111", "-m", "1", "-z" });
+
+		assertEquals (Arrays.asList (13L, 12L, 11L, 1L), ids (news.resolve("alice")));
+		assertEquals (Arrays.asList (5L), ids (news.resolve("bob")));
+		assertFalse  (Files.exists (news.resolve("bob" + CompactTweetFiles.TMP_SUFFIX)));
+		try (SeekableByteChannel channel = Files.newByteChannel (news.resolve("bob")))
+		{	assertTrue (BlockGzipInputStream.isBlockGzipped (channel));
+		}
+		assertEquals (1, TweetFileIndex.readFor (news.resolve("bob")).getTweetCount());
+	}
+}
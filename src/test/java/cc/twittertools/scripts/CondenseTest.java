@@ -132,6 +132,18 @@ public class CondenseTest
 		verifyDict (outFile);
 	}
 
+	@Test
+	public void testExternal() throws Exception
+	{	Condense.main(new String[] {
+			"-i", inFileUnsorted.toString(),
+			"-o", outFile.toString(),
+			"-x",
+			"-m", "5" // forces several runs to be spilled and merged
+		});
+	
+		verifyDict (outFile);
+	}
+
 	private void verifyDict(Path file) throws IOException
 	{	String line = null;
 		
@@ -0,0 +1,96 @@
+package cc.twittertools.scripts;
+
+import static org.junit.Assert.*;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class InteractionGraphTest
+{
+	private static final double DAMPING = 0.85;
+
+	private InteractionGraph graph;
+
+	/**
+	 * Users a, b, c and d. a links to b twice and to c once, b to c, and c to
+	 * a and to itself. d links to no-one, and no-one links to d.
+	 */
+	@Before
+	public void setUp()
+	{	graph = new InteractionGraph();
+		int a = graph.globalId ("a"), b = graph.globalId ("b"), c = graph.globalId ("c"), d = graph.globalId ("d");
+		assertEquals (3, d);
+
+		Long2IntMap links = new Long2IntOpenHashMap();
+		links.defaultReturnValue(0);
+		links.put (InteractionGraph.edge (c, c), 1);
+		links.put (InteractionGraph.edge (c, a), 1);
+		links.put (InteractionGraph.edge (b, c), 1);
+		links.put (InteractionGraph.edge (a, c), 1);
+		links.put (InteractionGraph.edge (a, b), 2);
+		graph.buildCsr (links);
+	}
+
+	@Test
+	public void testCsr()
+	{	assertArrayEquals (new int[] { 0, 2, 3, 5, 5 }, graph.offsets);
+		assertArrayEquals (new int[] { 1, 2, 2, 0, 2 }, graph.targets);
+		assertArrayEquals (new int[] { 2, 1, 1, 1, 1 }, graph.weights);
+	}
+
+	@Test
+	public void testTranspose()
+	{	assertArrayEquals (new int[] { 0, 1, 2, 5, 5 }, graph.inOffsets);
+		assertArrayEquals (new int[] { 2, 0, 0, 1, 2 }, graph.sources);
+		assertArrayEquals (new int[] { 1, 2, 1, 1, 1 }, graph.inWeights);
+	}
+
+	@Test
+	public void testPageRank() throws Exception
+	{	double[] rank;
+		ExecutorService exec = Executors.newFixedThreadPool(2);
+		try
+		{	rank = graph.pageRank (exec);
+		}
+		finally
+		{	exec.shutdownNow();
+		}
+
+		// The same calculation as a dense matrix, with d's rank spread evenly
+		double[][] transition = {
+			{ 0,   2/3., 1/3., 0   },
+			{ 0,   0,    1,    0   },
+			{ 1/2., 0,   1/2., 0   },
+			{ 1/4., 1/4., 1/4., 1/4. },
+		};
+		double[] expected = { 1/4., 1/4., 1/4., 1/4. };
+		for (int iter = 0; iter < 1000; iter++)
+		{	double[] next = new double[4];
+			for (int u = 0; u < 4; u++)
+				for (int v = 0; v < 4; v++)
+					next[v] += expected[u] * transition[u][v];
+			for (int v = 0; v < 4; v++)
+				next[v] = (1 - DAMPING) / 4 + DAMPING * next[v];
+			expected = next;
+		}
+
+		assertEquals (expected.length, rank.length);
+		for (int u = 0; u < rank.length; u++)
+			assertEquals (expected[u], rank[u], 1E-8);
+
+		double sum = 0;
+		for (double r : rank)
+			sum += r;
+		assertEquals (1.0, sum, 1E-9);
+
+		// d only receives the random jump and its share of its own dangling rank
+		assertEquals ((1 - DAMPING) / 4 + DAMPING * rank[3] / 4, rank[3], 1E-8);
+		assertTrue (rank[2] > rank[0] && rank[0] > rank[1] && rank[1] > rank[3]);
+	}
+}
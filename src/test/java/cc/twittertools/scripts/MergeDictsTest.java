@@ -0,0 +1,113 @@
+package cc.twittertools.scripts;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.twittertools.util.NpyFiles;
+import cc.twittertools.words.dict.LookupDictionary;
+
+public class MergeDictsTest
+{
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException
+	{	dir = Files.createTempDirectory("mergedicts");
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	for (Path path : Files.newDirectoryStream(dir))
+			Files.delete(path);
+		Files.delete(dir);
+	}
+
+	private void writeDict (String name, String... words) throws IOException
+	{	LookupDictionary dict = new LookupDictionary(words.length);
+		for (String word : words)
+			dict.toInt (word);
+		dict.writeAsNumpyArrays (dir, name);
+	}
+
+	@Test
+	public void testRemapsMatrixColumns() throws Exception
+	{	writeDict ("first",  "cat", "dog");
+		writeDict ("second", "fish", "dog", "ant");
+
+		// A 3x4 matrix over the second dictionary, with an empty row and a
+		// column index beyond the dictionary's end
+		String matrix = dir.resolve("counts").toString();
+		NpyFiles.writeInts (dir.resolve("counts-data.npy"),    NpyFiles.INT16, new int[] { 5, 7, 2, 9, 1 }, 5);
+		NpyFiles.writeInts (dir.resolve("counts-indices.npy"), new int[] { 0, 1, 2, 3, 1 }, 5);
+		NpyFiles.writeInts (dir.resolve("counts-indptr.npy"),  new int[] { 0, 2, 4, 4, 5 }, 5);
+		NpyFiles.writeInts (dir.resolve("counts-shape.npy"),   new int[] { 4, 4 }, 2);
+
+		String merged = dir.resolve("merged").toString();
+		MergeDicts.main (new String[] {
+			"-o", merged, "-m", "1:" + matrix,
+			dir.resolve("first").toString(), dir.resolve("second").toString()
+		});
+
+		// fish, dog and ant become 2, 1 and 3, so the first row's columns swap
+		assertArrayEquals (new int[] { 0, 1 },    NpyFiles.readInts(dir.resolve("merged-remap-0.npy")));
+		assertArrayEquals (new int[] { 2, 1, 3 }, NpyFiles.readInts(dir.resolve("merged-remap-1.npy")));
+
+		assertArrayEquals (new int[] { 1, 2, 3, 1 },    NpyFiles.readInts(dir.resolve("counts-remapped-indices.npy")));
+		assertArrayEquals (new int[] { 7, 5, 2, 1 },    NpyFiles.readInts(dir.resolve("counts-remapped-data.npy")));
+		assertArrayEquals (new int[] { 0, 2, 3, 3, 4 }, NpyFiles.readInts(dir.resolve("counts-remapped-indptr.npy")));
+		assertArrayEquals (new int[] { 4, 4 },          NpyFiles.readInts(dir.resolve("counts-remapped-shape.npy")));
+		assertEquals (NpyFiles.INT16, NpyFiles.readHeader(dir.resolve("counts-remapped-data.npy")).getDescr());
+	}
+
+	@Test
+	public void testWidensIndicesWhenMergedDictionaryOutgrowsTheirType() throws Exception
+	{	String[] manyWords = new String[40_000];
+		for (int i = 0; i < manyWords.length; i++)
+			manyWords[i] = "word" + i;
+		writeDict ("first",  manyWords);
+		writeDict ("second", "word7", "fish");
+
+		// A 2x2 matrix over the second dictionary, stored entirely in 16-bit integers
+		String matrix = dir.resolve("counts").toString();
+		NpyFiles.writeInts (dir.resolve("counts-data.npy"),    NpyFiles.INT16, new int[] { 3, 4, 5 }, 3);
+		NpyFiles.writeInts (dir.resolve("counts-indices.npy"), NpyFiles.INT16, new int[] { 0, 1, 1 }, 3);
+		NpyFiles.writeInts (dir.resolve("counts-indptr.npy"),  NpyFiles.INT16, new int[] { 0, 2, 3 }, 3);
+		NpyFiles.writeInts (dir.resolve("counts-shape.npy"),   NpyFiles.INT16, new int[] { 2, 2 }, 2);
+
+		String merged = dir.resolve("merged").toString();
+		MergeDicts.main (new String[] {
+			"-o", merged, "-m", "1:" + matrix,
+			dir.resolve("first").toString(), dir.resolve("second").toString()
+		});
+
+		// fish is appended after the first dictionary's words, beyond 32767
+		assertArrayEquals (new int[] { 7, 40_000, 40_000 }, NpyFiles.readInts(dir.resolve("counts-remapped-indices.npy")));
+		assertArrayEquals (new int[] { 3, 4, 5 },           NpyFiles.readInts(dir.resolve("counts-remapped-data.npy")));
+		assertEquals (NpyFiles.INT32, NpyFiles.readHeader(dir.resolve("counts-remapped-indices.npy")).getDescr());
+		assertEquals (NpyFiles.INT16, NpyFiles.readHeader(dir.resolve("counts-remapped-data.npy")).getDescr());
+		assertEquals (NpyFiles.INT16, NpyFiles.readHeader(dir.resolve("counts-remapped-indptr.npy")).getDescr());
+
+		int[] shape = NpyFiles.readInts(dir.resolve("counts-remapped-shape.npy"));
+		assertEquals (2, shape[0]);
+		assertTrue   (shape[1] > 40_000);
+		assertEquals (NpyFiles.INT32, NpyFiles.readHeader(dir.resolve("counts-remapped-shape.npy")).getDescr());
+	}
+
+	@Test(expected=IOException.class)
+	public void testPickledMatrixRejected() throws Exception
+	{	writeDict ("first", "cat");
+		Files.write (dir.resolve("counts.pkl"), new byte[] { (byte) 0x80, 2 });
+
+		MergeDicts.main (new String[] {
+			"-o", dir.resolve("merged").toString(), "-m", "0:" + dir.resolve("counts"),
+			dir.resolve("first").toString()
+		});
+	}
+}
@@ -0,0 +1,92 @@
+package cc.twittertools.scripts;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class RankTest
+{
+	/** Counts either side of 2^32, with ties, and the largest count allowed */
+	private final static List<String> INPUT = Arrays.asList (
+		"a\t5",
+		"b\t4294967296",
+		"c c\t5",
+		"d 8589934591",
+		"",
+		"e\t4294967297",
+		"f\t4294967296",
+		"g\t0"
+	);
+
+	private final static List<String> RANKED = Arrays.asList (
+		"d\t8589934591",
+		"e\t4294967297",
+		"b\t4294967296",
+		"f\t4294967296",
+		"a\t5",
+		"c c\t5",
+		"g\t0"
+	);
+
+	private Path inFile;
+	private Path outFile;
+
+	@Before
+	public void setUp() throws IOException
+	{	inFile  = Files.createTempFile("rank-in", ".txt");
+		outFile = Files.createTempFile("rank-out", ".txt");
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	Files.deleteIfExists(inFile);
+		Files.deleteIfExists(outFile);
+	}
+
+	private List<String> rank (List<String> input, String... extraArgs) throws Exception
+	{	Files.write (inFile, input, Charsets.UTF_8);
+		String[] args = new String[] { "-i", inFile.toString(), "-o", outFile.toString() };
+		String[] allArgs = Arrays.copyOf (args, args.length + extraArgs.length);
+		System.arraycopy (extraArgs, 0, allArgs, args.length, extraArgs.length);
+
+		Rank.main (allArgs);
+		return Files.readAllLines (outFile, Charsets.UTF_8);
+	}
+
+	@Test
+	public void testRanksLargeCountsAndTies() throws Exception
+	{	assertEquals (RANKED, rank (INPUT));
+	}
+
+	@Test
+	public void testRanksTopKLargeCountsAndTies() throws Exception
+	{	assertEquals (RANKED.subList(0, 3), rank (INPUT, "-k", "3"));
+		assertEquals (RANKED.subList(0, 5), rank (INPUT, "-k", "5"));
+		assertEquals (RANKED,               rank (INPUT, "-k", "100"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMissingCountRejected() throws Exception
+	{	rank (Arrays.asList ("a\t5", "b\t"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMissingCountRejectedTopK() throws Exception
+	{	rank (Arrays.asList ("a\t5", "b\t"), "-k", "1");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTooLargeCountRejected() throws Exception
+	{	rank (Arrays.asList ("a\t5", "b\t8589934592"));
+	}
+}
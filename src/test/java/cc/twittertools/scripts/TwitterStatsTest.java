@@ -0,0 +1,136 @@
+package cc.twittertools.scripts;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.twittertools.post.Tweet;
+
+import com.google.common.base.Charsets;
+
+public class TwitterStatsTest
+{
+	private final static String[] MESSAGES = {
+		"Reading the #news with @bob http://t.co/a",
+		"Up $AAPL today :) #markets",
+		"@alice see http://t.co/b #news",
+		"Nothing much happening here",
+		"#sport results are in @carol :("
+	};
+
+	private final static String STATE_FILE = "stats-state.bin";
+
+	private Path root;
+	private Path dataset;
+
+	@Before
+	public void setUp() throws IOException
+	{	root    = Files.createTempDirectory("stats");
+		dataset = Files.createDirectories(root.resolve("dataset"));
+
+		// Alice is followed from two folders, and the spider has saved her
+		// tweets several times, overlapping the last run
+		write ("news",  "alice",   30, 29, 28, 27);
+		write ("news",  "alice.1", 33, 32, 31, 30, 29);
+		write ("news",  "bob",     20, 19, 18, 17, 16, 15);
+		write ("news",  "carol",   12, 11, 10);
+		write ("sport", "alice",   40, 39, 38);
+		write ("sport", "dave",    25, 24, 23, 22, 21);
+		write ("sport", "dave.1",  26, 25);
+		write ("sport", "erin",    5, 4, 3, 2);
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	try (Stream<Path> paths = Files.walk(root))
+		{	for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+				Files.delete (path);
+		}
+	}
+
+	/** Writes out tweets with the given IDs, newest first, each posted some hours into January 2014 given by its ID */
+	private void write (String folder, String name, long... ids) throws IOException
+	{	List<String> lines = new ArrayList<>();
+		for (long id : ids)
+		{	DateTime time = new DateTime (2014, 1, 1, 0, 0, DateTimeZone.UTC).plusHours((int) (id * 7));
+			String   msg  = MESSAGES[(int) (id % MESSAGES.length)];
+			lines.add (Tweet.WRITER.asTabDelimStr (new Tweet (id, name.replaceAll("\\..*", ""), msg, time, time)));
+		}
+		Files.write (Files.createDirectories(dataset.resolve(folder)).resolve(name), lines, Charsets.UTF_8);
+	}
+
+	/**
+	 * Runs the statistics with the given number of threads, and any other
+	 * arguments, returning every output file's contents by name, except for
+	 * the saved state.
+	 */
+	private Map<String, String> run (String name, int threadCount, String... moreArgs) throws Exception
+	{	Path output = Files.createDirectories(root.resolve(name));
+		List<String> args = new ArrayList<>(Arrays.asList ("-d", dataset.toString(), "-o", output.toString(), "-t", String.valueOf(threadCount)));
+		args.addAll (Arrays.asList (moreArgs));
+		TwitterStats.main (args.toArray (new String[args.size()]));
+
+		Map<String, String> outputs = new TreeMap<>();
+		try (Stream<Path> paths = Files.list(output))
+		{	for (Path path : paths.collect(Collectors.toList()))
+				if (! path.getFileName().toString().equals (STATE_FILE))
+					outputs.put (path.getFileName().toString(), new String (Files.readAllBytes(path), Charsets.UTF_8));
+		}
+		return outputs;
+	}
+
+	private static void assertSameOutputs (Map<String, String> expected, Map<String, String> actual)
+	{	assertEquals (expected.keySet(), actual.keySet());
+		for (Map.Entry<String, String> entry : expected.entrySet())
+			assertEquals (entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+	}
+
+	@Test
+	public void testSameOutputWhateverTheThreadCount() throws Exception
+	{	Map<String, String> serial   = run ("serial",   1);
+		Map<String, String> parallel = run ("parallel", 4);
+
+		assertSameOutputs (serial, parallel);
+
+		String hashtags = serial.get("hashtags-counts.txt");
+		assertTrue (hashtags, hashtags.contains ("news\t"));
+	}
+
+	@Test
+	public void testResumedRunMatchesFullRun() throws Exception
+	{	// Bob's first tweets include a placeholder, Alice's don't
+		write ("news", "bob.1", 22, 21, 1, 20);
+		run ("resumed", 2, "--incremental");
+		assertTrue (Files.exists (root.resolve("resumed").resolve(STATE_FILE)));
+
+		// The spider saves newer tweets, overlapping the last run's, to new
+		// files, and finds a new user
+		write ("news",  "alice.2", 36, 35, 1, 34, 33);
+		write ("news",  "bob.2",   24, 23, 1, 22);
+		write ("sport", "dave.2",  28, 27, 26);
+		write ("sport", "frank",   9, 8, 7);
+
+		Map<String, String> resumed = run ("resumed", 2, "--incremental");
+		Map<String, String> full    = run ("full",    2);
+		assertSameOutputs (full, resumed);
+
+		String users = resumed.get("userStats.txt");
+		assertTrue (users, users.contains ("frank\t"));
+	}
+}
@@ -0,0 +1,128 @@
+package cc.twittertools.scripts;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.twittertools.util.NpyFiles;
+import cc.twittertools.words.dict.PersistentDictionary;
+
+import com.google.common.base.Charsets;
+
+public class UpdateDictTest
+{
+	private Path dir;
+	private Path dictFile;
+	private Path pendingFile;
+
+	@Before
+	public void setUp() throws IOException
+	{	dir         = Files.createTempDirectory("updatedict");
+		dictFile    = dir.resolve("words" + PersistentDictionary.FILE_SUFFIX);
+		pendingFile = dir.resolve(dictFile.getFileName() + UpdateDict.PENDING_SUFFIX);
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	for (Path path : Files.newDirectoryStream(dir))
+			Files.delete(path);
+		Files.delete(dir);
+	}
+
+	private Path counts (String name, String... lines) throws IOException
+	{	Path path = dir.resolve(name);
+		Files.write (path, Arrays.asList(lines), Charsets.UTF_8);
+		return path;
+	}
+
+	@Test
+	public void testNewWordsAddedMostFrequentFirst() throws Exception
+	{	Path counts = counts ("counts.txt", "2013-01\tcat\t3", "2013-01\tdog\t5", "2013-02\tcat\t4", "ant\t5");
+		UpdateDict.main (new String[] { "-d", dictFile.toString(), counts.toString() });
+
+		PersistentDictionary dict = PersistentDictionary.open(dictFile);
+		assertEquals (3, dict.size());
+		assertEquals ("cat", dict.toWord(0));
+		assertEquals ("ant", dict.toWord(1));
+		assertEquals ("dog", dict.toWord(2));
+		assertEquals (7, dict.count(0));
+		assertFalse  (Files.exists(pendingFile));
+	}
+
+	@Test
+	public void testRareNewWordsAccumulateAcrossUpdates() throws Exception
+	{	Path first = counts ("first.txt", "cat\t5", "dog\t2");
+		UpdateDict.main (new String[] { "-d", dictFile.toString(), "-c", "3", first.toString() });
+
+		PersistentDictionary dict = PersistentDictionary.open(dictFile);
+		assertEquals (1, dict.size());
+		assertFalse  (dict.contains("dog"));
+		assertEquals (Arrays.asList("dog\t2"), Files.readAllLines(pendingFile, Charsets.UTF_8));
+
+		Path second = counts ("second.txt", "cat\t1", "dog\t1", "fish\t1");
+		UpdateDict.main (new String[] { "-d", dictFile.toString(), "-c", "3", second.toString() });
+
+		dict = PersistentDictionary.open(dictFile);
+		assertEquals (2, dict.size());
+		assertEquals (6, dict.count(0));
+		assertEquals ("dog", dict.toWord(1));
+		assertEquals (3, dict.count(1));
+		assertEquals (Arrays.asList("fish\t1"), Files.readAllLines(pendingFile, Charsets.UTF_8));
+	}
+
+	/** Mimics an update which promoted "dog", but stopped before replacing the pending file */
+	@Test
+	public void testUpdateInterruptedAfterReplacingDictionaryIsCompleted() throws Exception
+	{	Path first = counts ("first.txt", "cat\t5", "dog\t2");
+		UpdateDict.main (new String[] { "-d", dictFile.toString(), "-c", "3", first.toString() });
+
+		Files.write (dictFile, Arrays.asList("cat\t5", "dog\t3"), Charsets.UTF_8);
+		Files.write (dir.resolve(pendingFile.getFileName() + ".tmp"), new byte[0]);
+
+		UpdateDict.main (new String[] { "-d", dictFile.toString(), "-c", "3" });
+
+		PersistentDictionary dict = PersistentDictionary.open(dictFile);
+		assertEquals (2, dict.size());
+		assertEquals (3, dict.count(1));
+		assertFalse  (Files.exists(pendingFile));
+		assertFalse  (Files.exists(dir.resolve(pendingFile.getFileName() + ".tmp")));
+	}
+
+	/** Mimics an update which stopped after writing its temporary files, but before replacing the dictionary */
+	@Test
+	public void testUpdateInterruptedBeforeReplacingDictionaryIsDiscarded() throws Exception
+	{	Path first = counts ("first.txt", "cat\t5", "dog\t2");
+		UpdateDict.main (new String[] { "-d", dictFile.toString(), "-c", "3", first.toString() });
+
+		Files.write (PersistentDictionary.temporaryFileFor(dictFile), Arrays.asList("cat\t5", "dog\t3"), Charsets.UTF_8);
+		Files.write (dir.resolve(pendingFile.getFileName() + ".tmp"), new byte[0]);
+
+		UpdateDict.main (new String[] { "-d", dictFile.toString(), "-c", "3" });
+
+		PersistentDictionary dict = PersistentDictionary.open(dictFile);
+		assertEquals (1, dict.size());
+		assertEquals (Arrays.asList("dog\t2"), Files.readAllLines(pendingFile, Charsets.UTF_8));
+		assertFalse  (Files.exists(PersistentDictionary.temporaryFileFor(dictFile)));
+	}
+
+	@Test
+	public void testCompactWritesRemapTable() throws Exception
+	{	Path counts = counts ("counts.txt", "cat\t5", "dog\t1", "fish\t3");
+		UpdateDict.main (new String[] { "-d", dictFile.toString(), counts.toString() });
+
+		Path remapFile = dir.resolve("remap.npy");
+		UpdateDict.main (new String[] { "-d", dictFile.toString(), "--compact", "2", "-r", remapFile.toString() });
+
+		PersistentDictionary dict = PersistentDictionary.open(dictFile);
+		assertEquals (2, dict.size());
+		assertEquals ("fish", dict.toWord(1));
+		assertArrayEquals (new int[] { 0, 1, PersistentDictionary.REMOVED_WORD }, NpyFiles.readInts(remapFile));
+	}
+}
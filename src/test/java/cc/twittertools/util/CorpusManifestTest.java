@@ -0,0 +1,164 @@
+package cc.twittertools.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.twittertools.post.Tweet;
+import cc.twittertools.post.TweetFileIndex;
+
+public class CorpusManifestTest
+{
+	private Path dataset;
+
+	@Before
+	public void setUp() throws IOException
+	{	dataset = Files.createTempDirectory("corpus");
+		write ("news", "bob",      300);
+		write ("news", "alice.10", 100);
+		write ("news", "alice",    200);
+		write ("news", "alice.2",  400);
+		write ("tech", "carol.1",  900);
+		write ("tech", "dave",     50);
+		Files.write (dataset.resolve("unrelated.txt"), new byte[10]);
+
+		Path indexed = dataset.resolve("tech").resolve("dave");
+		DateTime now = new DateTime (2014, 1, 1, 0, 0, DateTimeZone.UTC);
+		String   line = Tweet.WRITER.asTabDelimStr (new Tweet (440_000_000_000_000_000L, "dave", "Hi", now, now));
+		Files.write (indexed, (line + '\n').getBytes("UTF-8"));
+		new TweetFileIndex.Builder().add (440_000_000_000_000_000L, now.getMillis(), now.getMillis(), TweetFileIndex.utf8Length(line) + 1)
+			.build().writeFor (indexed);
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	try (Stream<Path> paths = Files.walk(dataset))
+		{	for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+				Files.delete (path);
+		}
+	}
+
+	private void write (String folder, String name, int bytes) throws IOException
+	{	Files.createDirectories (dataset.resolve(folder));
+		Files.write (dataset.resolve(folder).resolve(name), new byte[bytes]);
+	}
+
+	private static List<String> names (List<CorpusManifest.Entry> entries)
+	{	List<String> names = new ArrayList<>();
+		for (CorpusManifest.Entry entry : entries)
+			names.add (entry.getRelativePath());
+		return names;
+	}
+
+	@Test
+	public void testListsAndUpdatesIncrementally() throws IOException
+	{	CorpusManifest manifest = CorpusManifest.update(dataset);
+		List<String> expected = Arrays.asList ("news/alice", "news/alice.2", "news/alice.10", "news/bob", "tech/carol.1", "tech/dave");
+		assertEquals (expected, names (manifest.getEntries()));
+		assertEquals (expected.size(), manifest.getPaths().size());
+		assertEquals (dataset.resolve("news").resolve("alice.10"), manifest.getPaths().get(2));
+		assertEquals (10,  manifest.getEntries().get(2).getSequence());
+		assertEquals ("alice", manifest.getEntries().get(2).getUser());
+		assertEquals (1,   manifest.getEntries().get(5).getTweetCount());
+		assertEquals (CorpusManifest.UNKNOWN_TWEET_COUNT, manifest.getEntries().get(0).getTweetCount());
+		assertTrue   (Files.exists (dataset.resolve(CorpusManifest.FILE_NAME)));
+
+		// Reloading needs no listing, and finds no changes
+		CorpusManifest reloaded = CorpusManifest.load(dataset);
+		assertEquals (expected, names (reloaded.getEntries()));
+		assertEquals (manifest.getTotalBytes(), reloaded.getTotalBytes());
+		assertFalse  (reloaded.refresh(false));
+
+		// A file rewritten in place is only noticed on a rescan, a new file as soon as its folder changes
+		Path news = dataset.resolve("news");
+		FileTime newsModified = Files.getLastModifiedTime(news);
+		write ("news", "bob", 333);
+		Files.setLastModifiedTime (news, newsModified);
+		assertFalse  (reloaded.refresh(false));
+		assertTrue   (reloaded.refresh(true));
+		assertEquals (333, reloaded.getEntries().get(3).getSize());
+		reloaded.save();
+
+		write ("tech", "erin", 10);
+		Files.setLastModifiedTime (dataset.resolve("tech"), FileTime.fromMillis(newsModified.toMillis() + 60_000));
+		manifest = CorpusManifest.update(dataset);
+		assertEquals ("tech/erin", names (manifest.getEntries()).get(6));
+		assertEquals (333, manifest.getEntries().get(3).getSize());
+	}
+
+	@Test
+	public void testListingWritesNothing() throws Exception
+	{	List<String> expected = Arrays.asList ("news/alice", "news/alice.2", "news/alice.10", "news/bob", "tech/carol.1", "tech/dave");
+		assertEquals (expected, names (CorpusManifest.list(dataset).getEntries()));
+
+		List<Path> iterated = new ArrayList<>();
+		try (FilesInFoldersIterator files = new FilesInFoldersIterator(dataset))
+		{	while (files.hasNext())
+				iterated.add (files.next());
+		}
+		assertEquals (expected.size(), iterated.size());
+		assertFalse  (Files.exists (dataset.resolve(CorpusManifest.FILE_NAME)));
+	}
+
+	@Test
+	public void testUpdateSavesToGivenFile() throws IOException
+	{	Path elsewhere = Files.createTempDirectory("manifest");
+		try
+		{	Path manifestFile = elsewhere.resolve("news-and-tech.tsv");
+			CorpusManifest.list(dataset, manifestFile);
+			assertTrue   (Files.exists (manifestFile));
+			assertFalse  (Files.exists (dataset.resolve(CorpusManifest.FILE_NAME)));
+			assertEquals (6, CorpusManifest.load(dataset, manifestFile).getEntries().size());
+
+			try
+			{	CorpusManifest.update(dataset, elsewhere.resolve("missing").resolve("manifest.tsv"));
+				fail ("A manifest which can't be saved should be an error");
+			}
+			catch (IOException e)
+			{	// expected
+			}
+		}
+		finally
+		{	for (Path path : Files.newDirectoryStream(elsewhere))
+				Files.delete (path);
+			Files.delete (elsewhere);
+		}
+	}
+
+	@Test
+	public void testPartitionsBalanceWholeUsers() throws IOException
+	{	CorpusManifest manifest = CorpusManifest.update(dataset);
+		List<List<CorpusManifest.Entry>> units = manifest.partition(3);
+		assertEquals (3, units.size());
+
+		// carol's 900 bytes go first, then alice's 700 and so on, each to the smallest unit
+		assertEquals (Arrays.asList ("tech/carol.1"), names (units.get(0)));
+		assertEquals (Arrays.asList ("news/alice", "news/alice.2", "news/alice.10"), names (units.get(1)));
+		assertEquals (Arrays.asList ("news/bob", "tech/dave"), names (units.get(2)));
+
+		Set<String> all = new HashSet<>();
+		for (List<CorpusManifest.Entry> unit : manifest.partition(100))
+			all.addAll (names (unit));
+		assertEquals (6, all.size());
+		assertEquals (4, manifest.partition(100).size()); // one per user
+		assertEquals (1, manifest.partition(1).size());
+		assertEquals (names (manifest.getEntries()), names (manifest.partition(1).get(0)));
+	}
+}
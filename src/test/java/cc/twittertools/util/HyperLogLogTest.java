@@ -0,0 +1,90 @@
+package cc.twittertools.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+public class HyperLogLogTest
+{
+	@Test
+	public void testSmallCardinalitiesAreNearlyExact()
+	{	HyperLogLog sketch = new HyperLogLog(10);
+		for (int repeat = 0; repeat < 3; repeat++)
+			for (int i = 0; i < 100; i++)
+				sketch.add ("#tag" + i);
+
+		assertEquals (100, sketch.cardinality(), 2);
+	}
+
+	@Test
+	public void testLargeCardinalityWithinErrorBounds()
+	{	HyperLogLog sketch = new HyperLogLog(14);
+		int n = 200_000;
+		for (int i = 0; i < n; i++)
+			sketch.add ("http://t.co/" + Integer.toString(i, 36));
+
+		// The standard error is 0.8%, allow four times that
+		double relError = Math.abs (sketch.cardinality() - n) / (double) n;
+		assertTrue ("Relative error was " + relError, relError < 0.033);
+	}
+
+	@Test
+	public void testMergeIsUnion()
+	{	HyperLogLog left  = new HyperLogLog(12);
+		HyperLogLog right = new HyperLogLog(12);
+		HyperLogLog both  = new HyperLogLog(12);
+		for (int i = 0; i < 5_000; i++)
+		{	String word = "word" + i;
+			(i % 2 == 0 ? left : right).add (word);
+			if (i % 3 == 0)
+				left.add (word); // overlapping values
+			both.add (word);
+		}
+
+		left.merge (right);
+		assertEquals (both, left);
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception
+	{	for (int count : new int[] { 0, 10, 50_000 })
+		{	HyperLogLog sketch = new HyperLogLog(10);
+			for (int i = 0; i < count; i++)
+				sketch.add ("@user" + i);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(bytes))
+			{	sketch.write (out);
+			}
+			HyperLogLog copy = HyperLogLog.read (new DataInputStream (new ByteArrayInputStream (bytes.toByteArray())));
+
+			assertEquals (sketch, copy);
+			assertEquals (sketch.cardinality(), copy.cardinality());
+		}
+	}
+
+	@Test
+	public void testWriteAndReadAtMaxPrecision() throws Exception
+	{	// Enough values to use registers above index 2^16, but few enough to be written sparsely
+		for (int count : new int[] { 0, 10, 40_000, 200_000 })
+		{	HyperLogLog sketch = new HyperLogLog(HyperLogLog.MAX_PRECISION);
+			for (int i = 0; i < count; i++)
+				sketch.add ("#tag" + i);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(bytes))
+			{	sketch.write (out);
+			}
+			HyperLogLog copy = HyperLogLog.read (new DataInputStream (new ByteArrayInputStream (bytes.toByteArray())));
+
+			assertEquals (sketch, copy);
+			assertEquals (sketch.cardinality(), copy.cardinality());
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package cc.twittertools.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LogHistogramTest
+{
+	@Test
+	public void testSmallValuesAreExact()
+	{	LogHistogram hist = new LogHistogram(4);
+		for (int value = 0; value < 32; value++)
+			hist.add (value, value + 1);
+
+		for (int value = 0; value < 32; value++)
+			assertEquals (value, hist.bucketLowestValue(value));
+		assertEquals (31, hist.mode());
+		assertEquals (0,  hist.getMin());
+		assertEquals (31, hist.getMax());
+	}
+
+	@Test
+	public void testQuantilesWithinRelativeError()
+	{	Random rng = new Random(0xBEEF);
+		LogHistogram hist = new LogHistogram(5);
+		long[] values = new long[50_000];
+		for (int i = 0; i < values.length; i++)
+		{	values[i] = (long) Math.exp (rng.nextDouble() * 15); // up to about 3 million
+			hist.add (values[i]);
+		}
+		Arrays.sort (values);
+
+		for (double q : new double[] { 0.1, 0.5, 0.9, 0.99 })
+		{	long actual   = values[(int) Math.ceil(q * values.length) - 1];
+			long estimate = hist.quantile(q);
+			assertTrue ("Quantile " + q + " was " + estimate + " not " + actual,
+				Math.abs (estimate - actual) <= Math.max (1, actual / 32));
+		}
+	}
+
+	@Test
+	public void testMergeAndWriteRead() throws Exception
+	{	LogHistogram left  = new LogHistogram(3);
+		LogHistogram right = new LogHistogram(3);
+		LogHistogram both  = new LogHistogram(3);
+		for (int i = 0; i < 1_000; i++)
+		{	(i % 2 == 0 ? left : right).add (i * 7);
+			both.add (i * 7);
+		}
+		left.merge (right);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes))
+		{	left.write (out);
+		}
+		LogHistogram copy = LogHistogram.read (new DataInputStream (new ByteArrayInputStream (bytes.toByteArray())));
+
+		assertEquals (both.getTotalCount(), copy.getTotalCount());
+		assertEquals (both.getMean(), copy.getMean(), 1E-9);
+		for (double q = 0; q <= 1; q += 0.05)
+			assertEquals (both.quantile(q), copy.quantile(q));
+	}
+}
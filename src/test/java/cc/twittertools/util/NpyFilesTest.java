@@ -0,0 +1,161 @@
+package cc.twittertools.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NpyFilesTest
+{
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException
+	{	file = Files.createTempFile("array", ".npy");
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Writes a file as numpy would, with the given major version, header
+	 * dictionary and payload, padding the header with spaces and a newline.
+	 */
+	private void writeNpy (int majorVersion, String dict, byte[] payload) throws IOException
+	{	int lengthBytes = majorVersion == 1 ? 2 : 4;
+		StringBuilder header = new StringBuilder (dict);
+		while ((8 + lengthBytes + header.length() + 1) % 64 != 0)
+			header.append (' ');
+		header.append ('\n');
+
+		ByteBuffer buf = ByteBuffer.allocate(8 + lengthBytes + header.length() + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+		buf.put (new byte[] { (byte) 0x93, 'N', 'U', 'M', 'P', 'Y', (byte) majorVersion, 0 });
+		if (majorVersion == 1)
+			buf.putShort ((short) header.length());
+		else
+			buf.putInt (header.length());
+		buf.put (header.toString().getBytes(StandardCharsets.US_ASCII));
+		buf.put (payload);
+		Files.write (file, buf.array());
+	}
+
+	private static byte[] littleEndian (int size, long... values)
+	{	ByteBuffer buf = ByteBuffer.allocate(size * values.length).order(ByteOrder.LITTLE_ENDIAN);
+		for (long value : values)
+			switch (size)
+			{	case 1: buf.put      ((byte)  value); break;
+				case 2: buf.putShort ((short) value); break;
+				case 4: buf.putInt   ((int)   value); break;
+				default: buf.putLong (value);
+			}
+		return buf.array();
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException
+	{	int[] ints = { 0, -1, 7, Integer.MAX_VALUE, Integer.MIN_VALUE };
+		NpyFiles.writeInts (file, ints, 4);
+		assertArrayEquals (Arrays.copyOf (ints, 4), NpyFiles.readInts(file));
+		assertEquals (NpyFiles.INT32, NpyFiles.readHeader(file).getDescr());
+		assertEquals (4, NpyFiles.readHeader(file).getLength());
+		assertEquals (0, (Files.size(file) - 4 * 4) % 64);
+
+		NpyFiles.writeInts (file, NpyFiles.INT16, new int[] { -2, 300 }, 2);
+		assertArrayEquals (new int[] { -2, 300 }, NpyFiles.readInts(file));
+		assertEquals (2, NpyFiles.readHeader(file).getElementSize());
+
+		long[] longs = { Long.MIN_VALUE, 5_000_000_000L, -3 };
+		NpyFiles.writeLongs (file, longs, longs.length);
+		assertArrayEquals (longs, NpyFiles.readLongs(file));
+
+		byte[] bytes = { 1, (byte) 200, 0 };
+		NpyFiles.writeBytes (file, bytes, bytes.length);
+		assertArrayEquals (bytes, NpyFiles.readBytes(file));
+		assertArrayEquals (new int[] { 1, 200, 0 }, NpyFiles.readInts(file));
+	}
+
+	@Test
+	public void testReadsNumpyHeaders() throws IOException
+	{	writeNpy (1, "{'descr': '<i2', 'fortran_order': False, 'shape': (3,), }", littleEndian (2, -2, 1, 32767));
+		assertEquals ("<i2", NpyFiles.readHeader(file).getDescr());
+		assertEquals (3, NpyFiles.readHeader(file).getLength());
+		assertArrayEquals (new int[] { -2, 1, 32767 }, NpyFiles.readInts(file));
+
+		// Version 2.0 headers have a four-byte length, and numpy may omit the trailing comma
+		writeNpy (2, "{'descr': '|u1', 'fortran_order': False, 'shape': (2) }", littleEndian (1, 200, 1));
+		assertArrayEquals (new long[] { 200, 1 }, NpyFiles.readLongs(file));
+		assertTrue (NpyFiles.readHeader(file).isUnsigned());
+	}
+
+	@Test
+	public void testUnsignedValues() throws IOException
+	{	writeNpy (1, "{'descr': '<u2', 'fortran_order': False, 'shape': (2,), }", littleEndian (2, 65535, 1));
+		assertArrayEquals (new int[] { 65535, 1 }, NpyFiles.readInts(file));
+
+		writeNpy (1, "{'descr': '<u4', 'fortran_order': False, 'shape': (3,), }", littleEndian (4, 1, 0x80000000L, 0xFFFFFFFFL));
+		assertArrayEquals (new long[] { 1, 0x80000000L, 0xFFFFFFFFL }, NpyFiles.readLongs(file));
+		try
+		{	NpyFiles.readInts(file);
+			fail ("Read an unsigned value too large for an int");
+		}
+		catch (IOException e)
+		{	// expected
+		}
+
+		writeNpy (1, "{'descr': '<u8', 'fortran_order': False, 'shape': (2,), }", littleEndian (8, 3, -1));
+		try
+		{	NpyFiles.readLongs(file);
+			fail ("Read an unsigned value too large for a long");
+		}
+		catch (IOException e)
+		{	// expected
+		}
+	}
+
+	@Test
+	public void testWidensToFit() throws IOException
+	{	int[] ints = { 3, 40_000, 2 };
+		assertEquals (NpyFiles.INT16, NpyFiles.widenToFit (NpyFiles.INT16, ints, 1));
+		assertEquals (NpyFiles.INT32, NpyFiles.widenToFit (NpyFiles.INT16, ints, 3));
+		assertEquals ("<u2",          NpyFiles.widenToFit ("<u2",          ints, 3));
+		assertEquals ("<u2",          NpyFiles.widenToFit ("|u1",          ints, 3));
+		assertEquals (NpyFiles.INT32, NpyFiles.widenToFit ("<u2", new int[] { -1, 70_000 }, 2));
+
+		NpyFiles.writeInts (file, NpyFiles.widenToFit (NpyFiles.INT16, ints, 3), ints, 3);
+		assertArrayEquals (ints, NpyFiles.readInts(file));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testValuesTooWideForTypeRejected() throws IOException
+	{	NpyFiles.writeInts (file, NpyFiles.INT16, new int[] { 1, 32768 }, 2);
+	}
+
+	@Test(expected=IOException.class)
+	public void testTwoDimensionalArrayRejected() throws IOException
+	{	writeNpy (1, "{'descr': '<i4', 'fortran_order': False, 'shape': (2, 3), }", littleEndian (4, 1, 2, 3, 4, 5, 6));
+		NpyFiles.readInts(file);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBigEndianRejected() throws IOException
+	{	writeNpy (1, "{'descr': '>i4', 'fortran_order': False, 'shape': (1,), }", new byte[4]);
+		NpyFiles.readInts(file);
+	}
+
+	@Test(expected=IOException.class)
+	public void testBadMagicRejected() throws IOException
+	{	Files.write (file, "not a numpy file at all".getBytes(StandardCharsets.US_ASCII));
+		NpyFiles.readHeader(file);
+	}
+}
@@ -0,0 +1,92 @@
+package cc.twittertools.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class OrderedMergerTest
+{
+	@Test
+	public void testMergesInOrderWithinTheBound() throws Exception
+	{	final int threadCount = 3;
+		final int maxPending  = OrderedMerger.defaultMaxPending (threadCount);
+		final int unitCount   = threadCount * 4;
+		assertTrue (unitCount > maxPending);
+
+		// counts the results produced but not yet merged
+		final AtomicInteger live    = new AtomicInteger();
+		final AtomicInteger maxLive = new AtomicInteger();
+		final List<Integer> merged  = new ArrayList<>();
+
+		ExecutorService exec = Executors.newFixedThreadPool (threadCount);
+		try
+		{	final OrderedMerger<Integer> merger = new OrderedMerger<> (exec, maxPending, new OrderedMerger.Merge<Integer>() {
+				@Override
+				public void merge (Integer result)
+				{	live.decrementAndGet();
+					merged.add (result);
+				}
+			});
+
+			for (int i = 0; i < unitCount; i++)
+			{	final int unit = i;
+				merger.submit (new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception
+					{	int now = live.incrementAndGet();
+						synchronized (maxLive)
+						{	maxLive.set (Math.max (maxLive.get(), now));
+						}
+						Thread.sleep ((unitCount - unit) % 4); // so later units often finish first
+						return unit;
+					}
+				});
+				assertTrue (merger.getPendingCount() <= maxPending);
+			}
+			merger.finish();
+		}
+		finally
+		{	exec.shutdownNow();
+		}
+
+		assertEquals (0, live.get());
+		assertTrue   ("Had " + maxLive.get() + " results waiting", maxLive.get() <= maxPending);
+		assertEquals (unitCount, merged.size());
+		for (int i = 0; i < unitCount; i++)
+			assertEquals (Integer.valueOf(i), merged.get(i));
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testFailedTaskIsRethrown() throws Throwable
+	{	ExecutorService exec = Executors.newSingleThreadExecutor();
+		try
+		{	OrderedMerger<Integer> merger = new OrderedMerger<> (exec, 1, new OrderedMerger.Merge<Integer>() {
+				@Override
+				public void merge (Integer result)
+				{
+				}
+			});
+			merger.submit (new Callable<Integer>() {
+				@Override
+				public Integer call()
+				{	throw new IllegalStateException ("Failed");
+				}
+			});
+			merger.finish();
+		}
+		catch (ExecutionException e)
+		{	throw e.getCause();
+		}
+		finally
+		{	exec.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package cc.twittertools.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cc.twittertools.util.SpaceSavingCounter.HeavyHitter;
+
+public class SpaceSavingCounterTest
+{
+	@Test
+	public void testExactWhenCapacitySuffices()
+	{	SpaceSavingCounter counter = new SpaceSavingCounter(10);
+		String[] words = { "b", "a", "c", "a", "b", "a", "d" };
+		for (String word : words)
+			counter.inc(word);
+
+		assertEquals (0, counter.getMaxError());
+		assertEquals (7, counter.getTotal());
+
+		List<HeavyHitter> top = counter.top(2);
+		assertEquals (2, top.size());
+		assertEquals ("a", top.get(0).getTerm());
+		assertEquals (3,   top.get(0).getCount());
+		assertEquals ("b", top.get(1).getTerm());
+		assertEquals (2,   top.get(1).getCount());
+		assertTrue (top.get(0).isGuaranteed());
+		assertTrue (top.get(1).isGuaranteed());
+	}
+
+	/**
+	 * Streams a skewed distribution through a small counter, and checks the
+	 * estimated counts are within the error bounds of the true counts, and
+	 * that the frequent words are found.
+	 */
+	@Test
+	public void testSkewedStream()
+	{	Random rng = new Random(0xC0FFEE);
+		SpaceSavingCounter counter = new SpaceSavingCounter(50);
+		Map<String, Integer> trueCounts = new HashMap<>();
+
+		for (int i = 0; i < 100_000; i++)
+		{	// Words 0-4 are frequent, the rest form a long tail
+			String word = rng.nextInt(4) != 0
+				? "frequent-" + rng.nextInt(5)
+				: "rare-" + rng.nextInt(10_000);
+			counter.inc (word);
+			Integer count = trueCounts.get(word);
+			trueCounts.put (word, count == null ? 1 : count + 1);
+		}
+
+		assertTrue (counter.getMaxError() <= counter.getTotal() / counter.capacity());
+
+		List<HeavyHitter> top = counter.top(5);
+		for (HeavyHitter hitter : top)
+		{	assertTrue (hitter.getTerm().startsWith("frequent-"));
+			assertTrue (hitter.isGuaranteed());
+
+			int trueCount = trueCounts.get(hitter.getTerm());
+			assertTrue (hitter.getCount() >= trueCount);
+			assertTrue (hitter.getCount() - hitter.getError() <= trueCount);
+		}
+	}
+
+	@Test
+	public void testMergeExactWhenCapacitySuffices()
+	{	SpaceSavingCounter left  = new SpaceSavingCounter(10);
+		SpaceSavingCounter right = new SpaceSavingCounter(10);
+		for (String word : new String[] { "a", "b", "a" })
+			left.inc (word);
+		for (String word : new String[] { "c", "b", "b", "a" })
+			right.inc (word);
+
+		left.merge (right);
+		assertEquals (0, left.getMaxError());
+		assertEquals (7, left.getTotal());
+		assertEquals (3, left.size());
+		assertEquals (3, left.count("a"));
+		assertEquals (3, left.count("b"));
+		assertEquals (1, left.count("c"));
+		assertEquals ("a", left.top(1).get(0).getTerm());
+		assertEquals (4, right.getTotal());
+	}
+
+	/**
+	 * Streams a skewed distribution through several small counters, merges
+	 * them, and checks the merged counts are within their error bounds, and
+	 * that the frequent words are still found.
+	 */
+	@Test
+	public void testMergedSkewedStreams()
+	{	Random rng = new Random(0xBEEF);
+		List<SpaceSavingCounter> counters = new ArrayList<>();
+		for (int c = 0; c < 4; c++)
+			counters.add (new SpaceSavingCounter(50));
+		Map<String, Integer> trueCounts = new HashMap<>();
+
+		for (int i = 0; i < 100_000; i++)
+		{	String word = rng.nextInt(4) != 0
+				? "frequent-" + rng.nextInt(5)
+				: "rare-" + rng.nextInt(10_000);
+			counters.get(i % 4 == 3 ? rng.nextInt(4) : i / 25_000).inc (word);
+			Integer count = trueCounts.get(word);
+			trueCounts.put (word, count == null ? 1 : count + 1);
+		}
+
+		SpaceSavingCounter merged = new SpaceSavingCounter(50);
+		for (SpaceSavingCounter counter : counters)
+			merged.merge (counter);
+		assertEquals (100_000, merged.getTotal());
+		assertEquals (50,      merged.size());
+
+		for (Map.Entry<String, Integer> entry : trueCounts.entrySet())
+			assertTrue (entry.getKey(), merged.count(entry.getKey()) >= entry.getValue());
+
+		List<HeavyHitter> top = merged.top(5);
+		for (HeavyHitter hitter : top)
+		{	assertTrue (hitter.getTerm().startsWith("frequent-"));
+			assertTrue (hitter.isGuaranteed());
+			assertTrue (hitter.getCount() - hitter.getError() <= trueCounts.get(hitter.getTerm()));
+		}
+
+		// The merged terms still form a min-heap, so a new term replaces the least frequent
+		long minCount = merged.getMaxError();
+		merged.inc ("new");
+		assertEquals (minCount + 1, merged.count("new"));
+	}
+}
@@ -0,0 +1,172 @@
+package cc.twittertools.util;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpillingCounterTest
+{
+	/** Terms which would break, or sort differently in, a line-based UTF-8 run file */
+	private final static List<String> TERMS = Arrays.asList (
+		"cat",
+		"tab\tterm",
+		"line\nbreak",
+		"carriage\rreturn",
+		"😀",  // an astral character, a surrogate pair
+		"x\uD800",       // an unpaired high surrogate
+		"\uDC00y",       // an unpaired low surrogate
+		"�",        // the replacement character
+		"été",
+		"dog"
+	);
+
+	private Path spillDir;
+
+	@Before
+	public void setUp() throws IOException
+	{	spillDir = Files.createTempDirectory("spill");
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	for (Path path : Files.newDirectoryStream(spillDir))
+			Files.delete(path);
+		Files.delete(spillDir);
+	}
+
+	private static String write (SpillingCounter counter) throws IOException
+	{	StringWriter str = new StringWriter();
+		try (BufferedWriter wtr = new BufferedWriter(str))
+		{	counter.writeTo (wtr);
+		}
+		return str.toString();
+	}
+
+	private static String expected (Map<String, Long> counts)
+	{	StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Long> entry : counts.entrySet())
+			sb.append (entry.getKey()).append ('\t').append (entry.getValue()).append ('\n');
+		return sb.toString();
+	}
+
+	@Test
+	public void testMergesSeveralSpills() throws IOException
+	{	Map<String, Long> counts = new TreeMap<>();
+		try (SpillingCounter counter = new SpillingCounter(spillDir, "terms", 3))
+		{	for (int repeat = 1; repeat <= 5; repeat++)
+				for (int t = 0; t < TERMS.size(); t++)
+				{	String term = TERMS.get((t * repeat) % TERMS.size());
+					counter.add (term, repeat);
+					Long count = counts.get(term);
+					counts.put (term, count == null ? repeat : count + repeat);
+				}
+
+			assertTrue (counter.getRunCount() > 1);
+			assertEquals (expected (counts), write (counter));
+			assertEquals (0, counter.getRunCount());
+		}
+
+		String[] runFiles = spillDir.toFile().list();
+		assertEquals (0, runFiles.length);
+	}
+
+	@Test
+	public void testSameOutputWithoutSpilling() throws IOException
+	{	try (
+			SpillingCounter spilling = new SpillingCounter(spillDir, "spilling", 2);
+			SpillingCounter inMemory = new SpillingCounter(spillDir, "inMemory", 1000);
+		)
+		{	for (int repeat = 0; repeat < 3; repeat++)
+				for (String term : TERMS)
+				{	spilling.inc (term);
+					inMemory.inc (term);
+				}
+			assertTrue   (spilling.getRunCount() > 1);
+			assertEquals (0, inMemory.getRunCount());
+			assertEquals (write (inMemory), write (spilling));
+		}
+	}
+
+	@Test
+	public void testAddAllTakesOverRuns() throws IOException
+	{	Map<String, Long> counts = new TreeMap<>();
+		try (
+			SpillingCounter total = new SpillingCounter(spillDir, "total", 3);
+			SpillingCounter part  = new SpillingCounter(spillDir, "part", 3);
+		)
+		{	for (int repeat = 1; repeat <= 3; repeat++)
+			{	for (int t = 0; t < TERMS.size(); t++)
+				{	String term = TERMS.get((t * repeat) % TERMS.size());
+					(t % 2 == 0 ? total : part).add (term, repeat);
+					Long count = counts.get(term);
+					counts.put (term, count == null ? repeat : count + repeat);
+				}
+				int runCount = total.getRunCount() + part.getRunCount();
+				total.addAll (part);
+				assertEquals (0, part.getRunCount());
+				assertTrue   (total.getRunCount() >= runCount);
+			}
+
+			assertEquals ("", write (part));
+			assertEquals (expected (counts), write (total));
+		}
+
+		String[] runFiles = spillDir.toFile().list();
+		assertEquals (0, runFiles.length);
+	}
+
+	@Test
+	public void testCopiedCountsReadBackExactly() throws IOException
+	{	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (
+			SpillingCounter counter  = new SpillingCounter(spillDir, "terms", 3);
+			SpillingCounter expected = new SpillingCounter(spillDir, "expected", 1000);
+		)
+		{	for (int repeat = 1; repeat <= 3; repeat++)
+				for (String term : TERMS)
+				{	counter.add  (term, repeat);
+					expected.add (term, 2 * repeat);
+				}
+			expected.add ("cat", 1);
+			expected.add ("eel", 1);
+
+			Path output = spillDir.resolve("terms-counts.txt");
+			try (DataOutputStream copy = new DataOutputStream (bytes))
+			{	assertEquals (TERMS.size(), counter.writeTo (output, copy));
+			}
+			Files.delete (output);
+
+			// The copy is read back twice, to check the end of each copy is found
+			try (SpillingCounter restored = new SpillingCounter(spillDir, "restored", 2))
+			{	DataInputStream in = new DataInputStream (new ByteArrayInputStream (bytes.toByteArray()));
+				restored.addRun (in);
+				assertEquals (-1, in.read());
+
+				restored.addRun (new DataInputStream (new ByteArrayInputStream (bytes.toByteArray())));
+				restored.inc ("cat");
+				restored.inc ("eel");
+
+				assertEquals (write (expected), write (restored));
+			}
+		}
+
+		String[] runFiles = spillDir.toFile().list();
+		assertEquals (0, runFiles.length);
+	}
+}
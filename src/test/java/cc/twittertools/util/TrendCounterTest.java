@@ -0,0 +1,77 @@
+package cc.twittertools.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import cc.twittertools.util.TrendCounter.Burst;
+
+public class TrendCounterTest
+{
+	private final static long HOUR = TimeUnit.HOURS.toMillis(1);
+
+	/** Adds a steady 5 uses of #steady an hour, and a spike in #spike at hour 40 */
+	private static TrendCounter steadyAndSpike (int fromHour, int toHour)
+	{	TrendCounter counter = new TrendCounter(HOUR, 48, 10);
+		for (int hour = fromHour; hour < toHour; hour++)
+		{	for (int i = 0; i < 5; i++)
+				counter.add ("#steady", hour * HOUR + i);
+			int spike = hour == 40 ? 30 : hour % 3 == 0 ? 1 : 0;
+			for (int i = 0; i < spike; i++)
+				counter.add ("#spike", hour * HOUR + i);
+		}
+		return counter;
+	}
+
+	@Test
+	public void testFindsSpike()
+	{	List<Burst> bursts = steadyAndSpike(0, 48).detect(0.1, 3, 5, 12);
+
+		assertEquals (1, bursts.size());
+		assertEquals ("#spike",   bursts.get(0).getTerm());
+		assertEquals (40 * HOUR,  bursts.get(0).getBucketStartMillis());
+		assertEquals (30,         bursts.get(0).getCount());
+		assertTrue (bursts.get(0).getZScore() >= 3);
+	}
+
+	@Test
+	public void testWindowSlides()
+	{	TrendCounter counter = steadyAndSpike(0, 48);
+		counter.add ("#late", 100 * HOUR); // slides the window past the spike
+
+		assertEquals (100 * HOUR, counter.getLastBucketStartMillis());
+		assertTrue (counter.detect(0.1, 3, 5, 12).isEmpty());
+
+		counter.add ("#late", 10 * HOUR); // now too old to count
+		assertEquals (1, counter.detect(0.1, 0, 1, 0).size());
+	}
+
+	@Test
+	public void testMergeAndWriteRead() throws Exception
+	{	TrendCounter merged = steadyAndSpike(0, 24);
+		merged.merge (steadyAndSpike(24, 48));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes))
+		{	merged.write (out);
+		}
+		TrendCounter copy = TrendCounter.read (new DataInputStream (new ByteArrayInputStream (bytes.toByteArray())));
+
+		List<Burst> expected = steadyAndSpike(0, 48).detect(0.1, 2, 1, 4);
+		List<Burst> actual   = copy.detect(0.1, 2, 1, 4);
+		assertEquals (expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+		{	assertEquals (expected.get(i).getTerm(),              actual.get(i).getTerm());
+			assertEquals (expected.get(i).getBucketStartMillis(), actual.get(i).getBucketStartMillis());
+			assertEquals (expected.get(i).getCount(),             actual.get(i).getCount());
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package cc.twittertools.words.dict;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.twittertools.util.NpyFiles;
+
+public class DictionaryMergerTest
+{
+	private static final int NO = DictionaryMerger.NO_WORD;
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException
+	{	dir = Files.createTempDirectory("merge");
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	for (Path path : Files.newDirectoryStream(dir))
+			Files.delete(path);
+		Files.delete(dir);
+	}
+
+	private void writeUntyped (String name, int capacity, String... words) throws IOException
+	{	LookupDictionary dict = new LookupDictionary(capacity);
+		for (String word : words)
+			dict.toInt (word);
+		dict.writeAsNumpyArrays (dir, name);
+	}
+
+	/** Reads back the words of a dictionary written as numpy arrays, blanks included */
+	private List<String> readWords (String name) throws IOException
+	{	byte[] strings = NpyFiles.readBytes(dir.resolve(name + NumpyDictionaryWriter.STRINGS_SUFFIX));
+		long[] offsets = NpyFiles.readLongs(dir.resolve(name + NumpyDictionaryWriter.OFFSETS_SUFFIX));
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < offsets.length - 1; i++)
+			words.add (new String (strings, (int) offsets[i], (int) (offsets[i + 1] - offsets[i]), StandardCharsets.UTF_8));
+		return words;
+	}
+
+	@Test
+	public void testMergeUntyped() throws IOException
+	{	writeUntyped ("first",  4, "cat", "dog");
+		writeUntyped ("second", 3, "fish", "dog", "été");
+
+		DictionaryMerger merger = new DictionaryMerger();
+		assertEquals (0, merger.add (dir, "first"));
+		assertEquals (1, merger.add (dir, "second"));
+		assertEquals (2, merger.numInputs());
+		assertEquals (4, merger.size());
+		assertEquals (4, merger.capacity());
+
+		assertArrayEquals (new int[] { 0, 1, NO, NO }, merger.remapTable(0));
+		assertArrayEquals (new int[] { 2, 1, 3 },      merger.remapTable(1));
+
+		merger.write (dir, "merged");
+		assertEquals (Arrays.asList ("cat", "dog", "fish", "été"), readWords ("merged"));
+
+		// Merging the merged dictionary with itself changes nothing
+		DictionaryMerger again = new DictionaryMerger();
+		again.add (dir, "merged");
+		assertArrayEquals (new int[] { 0, 1, 2, 3 }, again.remapTable(0));
+	}
+
+	@Test
+	public void testMergeTyped() throws IOException
+	{	// IDs 0-3 are hashtags, of which two are used, 4-5 are tokens
+		NumpyDictionaryWriter first = new NumpyDictionaryWriter();
+		first.addRange ("HASHTAG", 0, 2, 4);
+		first.add ("#cat"); first.add ("#dog"); first.addBlanks (2);
+		first.addRange ("TOKEN", 4, 2, 2);
+		first.add ("cat"); first.add ("dog");
+		first.write (dir, "first", 4, 6);
+
+		// Tokens first, and a type the first dictionary doesn't have
+		NumpyDictionaryWriter second = new NumpyDictionaryWriter();
+		second.addRange ("TOKEN", 0, 3, 3);
+		second.add ("fish"); second.add ("cat"); second.add ("ant");
+		second.addRange ("URL", 3, 1, 1);
+		second.add ("http://t.co/x");
+		second.addRange ("HASHTAG", 4, 1, 1);
+		second.add ("#cat");
+		second.write (dir, "second", 5, 5);
+
+		DictionaryMerger merger = new DictionaryMerger();
+		merger.add (dir, "first");
+		merger.add (dir, "second");
+
+		// HASHTAG keeps its capacity of 4, TOKEN grows to 4 words, URL is added last
+		assertEquals (7, merger.size());
+		assertEquals (9, merger.capacity());
+		assertArrayEquals (new int[] { 0, 1, NO, NO, 4, 5 }, merger.remapTable(0));
+		assertArrayEquals (new int[] { 6, 4, 7, 8, 0 },      merger.remapTable(1));
+
+		merger.write (dir, "merged");
+		assertEquals (Arrays.asList ("#cat", "#dog", "", "", "cat", "dog", "fish", "ant", "http://t.co/x"), readWords ("merged"));
+		String meta = new String (Files.readAllBytes(dir.resolve("merged" + NumpyDictionaryWriter.RANGES_SUFFIX)), StandardCharsets.UTF_8);
+		assertTrue (meta, meta.contains ("\"type\":\"URL\",\"start\":8,\"size\":1,\"capacity\":1"));
+	}
+}
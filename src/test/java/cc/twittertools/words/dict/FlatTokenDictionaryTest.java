@@ -0,0 +1,102 @@
+package cc.twittertools.words.dict;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.twitter.common.text.token.attribute.TokenType;
+
+public class FlatTokenDictionaryTest
+{
+	/**
+	 * Creates a compound and flat dictionary with the same configuration, as
+	 * in the encoder, and checks they assign the same IDs to the same words.
+	 */
+	@Test
+	public void testSameIdsAsCompoundDictionary()
+	{	CompoundTokenDictionary compound = new CompoundTokenDictionary((TokenType) null);
+		FlatTokenDictionary     flat     = new FlatTokenDictionary((TokenType) null);
+
+		for (TokenDictionary dict : Arrays.asList(compound, flat))
+		{	LookupDictionary words = new LookupDictionary(10);
+			words.toInt("existing");
+
+			add (dict, TokenType.USERNAME, new NullTokenDictionary());
+			add (dict, TokenType.URL,      FrontCodedDictionary.fromWords(Arrays.asList("http://a.com", "http://b.com")));
+			add (dict, TokenType.TOKEN,    words);
+			add (dict, TokenType.STOCK,    NullDictionary.INSTANCE);
+			add (dict, TokenType.EMOTICON, new LookupDictionary(3));
+			add (dict, TokenType.HASHTAG,  new SigilStrippingDictionary('#', words));
+		}
+
+		String[][] tokens = {
+			{ "TOKEN", "existing" }, { "TOKEN", "cat" }, { "HASHTAG", "#dog" },
+			{ "HASHTAG", "#cat" }, { "TOKEN", "dog" }, { "URL", "http://b.com" },
+			{ "URL", "http://c.com" }, { "USERNAME", "@fred" }, { "STOCK", "$GOOG" },
+			{ "EMOTICON", ":-)" }, { "EMOTICON", ":-(" }, { "EMOTICON", ":-|" },
+			{ "EMOTICON", ";-)" }, { "TOKEN", "" }
+		};
+		for (String[] token : tokens)
+		{	TokenType type = TokenType.valueOf(token[0]);
+			int wordId = compound.toInt(type, token[1]);
+			assertEquals (token[0] + ":" + token[1], wordId, flat.toInt(type, token[1]));
+			if (wordId >= 0)
+				assertEquals (compound.toWordToken(wordId), flat.toWordToken(wordId));
+		}
+
+		assertEquals (compound.capacity(), flat.capacity());
+		assertEquals (compound.size(), flat.size());
+		for (TokenType type : TokenType.values())
+			if (type != TokenType.PUNCTUATION && type != TokenType.CONTRACTION)
+			{	assertEquals (compound.size(type),     flat.size(type));
+				assertEquals (compound.capacity(type), flat.capacity(type));
+			}
+	}
+
+	@Test
+	public void testSealAndClone()
+	{	FlatTokenDictionary dict = new FlatTokenDictionary(TokenType.TOKEN);
+		dict.addDictionary(TokenType.TOKEN, new LookupDictionary(100));
+		for (int i = 0; i < 50; i++)
+			assertEquals (i, dict.toInt("word" + i));
+
+		FlatTokenDictionary copy = dict.clone();
+		dict.seal();
+		assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt("another"));
+		assertEquals (50, copy.toInt("another"));
+		assertEquals (49, dict.toInt("word49"));
+		assertEquals ("word49", copy.toWord(49));
+	}
+
+	@Test
+	public void testSealedLookupDictionaryStaysSealed()
+	{	LookupDictionary sealed = new LookupDictionary(100);
+		sealed.toInt("existing");
+		sealed.seal();
+
+		CompoundTokenDictionary compound = new CompoundTokenDictionary(TokenType.TOKEN);
+		FlatTokenDictionary     flat     = new FlatTokenDictionary(TokenType.TOKEN);
+		for (TokenDictionary dict : Arrays.asList(compound, flat))
+		{	add (dict, TokenType.TOKEN,   sealed);
+			add (dict, TokenType.HASHTAG, new SigilStrippingDictionary('#', sealed));
+			add (dict, TokenType.URL,     new LookupDictionary(100));
+		}
+
+		for (TokenDictionary dict : Arrays.asList(compound, flat, flat.clone()))
+		{	assertEquals (0,                          dict.toInt(TokenType.TOKEN, "existing"));
+			assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt(TokenType.TOKEN, "another"));
+			assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt(TokenType.HASHTAG, "#another"));
+		}
+		assertEquals (compound.toInt(TokenType.URL, "http://a.com"), flat.toInt(TokenType.URL, "http://a.com"));
+		assertEquals (compound.size(), flat.size());
+	}
+
+	private static void add (TokenDictionary dict, TokenType type, Dictionary typeDict)
+	{	if (dict instanceof CompoundTokenDictionary)
+			((CompoundTokenDictionary) dict).addDictionary(type, typeDict);
+		else
+			((FlatTokenDictionary) dict).addDictionary(type, typeDict);
+	}
+}
@@ -0,0 +1,91 @@
+package cc.twittertools.words.dict;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class FrontCodedDictionaryTest
+{
+	@Test
+	public void testRoundTrip()
+	{	List<String> words = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+		{	words.add ("http://t.co/" + Integer.toString(i * 7919, 36));
+			words.add ("http://www.youtube.com/watch?v=" + i);
+		}
+		words.add ("café");
+		words.add ("caf");
+		words.add ("日本");
+		words.add ("a");
+		words.add ("http://t.co/0"); // a duplicate
+
+		FrontCodedDictionary dict = FrontCodedDictionary.fromWords(words);
+		assertEquals (words.size() - 1, dict.size());
+		assertEquals (dict.size(), dict.capacity());
+
+		for (String word : words)
+		{	int wordId = dict.toInt(word);
+			assertEquals (word, dict.toWord(wordId));
+		}
+		for (int wordId = 0; wordId < dict.size(); wordId++)
+			assertEquals (wordId, dict.toInt(dict.toWord(wordId)));
+	}
+
+	@Test
+	public void testUnmappableWords()
+	{	FrontCodedDictionary dict = FrontCodedDictionary.fromWords(Arrays.asList("bb", "bd", "bdd", "zz"));
+
+		assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt("a"));
+		assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt("bc"));
+		assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt("bda"));
+		assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt("zzz"));
+		assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt(""));
+		assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt(null));
+
+		FrontCodedDictionary empty = FrontCodedDictionary.fromWords(new ArrayList<String>());
+		assertEquals (0, empty.size());
+		assertEquals (Dictionary.UNMAPPABLE_WORD, empty.toInt("a"));
+	}
+
+	/** Lookups share a scratch buffer per thread, so threads mustn't see each other's words */
+	@Test
+	public void testConcurrentLookups() throws Exception
+	{	List<String> words = new ArrayList<>();
+		for (int i = 0; i < 5000; i++)
+			words.add ("http://example.com/" + Integer.toString(i * 104729, 36) + (i % 3 == 0 ? "/été" : ""));
+		final FrontCodedDictionary dict = FrontCodedDictionary.fromWords(words);
+
+		ExecutorService exec = Executors.newFixedThreadPool(4);
+		try
+		{	List<Future<Integer>> results = new ArrayList<>();
+			for (int t = 0; t < 8; t++)
+			{	final int offset = t * 613;
+				results.add (exec.submit (new Callable<Integer>() {
+					@Override
+					public Integer call()
+					{	int mismatches = 0;
+						for (int i = 0; i < dict.size(); i++)
+						{	int wordId = (i + offset) % dict.size();
+							if (dict.toInt (dict.toWord (wordId)) != wordId)
+								++mismatches;
+						}
+						return mismatches;
+					}
+				}));
+			}
+			for (Future<Integer> result : results)
+				assertEquals (Integer.valueOf(0), result.get());
+		}
+		finally
+		{	exec.shutdownNow();
+		}
+	}
+}
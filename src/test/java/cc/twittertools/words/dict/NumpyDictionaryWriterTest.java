@@ -0,0 +1,102 @@
+package cc.twittertools.words.dict;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NumpyDictionaryWriterTest
+{
+	private static final byte[] MAGIC = { (byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0 };
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException
+	{	dir = Files.createTempDirectory("npydict");
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	for (Path path : Files.newDirectoryStream(dir))
+			Files.delete(path);
+		Files.delete(dir);
+	}
+
+	/**
+	 * Checks the given file is a version 1.0 numpy file with the given header
+	 * dictionary, padded so the payload starts on a 64-byte boundary, and
+	 * returns the payload.
+	 */
+	private static ByteBuffer checkNpy (Path file, String expectedDict) throws IOException
+	{	ByteBuffer bytes = ByteBuffer.wrap (Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < MAGIC.length; i++)
+			assertEquals ("Byte " + i + " of the magic string", MAGIC[i], bytes.get(i));
+
+		int headerLength = bytes.getShort(MAGIC.length) & 0xFFFF;
+		int dataStart    = MAGIC.length + 2 + headerLength;
+		assertEquals (0, dataStart % 16);
+		assertEquals (0, dataStart % 64);
+
+		String header = new String (bytes.array(), MAGIC.length + 2, headerLength, StandardCharsets.US_ASCII);
+		assertTrue   (header.endsWith("\n"));
+		assertEquals (expectedDict, header.trim());
+
+		bytes.position (dataStart);
+		return bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Test
+	public void testWritesNumpyFiles() throws IOException
+	{	NumpyDictionaryWriter npy = new NumpyDictionaryWriter();
+		npy.addRange ("HASHTAG", 0, 2, 3);
+		npy.add ("#cat");
+		npy.add ("#été");
+		npy.addBlanks (1);
+		npy.addRange ("TOKEN", 3, 1, 1);
+		npy.add ("dog");
+		npy.write (dir, "words", 3, 4);
+
+		byte[] expectedStrings = "#cat#étédog".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer strings = checkNpy (dir.resolve("words" + NumpyDictionaryWriter.STRINGS_SUFFIX),
+			"{'descr': '|u1', 'fortran_order': False, 'shape': (" + expectedStrings.length + ",), }");
+		byte[] actualStrings = new byte[strings.remaining()];
+		strings.get (actualStrings);
+		assertTrue (Arrays.equals (expectedStrings, actualStrings));
+
+		ByteBuffer offsets = checkNpy (dir.resolve("words" + NumpyDictionaryWriter.OFFSETS_SUFFIX),
+			"{'descr': '<i8', 'fortran_order': False, 'shape': (5,), }");
+		assertEquals (5 * Long.BYTES, offsets.remaining());
+		long[] expectedOffsets = { 0, 4, 10, 10, 13 };
+		for (long expected : expectedOffsets)
+			assertEquals (expected, offsets.getLong());
+
+		String meta = new String (Files.readAllBytes(dir.resolve("words" + NumpyDictionaryWriter.RANGES_SUFFIX)), StandardCharsets.UTF_8).trim();
+		assertEquals ("{\"size\":3,\"capacity\":4,\"ranges\":["
+			+ "{\"type\":\"HASHTAG\",\"start\":0,\"size\":2,\"capacity\":3},"
+			+ "{\"type\":\"TOKEN\",\"start\":3,\"size\":1,\"capacity\":1}]}", meta);
+	}
+
+	@Test
+	public void testEmptyDictionary() throws IOException
+	{	new LookupDictionary(8).writeAsNumpyArrays (dir, "empty");
+
+		ByteBuffer strings = checkNpy (dir.resolve("empty" + NumpyDictionaryWriter.STRINGS_SUFFIX),
+			"{'descr': '|u1', 'fortran_order': False, 'shape': (0,), }");
+		assertEquals (0, strings.remaining());
+
+		ByteBuffer offsets = checkNpy (dir.resolve("empty" + NumpyDictionaryWriter.OFFSETS_SUFFIX),
+			"{'descr': '<i8', 'fortran_order': False, 'shape': (1,), }");
+		assertEquals (0L, offsets.getLong());
+		assertFalse  (offsets.hasRemaining());
+	}
+}
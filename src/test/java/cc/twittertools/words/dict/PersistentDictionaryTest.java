@@ -0,0 +1,115 @@
+package cc.twittertools.words.dict;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistentDictionaryTest
+{
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException
+	{	file = Files.createTempFile("dict", PersistentDictionary.FILE_SUFFIX);
+		Files.delete(file);
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{	Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testAddKeepsIds() throws IOException
+	{	PersistentDictionary dict = PersistentDictionary.open(file);
+		assertEquals (0, dict.size());
+
+		assertEquals (0, dict.add ("cat", 2));
+		assertEquals (1, dict.add ("dog", 1));
+		assertEquals (0, dict.add ("cat", 3));
+
+		assertEquals (2, dict.size());
+		assertEquals (5, dict.count(0));
+		assertEquals (1, dict.count(1));
+		assertEquals ("dog", dict.toWord(1));
+		assertEquals (1, dict.toInt("dog"));
+		assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt("fish"));
+
+		dict.setMinCount(2);
+		assertEquals (Dictionary.UNMAPPABLE_WORD, dict.toInt("dog"));
+		assertEquals (0, dict.toInt("cat"));
+	}
+
+	@Test
+	public void testAddGrowsPastInitialCapacity() throws IOException
+	{	PersistentDictionary dict = PersistentDictionary.open(file);
+		for (int i = 0; i < 3000; i++)
+			assertEquals (i, dict.add ("word" + i, i));
+		assertEquals (3000, dict.size());
+		assertEquals ("word2999", dict.toWord(2999));
+		assertEquals (2999, dict.count(2999));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testWordsWithTabsRejected() throws IOException
+	{	PersistentDictionary.open(file).add ("cat\tdog", 1);
+	}
+
+	@Test
+	public void testCloneIsIndependent() throws IOException
+	{	PersistentDictionary empty = PersistentDictionary.open(file);
+		PersistentDictionary emptyClone = empty.clone();
+		assertEquals (0, emptyClone.add ("cat", 1));
+		assertEquals (1, emptyClone.add ("dog", 1));
+		assertEquals (0, empty.size());
+
+		PersistentDictionary clone = emptyClone.clone();
+		assertEquals (2, clone.add ("fish", 4));
+		assertEquals (0, clone.add ("cat", 1));
+		assertEquals (3, clone.size());
+		assertEquals (2, clone.count(0));
+		assertEquals (2, emptyClone.size());
+		assertEquals (1, emptyClone.count(0));
+		assertFalse  (emptyClone.contains("fish"));
+	}
+
+	@Test
+	public void testSaveAndReopen() throws IOException
+	{	PersistentDictionary dict = PersistentDictionary.open(file);
+		dict.add ("cat", 2);
+		dict.add ("été", 7);
+		dict.add ("a b", 1);
+		dict.save();
+
+		PersistentDictionary reopened = PersistentDictionary.open(file);
+		assertEquals (3, reopened.size());
+		assertEquals ("cat", reopened.toWord(0));
+		assertEquals ("été", reopened.toWord(1));
+		assertEquals ("a b", reopened.toWord(2));
+		assertEquals (7, reopened.count(1));
+		assertEquals (2, reopened.toInt("a b"));
+		assertEquals (3, reopened.add ("dog", 1));
+	}
+
+	@Test
+	public void testCompactRenumbers() throws IOException
+	{	PersistentDictionary dict = PersistentDictionary.open(file);
+		dict.add ("cat",  5);
+		dict.add ("dog",  1);
+		dict.add ("fish", 3);
+
+		int[] remap = dict.compact(2);
+		assertArrayEquals (new int[] { 0, PersistentDictionary.REMOVED_WORD, 1 }, remap);
+		assertEquals (2, dict.size());
+		assertEquals ("fish", dict.toWord(1));
+		assertEquals (1, dict.toInt("fish"));
+		assertFalse  (dict.contains("dog"));
+		assertEquals (2, dict.add ("dog", 1));
+	}
+}